@@ -0,0 +1,141 @@
+package engineTester;
+
+import entities.Camera;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import org.lwjgl.util.vector.Vector4f;
+import renderEngine.MasterRenderer;
+import toolbox.BatchMaths;
+import toolbox.Maths;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * This class times working out the model view projection matrices and the world space bounding
+ * spheres of 10000 packed instances, without a display, one Matrix4f at a time and with
+ * BatchMaths, writing straight into an instance buffer. It checks both ways give the same
+ * numbers, and that the row layout holds the same matrices as the column one.
+ */
+public class BatchMathsBenchmark {
+
+    private static final int COUNT = 10000;
+    private static final int WARMUP_ROUNDS = 200;
+    private static final int ROUNDS = 500;
+    private static final float TOLERANCE = 1e-5f;
+
+    public static void main(String[] args) {
+        Random rand = new Random(42);
+        float[] instances = new float[COUNT * BatchMaths.INSTANCE_FLOATS];
+        float[] spheres = new float[COUNT * BatchMaths.SPHERE_FLOATS];
+        for (int n = 0; n < COUNT; n++) {
+            int i = n * BatchMaths.INSTANCE_FLOATS;
+            instances[i] = rand.nextFloat() * 800 - 400;
+            instances[i + 1] = rand.nextFloat() * 40;
+            instances[i + 2] = rand.nextFloat() * -800;
+            instances[i + 3] = rand.nextInt(4) == 0 ? rand.nextFloat() * 30 - 15 : 0;
+            instances[i + 4] = rand.nextFloat() * 360;
+            instances[i + 5] = 0;
+            instances[i + 6] = 0.5f + rand.nextFloat();
+            spheres[n * BatchMaths.SPHERE_FLOATS] = rand.nextFloat() - 0.5f;
+            spheres[n * BatchMaths.SPHERE_FLOATS + 1] = rand.nextFloat() * 3;
+            spheres[n * BatchMaths.SPHERE_FLOATS + 2] = rand.nextFloat() - 0.5f;
+            spheres[n * BatchMaths.SPHERE_FLOATS + 3] = 1 + rand.nextFloat() * 3;
+        }
+        Camera camera = new Camera(new Vector3f(0, 10, 0));
+        Matrix4f viewProjection = Maths.mulProjectionView(MasterRenderer.createProjectionMatrix(16 / 9f),
+                Maths.createViewMatrix(camera), new Matrix4f());
+
+        FloatBuffer oneAtATime = BufferUtils.createFloatBuffer(COUNT * BatchMaths.MATRIX_FLOATS);
+        FloatBuffer batched = BufferUtils.createFloatBuffer(COUNT * BatchMaths.MATRIX_FLOATS);
+        FloatBuffer rows = BufferUtils.createFloatBuffer(COUNT * BatchMaths.ROWS_FLOATS);
+        float[] oneAtATimeSpheres = new float[COUNT * BatchMaths.SPHERE_FLOATS];
+        float[] batchedSpheres = new float[COUNT * BatchMaths.SPHERE_FLOATS];
+        float[] models = new float[COUNT * BatchMaths.MATRIX_FLOATS];
+        Matrix4f model = new Matrix4f();
+        Matrix4f mvp = new Matrix4f();
+        Vector4f centre = new Vector4f();
+
+        long[] oneAtATimeTimes = new long[2];
+        long[] batchedTimes = new long[3];
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            boolean timed = round >= WARMUP_ROUNDS;
+            long start = System.nanoTime();
+            for (int n = 0; n < COUNT; n++) {
+                int i = n * BatchMaths.INSTANCE_FLOATS;
+                Maths.createTransformationMatrix(instances[i], instances[i + 1], instances[i + 2], instances[i + 3],
+                        instances[i + 4], instances[i + 5], instances[i + 6], model);
+                Matrix4f.mul(viewProjection, model, mvp);
+                Maths.storeMatrix(mvp, oneAtATime, n * BatchMaths.MATRIX_FLOATS);
+            }
+            long matrices = System.nanoTime();
+            for (int n = 0; n < COUNT; n++) {
+                int i = n * BatchMaths.INSTANCE_FLOATS;
+                int s = n * BatchMaths.SPHERE_FLOATS;
+                Maths.createTransformationMatrix(instances[i], instances[i + 1], instances[i + 2], instances[i + 3],
+                        instances[i + 4], instances[i + 5], instances[i + 6], model);
+                centre.set(spheres[s], spheres[s + 1], spheres[s + 2], 1);
+                Matrix4f.transform(model, centre, centre);
+                oneAtATimeSpheres[s] = centre.x;
+                oneAtATimeSpheres[s + 1] = centre.y;
+                oneAtATimeSpheres[s + 2] = centre.z;
+                oneAtATimeSpheres[s + 3] = spheres[s + 3] * instances[i + 6];
+            }
+            long sphereTime = System.nanoTime();
+            if (timed) {
+                oneAtATimeTimes[0] += matrices - start;
+                oneAtATimeTimes[1] += sphereTime - matrices;
+            }
+
+            start = System.nanoTime();
+            BatchMaths.compose(instances, 0, COUNT, models, 0);
+            long composed = System.nanoTime();
+            BatchMaths.multiply(viewProjection, models, 0, COUNT, batched, 0);
+            long multiplied = System.nanoTime();
+            BatchMaths.transformSpheres(models, 0, spheres, 0, COUNT, batchedSpheres, 0);
+            long transformed = System.nanoTime();
+            if (timed) {
+                batchedTimes[0] += composed - start;
+                batchedTimes[1] += multiplied - composed;
+                batchedTimes[2] += transformed - multiplied;
+            }
+        }
+
+        float matrixError = 0;
+        for (int f = 0; f < COUNT * BatchMaths.MATRIX_FLOATS; f++) {
+            matrixError = Math.max(matrixError, Math.abs(oneAtATime.get(f) - batched.get(f))
+                    / Math.max(1, Math.abs(oneAtATime.get(f))));
+        }
+        float sphereError = 0;
+        for (int f = 0; f < COUNT * BatchMaths.SPHERE_FLOATS; f++) {
+            sphereError = Math.max(sphereError, Math.abs(oneAtATimeSpheres[f] - batchedSpheres[f])
+                    / Math.max(1, Math.abs(oneAtATimeSpheres[f])));
+        }
+        float[] transposed = new float[COUNT * BatchMaths.MATRIX_FLOATS];
+        BatchMaths.transpose(models, 0, COUNT, transposed, 0);
+        BatchMaths.storeRows(models, 0, COUNT, rows, 0);
+        int layoutMismatches = 0;
+        for (int n = 0; n < COUNT; n++) {
+            for (int f = 0; f < BatchMaths.ROWS_FLOATS; f++) {
+                if (rows.get(n * BatchMaths.ROWS_FLOATS + f) != transposed[n * BatchMaths.MATRIX_FLOATS + f]) {
+                    layoutMismatches++;
+                }
+            }
+        }
+        System.out.println(String.format("Largest relative differences: model view projection %.2e, spheres %.2e. "
+                + "%d floats of the row layout differ from the transposed matrices.", matrixError, sphereError,
+                layoutMismatches));
+        if (matrixError > TOLERANCE || sphereError > TOLERANCE || layoutMismatches > 0) {
+            throw new RuntimeException("The batched results differ from the ones worked out one at a time!");
+        }
+
+        double scale = 1000000.0 * ROUNDS;
+        System.out.println(String.format("%d instances. Model view projection matrices into the instance buffer: "
+                        + "%.3f ms one at a time, %.3f ms batched (%.3f composing, %.3f multiplying)", COUNT,
+                oneAtATimeTimes[0] / scale, (batchedTimes[0] + batchedTimes[1]) / scale, batchedTimes[0] / scale,
+                batchedTimes[1] / scale));
+        System.out.println(String.format("World space spheres: %.3f ms one at a time (building the matrices again), "
+                + "%.3f ms batched from the composed ones", oneAtATimeTimes[1] / scale, batchedTimes[2] / scale));
+    }
+}
@@ -0,0 +1,56 @@
+package engineTester;
+
+import entities.Camera;
+import entities.Light;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import renderEngine.ClusteredLightAssigner;
+import renderEngine.MasterRenderer;
+import toolbox.Maths;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class times the CPU side of clustered lighting: assigning 1000 point lights to the
+ * cluster grid. It doesn't open a display, so it runs on machines without a graphics card.
+ */
+public class ClusteredLightingBenchmark {
+
+    private static final int LIGHT_COUNT = 1000;
+    private static final int WARMUP_FRAMES = 200;
+    private static final int FRAMES = 1000;
+
+    public static void main(String[] args) {
+        Matrix4f projectionMatrix = MasterRenderer.createProjectionMatrix(1280f / 720f);
+        ClusteredLightAssigner assigner = new ClusteredLightAssigner(16, 9, 24, projectionMatrix,
+                MasterRenderer.getNearPlane(), MasterRenderer.getFarPlane());
+
+        // Lights scattered over the same area as the trees in MainGameLoop.
+        List<Light> lights = new ArrayList<Light>();
+        Random rand = new Random(42);
+        for (int i = 0; i < LIGHT_COUNT; i++) {
+            lights.add(new Light(new Vector3f(rand.nextFloat() * 800 - 400, rand.nextFloat() * 10,
+                    rand.nextFloat() * -600), new Vector3f(1, 0.8f, 0.5f), 5 + rand.nextFloat() * 25));
+        }
+        Camera camera = new Camera(new Vector3f(0, 4.5f, 0));
+
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            assigner.assignLights(lights, Maths.createViewMatrix(camera));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            // The camera walks forward like it does when W is held down.
+            camera.getPosition().z -= 0.1f;
+            assigner.assignLights(lights, Maths.createViewMatrix(camera));
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println(LIGHT_COUNT + " lights, " + assigner.getClusterCount() + " clusters, "
+                + Runtime.getRuntime().availableProcessors() + " threads");
+        System.out.println("Average assignment time: " + (elapsed / FRAMES / 1000) + " us per frame");
+        System.out.println("Light indices in the last frame: " + assigner.getLightIndexCount()
+                + " (" + assigner.getOverflowCount() + " dropped)");
+    }
+}
@@ -0,0 +1,114 @@
+package engineTester;
+
+import entities.Entity;
+import models.RawModel;
+import models.TexturedModel;
+import org.lwjgl.util.vector.Vector3f;
+import renderEngine.DrawCommandBuffer;
+import renderEngine.DrawCommandRecorder;
+import renderEngine.MasterRenderer;
+import terrains.Terrain;
+import textures.ModelTexture;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This class times recording and sorting the draw commands for a scene of 100000 entities
+ * with 1, 2, 4... threads, up to the number of cores. It doesn't open a display, so the
+ * models are just made up VAO and texture IDs. First it checks that models with a single entity
+ * each, like vegetation chunks and static batches, come out front to back in every pass.
+ */
+public class DrawCommandBenchmark {
+
+    private static final int ENTITY_COUNT = 100000;
+    private static final int MODEL_COUNT = 20;
+    private static final int WARMUP_FRAMES = 50;
+    private static final int FRAMES = 200;
+    private static final int CHUNK_COUNT = 500;
+
+    public static void main(String[] args) throws Exception {
+        Map<TexturedModel, List<Entity>> entities = new HashMap<TexturedModel, List<Entity>>();
+        List<TexturedModel> models = new ArrayList<TexturedModel>();
+        for (int i = 0; i < MODEL_COUNT; i++) {
+            TexturedModel model = new TexturedModel(new RawModel(i + 1, 300), new ModelTexture(i + 1));
+            model.getTexture().setHasTransparency(i % 3 == 0);
+            models.add(model);
+            entities.put(model, new ArrayList<Entity>());
+        }
+        Random rand = new Random(42);
+        for (int i = 0; i < ENTITY_COUNT; i++) {
+            TexturedModel model = models.get(rand.nextInt(MODEL_COUNT));
+            entities.get(model).add(new Entity(model, new Vector3f(rand.nextFloat() * 800 - 400, 0,
+                    rand.nextFloat() * -600), 0, rand.nextFloat() * 360, 0, 1));
+        }
+        final List<Terrain> terrains = Collections.emptyList();
+        final Vector3f camera = new Vector3f(0, 4.5f, 0);
+        checkChunkOrder(rand, terrains, camera);
+
+        System.out.println(ENTITY_COUNT + " entities, " + MODEL_COUNT + " models");
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            final DrawCommandRecorder recorder = new DrawCommandRecorder();
+            final DrawCommandBuffer buffer = new DrawCommandBuffer(ENTITY_COUNT);
+            // Parallel streams run in the pool of the thread that starts them.
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long total = pool.submit(() -> {
+                for (int i = 0; i < WARMUP_FRAMES; i++) {
+                    recorder.record(entities, terrains, camera, MasterRenderer.getFarPlane(), buffer);
+                }
+                long sum = 0;
+                for (int i = 0; i < FRAMES; i++) {
+                    recorder.record(entities, terrains, camera, MasterRenderer.getFarPlane(), buffer);
+                    sum += recorder.getLastRecordTime();
+                }
+                return sum;
+            }).get();
+            pool.shutdown();
+            System.out.println(threads + " threads: " + (total / FRAMES / 1000) + " us per frame");
+        }
+    }
+
+    /**
+     * This method records a scene where every entity has a model of its own, and fails if the
+     * commands of any pass and shader aren't drawn nearest first.
+     */
+    private static void checkChunkOrder(Random rand, List<Terrain> terrains, Vector3f camera) {
+        Map<TexturedModel, List<Entity>> chunks = new HashMap<TexturedModel, List<Entity>>();
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            TexturedModel model = new TexturedModel(new RawModel(i + 1, 300), new ModelTexture(i + 1));
+            model.getTexture().setHasTransparency(i % 2 == 0);
+            chunks.put(model, Collections.singletonList(new Entity(model, new Vector3f(rand.nextFloat() * 800 - 400,
+                    0, rand.nextFloat() * -600), 0, 0, 0, 1)));
+        }
+        DrawCommandBuffer buffer = new DrawCommandBuffer(CHUNK_COUNT);
+        new DrawCommandRecorder().record(chunks, terrains, camera, MasterRenderer.getFarPlane(), buffer);
+        int alphaTestedStart = buffer.getPassStart(DrawCommandBuffer.PASS_ALPHA_TESTED);
+        int outOfOrder = 0;
+        float previous = 0;
+        for (int position = 0; position < buffer.getCount(); position++) {
+            FloatBuffer matrix = buffer.getMatrix(buffer.getCommandIndex(position));
+            float dx = matrix.get(matrix.position() + 12) - camera.x;
+            float dy = matrix.get(matrix.position() + 13) - camera.y;
+            float dz = matrix.get(matrix.position() + 14) - camera.z;
+            float distance = dx * dx + dy * dy + dz * dz;
+            boolean groupStart = position == 0 || position == alphaTestedStart
+                    || buffer.getShader(position) != buffer.getShader(position - 1);
+            if (!groupStart && distance < previous) {
+                outOfOrder++;
+            }
+            previous = distance;
+        }
+        System.out.println(String.format("%d models with one entity each: %d drawn after a further one in their pass.",
+                CHUNK_COUNT, outOfOrder));
+        if (outOfOrder > 0) {
+            throw new RuntimeException("Models with one entity each aren't drawn front to back!");
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package engineTester;
+
+import entities.Camera;
+import entities.Entity;
+import entities.EntityStore;
+import jobs.JobSystem;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import renderEngine.MasterRenderer;
+import toolbox.BoundingBox;
+import toolbox.Frustum;
+import toolbox.Maths;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class times the per frame work on 100000 entities, without a display, done one entity at
+ * a time through the Entity methods and in bulk by the EntityStore they are kept in: rebuilding
+ * the matrices of the tenth of them that turn every frame, culling them against the frustum, and
+ * writing the matrices of the visible ones into an instance buffer. It checks both ways give the
+ * same visible entities and the same buffer.
+ */
+public class EntityStoreBenchmark {
+
+    private static final int ENTITY_COUNT = 100000;
+    private static final int WARMUP_FRAMES = 30;
+    private static final int FRAMES = 100;
+    // The radius the entities are culled with, since they have no models.
+    private static final float RADIUS = 2;
+
+    public static void main(String[] args) {
+        EntityStore store = new EntityStore();
+        List<Entity> entities = new ArrayList<Entity>();
+        Random rand = new Random(42);
+        for (int i = 0; i < ENTITY_COUNT; i++) {
+            Entity entity = new Entity(store, null, new Vector3f(rand.nextFloat() * 800 - 400, rand.nextFloat() * 20,
+                    rand.nextFloat() * -800), 0, rand.nextFloat() * 360, 0, 0.5f + rand.nextFloat());
+            BoundingBox bounds = new BoundingBox();
+            Vector3f position = entity.getPosition(new Vector3f());
+            bounds.include(position.x - RADIUS, position.y - RADIUS, position.z - RADIUS);
+            bounds.include(position.x + RADIUS, position.y + RADIUS, position.z + RADIUS);
+            entity.setBounds(bounds);
+            entities.add(entity);
+        }
+        Camera camera = new Camera(new Vector3f(0, 10, 0));
+        Frustum frustum = new Frustum();
+        frustum.update(MasterRenderer.createProjectionMatrix(16 / 9f), Maths.createViewMatrix(camera));
+
+        JobSystem jobs = new JobSystem(Runtime.getRuntime().availableProcessors());
+        int[] visible = new int[ENTITY_COUNT];
+        List<Entity> visibleEntities = new ArrayList<Entity>();
+        FloatBuffer oneAtATime = BufferUtils.createFloatBuffer(ENTITY_COUNT * 16);
+        FloatBuffer bulk = BufferUtils.createFloatBuffer(ENTITY_COUNT * 16);
+        BoundingBox box = new BoundingBox();
+        long[] entityTimes = new long[3];
+        long[] storeTimes = new long[3];
+        int mismatches = 0;
+        for (int frame = 0; frame < WARMUP_FRAMES + FRAMES; frame++) {
+            boolean timed = frame >= WARMUP_FRAMES;
+            for (int i = 0; i < ENTITY_COUNT; i += 10) {
+                entities.get(i).increaseRotation(0, 1, 0);
+            }
+
+            // One entity at a time.
+            long start = System.nanoTime();
+            for (Entity entity : entities) {
+                entity.getTransformationMatrix();
+            }
+            long transformed = System.nanoTime();
+            visibleEntities.clear();
+            for (Entity entity : entities) {
+                if (entity.getWorldBounds(box) && frustum.isVisible(box)) {
+                    visibleEntities.add(entity);
+                }
+            }
+            long culled = System.nanoTime();
+            for (int k = 0; k < visibleEntities.size(); k++) {
+                Maths.storeMatrix(visibleEntities.get(k).getTransformationMatrix(), oneAtATime, k * 16);
+            }
+            long filled = System.nanoTime();
+            if (timed) {
+                entityTimes[0] += transformed - start;
+                entityTimes[1] += culled - transformed;
+                entityTimes[2] += filled - culled;
+            }
+
+            // In bulk. The one at a time pass has already rebuilt this frame's matrices, so they
+            // are marked as changed again to give the store the same work.
+            for (int i = 0; i < ENTITY_COUNT; i += 10) {
+                entities.get(i).increaseRotation(0, 0, 0);
+            }
+            start = System.nanoTime();
+            store.updateTransformations(jobs);
+            transformed = System.nanoTime();
+            int visibleCount = store.cull(frustum, visible, jobs);
+            culled = System.nanoTime();
+            store.fillInstanceBuffer(visible, visibleCount, bulk, jobs);
+            filled = System.nanoTime();
+            if (timed) {
+                storeTimes[0] += transformed - start;
+                storeTimes[1] += culled - transformed;
+                storeTimes[2] += filled - culled;
+            }
+
+            if (visibleCount != visibleEntities.size()) {
+                mismatches++;
+                continue;
+            }
+            for (int k = 0; k < visibleCount; k++) {
+                if (store.getEntity(visible[k]) != visibleEntities.get(k)) {
+                    mismatches++;
+                    break;
+                }
+            }
+            for (int f = 0; f < visibleCount * 16; f++) {
+                if (oneAtATime.get(f) != bulk.get(f)) {
+                    mismatches++;
+                    break;
+                }
+            }
+            if (frame == WARMUP_FRAMES + FRAMES - 1) {
+                System.out.println(String.format("%d entities in %d pages, %d visible, %d matrices rebuilt a frame, "
+                                + "%d threads", store.getCount(), store.getCapacity() / EntityStore.PAGE_SIZE,
+                        visibleCount, store.getLastRebuildCount(), jobs.getThreadCount()));
+            }
+        }
+        jobs.shutdown();
+
+        String[] names = {"transform rebuild", "culling", "instance buffer fill"};
+        for (int i = 0; i < names.length; i++) {
+            System.out.println(String.format("%s: %.2f ms a frame one entity at a time, %.2f ms in bulk", names[i],
+                    entityTimes[i] / 1000000.0 / FRAMES, storeTimes[i] / 1000000.0 / FRAMES));
+        }
+        System.out.println(mismatches + " frames where the two ways disagreed");
+        Matrix4f check = entities.get(10).getTransformationMatrix();
+        System.out.println(String.format("Entity 10 turned to %.0f degrees, matrix m00 %.4f (%.4f expected)",
+                entities.get(10).getRotY(), check.m00, (float) Math.cos(Math.toRadians(entities.get(10).getRotY()))
+                        * entities.get(10).getScale()));
+    }
+}
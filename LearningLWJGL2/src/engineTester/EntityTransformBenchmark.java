@@ -0,0 +1,75 @@
+package engineTester;
+
+import entities.Entity;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import toolbox.Maths;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class times getting the transformation matrices of 100000 entities every frame, the way
+ * the renderers do, without a display. It compares building every matrix every frame with
+ * Maths.createTransformationMatrix() to the matrices the entities keep, in a scene where nothing
+ * moves, one where a tenth of the entities turn every frame, and one where all of them do.
+ */
+public class EntityTransformBenchmark {
+
+    private static final int ENTITY_COUNT = 100000;
+    private static final int WARMUP_FRAMES = 50;
+    private static final int FRAMES = 200;
+
+    public static void main(String[] args) {
+        List<Entity> entities = new ArrayList<Entity>();
+        Random rand = new Random(42);
+        for (int i = 0; i < ENTITY_COUNT; i++) {
+            entities.add(new Entity(null, new Vector3f(rand.nextFloat() * 800 - 400, 0, rand.nextFloat() * -600),
+                    0, rand.nextFloat() * 360, 0, 0.5f + rand.nextFloat()));
+        }
+
+        Vector3f position = new Vector3f();
+        System.out.println(ENTITY_COUNT + " entities");
+        for (int moving : new int[]{0, ENTITY_COUNT / 10, ENTITY_COUNT}) {
+            float sum = 0;
+            long rebuildTime = 0;
+            long cachedTime = 0;
+            int buildsBefore = 0;
+            for (int frame = 0; frame < WARMUP_FRAMES + FRAMES; frame++) {
+                if (frame == WARMUP_FRAMES) {
+                    buildsBefore = countBuilds(entities);
+                }
+                for (int i = 0; i < moving; i++) {
+                    entities.get(i).increaseRotation(0, 1, 0);
+                }
+                long start = System.nanoTime();
+                for (Entity entity : entities) {
+                    Matrix4f matrix = Maths.createTransformationMatrix(entity.getPosition(position), entity.getRotX(),
+                            entity.getRotY(), entity.getRotZ(), entity.getScale());
+                    sum += matrix.m30;
+                }
+                long middle = System.nanoTime();
+                for (Entity entity : entities) {
+                    sum += entity.getTransformationMatrix().m30;
+                }
+                if (frame >= WARMUP_FRAMES) {
+                    rebuildTime += middle - start;
+                    cachedTime += System.nanoTime() - middle;
+                }
+            }
+            System.out.println(String.format("%d moving: rebuilding every matrix takes %.2f ms a frame, the kept "
+                            + "matrices %.2f ms, with %.0f rebuilt a frame (%.0f)", moving,
+                    rebuildTime / 1000000.0 / FRAMES, cachedTime / 1000000.0 / FRAMES,
+                    (countBuilds(entities) - buildsBefore) / (double) FRAMES, sum));
+        }
+    }
+
+    private static int countBuilds(List<Entity> entities) {
+        int builds = 0;
+        for (Entity entity : entities) {
+            builds += entity.getTransformationBuilds();
+        }
+        return builds;
+    }
+}
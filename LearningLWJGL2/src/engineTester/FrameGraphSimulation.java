@@ -0,0 +1,90 @@
+package engineTester;
+
+import frameGraph.FrameGraph;
+import frameGraph.RenderTarget;
+import frameGraph.RenderTargetAllocator;
+import frameGraph.RenderTargetDescription;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class builds the frame graph of a fuller renderer than the one the game has, with a
+ * shadow map, a reflection, bloom and a debug view nobody looks at, and prints how it compiles.
+ * The render targets come from a made up allocator, so it doesn't open a display. The compiled
+ * graph is then executed again, the way the renderer runs it every frame, and it fails if that
+ * doesn't take the same targets and give every one of them back.
+ */
+public class FrameGraphSimulation {
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    public static void main(String[] args) {
+        FrameGraph graph = new FrameGraph();
+        RenderTargetDescription half = new RenderTargetDescription(WIDTH / 2, HEIGHT / 2,
+                RenderTargetDescription.RGBA16F);
+        FrameGraph.Resource screen = graph.importTarget("screen", null);
+        FrameGraph.Resource shadowMap = graph.createTarget("shadow map",
+                new RenderTargetDescription(2048, 2048, RenderTargetDescription.DEPTH24));
+        FrameGraph.Resource reflection = graph.createTarget("reflection", half);
+        FrameGraph.Resource sceneColour = graph.createTarget("scene colour",
+                new RenderTargetDescription(WIDTH, HEIGHT, RenderTargetDescription.RGBA16F));
+        FrameGraph.Resource sceneDepth = graph.createTarget("scene depth",
+                new RenderTargetDescription(WIDTH, HEIGHT, RenderTargetDescription.DEPTH24));
+        FrameGraph.Resource bright = graph.createTarget("bloom bright", half);
+        FrameGraph.Resource blurred = graph.createTarget("bloom blurred", half);
+        FrameGraph.Resource debugView = graph.createTarget("debug view",
+                new RenderTargetDescription(WIDTH, HEIGHT, RenderTargetDescription.RGBA8));
+
+        graph.addPass("shadows", g -> {}).writes(shadowMap);
+        graph.addPass("reflection", g -> {}).reads(shadowMap).writes(reflection);
+        graph.addPass("scene", g -> {}).reads(shadowMap, reflection).writes(sceneColour, sceneDepth);
+        graph.addPass("debug view", g -> {}).reads(sceneDepth).writes(debugView);
+        graph.addPass("bloom bright", g -> {}).reads(sceneColour).writes(bright);
+        graph.addPass("bloom blur", g -> {}).reads(bright).writes(blurred);
+        graph.addPass("tone map", g -> {}).reads(sceneColour, blurred).writes(screen);
+
+        long start = System.nanoTime();
+        graph.compile();
+        System.out.println(String.format("Compiled in %.3f ms.", (System.nanoTime() - start) / 1000000.0));
+        System.out.println(graph.getReport());
+
+        CountingAllocator allocator = new CountingAllocator();
+        graph.execute(allocator);
+        System.out.println(String.format("Executing took %d targets from the allocator, at most %d at once.",
+                allocator.acquired, allocator.mostInUse));
+
+        int firstFrame = allocator.acquired;
+        graph.execute(allocator);
+        System.out.println(String.format("Executing it again, without compiling, took %d more and left %d in use.",
+                allocator.acquired - firstFrame, allocator.inUse.size()));
+        if (allocator.acquired != 2 * firstFrame || !allocator.inUse.isEmpty()) {
+            throw new RuntimeException("Executing the compiled graph again didn't use the same targets!");
+        }
+    }
+
+    /**
+     * This class hands out made up render targets and counts them.
+     */
+    private static class CountingAllocator implements RenderTargetAllocator {
+
+        private final List<RenderTarget> inUse = new ArrayList<RenderTarget>();
+        private int acquired = 0;
+        private int mostInUse = 0;
+
+        @Override
+        public RenderTarget acquire(RenderTargetDescription description) {
+            acquired++;
+            RenderTarget target = new RenderTarget(acquired, acquired, description);
+            inUse.add(target);
+            mostInUse = Math.max(mostInUse, inUse.size());
+            return target;
+        }
+
+        @Override
+        public void release(RenderTarget target) {
+            inUse.remove(target);
+        }
+    }
+}
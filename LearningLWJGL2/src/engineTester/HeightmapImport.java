@@ -0,0 +1,150 @@
+package engineTester;
+
+import terrains.HeightmapFile;
+import terrains.HeightmapImporter;
+import terrains.HeightmapTerrainSource;
+import terrains.Terrain;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * This class imports a heightmap into a heightmap file (see HeightmapFile), without a display.
+ *
+ * Usage: HeightmapImport input.png output minHeight maxHeight
+ *    or: HeightmapImport input.raw output minHeight maxHeight width depth
+ *
+ * Raw heightmaps are read as little endian 16 bit samples. With no arguments it makes up a raw
+ * heightmap in the temporary folder, imports it, and checks the file against it.
+ */
+public class HeightmapImport {
+
+    // The made up map's size in samples, and the heights its samples stand for.
+    private static final int TEST_WIDTH = 2049;
+    private static final int TEST_DEPTH = 1537;
+    private static final float TEST_MIN_HEIGHT = -40;
+    private static final float TEST_MAX_HEIGHT = 120;
+    private static final int CHECKED_SAMPLES = 100000;
+
+    public static void main(String[] args) throws IOException {
+        float spacing = Terrain.getSize() / (Terrain.getVertexCount() - 1);
+        if (args.length >= 4) {
+            File input = new File(args[0]);
+            File output = new File(args[1]);
+            float minHeight = Float.parseFloat(args[2]);
+            float maxHeight = Float.parseFloat(args[3]);
+            long start = System.nanoTime();
+            if (args.length >= 6) {
+                HeightmapImporter.importRaw(input, Integer.parseInt(args[4]), Integer.parseInt(args[5]),
+                        ByteOrder.LITTLE_ENDIAN, minHeight, maxHeight, spacing, Terrain.getVertexCount(), output);
+            } else {
+                HeightmapImporter.importPng(input, minHeight, maxHeight, spacing, Terrain.getVertexCount(), output);
+            }
+            printSummary(output, System.nanoTime() - start);
+            return;
+        }
+
+        File raw = File.createTempFile("heightmap", ".raw");
+        File output = File.createTempFile("heightmap", ".hmap");
+        raw.deleteOnExit();
+        output.deleteOnExit();
+        writeTestRaw(raw);
+        long start = System.nanoTime();
+        HeightmapImporter.importRaw(raw, TEST_WIDTH, TEST_DEPTH, ByteOrder.LITTLE_ENDIAN, TEST_MIN_HEIGHT,
+                TEST_MAX_HEIGHT, spacing, Terrain.getVertexCount(), output);
+        printSummary(output, System.nanoTime() - start);
+        checkAgainstRaw(raw, output);
+    }
+
+    private static void printSummary(File output, long importTime) throws IOException {
+        HeightmapFile file = new HeightmapFile(output);
+        System.out.println(String.format("Imported %d x %d samples into %s in %.1f ms, %.1f MB.", file.getSamplesX(),
+                file.getSamplesZ(), output, importTime / 1000000.0, output.length() / 1048576.0));
+        for (int level = 0; level < file.getLevels(); level++) {
+            System.out.println(String.format("  Level %d: %d x %d tiles, the first %.1f to %.1f high.", level,
+                    file.getTilesX(level), file.getTilesZ(level), file.getTileMinHeight(level, 0, 0),
+                    file.getTileMaxHeight(level, 0, 0)));
+        }
+        file.close();
+    }
+
+    /**
+     * This method writes made up hills as a little endian raw heightmap.
+     */
+    private static void writeTestRaw(File raw) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(raw, "rw")) {
+            file.setLength((long) TEST_WIDTH * TEST_DEPTH * 2);
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            for (int z = 0; z < TEST_DEPTH; z++) {
+                for (int x = 0; x < TEST_WIDTH; x++) {
+                    double height = 0.5 + 0.3 * Math.sin(x / 97.0) * Math.cos(z / 131.0) + 0.2 * Math.sin((x + z) / 23.0);
+                    buffer.putShort((short) (int) Math.round(Math.max(0, Math.min(1, height)) * 65535));
+                }
+            }
+            buffer.force();
+        }
+    }
+
+    /**
+     * This method checks random samples of the file against the raw heightmap, checks that the
+     * tiles share their edges, and builds a few terrains from the file.
+     */
+    private static void checkAgainstRaw(File raw, File output) throws IOException {
+        HeightmapFile file = new HeightmapFile(output);
+        int quads = file.getTileSamples() - 1;
+        int mismatches = 0;
+        try (RandomAccessFile input = new RandomAccessFile(raw, "r")) {
+            ShortBuffer rawSamples = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length())
+                    .order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+            Random random = new Random(1);
+            for (int i = 0; i < CHECKED_SAMPLES; i++) {
+                int x = random.nextInt(TEST_WIDTH);
+                int z = random.nextInt(TEST_DEPTH);
+                int tileX = Math.min(x / quads, file.getTilesX(0) - 1);
+                int tileZ = Math.min(z / quads, file.getTilesZ(0) - 1);
+                short sample = file.getTileSamples(0, tileX, tileZ).get((z - tileZ * quads) * file.getTileSamples()
+                        + (x - tileX * quads));
+                if (sample != rawSamples.get(z * TEST_WIDTH + x)) {
+                    mismatches++;
+                }
+            }
+        }
+
+        int openEdges = 0;
+        for (int level = 0; level < file.getLevels(); level++) {
+            for (int tileZ = 0; tileZ < file.getTilesZ(level); tileZ++) {
+                for (int tileX = 0; tileX + 1 < file.getTilesX(level); tileX++) {
+                    ShortBuffer left = file.getTileSamples(level, tileX, tileZ);
+                    ShortBuffer right = file.getTileSamples(level, tileX + 1, tileZ);
+                    for (int row = 0; row <= quads; row++) {
+                        if (left.get(row * (quads + 1) + quads) != right.get(row * (quads + 1))) {
+                            openEdges++;
+                        }
+                    }
+                }
+            }
+        }
+
+        HeightmapTerrainSource source = new HeightmapTerrainSource(file, 0, 0);
+        Terrain terrain = source.createTerrain(3, 2, null);
+        float[] heights = source.getHeights(3, 2);
+        float largestError = 0;
+        for (int gz = 0; gz <= quads; gz++) {
+            for (int gx = 0; gx <= quads; gx++) {
+                largestError = Math.max(largestError,
+                        Math.abs(terrain.getSampleHeight(gx, gz) - heights[gz * (quads + 1) + gx]));
+            }
+        }
+        System.out.println(String.format("%d of %d random samples differ from the raw heightmap, %d edge samples "
+                        + "differ between neighbouring tiles, and a terrain made from the file is within %.5f of its heights.",
+                mismatches, CHECKED_SAMPLES, openEdges, largestError));
+        file.close();
+    }
+}
@@ -2,28 +2,83 @@ package engineTester;
 
 import entities.Camera;
 import entities.Entity;
+import entities.EntityStore;
 import entities.Light;
+import jobs.JobSystem;
+import jobs.TaskGraph;
 import models.TexturedModel;
 import objConverter.ModelData;
 import objConverter.OBJFileLoader;
-import objConverter.OBJLoader;
+import org.lwjgl.input.Keyboard;
 import org.lwjgl.opengl.Display;
 import org.lwjgl.util.vector.Vector3f;
 import renderEngine.*;
 import models.RawModel;
+import simulation.SceneSnapshot;
+import simulation.SimulationThread;
+import simulation.SnapshotStats;
+import terrains.GLTerrainTileUploader;
+import terrains.HeightmapFile;
+import terrains.HeightmapTerrainSource;
+import terrains.ProceduralTerrainSource;
 import terrains.Terrain;
+import terrains.TerrainLookup;
+import terrains.TerrainSource;
+import terrains.TerrainTileManager;
 import textures.ModelTexture;
+import vegetation.ScatterRule;
+import vegetation.VegetationScatter;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 
 /**
  * This class contains the main method and is used to test the engine.
  */
 public class MainGameLoop {
 
-    public static void main(String[] args) {
+    // The vegetation is scattered in chunks this big, this many chunks out from the camera's,
+    // and at most this many chunks are uploaded each frame (see VegetationScatter).
+    private static final long VEGETATION_SEED = 42;
+    private static final float VEGETATION_CHUNK_SIZE = 100;
+    private static final int VEGETATION_RADIUS = 5;
+    private static final int VEGETATION_UPLOADS_PER_FRAME = 2;
+    private static final int VEGETATION_THREADS = 2;
+    // Entities this close to the edge of the view are re-tested every frame, and the rest
+    // are only re-tested in a full update, at least every this many frames.
+    private static final float VISIBILITY_MARGIN = 20;
+    private static final int FRAMES_BETWEEN_FULL_VISIBILITY_UPDATES = 60;
+    // The resolution drops to as low as half the window's when the frames take too long.
+    private static final float MIN_RESOLUTION_SCALE = 0.5f;
+
+    // Pressing this key turns the depth prepass on or off, to compare the passes' counts and the
+    // frame times with and without it. Passing "prepass" on the command line starts with it on.
+    private static final int DEPTH_PREPASS_KEY = Keyboard.KEY_P;
+    private static final String DEPTH_PREPASS_ARGUMENT = "prepass";
+    // The simulation runs on its own thread in fixed ticks, this many a second whatever the
+    // frame rate, and runs no more than MAX_TICKS_PER_UPDATE at once to catch up.
+    private static final int SIMULATION_TICK_RATE = 60;
+    private static final int MAX_TICKS_PER_UPDATE = 5;
+    // A row of trees that turn, so the simulation moves something besides the camera.
+    private static final int SPINNING_TREES = 10;
+    private static final float SPIN_SPEED = 45;
+    // The terrain tiles are streamed in around the camera, this many tiles out from its tile, and
+    // kept in video memory after they leave the ring for as long as the budget allows.
+    private static final int TERRAIN_RING_RADIUS = 2;
+    private static final long TERRAIN_MEMORY_BUDGET = 2 * 1024 * 1024;
+    private static final int TERRAIN_UPLOADS_PER_FRAME = 2;
+    private static final int TERRAIN_GENERATOR_THREADS = 2;
+    // If this file exists (see HeightmapImport), the terrain comes from it, centred on the start.
+    private static final String HEIGHTMAP_FILE = "res/terrain.hmap";
+    // Otherwise it is made up from noise with these settings (see ProceduralTerrainSource).
+    private static final long TERRAIN_SEED = 1234;
+    private static final int TERRAIN_OCTAVES = 6;
+    private static final float TERRAIN_WAVELENGTH = 800;
+    private static final float TERRAIN_AMPLITUDE = 40;
+
+    public static void main(String[] args) throws IOException {
 
         /**
          * Creating our display, loader, shader, and renderer.
@@ -31,59 +86,256 @@ public class MainGameLoop {
         DisplayManager.createDisplay();
         Loader loader = new Loader();
 
-        ModelData data = OBJFileLoader.loadOBJ("lowPolyTree");
-        RawModel treeModel = loader.loadToVAO(data.getVertices(), data.getTextureCoords(), data.getNormals(), data.getIndices());
-
-        TexturedModel tree = new TexturedModel(OBJLoader.loadObjModel("lowPolyTree", loader),
-                new ModelTexture(loader.loadTexture("lowPolyTree")));
-        TexturedModel grass = new TexturedModel(OBJLoader.loadObjModel("grassModel", loader),
-                new ModelTexture(loader.loadTexture("grassTexture")));
+        // The model data is kept with each model so that the vegetation can be batched.
+        ModelData treeData = OBJFileLoader.loadOBJ("lowPolyTree");
+        TexturedModel tree = new TexturedModel(loadModel(treeData, loader),
+                new ModelTexture(loader.loadTexture("lowPolyTree")), treeData);
+        ModelData grassData = OBJFileLoader.loadOBJ("grassModel");
+        TexturedModel grass = new TexturedModel(loadModel(grassData, loader),
+                new ModelTexture(loader.loadTexture("grassTexture")), grassData);
         grass.getTexture().setHasTransparency(true);
         grass.getTexture().setUseFakeLighting(true);
-        TexturedModel fern = new TexturedModel(OBJLoader.loadObjModel("fern", loader),
-                new ModelTexture(loader.loadTexture("fern")));
+        ModelData fernData = OBJFileLoader.loadOBJ("fern");
+        TexturedModel fern = new TexturedModel(loadModel(fernData, loader),
+                new ModelTexture(loader.loadTexture("fern")), fernData);
         fern.getTexture().setHasTransparency(true);
         fern.getTexture().setUseFakeLighting(true);
 
-        List<Entity> entities = new ArrayList<Entity>();
-        Random rand = new Random();
-        for (int i = 0; i < 500; i++){
-            entities.add(new Entity(tree, new Vector3f(rand.nextFloat()*800 - 400, 0,
-                    rand.nextFloat() * -600), 0, 0, 0, 0.75f));
-            entities.add(new Entity(grass, new Vector3f(rand.nextFloat()*800 - 400, 0,
-                    rand.nextFloat() * -600), 0, 0, 0, 1));
-            entities.add(new Entity(fern, new Vector3f(rand.nextFloat()*800 - 400, 0,
-                    rand.nextFloat() * -600), 0, 0, 0, 0.6f));
+        // Without a heightmap the hills are made up from noise, the same every launch.
+        HeightmapFile heightmap = null;
+        TerrainSource terrainSource = new ProceduralTerrainSource(TERRAIN_SEED, TERRAIN_OCTAVES, TERRAIN_WAVELENGTH,
+                TERRAIN_AMPLITUDE, null);
+        if (new File(HEIGHTMAP_FILE).exists()) {
+            heightmap = new HeightmapFile(new File(HEIGHTMAP_FILE));
+            terrainSource = new HeightmapTerrainSource(heightmap, heightmap.getTilesX(0) / 2,
+                    heightmap.getTilesZ(0) / 2);
+        }
+        // The tiles around the start are made on the CPU first, to stand the camera and the spinning
+        // trees on the ground.
+        List<Terrain> startTiles = new ArrayList<Terrain>();
+        for (int gridZ = -1; gridZ <= 0; gridZ++){
+            for (int gridX = -1; gridX <= 0; gridX++){
+                startTiles.add(terrainSource.createTerrain(gridX, gridZ, null));
+            }
         }
+        TerrainLookup startGround = new TerrainLookup();
+        startGround.setTerrains(startTiles);
 
         // Creating a light at certain coords.
         Light light = new Light(new Vector3f(20000,20000,20000), new Vector3f(1,1,1));
 
-        Terrain terrain = new Terrain(-1, -1, loader, new ModelTexture(loader.loadTexture("grass")));
-        Terrain terrain2 = new Terrain(0, -1, loader, new ModelTexture(loader.loadTexture("grass")));
+        // The trees, grass and ferns are scattered over the ground around the camera a chunk at a
+        // time, and merged into one mesh per chunk and model. The sun doesn't move, so its light is
+        // baked into the merged meshes. Chunks are made again whenever they come back into range, so
+        // the bake leaves out the ambient occlusion, which takes about a second a chunk, and isn't
+        // cached on disk, which would keep a file for every chunk ever visited.
+        VegetationScatter vegetation = new VegetationScatter(VEGETATION_SEED, VEGETATION_CHUNK_SIZE,
+                VEGETATION_RADIUS, VEGETATION_UPLOADS_PER_FRAME, VEGETATION_THREADS);
+        ScatterRule trees = new ScatterRule(tree, 25, 0.6f, 0.6f, 0.9f);
+        trees.setMinNormalY(0.85f);
+        vegetation.addRule(trees);
+        vegetation.addRule(new ScatterRule(grass, 20, 0.5f, 0.8f, 1.2f));
+        vegetation.addRule(new ScatterRule(fern, 20, 0.5f, 0.5f, 0.7f));
+        StaticLightBaker lightBaker = new StaticLightBaker(light.getPosition(), false, null);
+        vegetation.setLightBaker(lightBaker);
 
-        // Creating a camera.
-        Camera camera = new Camera(new Vector3f(0,4.5f,0));
+        TerrainTileManager terrainTiles = new TerrainTileManager(terrainSource,
+                new ModelTexture(loader.loadTexture("grass")), new GLTerrainTileUploader(loader),
+                TERRAIN_RING_RADIUS, TERRAIN_MEMORY_BUDGET, TERRAIN_UPLOADS_PER_FRAME, TERRAIN_GENERATOR_THREADS);
+
+        // The simulation thread owns these and moves them every tick. The render thread only draws
+        // its own copies, which are set from the latest snapshot the simulation published.
+        float startHeight = startGround.getHeight(0, 0) + 4.5f;
+        Camera simulationCamera = new Camera(new Vector3f(0,startHeight,0));
+        List<Light> simulationLights = new ArrayList<Light>();
+        simulationLights.add(light);
+        List<Entity> spinningTrees = new ArrayList<Entity>();
+        for (int i = 0; i < SPINNING_TREES; i++){
+            spinningTrees.add(new Entity(tree, new Vector3f(i * 8 - 36, 0, -30), 0, 0, 0, 0.75f));
+        }
+        placeOnGround(spinningTrees, startGround);
+        SimulationThread simulation = new SimulationThread((input, delta) -> {
+            simulationCamera.move(input, delta);
+            for (Entity spinningTree : spinningTrees){
+                spinningTree.increaseRotation(0, SPIN_SPEED * delta, 0);
+                // Kept within a turn, so the angle doesn't lose precision as it grows.
+                if (spinningTree.getRotY() >= 360) {
+                    spinningTree.setRotY(spinningTree.getRotY() - 360);
+                }
+            }
+        }, simulationCamera, simulationLights, spinningTrees, SIMULATION_TICK_RATE, MAX_TICKS_PER_UPDATE);
+
+        // Creating the render thread's camera, light and entities.
+        Camera camera = new Camera(new Vector3f(0,startHeight,0));
+        Light sun = new Light(new Vector3f(light.getPosition()), new Vector3f(light.getColour()));
+        List<Light> lights = new ArrayList<Light>();
+        lights.add(sun);
+        // The render thread's entities are kept in a store of their own, so their matrices can be
+        // rebuilt together once the snapshot has moved them.
+        EntityStore renderedEntities = new EntityStore();
+        List<Entity> renderedSpinningTrees = new ArrayList<Entity>();
+        for (Entity spinningTree : spinningTrees){
+            renderedSpinningTrees.add(new Entity(renderedEntities, spinningTree.getModel(), spinningTree.getPosition(new Vector3f()),
+                    spinningTree.getRotX(), spinningTree.getRotY(), spinningTree.getRotZ(), spinningTree.getScale()));
+        }
+        SnapshotStats snapshotStats = new SnapshotStats();
         // Creates a master renderer.
         MasterRenderer renderer = new MasterRenderer();
+        // The terrain gets more detailed close to the camera and coarser far away.
+        renderer.setTerrainLod(true);
+        for (String arg : args) {
+            if (arg.equals(DEPTH_PREPASS_ARGUMENT)) {
+                renderer.setDepthPrepass(true);
+            }
+        }
+
+        // The CPU work of every frame runs as stages on the job system. Stages that don't share
+        // any data, such as the camera and the entity transforms, run at the same time.
+        JobSystem jobSystem = new JobSystem(Runtime.getRuntime().availableProcessors());
+        renderer.setJobSystem(jobSystem);
+
+        // The terrain hides whatever is behind the hills from the renderer. The occluders are
+        // replaced whenever the streamed tiles change.
+        OcclusionCuller occlusionCuller = new OcclusionCuller(256, 128, jobSystem);
+        renderer.setOcclusionCuller(occlusionCuller);
+
+        // Remembers which of the vegetation batches are in view, so they aren't all tested every frame.
+        VisibilityCache visibilityCache = new VisibilityCache(VISIBILITY_MARGIN, MasterRenderer.getFarPlane(),
+                FRAMES_BETWEEN_FULL_VISIBILITY_UPDATES);
+
+        // Renders the scene at a lower resolution when the frames take longer than the frame rate cap allows.
+        DynamicResolution dynamicResolution = new DynamicResolution(Display.getWidth(), Display.getHeight(),
+                new ResolutionScaleController(DisplayManager.getTargetFrameTime(), MIN_RESOLUTION_SCALE, 1));
+        renderer.setDynamicResolution(dynamicResolution);
+
+        FrameState frame = new FrameState();
+        TaskGraph frameTasks = new TaskGraph(jobSystem);
+        frameTasks.addStage("camera", () -> frame.snapshot.applyToCamera(camera, frame.alpha))
+                .writes("camera");
+        frameTasks.addStage("entity transforms", () -> {
+            frame.snapshot.applyToLights(lights);
+            frame.snapshot.applyToEntities(renderedSpinningTrees, frame.alpha);
+            renderedEntities.updateTransformations(jobSystem);
+        }).writes("lights", "spinning trees");
+        frameTasks.addStage("static culling",
+                () -> frame.visibleStatic = visibilityCache.update(camera, renderer.getProjectionMatrix()))
+                .reads("camera").writes("visible static");
+        frameTasks.addStage("submit", () -> {
+            for (Terrain terrain : terrainTiles.getTerrains()){
+                renderer.processTerrain(terrain);
+            }
+            for (Entity entity : frame.visibleStatic){
+                renderer.processEntity(entity);
+            }
+            for (Entity entity : renderedSpinningTrees){
+                renderer.processEntity(entity);
+            }
+        }).reads("visible static", "spinning trees").writes("renderer");
 
         // Main Event Loop
+        simulation.start();
         while(!Display.isCloseRequested()){
-            camera.move();
+            // The keyboard can only be read here, so the input is handed to the simulation, and
+            // the latest tick it finished is drawn, blended with the tick before.
+            simulation.setInput(Camera.readInput());
+            while (Keyboard.next()) {
+                if (Keyboard.getEventKeyState() && Keyboard.getEventKey() == DEPTH_PREPASS_KEY) {
+                    printPassStats(renderer);
+                    renderer.setDepthPrepass(!renderer.isDepthPrepass());
+                }
+            }
+            frame.snapshot = simulation.getLatestSnapshot();
+            snapshotStats.frameStarted(frame.snapshot, simulation.getLatestTick());
+            frame.alpha = frame.snapshot.getAlpha(System.nanoTime());
 
-            renderer.processTerrain(terrain);
-            renderer.processTerrain(terrain2);
-            for (Entity entity : entities){
-                renderer.processEntity(entity);
+            // Anything that uses OpenGL stays on this thread.
+            dynamicResolution.update(DisplayManager.getFrameWorkTime());
+            if (terrainTiles.update(camera.getPosition().x, camera.getPosition().z)) {
+                occlusionCuller.clearOccluders();
+                for (Terrain terrain : terrainTiles.getTerrains()){
+                    occlusionCuller.addOccluder(terrain);
+                }
             }
-            renderer.render(light, camera);
+            if (vegetation.update(camera.getPosition().x, camera.getPosition().z, terrainTiles.getLookup(), loader)) {
+                visibilityCache.setEntities(vegetation.getBatchEntities());
+            }
+            frameTasks.run();
+
+            renderer.render(sun, camera);
             DisplayManager.updateDisplay();
+            snapshotStats.framePresented();
         }
+        simulation.stop();
+        System.out.println(simulation.getReport());
+        System.out.println(frameTasks.getReport());
+        System.out.println(snapshotStats.getReport());
+        System.out.println(renderer.getTerrainLod().getReport());
+        System.out.println(terrainTiles.getReport());
+        System.out.println(vegetation.getReport());
+        System.out.println(lightBaker.getReport());
+        System.out.println(dynamicResolution.getReport());
+        System.out.println(renderer.getFrameGraph().getReport());
+        System.out.println(DisplayManager.getFramePacer().getReport());
+        printPassStats(renderer);
 
         // Clears all our memory and various classes of old data and
         // exits out of our display.
+        jobSystem.shutdown();
+        terrainTiles.cleanUp();
+        vegetation.cleanUp(loader);
+        if (heightmap != null) {
+            heightmap.close();
+        }
+        dynamicResolution.cleanUp();
         renderer.cleanUp();
         loader.cleanUp();
         DisplayManager.closeDisplay();
     }
+
+    /**
+     * This class holds what the frame's stages share with the main loop: the snapshot being
+     * drawn, how far to blend it with the tick before, and the static entities in view.
+     */
+    private static class FrameState {
+        private SceneSnapshot snapshot;
+        private float alpha;
+        private List<Entity> visibleStatic;
+    }
+
+    /**
+     * This method loads model data into a VAO.
+     */
+    private static RawModel loadModel(ModelData data, Loader loader){
+        return loader.loadToVAO(data.getVertices(), data.getTextureCoords(), data.getNormals(), data.getIndices());
+    }
+
+    /**
+     * This method prints the draw calls and triangles of each of the renderer's passes in the
+     * last frame, and whether the depth prepass was on.
+     */
+    private static void printPassStats(MasterRenderer renderer){
+        System.out.println("Depth prepass " + (renderer.isDepthPrepass() ? "on. " : "off. ")
+                + renderer.getDepthPrepassStats() + "; " + renderer.getOpaqueStats() + "; "
+                + renderer.getAlphaTestedStats());
+    }
+
+    /**
+     * This method moves the entities up or down onto the ground, looking their heights up in one batch.
+     * Entities off the given tiles stay where they are.
+     */
+    private static void placeOnGround(List<Entity> entities, TerrainLookup ground){
+        float[] xs = new float[entities.size()];
+        float[] zs = new float[entities.size()];
+        float[] heights = new float[entities.size()];
+        for (int i = 0; i < entities.size(); i++){
+            xs[i] = entities.get(i).getX();
+            zs[i] = entities.get(i).getZ();
+        }
+        ground.getHeights(xs, zs, heights, entities.size(), null);
+        for (int i = 0; i < entities.size(); i++){
+            if (!Float.isNaN(heights[i])){
+                entities.get(i).setPosition(xs[i], heights[i], zs[i]);
+            }
+        }
+    }
 }
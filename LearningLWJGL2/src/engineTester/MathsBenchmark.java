@@ -0,0 +1,178 @@
+package engineTester;
+
+import entities.Camera;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import renderEngine.MasterRenderer;
+import toolbox.Maths;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * This class checks the allocation free matrix methods in Maths against the ones that create
+ * their matrices with Matrix4f.rotate() and Matrix4f.mul(), and times both, without a display.
+ * Every kernel is run over the same random inputs a few rounds to warm up before it is timed,
+ * and the largest difference from the old result is printed next to the time per call.
+ */
+public class MathsBenchmark {
+
+    private static final int COUNT = 100000;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int ROUNDS = 50;
+    // The most any entry may differ by, relative to the size of the matrix's entries.
+    private static final float TOLERANCE = 1e-5f;
+
+    private static final Vector3f[] positions = new Vector3f[COUNT];
+    private static final float[] rotations = new float[COUNT * 3];
+    private static final float[] scales = new float[COUNT];
+    private static final Camera[] cameras = new Camera[COUNT];
+    private static final Matrix4f projection = MasterRenderer.createProjectionMatrix(16 / 9f);
+    private static final Matrix4f dest = new Matrix4f();
+    private static final float[] array = new float[16];
+    private static float sink = 0;
+
+    public static void main(String[] args) {
+        Random rand = new Random(42);
+        for (int i = 0; i < COUNT; i++) {
+            positions[i] = new Vector3f(rand.nextFloat() * 800 - 400, rand.nextFloat() * 50, rand.nextFloat() * -800);
+            rotations[i * 3] = rand.nextInt(4) == 0 ? rand.nextFloat() * 360 - 180 : 0;
+            rotations[i * 3 + 1] = rand.nextFloat() * 360;
+            rotations[i * 3 + 2] = rand.nextInt(4) == 0 ? rand.nextFloat() * 360 - 180 : 0;
+            scales[i] = 0.5f + rand.nextFloat() * 2;
+            Camera camera = new Camera(new Vector3f(rand.nextFloat() * 800 - 400, rand.nextFloat() * 50,
+                    rand.nextFloat() * -800));
+            camera.setPitch(rand.nextFloat() * 180 - 90);
+            camera.setYaw(rand.nextFloat() * 360);
+            cameras[i] = camera;
+        }
+
+        float transformError = 0;
+        float arrayError = 0;
+        float viewError = 0;
+        float modelViewError = 0;
+        float projectionViewError = 0;
+        for (int i = 0; i < COUNT; i++) {
+            Matrix4f model = Maths.createTransformationMatrix(positions[i], rotations[i * 3], rotations[i * 3 + 1],
+                    rotations[i * 3 + 2], scales[i]);
+            Maths.createTransformationMatrix(positions[i], rotations[i * 3], rotations[i * 3 + 1],
+                    rotations[i * 3 + 2], scales[i], dest);
+            transformError = Math.max(transformError, difference(model, dest));
+            Maths.storeTransformationMatrix(positions[i], rotations[i * 3], rotations[i * 3 + 1],
+                    rotations[i * 3 + 2], scales[i], array, 0);
+            dest.load(FloatBuffer.wrap(array));
+            arrayError = Math.max(arrayError, difference(model, dest));
+
+            Matrix4f view = Maths.createViewMatrix(cameras[i]);
+            viewError = Math.max(viewError, difference(view, Maths.createViewMatrix(cameras[i], dest)));
+
+            Matrix4f modelView = Matrix4f.mul(view, model, null);
+            Maths.createModelViewMatrix(view, positions[i], rotations[i * 3], rotations[i * 3 + 1],
+                    rotations[i * 3 + 2], scales[i], dest);
+            modelViewError = Math.max(modelViewError, difference(modelView, dest));
+
+            Matrix4f projectionView = Matrix4f.mul(projection, view, null);
+            projectionViewError = Math.max(projectionViewError,
+                    difference(projectionView, Maths.mulProjectionView(projection, view, dest)));
+        }
+        System.out.println(String.format("Largest relative differences: transformation %.2e, into an array %.2e, "
+                        + "view %.2e, model view %.2e, projection view %.2e", transformError, arrayError, viewError,
+                modelViewError, projectionViewError));
+        float worst = Math.max(Math.max(transformError, arrayError), Math.max(viewError,
+                Math.max(modelViewError, projectionViewError)));
+        if (worst > TOLERANCE) {
+            throw new RuntimeException("The allocation free matrices differ from the old ones by " + worst + "!");
+        }
+
+        Matrix4f[] views = new Matrix4f[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            views[i] = Maths.createViewMatrix(cameras[i]);
+        }
+        report("transformation", () -> {
+            for (int i = 0; i < COUNT; i++) {
+                sink += Maths.createTransformationMatrix(positions[i], rotations[i * 3], rotations[i * 3 + 1],
+                        rotations[i * 3 + 2], scales[i]).m30;
+            }
+        }, () -> {
+            for (int i = 0; i < COUNT; i++) {
+                sink += Maths.createTransformationMatrix(positions[i], rotations[i * 3], rotations[i * 3 + 1],
+                        rotations[i * 3 + 2], scales[i], dest).m30;
+            }
+        });
+        report("view", () -> {
+            for (int i = 0; i < COUNT; i++) {
+                sink += Maths.createViewMatrix(cameras[i]).m30;
+            }
+        }, () -> {
+            for (int i = 0; i < COUNT; i++) {
+                sink += Maths.createViewMatrix(cameras[i], dest).m30;
+            }
+        });
+        report("model view", () -> {
+            for (int i = 0; i < COUNT; i++) {
+                Matrix4f model = Maths.createTransformationMatrix(positions[i], rotations[i * 3],
+                        rotations[i * 3 + 1], rotations[i * 3 + 2], scales[i]);
+                sink += Matrix4f.mul(views[i], model, model).m30;
+            }
+        }, () -> {
+            for (int i = 0; i < COUNT; i++) {
+                sink += Maths.createModelViewMatrix(views[i], positions[i], rotations[i * 3], rotations[i * 3 + 1],
+                        rotations[i * 3 + 2], scales[i], dest).m30;
+            }
+        });
+        report("projection view", () -> {
+            for (int i = 0; i < COUNT; i++) {
+                sink += Matrix4f.mul(projection, views[i], dest).m30;
+            }
+        }, () -> {
+            for (int i = 0; i < COUNT; i++) {
+                sink += Maths.mulProjectionView(projection, views[i], dest).m30;
+            }
+        });
+        System.out.println(String.format("%d matrices per kernel, timed over %d rounds after %d to warm up (%.0f)",
+                COUNT, ROUNDS, WARMUP_ROUNDS, sink));
+    }
+
+    /**
+     * This method warms up and times the old and the new way of working out COUNT matrices, and
+     * prints the time per matrix of both.
+     */
+    private static void report(String name, Runnable old, Runnable allocationFree) {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            old.run();
+            allocationFree.run();
+        }
+        long oldTime = 0;
+        long newTime = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            old.run();
+            long middle = System.nanoTime();
+            allocationFree.run();
+            oldTime += middle - start;
+            newTime += System.nanoTime() - middle;
+        }
+        double oldNs = oldTime / (double) ROUNDS / COUNT;
+        double newNs = newTime / (double) ROUNDS / COUNT;
+        System.out.println(String.format("%s: %.1f ns before, %.1f ns allocation free (%.1fx)", name, oldNs, newNs,
+                oldNs / newNs));
+    }
+
+    /**
+     * This method returns the largest difference between the entries of two matrices, relative to
+     * the largest entry of the first one.
+     */
+    private static float difference(Matrix4f a, Matrix4f b) {
+        float[] x = new float[16];
+        float[] y = new float[16];
+        a.store(FloatBuffer.wrap(x));
+        b.store(FloatBuffer.wrap(y));
+        float largest = 0;
+        float difference = 0;
+        for (int i = 0; i < 16; i++) {
+            largest = Math.max(largest, Math.abs(x[i]));
+            difference = Math.max(difference, Math.abs(x[i] - y[i]));
+        }
+        return difference / Math.max(largest, 1);
+    }
+}
@@ -0,0 +1,168 @@
+package engineTester;
+
+import entities.Camera;
+import jobs.JobSystem;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import renderEngine.MasterRenderer;
+import renderEngine.OcclusionCuller;
+import terrains.Terrain;
+import toolbox.BoundingBox;
+import toolbox.Maths;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class runs the occlusion culler on a made up valley, without a display: the camera stands
+ * near the ground looking at a ridge, with trees scattered in front of it and behind it. It prints
+ * how many trees one flat quad at the tile's lowest height culls, and how many the heightfield
+ * under the tile does. It fails if the heightfield culls nothing, if it culls a tree that can be
+ * seen over the real ground, or if rasterizing on the job system gives another depth buffer than
+ * rasterizing on one thread.
+ */
+public class OcclusionCullingSimulation {
+
+    private static final int WIDTH = 256;
+    private static final int HEIGHT = 128;
+    private static final int TREE_COUNT = 2000;
+    private static final float TREE_HEIGHT = 8;
+    private static final float TREE_RADIUS = 1.5f;
+    private static final float RIDGE_Z = -350;
+    private static final float RIDGE_HEIGHT = 45;
+    private static final float EYE_HEIGHT = 6;
+    // How far apart the points are that the ray from the camera to a tree is checked at.
+    private static final float RAY_STEP = 0.5f;
+
+    public static void main(String[] args) {
+        int samples = Terrain.getVertexCount();
+        float size = Terrain.getSize();
+        float spacing = size / (samples - 1);
+        // The tile at grid 0, -1 covers x from 0 to size and z from -size to 0.
+        float[] heights = new float[samples * samples];
+        for (int gz = 0; gz < samples; gz++) {
+            for (int gx = 0; gx < samples; gx++) {
+                heights[gz * samples + gx] = getHeight(gx * spacing, gz * spacing - size);
+            }
+        }
+        Terrain terrain = new Terrain(0, -1, null, heights);
+
+        Camera camera = new Camera(new Vector3f(size / 2, terrain.getHeightOfTerrain(size / 2, -40) + EYE_HEIGHT,
+                -40));
+        camera.setPitch(0);
+        Matrix4f projection = MasterRenderer.createProjectionMatrix(WIDTH / (float) HEIGHT);
+        Matrix4f view = Maths.createViewMatrix(camera);
+
+        Random rand = new Random(42);
+        List<BoundingBox> trees = new ArrayList<BoundingBox>();
+        for (int i = 0; i < TREE_COUNT; i++) {
+            float x = 20 + rand.nextFloat() * (size - 40);
+            float z = -80 - rand.nextFloat() * (size - 100);
+            float y = terrain.getHeightOfTerrain(x, z);
+            BoundingBox box = new BoundingBox();
+            box.include(x - TREE_RADIUS, y, z - TREE_RADIUS);
+            box.include(x + TREE_RADIUS, y + TREE_HEIGHT, z + TREE_RADIUS);
+            trees.add(box);
+        }
+
+        // The old occluder: two triangles at the tile's lowest height.
+        OcclusionCuller flat = new OcclusionCuller(WIDTH, HEIGHT, null);
+        float low = terrain.getMinHeight();
+        flat.addOccluder(new float[]{0, low, -size, 0, low, 0, size, low, -size, size, low, 0},
+                new int[]{0, 1, 2, 2, 1, 3}, new Matrix4f());
+        flat.rasterize(projection, view);
+        int flatCulled = countCulled(flat, trees, null);
+
+        OcclusionCuller heightfield = new OcclusionCuller(WIDTH, HEIGHT, null);
+        heightfield.addOccluder(terrain);
+        heightfield.rasterize(projection, view);
+        List<BoundingBox> culled = new ArrayList<BoundingBox>();
+        int heightfieldCulled = countCulled(heightfield, trees, culled);
+        System.out.println(heightfield.getReport());
+
+        JobSystem jobs = new JobSystem(Runtime.getRuntime().availableProcessors());
+        OcclusionCuller parallel = new OcclusionCuller(WIDTH, HEIGHT, jobs);
+        parallel.addOccluder(terrain);
+        parallel.rasterize(projection, view);
+        boolean sameDepth = Arrays.equals(heightfield.getDepthBuffer(), parallel.getDepthBuffer());
+        jobs.shutdown();
+
+        int wronglyCulled = 0;
+        for (BoundingBox box : culled) {
+            if (canBeSeen(terrain, camera.getPosition(), box)) {
+                wronglyCulled++;
+            }
+        }
+        int hidden = 0;
+        for (BoundingBox box : trees) {
+            if (!canBeSeen(terrain, camera.getPosition(), box)) {
+                hidden++;
+            }
+        }
+        System.out.println(String.format("%d trees, %d hidden by the ground. A flat quad culls %d, the heightfield "
+                        + "culls %d, %d of them wrongly. The job system gives %s depth buffer.", TREE_COUNT, hidden,
+                flatCulled, heightfieldCulled, wronglyCulled, sameDepth ? "the same" : "another"));
+        if (heightfieldCulled == 0 || wronglyCulled > 0 || !sameDepth) {
+            throw new RuntimeException("The terrain occluder doesn't cull what the ground hides!");
+        }
+    }
+
+    /**
+     * This method tests every box against the culler, and adds the ones it culls to the list if
+     * there is one. It returns how many it culls.
+     */
+    private static int countCulled(OcclusionCuller culler, List<BoundingBox> boxes, List<BoundingBox> culled) {
+        int count = 0;
+        for (BoundingBox box : boxes) {
+            if (!culler.isVisible(box)) {
+                count++;
+                if (culled != null) {
+                    culled.add(box);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * This method returns true if a straight line from the eye to any corner of the box, or to
+     * the middle of its top, stays above the real ground the whole way.
+     */
+    private static boolean canBeSeen(Terrain terrain, Vector3f eye, BoundingBox box) {
+        for (int corner = 0; corner < 8; corner++) {
+            float x = (corner & 1) == 0 ? box.getMinX() : box.getMaxX();
+            float y = (corner & 2) == 0 ? box.getMinY() : box.getMaxY();
+            float z = (corner & 4) == 0 ? box.getMinZ() : box.getMaxZ();
+            if (canBeSeen(terrain, eye, x, y, z)) {
+                return true;
+            }
+        }
+        return canBeSeen(terrain, eye, (box.getMinX() + box.getMaxX()) / 2, box.getMaxY(),
+                (box.getMinZ() + box.getMaxZ()) / 2);
+    }
+
+    private static boolean canBeSeen(Terrain terrain, Vector3f eye, float x, float y, float z) {
+        float dx = x - eye.x, dy = y - eye.y, dz = z - eye.z;
+        int steps = (int) Math.ceil(Math.sqrt(dx * dx + dz * dz) / RAY_STEP);
+        // The last step is left out, since a point on the ground touches it.
+        for (int step = 1; step < steps; step++) {
+            float t = step / (float) steps;
+            float ground = terrain.getHeightOfTerrain(eye.x + dx * t, eye.z + dz * t);
+            if (eye.y + dy * t <= ground) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * This method returns the height of the made up valley: a ridge across the tile, with some
+     * gentler hills on top so the ground isn't flat anywhere.
+     */
+    private static float getHeight(float x, float z) {
+        float ridge = (z - RIDGE_Z) / 70;
+        return (float) (RIDGE_HEIGHT * Math.exp(-ridge * ridge) + 4 * Math.sin(x / 53) * Math.cos(z / 71));
+    }
+}
@@ -0,0 +1,95 @@
+package engineTester;
+
+import renderEngine.ResolutionScaleController;
+
+import java.util.Random;
+
+/**
+ * This class feeds made up frame times into the resolution scale controller and prints how
+ * the scale reacts. The frames are modelled as fragment bound: a fixed CPU cost plus a GPU
+ * cost that grows with the number of pixels. It doesn't open a display.
+ *
+ * The scene goes through three phases, light, heavy and light again, and the simulation fails if
+ * at the end of a phase the frame time hasn't settled between the controller's hysteresis bounds
+ * (or the scale isn't at the limit that stops it getting there), if the scale turns back the way
+ * it came within a phase, or if it still changes once the heavy phase has settled.
+ */
+public class ResolutionScaleSimulation {
+
+    private static final float TARGET_FRAME_TIME = 1000f / 120f;
+    private static final float FIXED_COST = 2;
+    // The frame each phase ends at, and the cost of the scene at full resolution in each.
+    private static final int[] PHASE_ENDS = {300, 800, 1600};
+    private static final float[] PHASE_COSTS = {5, 14, 4};
+    // How many frames at the end of a phase are averaged to check where it settled.
+    private static final int SETTLE_FRAMES = 100;
+
+    public static void main(String[] args) {
+        ResolutionScaleController controller = new ResolutionScaleController(TARGET_FRAME_TIME, 0.5f, 1);
+        float lowBound = TARGET_FRAME_TIME * ResolutionScaleController.UNDER_BUDGET;
+        float highBound = TARGET_FRAME_TIME * ResolutionScaleController.OVER_BUDGET;
+        Random rand = new Random(42);
+        float lowest = controller.getScale();
+        int failures = 0;
+        int phase = 0;
+        int phaseStart = 0;
+        // The way the scale last moved in this phase: -1 down, 1 up, 0 not yet.
+        int direction = 0;
+        float settledTime = 0;
+        for (int frame = 0; frame < PHASE_ENDS[PHASE_ENDS.length - 1]; frame++) {
+            float scale = controller.getScale();
+            float cost = FIXED_COST + PHASE_COSTS[phase] * scale * scale;
+            // Some noise, and now and then a single very slow frame which should be ignored.
+            float frameTime = cost + (float) rand.nextGaussian() * 0.3f;
+            if (frame % 97 == 0) {
+                frameTime += 20;
+            }
+            float newScale = controller.update(frameTime);
+            lowest = Math.min(lowest, newScale);
+            if (frame % 50 == 0) {
+                System.out.println(String.format("frame %4d: frame time %5.2f ms (smoothed %5.2f), scale %.2f",
+                        frame, frameTime, controller.getSmoothedFrameTime(), newScale));
+            }
+
+            if (newScale != scale) {
+                int change = newScale < scale ? -1 : 1;
+                if (direction != 0 && change != direction) {
+                    System.out.println(String.format("FAIL: frame %d, the scale turned back to %.2f in phase %d.",
+                            frame, newScale, phase));
+                    failures++;
+                }
+                direction = change;
+                if (phase == 1 && frame >= PHASE_ENDS[phase] - SETTLE_FRAMES) {
+                    System.out.println(String.format("FAIL: frame %d, the scale still changes once the heavy "
+                            + "phase has settled.", frame));
+                    failures++;
+                }
+            }
+            // The cost without the noise and the slow frames, which is what the scale is for.
+            if (frame >= PHASE_ENDS[phase] - SETTLE_FRAMES) {
+                settledTime += cost / SETTLE_FRAMES;
+            }
+
+            if (frame == PHASE_ENDS[phase] - 1) {
+                boolean atMax = newScale >= controller.getMaxScale();
+                boolean atMin = newScale <= controller.getMinScale();
+                boolean converged = (settledTime >= lowBound || atMax) && (settledTime <= highBound || atMin);
+                System.out.println(String.format("Phase %d (frames %d to %d): settled at %.2f ms, scale %.2f, "
+                                + "the bounds are %.2f to %.2f ms.%s", phase, phaseStart, frame, settledTime, newScale,
+                        lowBound, highBound, converged ? "" : " FAIL: it didn't converge."));
+                if (!converged) {
+                    failures++;
+                }
+                phase++;
+                phaseStart = frame + 1;
+                direction = 0;
+                settledTime = 0;
+            }
+        }
+        System.out.println(String.format("Lowest scale %.2f, %d decreases, %d increases.", lowest,
+                controller.getDecreaseCount(), controller.getIncreaseCount()));
+        if (failures > 0) {
+            throw new RuntimeException("The resolution scale controller failed " + failures + " checks!");
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package engineTester;
+
+import shaders.ShaderBackend;
+import shaders.ShaderProgramCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * This class runs the shader program cache on a made up backend, without a display, and checks
+ * that it does what it should: a second load of the same program is a hit, a change of driver,
+ * defines or source is a miss, a binary the driver rejects is compiled again and replaced, and a
+ * shader that fails to compile or a program that fails to link leaves nothing behind.
+ */
+public class ShaderCacheSelfCheck {
+
+    private static final String VERTEX = "#version 150\nvoid main(void){ gl_Position = vec4(0.0); }";
+    private static final String FRAGMENT = "#version 150\nout vec4 colour;\nvoid main(void){ colour = vec4(1.0); }";
+    // The made up backend fails to compile or link any source containing these.
+    private static final String COMPILE_ERROR = "#error";
+    private static final String LINK_ERROR = "undefinedFunction();";
+
+    private static final List<String> failures = new ArrayList<String>();
+
+    public static void main(String[] args) throws IOException {
+        File directory = Files.createTempDirectory("shaderCache").toFile();
+        try {
+            run(directory);
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+        if (!failures.isEmpty()) {
+            throw new RuntimeException("The shader program cache failed " + failures.size() + " checks: "
+                    + failures);
+        }
+        System.out.println("Every check passed.");
+    }
+
+    private static void run(File directory) {
+        Map<String, String> defines = new HashMap<String, String>();
+        defines.put("MAX_LIGHTS", "4");
+        Map<Integer, String> attributes = new HashMap<Integer, String>();
+        attributes.put(0, "position");
+        attributes.put(1, "textureCoords");
+
+        StubBackend backend = new StubBackend("Vendor|Renderer|1.0");
+        ShaderProgramCache cache = new ShaderProgramCache(backend, directory);
+        int program = cache.loadProgram(VERTEX, FRAGMENT, defines, attributes);
+        check("the first load is a miss", cache.getMisses() == 1 && cache.getHits() == 0);
+        check("the first load compiles both shaders", backend.compiled == 2);
+        check("the first load saves a binary", countFiles(directory) == 1);
+        check("the program is linked", backend.linked.containsKey(program));
+
+        backend.compiled = 0;
+        int loaded = cache.loadProgram(VERTEX, FRAGMENT, new TreeMap<String, String>(defines), attributes);
+        check("loading the same program again is a hit", cache.getHits() == 1 && cache.getMisses() == 1);
+        check("a hit compiles nothing", backend.compiled == 0);
+        check("a hit gives a linked program", backend.linked.containsKey(loaded));
+
+        String key = ShaderProgramCache.createKey(backend.driver, VERTEX, FRAGMENT, defines, attributes);
+        check("the key changes with the driver", !key.equals(ShaderProgramCache.createKey("Vendor|Renderer|2.0",
+                VERTEX, FRAGMENT, defines, attributes)));
+        Map<String, String> otherDefines = new HashMap<String, String>(defines);
+        otherDefines.put("MAX_LIGHTS", "8");
+        check("the key changes with the defines", !key.equals(ShaderProgramCache.createKey(backend.driver, VERTEX,
+                FRAGMENT, otherDefines, attributes)));
+        String otherFragment = FRAGMENT.replace("1.0", "0.5");
+        check("the key changes with the source", !key.equals(ShaderProgramCache.createKey(backend.driver, VERTEX,
+                otherFragment, defines, attributes)));
+
+        cache.loadProgram(VERTEX, FRAGMENT, otherDefines, attributes);
+        check("other defines are a miss", cache.getMisses() == 2);
+        cache.loadProgram(VERTEX, otherFragment, defines, attributes);
+        check("another source is a miss", cache.getMisses() == 3);
+        check("every miss saves its own binary", countFiles(directory) == 3);
+
+        // A driver update: same folder, new driver string.
+        StubBackend updated = new StubBackend("Vendor|Renderer|2.0");
+        ShaderProgramCache updatedCache = new ShaderProgramCache(updated, directory);
+        updatedCache.loadProgram(VERTEX, FRAGMENT, defines, attributes);
+        check("another driver is a miss", updatedCache.getMisses() == 1 && updatedCache.getHits() == 0);
+
+        // The driver changed without its string changing, so it turns down the binary.
+        StubBackend rejecting = new StubBackend(backend.driver);
+        rejecting.rejectBinaries = true;
+        ShaderProgramCache rejectingCache = new ShaderProgramCache(rejecting, directory);
+        int recompiled = rejectingCache.loadProgram(VERTEX, FRAGMENT, defines, attributes);
+        check("a rejected binary is counted", rejectingCache.getRejected() == 1);
+        check("a rejected binary falls back to compiling", rejectingCache.getMisses() == 1 && rejecting.compiled == 2);
+        check("the fallback gives a linked program", rejecting.linked.containsKey(recompiled));
+        check("the program the binary was loaded into is deleted", rejecting.programs.size() == 1);
+        rejecting.rejectBinaries = false;
+        rejectingCache.loadProgram(VERTEX, FRAGMENT, defines, attributes);
+        check("the rejected binary is replaced by the new one", rejectingCache.getHits() == 1);
+
+        StubBackend failing = new StubBackend(backend.driver);
+        ShaderProgramCache failingCache = new ShaderProgramCache(failing, directory);
+        check("a vertex shader that doesn't compile throws",
+                throwsOnLoad(failingCache, COMPILE_ERROR + VERTEX, FRAGMENT, defines, attributes));
+        check("a fragment shader that doesn't compile throws",
+                throwsOnLoad(failingCache, VERTEX, COMPILE_ERROR + FRAGMENT, defines, attributes));
+        check("a program that doesn't link throws",
+                throwsOnLoad(failingCache, VERTEX, LINK_ERROR + FRAGMENT, defines, attributes));
+        check("failing to compile or link leaves no shaders behind", failing.shaders.isEmpty());
+        check("failing to compile or link leaves no programs behind", failing.programs.isEmpty());
+
+        ShaderProgramCache uncached = new ShaderProgramCache(new StubBackend(backend.driver), null);
+        uncached.loadProgram(VERTEX, FRAGMENT, defines, attributes);
+        uncached.loadProgram(VERTEX, FRAGMENT, defines, attributes);
+        check("without a folder every load is a miss", uncached.getMisses() == 2 && uncached.getHits() == 0);
+
+        System.out.println(String.format("Hits %d, misses %d, rejected %d over %d binaries.",
+                cache.getHits() + updatedCache.getHits() + rejectingCache.getHits(),
+                cache.getMisses() + updatedCache.getMisses() + rejectingCache.getMisses(),
+                rejectingCache.getRejected(), countFiles(directory)));
+    }
+
+    private static boolean throwsOnLoad(ShaderProgramCache cache, String vertexSource, String fragmentSource,
+                                        Map<String, String> defines, Map<Integer, String> attributes) {
+        try {
+            cache.loadProgram(vertexSource, fragmentSource, defines, attributes);
+            return false;
+        } catch (IllegalStateException e) {
+            return true;
+        }
+    }
+
+    private static int countFiles(File directory) {
+        File[] files = directory.listFiles();
+        return files == null ? 0 : files.length;
+    }
+
+    private static void check(String name, boolean passed) {
+        System.out.println((passed ? "ok      " : "FAILED  ") + name);
+        if (!passed) {
+            failures.add(name);
+        }
+    }
+
+    /**
+     * This class pretends to be a driver. It keeps track of the shaders and programs that are
+     * alive, and its program binary is just the two sources, so a loaded binary can be checked.
+     */
+    private static class StubBackend implements ShaderBackend {
+
+        private final String driver;
+        private boolean rejectBinaries = false;
+        private int nextID = 1;
+        private int compiled = 0;
+        private final Map<Integer, String> shaders = new HashMap<Integer, String>();
+        private final Set<Integer> programs = new HashSet<Integer>();
+        private final Map<Integer, String> linked = new HashMap<Integer, String>();
+
+        private StubBackend(String driver) {
+            this.driver = driver;
+        }
+
+        @Override
+        public String getDriverString() {
+            return driver;
+        }
+
+        @Override
+        public boolean supportsProgramBinary() {
+            return true;
+        }
+
+        @Override
+        public int createProgram() {
+            programs.add(nextID);
+            return nextID++;
+        }
+
+        @Override
+        public int compileShader(int type, CharSequence source) {
+            compiled++;
+            shaders.put(nextID, source.toString());
+            return nextID++;
+        }
+
+        @Override
+        public boolean isCompiled(int shaderID) {
+            return !shaders.get(shaderID).contains(COMPILE_ERROR);
+        }
+
+        @Override
+        public String getShaderLogAndDelete(int shaderID) {
+            shaders.remove(shaderID);
+            return "error: " + COMPILE_ERROR;
+        }
+
+        @Override
+        public void deleteShader(int shaderID) {
+            shaders.remove(shaderID);
+        }
+
+        @Override
+        public void bindAttribLocation(int programID, int attribute, String variableName) {
+        }
+
+        @Override
+        public boolean linkProgram(int programID, int vertexShaderID, int fragmentShaderID, boolean retrievable) {
+            String sources = shaders.remove(vertexShaderID) + "\n" + shaders.remove(fragmentShaderID);
+            if (sources.contains(LINK_ERROR)) {
+                return false;
+            }
+            linked.put(programID, sources);
+            return true;
+        }
+
+        @Override
+        public String getProgramLog(int programID) {
+            return "error: " + LINK_ERROR;
+        }
+
+        @Override
+        public ProgramBinary getProgramBinary(int programID) {
+            byte[] bytes = linked.get(programID).getBytes(StandardCharsets.UTF_8);
+            ByteBuffer data = ByteBuffer.allocate(bytes.length);
+            data.put(bytes);
+            data.flip();
+            return new ProgramBinary(1, data);
+        }
+
+        @Override
+        public boolean loadProgramBinary(int programID, ProgramBinary binary) {
+            if (rejectBinaries) {
+                return false;
+            }
+            ByteBuffer data = binary.getData().duplicate();
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            linked.put(programID, new String(bytes, StandardCharsets.UTF_8));
+            return true;
+        }
+
+        @Override
+        public void deleteProgram(int programID) {
+            programs.remove(programID);
+            linked.remove(programID);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package engineTester;
+
+import entities.Entity;
+import entities.EntityStore;
+import models.RawModel;
+import models.TexturedModel;
+import objConverter.ModelData;
+import org.lwjgl.util.vector.Vector3f;
+import renderEngine.StaticBatch;
+import renderEngine.StaticBatchBuilder;
+import renderEngine.StaticBatchUploader;
+import textures.ModelTexture;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class runs the static batch builder on a made up uploader, without a display, and checks
+ * that it only rebuilds the batches that changed: adding entities builds their batches, an update
+ * with nothing changed builds nothing, removing an entity or moving it to another chunk rebuilds
+ * just the batches it left and joined, and a batch or chunk left empty is dropped and its mesh
+ * unloaded. It prints the builder's draw call and memory report along the way.
+ */
+public class StaticBatchSelfCheck {
+
+    private static final float CHUNK_SIZE = 100;
+
+    private static final List<String> failures = new ArrayList<String>();
+
+    public static void main(String[] args) {
+        // A made up mesh of one triangle, so every instance adds three vertices.
+        ModelData triangle = new ModelData(new float[]{0, 0, 0, 1, 0, 0, 0, 2, 0}, new float[]{0, 0, 1, 0, 0, 1},
+                new float[]{0, 0, 1, 0, 0, 1, 0, 0, 1}, new int[]{0, 1, 2}, 2);
+        TexturedModel tree = new TexturedModel(new RawModel(1, 3), new ModelTexture(1), triangle);
+        TexturedModel fern = new TexturedModel(new RawModel(2, 3), new ModelTexture(2), triangle);
+        EntityStore store = new EntityStore();
+        Entity near = new Entity(store, tree, new Vector3f(10, 0, 10), 0, 0, 0, 1);
+        Entity nearToo = new Entity(store, tree, new Vector3f(20, 0, 30), 0, 0, 0, 1);
+        Entity far = new Entity(store, tree, new Vector3f(150, 0, 10), 0, 0, 0, 1);
+        Entity nearFern = new Entity(store, fern, new Vector3f(30, 0, 30), 0, 0, 0, 1);
+
+        StubUploader uploader = new StubUploader();
+        StaticBatchBuilder builder = new StaticBatchBuilder(CHUNK_SIZE);
+        for (Entity entity : new Entity[]{near, nearToo, far, nearFern}) {
+            builder.addEntity(entity);
+        }
+        check("adding entities builds a batch per chunk and model", builder.update(uploader) == 3);
+        check("the first update uploads every batch", uploader.uploads == 3 && uploader.live.size() == 3);
+        check("there is an entity for every batch", builder.getBatchEntities().size() == 3);
+        check("two entities in one batch merge into one mesh", findBatch(builder, 0, tree).getVertexCount() == 6);
+        System.out.println(builder.getReport());
+
+        check("an update with nothing changed builds nothing", builder.update(uploader) == 0 && uploader.uploads == 3);
+
+        builder.removeEntity(nearToo);
+        check("removing an entity rebuilds only its batch", builder.update(uploader) == 1);
+        check("the rebuilt batch's old mesh is unloaded", uploader.unloads == 1 && uploader.live.size() == 3);
+        check("the rebuilt batch lost the entity's vertices", findBatch(builder, 0, tree).getVertexCount() == 3);
+
+        near.setPosition(250, 0, 10);
+        builder.entityChanged(near);
+        check("moving an entity across chunks rebuilds the batches it left and joined",
+                builder.update(uploader) == 2);
+        check("the batch it left empty is dropped", findBatch(builder, 0, tree) == null);
+        check("its chunk is kept while another batch is in it", builder.getChunkCount() == 3);
+        StaticBatch moved = findBatch(builder, 2, tree);
+        check("the batch it joined holds it", moved != null && moved.getBounds().getMinX() <= 250
+                && moved.getBounds().getMaxX() >= 250);
+        check("the dropped batch's mesh is unloaded", uploader.live.size() == 3 && builder.getBatches().size() == 3);
+
+        builder.removeEntity(nearFern);
+        check("removing the last entity of a chunk rebuilds one batch", builder.update(uploader) == 1);
+        check("an empty chunk is dropped", builder.getChunkCount() == 2 && builder.getBatches().size() == 2);
+        check("every mesh left is one a batch draws", uploader.live.size() == 2
+                && builder.getBatchEntities().size() == 2);
+        System.out.println(builder.getReport());
+        System.out.println(String.format("%d batches rebuilt, %d meshes uploaded and %d unloaded.",
+                builder.getRebuildCount(), uploader.uploads, uploader.unloads));
+
+        if (!failures.isEmpty()) {
+            throw new RuntimeException("The static batch builder failed " + failures.size() + " checks: " + failures);
+        }
+        System.out.println("Every check passed.");
+    }
+
+    /**
+     * This method returns the batch of a model in the chunk at chunkX, 0, or null if there isn't one.
+     */
+    private static StaticBatch findBatch(StaticBatchBuilder builder, int chunkX, TexturedModel model) {
+        for (StaticBatch batch : builder.getBatches()) {
+            if (batch.getChunkX() == chunkX && batch.getChunkZ() == 0 && batch.getSource() == model) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    private static void check(String name, boolean passed) {
+        System.out.println((passed ? "ok      " : "FAILED  ") + name);
+        if (!passed) {
+            failures.add(name);
+        }
+    }
+
+    /**
+     * This class pretends to upload the meshes, and keeps track of the ones that are still loaded.
+     */
+    private static class StubUploader implements StaticBatchUploader {
+
+        private final Set<RawModel> live = new HashSet<RawModel>();
+        private int uploads = 0;
+        private int unloads = 0;
+
+        @Override
+        public RawModel upload(ModelData mesh, float[] bakedLighting) {
+            uploads++;
+            RawModel model = new RawModel(100 + uploads, mesh.getIndices().length);
+            live.add(model);
+            return model;
+        }
+
+        @Override
+        public void unload(RawModel model) {
+            unloads++;
+            live.remove(model);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package engineTester;
+
+import jobs.JobSystem;
+import terrains.ProceduralTerrainSource;
+import terrains.Terrain;
+
+import java.util.Arrays;
+
+/**
+ * This class times making procedural terrain tiles (see ProceduralTerrainSource) three ways:
+ * one point at a time with getHeight(), a row at a time on one thread, and a row at a time split
+ * over a job system with 2, 4... threads, up to the number of cores. It doesn't open a display.
+ *
+ * It also checks that every way gives exactly the same heights, that neighbouring tiles share
+ * their edges exactly, and that the same seed always gives the same tiles.
+ */
+public class TerrainGenerationBenchmark {
+
+    private static final long SEED = 1234;
+    private static final int OCTAVES = 6;
+    private static final float WAVELENGTH = 800;
+    private static final float AMPLITUDE = 60;
+    private static final int TILES = 4;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) {
+        int count = Terrain.getVertexCount();
+        float spacing = Terrain.getSize() / (count - 1);
+        ProceduralTerrainSource source = new ProceduralTerrainSource(SEED, OCTAVES, WAVELENGTH, AMPLITUDE, null);
+        float[] heights = new float[count * count];
+        float[] normals = new float[count * count * 3];
+        float sum = 0;
+
+        long pointTime = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int tile = 0; tile < TILES * TILES; tile++) {
+                int firstX = (tile % TILES) * (count - 1);
+                int firstZ = (tile / TILES) * (count - 1);
+                for (int z = 0; z < count; z++) {
+                    for (int x = 0; x < count; x++) {
+                        heights[z * count + x] = source.getHeight((firstX + x) * spacing, (firstZ + z) * spacing);
+                    }
+                }
+                sum += heights[tile];
+            }
+            if (round >= WARMUP_ROUNDS) {
+                pointTime += System.nanoTime() - start;
+            }
+        }
+        System.out.println(String.format("%d tiles of %d x %d samples, %d octaves (%.0f)", TILES * TILES, count,
+                count, OCTAVES, sum));
+        System.out.println(String.format("One point at a time: %.2f ms per tile", perTile(pointTime)));
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            JobSystem jobSystem = threads == 1 ? null : new JobSystem(threads);
+            ProceduralTerrainSource rowSource = new ProceduralTerrainSource(SEED, OCTAVES, WAVELENGTH, AMPLITUDE,
+                    jobSystem);
+            long heightTime = 0;
+            long normalTime = 0;
+            for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (int tile = 0; tile < TILES * TILES; tile++) {
+                    rowSource.generate(tile % TILES, tile / TILES, heights, null);
+                }
+                long middle = System.nanoTime();
+                for (int tile = 0; tile < TILES * TILES; tile++) {
+                    rowSource.generate(tile % TILES, tile / TILES, heights, normals);
+                }
+                if (round >= WARMUP_ROUNDS) {
+                    heightTime += middle - start;
+                    normalTime += System.nanoTime() - middle;
+                }
+            }
+            if (jobSystem != null) {
+                jobSystem.shutdown();
+            }
+            System.out.println(String.format("A row at a time with %d threads: %.2f ms per tile, %.2f ms with normals",
+                    threads, perTile(heightTime), perTile(normalTime)));
+        }
+        check(source, count, spacing);
+    }
+
+    private static double perTile(long time) {
+        return time / 1000000.0 / ROUNDS / (TILES * TILES);
+    }
+
+    private static void check(ProceduralTerrainSource source, int count, float spacing) {
+        JobSystem jobSystem = new JobSystem(Runtime.getRuntime().availableProcessors());
+        ProceduralTerrainSource parallel = new ProceduralTerrainSource(SEED, OCTAVES, WAVELENGTH, AMPLITUDE, jobSystem);
+        float[] normals = new float[count * count * 3];
+        int differentFromPoints = 0;
+        int differentInParallel = 0;
+        int openEdges = 0;
+        float[] heights = source.getHeights(-3, 5);
+        float[] parallelHeights = new float[count * count];
+        parallel.generate(-3, 5, parallelHeights, normals);
+        float[] right = source.getHeights(-2, 5);
+        for (int z = 0; z < count; z++) {
+            for (int x = 0; x < count; x++) {
+                int i = z * count + x;
+                float point = source.getHeight((-3 * (count - 1) + x) * spacing, (5 * (count - 1) + z) * spacing);
+                if (Float.floatToIntBits(heights[i]) != Float.floatToIntBits(point)) {
+                    differentFromPoints++;
+                }
+                if (Float.floatToIntBits(heights[i]) != Float.floatToIntBits(parallelHeights[i])) {
+                    differentInParallel++;
+                }
+            }
+            if (heights[z * count + count - 1] != right[z * count]) {
+                openEdges++;
+            }
+        }
+        jobSystem.shutdown();
+
+        float[] again = new ProceduralTerrainSource(SEED, OCTAVES, WAVELENGTH, AMPLITUDE, null).getHeights(-3, 5);
+        float[] otherSeed = new ProceduralTerrainSource(SEED + 1, OCTAVES, WAVELENGTH, AMPLITUDE, null).getHeights(-3, 5);
+        float lowest = Float.POSITIVE_INFINITY;
+        float highest = Float.NEGATIVE_INFINITY;
+        for (float height : heights) {
+            lowest = Math.min(lowest, height);
+            highest = Math.max(highest, height);
+        }
+        System.out.println(String.format("%d heights differ from one point at a time, %d in parallel, %d edge samples "
+                        + "differ from the next tile. The same seed gives the same tile: %b, another seed: %b. "
+                        + "The tile is %.1f to %.1f high.", differentFromPoints, differentInParallel, openEdges,
+                Arrays.equals(heights, again), Arrays.equals(heights, otherSeed), lowest, highest));
+    }
+}
@@ -0,0 +1,112 @@
+package engineTester;
+
+import entities.Camera;
+import org.lwjgl.util.vector.Vector3f;
+import renderEngine.MasterRenderer;
+import terrains.Terrain;
+import terrains.TerrainLod;
+import terrains.TerrainPatchList;
+import terrains.TerrainQuadtree;
+import toolbox.Frustum;
+import toolbox.Maths;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class runs the terrain level of detail selection on made up hills, without a display.
+ * It prints how many patches and triangles are picked as the view reaches further, next to what
+ * drawing every tile at full detail costs, and checks that every seam between patches of different
+ * levels is closed: the levels must be one apart, and the finer side must be fully morphed there.
+ */
+public class TerrainLodSimulation {
+
+    // The view distances tried, in tiles.
+    private static final int[] VIEW_DISTANCES = {1, 2, 4, 8, 16};
+    private static final float CAMERA_HEIGHT = 40;
+
+    public static void main(String[] args) {
+        float size = Terrain.getSize();
+        int samples = Terrain.getVertexCount();
+        int fullTileTriangles = 2 * (samples - 1) * (samples - 1);
+        TerrainLod lod = new TerrainLod(size);
+        TerrainPatchList patches = new TerrainPatchList();
+        Vector3f camera = new Vector3f(size * 0.3f, CAMERA_HEIGHT, size * 0.6f);
+
+        System.out.println("View distance | tiles | patches | triangles | full detail triangles | open seams");
+        for (int viewDistance : VIEW_DISTANCES) {
+            List<TerrainQuadtree> quadtrees = createTiles(viewDistance, size, samples);
+            long start = System.nanoTime();
+            lod.selectQuadtrees(quadtrees, null, camera, patches);
+            long time = System.nanoTime() - start;
+            System.out.println(String.format("%9.0f     | %5d | %7d | %9d | %21d | %d   (%.3f ms)", viewDistance * size,
+                    quadtrees.size(), lod.getPatchCount(), lod.getTriangleCount(),
+                    quadtrees.size() * fullTileTriangles, countOpenSeams(lod, patches, camera),
+                    time / 1000000.0));
+        }
+
+        // The same with the frustum of a camera looking along the hills.
+        Camera view = new Camera(camera);
+        view.setPitch(10);
+        view.setYaw(30);
+        Frustum frustum = new Frustum();
+        frustum.update(MasterRenderer.createProjectionMatrix(16 / 9f), Maths.createViewMatrix(view));
+        List<TerrainQuadtree> quadtrees = createTiles(2, size, samples);
+        lod.selectQuadtrees(quadtrees, frustum, camera, patches);
+        System.out.println("With frustum culling, " + quadtrees.size() + " tiles: " + lod.getReport());
+    }
+
+    /**
+     * This method makes the tiles within the given number of tiles of the one at 0, 0.
+     */
+    private static List<TerrainQuadtree> createTiles(int viewDistance, float size, int samples) {
+        List<TerrainQuadtree> quadtrees = new ArrayList<TerrainQuadtree>();
+        for (int gridZ = -viewDistance; gridZ <= viewDistance; gridZ++) {
+            for (int gridX = -viewDistance; gridX <= viewDistance; gridX++) {
+                float x = gridX * size;
+                float z = gridZ * size;
+                float spacing = size / (samples - 1);
+                quadtrees.add(new TerrainQuadtree(x, z, size, TerrainLod.LEVELS, samples,
+                        (gx, gz) -> getHeight(x + gx * spacing, z + gz * spacing)));
+            }
+        }
+        return quadtrees;
+    }
+
+    private static float getHeight(float x, float z) {
+        return (float) (30 * Math.sin(x / 97) * Math.cos(z / 131) + 8 * Math.sin((x + z) / 23));
+    }
+
+    /**
+     * This method counts the pairs of touching patches whose seam could open: their levels are more
+     * than one apart, or the finer one hasn't fully turned into the coarser grid where they meet.
+     */
+    private static int countOpenSeams(TerrainLod lod, TerrainPatchList patches, Vector3f camera) {
+        int open = 0;
+        for (int a = 0; a < patches.getCount(); a++) {
+            for (int b = 0; b < patches.getCount(); b++) {
+                int fine = patches.getLevel(a);
+                int coarse = patches.getLevel(b);
+                if (coarse <= fine || !touch(patches, a, b)) {
+                    continue;
+                }
+                // The seam is part of the coarse patch, so no point of it is closer than the patch.
+                float distance = (float) Math.sqrt(patches.distanceSquared(b, camera.x, camera.y, camera.z));
+                if (coarse - fine > 1 || distance < lod.getMorphEnd(fine)) {
+                    open++;
+                }
+            }
+        }
+        return open;
+    }
+
+    private static boolean touch(TerrainPatchList patches, int a, int b) {
+        float ax = patches.getX(a), az = patches.getZ(a), aSize = patches.getSize(a);
+        float bx = patches.getX(b), bz = patches.getZ(b), bSize = patches.getSize(b);
+        boolean overlapX = ax < bx + bSize && bx < ax + aSize;
+        boolean overlapZ = az < bz + bSize && bz < az + aSize;
+        boolean sideX = ax + aSize == bx || bx + bSize == ax;
+        boolean sideZ = az + aSize == bz || bz + bSize == az;
+        return (sideX && overlapZ) || (sideZ && overlapX);
+    }
+}
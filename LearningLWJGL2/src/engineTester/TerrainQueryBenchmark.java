@@ -0,0 +1,145 @@
+package engineTester;
+
+import jobs.JobSystem;
+import terrains.Terrain;
+import terrains.TerrainLookup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class times asking a TerrainLookup for the height and normal of the ground at a million
+ * random points on a 3 x 3 block of hilly tiles, one point at a time and in batches with 1, 2,
+ * 4... threads, up to the number of cores. It doesn't open a display.
+ *
+ * It also checks that the heights at the samples are the samples' own, and that the normals at
+ * the samples are the ones the terrain vertex shader works out.
+ */
+public class TerrainQueryBenchmark {
+
+    private static final int TILES = 3;
+    private static final int POINT_COUNT = 1000000;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) {
+        int vertexCount = Terrain.getVertexCount();
+        float spacing = Terrain.getSize() / (vertexCount - 1);
+        List<Terrain> terrains = new ArrayList<Terrain>();
+        for (int gridZ = 0; gridZ < TILES; gridZ++) {
+            for (int gridX = 0; gridX < TILES; gridX++) {
+                float[] heights = new float[vertexCount * vertexCount];
+                for (int z = 0; z < vertexCount; z++) {
+                    for (int x = 0; x < vertexCount; x++) {
+                        double worldX = gridX * Terrain.getSize() + x * spacing;
+                        double worldZ = gridZ * Terrain.getSize() + z * spacing;
+                        heights[z * vertexCount + x] = (float) (30 * Math.sin(worldX / 90) * Math.cos(worldZ / 70)
+                                + 5 * Math.sin((worldX + worldZ) / 13));
+                    }
+                }
+                terrains.add(new Terrain(gridX, gridZ, null, heights));
+            }
+        }
+        TerrainLookup lookup = new TerrainLookup();
+        lookup.setTerrains(terrains);
+        check(terrains.get(4), spacing);
+
+        Random random = new Random(7);
+        float[] xs = new float[POINT_COUNT];
+        float[] zs = new float[POINT_COUNT];
+        for (int i = 0; i < POINT_COUNT; i++) {
+            xs[i] = random.nextFloat() * TILES * Terrain.getSize();
+            zs[i] = random.nextFloat() * TILES * Terrain.getSize();
+        }
+        float[] heights = new float[POINT_COUNT];
+        float[] normals = new float[POINT_COUNT * 3];
+
+        System.out.println(POINT_COUNT + " points on " + lookup.getTileCount() + " tiles");
+        long time = 0;
+        float sum = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < POINT_COUNT; i++) {
+                sum += lookup.getHeight(xs[i], zs[i]);
+            }
+            if (round >= WARMUP_ROUNDS) {
+                time += System.nanoTime() - start;
+            }
+        }
+        System.out.println(String.format("One at a time: %.1f ns per height (%.0f)", (double) time / ROUNDS
+                / POINT_COUNT, sum));
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            JobSystem jobSystem = threads == 1 ? null : new JobSystem(threads);
+            long heightTime = 0;
+            long normalTime = 0;
+            for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+                long start = System.nanoTime();
+                lookup.getHeights(xs, zs, heights, POINT_COUNT, jobSystem);
+                long middle = System.nanoTime();
+                lookup.getNormals(xs, zs, normals, POINT_COUNT, jobSystem);
+                if (round >= WARMUP_ROUNDS) {
+                    heightTime += middle - start;
+                    normalTime += System.nanoTime() - middle;
+                }
+            }
+            if (jobSystem != null) {
+                jobSystem.shutdown();
+            }
+            System.out.println(String.format("Batches with %d threads: %.2f ms for the heights, %.2f ms for the "
+                    + "normals", threads, heightTime / 1000000.0 / ROUNDS, normalTime / 1000000.0 / ROUNDS));
+        }
+    }
+
+    /**
+     * This method checks the heights and normals at every sample of the terrain, and that the
+     * heights between samples stay between the corners of their square.
+     */
+    private static void check(Terrain terrain, float spacing) {
+        int vertexCount = Terrain.getVertexCount();
+        float[] normal = new float[3];
+        float largestHeightError = 0;
+        float largestNormalError = 0;
+        for (int z = 1; z < vertexCount - 1; z++) {
+            for (int x = 1; x < vertexCount - 1; x++) {
+                float worldX = terrain.getX() + x * spacing;
+                float worldZ = terrain.getZ() + z * spacing;
+                float sample = terrain.getSampleHeight(x, z);
+                largestHeightError = Math.max(largestHeightError,
+                        Math.abs(terrain.getHeightOfTerrain(worldX, worldZ) - sample));
+                largestHeightError = Math.max(largestHeightError,
+                        Math.abs(terrain.getBilinearHeight(worldX, worldZ) - sample));
+
+                float normalX = terrain.getSampleHeight(x - 1, z) - terrain.getSampleHeight(x + 1, z);
+                float normalY = 2 * spacing;
+                float normalZ = terrain.getSampleHeight(x, z - 1) - terrain.getSampleHeight(x, z + 1);
+                float length = (float) Math.sqrt(normalX * normalX + normalY * normalY + normalZ * normalZ);
+                terrain.getNormalOfTerrain(worldX, worldZ, normal, 0);
+                largestNormalError = Math.max(largestNormalError, Math.abs(normal[0] - normalX / length)
+                        + Math.abs(normal[1] - normalY / length) + Math.abs(normal[2] - normalZ / length));
+            }
+        }
+
+        int outOfSquare = 0;
+        Random random = new Random(3);
+        for (int i = 0; i < 100000; i++) {
+            float gridX = random.nextFloat() * (vertexCount - 1);
+            float gridZ = random.nextFloat() * (vertexCount - 1);
+            int x = Math.min((int) gridX, vertexCount - 2);
+            int z = Math.min((int) gridZ, vertexCount - 2);
+            float low = Math.min(Math.min(terrain.getSampleHeight(x, z), terrain.getSampleHeight(x + 1, z)),
+                    Math.min(terrain.getSampleHeight(x, z + 1), terrain.getSampleHeight(x + 1, z + 1)));
+            float high = Math.max(Math.max(terrain.getSampleHeight(x, z), terrain.getSampleHeight(x + 1, z)),
+                    Math.max(terrain.getSampleHeight(x, z + 1), terrain.getSampleHeight(x + 1, z + 1)));
+            float height = terrain.getHeightOfTerrain(terrain.getX() + gridX * spacing, terrain.getZ() + gridZ * spacing);
+            if (height < low - 0.001f || height > high + 0.001f) {
+                outOfSquare++;
+            }
+        }
+        System.out.println(String.format("At the samples the heights are within %.5f and the normals within %.5f "
+                + "of the shader's; %d of 100000 heights between samples are outside their square.",
+                largestHeightError, largestNormalError, outOfSquare));
+    }
+}
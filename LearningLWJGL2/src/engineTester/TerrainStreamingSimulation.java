@@ -0,0 +1,81 @@
+package engineTester;
+
+import terrains.Terrain;
+import terrains.TerrainTileManager;
+import terrains.TerrainTileUploader;
+
+/**
+ * This class flies a camera across the world for a while and streams the terrain tiles around it,
+ * without a display. The tiles are "uploaded" by a made up uploader that only counts them, and the
+ * heights are made up hills. Every second it prints how many tiles are resident, pending and
+ * evicted, and at the end how often the ring around the camera had holes in it.
+ */
+public class TerrainStreamingSimulation {
+
+    private static final int FRAMES = 1200;
+    private static final float FRAME_TIME = 1 / 60f;
+    // The camera flies along x, and turns back half way.
+    private static final float CAMERA_SPEED = 600;
+    private static final int RING_RADIUS = 2;
+    // Room for 40 tiles, so some of the tiles behind the camera are still there when it turns back.
+    private static final long MEMORY_BUDGET = 40L * Terrain.getHeightMapBytes();
+    private static final int UPLOADS_PER_FRAME = 2;
+    private static final int THREADS = 2;
+
+    public static void main(String[] args) throws InterruptedException {
+        CountingUploader uploader = new CountingUploader();
+        int samples = Terrain.getVertexCount();
+        float spacing = Terrain.getSize() / (samples - 1);
+        TerrainTileManager manager = new TerrainTileManager((gridX, gridZ) -> {
+            float[] heights = new float[samples * samples];
+            for (int gz = 0; gz < samples; gz++) {
+                for (int gx = 0; gx < samples; gx++) {
+                    float x = (gridX * (samples - 1) + gx) * spacing;
+                    float z = (gridZ * (samples - 1) + gz) * spacing;
+                    heights[gz * samples + gx] = (float) (30 * Math.sin(x / 97) * Math.cos(z / 131));
+                }
+            }
+            return heights;
+        }, null, uploader, RING_RADIUS, MEMORY_BUDGET, UPLOADS_PER_FRAME, THREADS);
+
+        int ringSize = (2 * RING_RADIUS + 1) * (2 * RING_RADIUS + 1);
+        int framesWithHoles = 0;
+        float cameraX = 0;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            cameraX += (frame < FRAMES / 2 ? CAMERA_SPEED : -CAMERA_SPEED) * FRAME_TIME;
+            manager.update(cameraX, 0);
+            if (manager.getTerrains().size() < ringSize) {
+                framesWithHoles++;
+            }
+            if (frame % 60 == 59) {
+                System.out.println(String.format("%5.1f s, camera at %6.0f: %d drawn, %d uploaded this frame. %s",
+                        (frame + 1) * FRAME_TIME, cameraX, manager.getTerrains().size(),
+                        manager.getLastFrameUploads(), manager.getReport()));
+            }
+            Thread.sleep((long) (FRAME_TIME * 1000));
+        }
+        System.out.println(String.format("The ring had holes in %d of %d frames. At most %d height maps were "
+                + "uploaded at once.", framesWithHoles, FRAMES, uploader.mostUploaded));
+        manager.cleanUp();
+    }
+
+    /**
+     * This class stands in for the GL uploader and counts the tiles it is given.
+     */
+    private static class CountingUploader implements TerrainTileUploader {
+
+        private int uploaded = 0;
+        private int mostUploaded = 0;
+
+        @Override
+        public void upload(Terrain terrain) {
+            uploaded++;
+            mostUploaded = Math.max(mostUploaded, uploaded);
+        }
+
+        @Override
+        public void unload(Terrain terrain) {
+            uploaded--;
+        }
+    }
+}
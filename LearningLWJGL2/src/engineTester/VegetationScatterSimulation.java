@@ -0,0 +1,118 @@
+package engineTester;
+
+import models.RawModel;
+import models.TexturedModel;
+import objConverter.ModelData;
+import objConverter.OBJFileLoader;
+import org.lwjgl.util.vector.Vector3f;
+import renderEngine.StaticBatchBuilder;
+import renderEngine.StaticLightBaker;
+import terrains.ProceduralTerrainSource;
+import terrains.Terrain;
+import textures.ModelTexture;
+import toolbox.BoundingBox;
+import vegetation.ScatterRule;
+import vegetation.VegetationChunk;
+import vegetation.VegetationScatter;
+
+import java.util.Arrays;
+
+/**
+ * This class scatters the same vegetation as the MainGameLoop over procedural hills, without a
+ * display. The models' geometry is read from the res folder, but they get made up VAO and
+ * texture IDs. It checks that chunks made twice come out the same and that no two instances of
+ * a rule are closer than the jittered grid allows, and times scattering, merging and baking
+ * (without ambient occlusion, like the MainGameLoop).
+ */
+public class VegetationScatterSimulation {
+
+    private static final long SEED = 42;
+    private static final float CHUNK_SIZE = 100;
+    // The chunks around the start that are made, 8 x 8 of them, all on the one tile.
+    private static final int CHUNKS = 8;
+
+    public static void main(String[] args) {
+        VegetationScatter scatter = new VegetationScatter(SEED, CHUNK_SIZE, 5, 2, 1);
+        ScatterRule trees = new ScatterRule(loadModel("lowPolyTree", 1), 25, 0.6f, 0.6f, 0.9f);
+        trees.setMinNormalY(0.85f);
+        scatter.addRule(trees);
+        scatter.addRule(new ScatterRule(loadModel("grassModel", 2), 20, 0.5f, 0.8f, 1.2f));
+        scatter.addRule(new ScatterRule(loadModel("fern", 3), 20, 0.5f, 0.5f, 0.7f));
+        Terrain ground = new ProceduralTerrainSource(1234, 6, 800, 40, null).createTerrain(0, 0, null);
+        StaticLightBaker baker = new StaticLightBaker(new Vector3f(20000, 20000, 20000), false, null);
+
+        int rules = scatter.getRules().size();
+        long[] instanceCounts = new long[rules];
+        long scatterTime = 0;
+        long mergeTime = 0;
+        long bakeTime = 0;
+        int changedChunks = 0;
+        int tooClose = 0;
+        for (int chunkZ = 0; chunkZ < CHUNKS; chunkZ++) {
+            for (int chunkX = 0; chunkX < CHUNKS; chunkX++) {
+                long start = System.nanoTime();
+                VegetationChunk chunk = scatter.scatterChunk(chunkX, chunkZ, ground);
+                scatterTime += System.nanoTime() - start;
+                VegetationChunk again = scatter.scatterChunk(chunkX, chunkZ, ground);
+                for (int r = 0; r < rules; r++) {
+                    ScatterRule rule = scatter.getRules().get(r);
+                    instanceCounts[r] += chunk.getInstanceCount(r);
+                    if (!Arrays.equals(chunk.getInstances(r), again.getInstances(r))) {
+                        changedChunks++;
+                    }
+                    tooClose += countTooClose(chunk.getInstances(r), chunk.getInstanceCount(r),
+                            (1 - ScatterRule.JITTER) * rule.getSpacing() * 0.999f);
+                    if (chunk.getInstanceCount(r) == 0) {
+                        continue;
+                    }
+                    start = System.nanoTime();
+                    ModelData merged = StaticBatchBuilder.mergeInstances(rule.getModel().getModelData(),
+                            chunk.getInstances(r), chunk.getInstanceCount(r), new BoundingBox());
+                    long middle = System.nanoTime();
+                    baker.bake(merged, rule.getModel().getTexture().isUseFakeLighting());
+                    mergeTime += middle - start;
+                    bakeTime += System.nanoTime() - middle;
+                }
+            }
+        }
+
+        int chunkCount = CHUNKS * CHUNKS;
+        long total = 0;
+        for (int r = 0; r < rules; r++) {
+            ScatterRule rule = scatter.getRules().get(r);
+            float expected = rule.getCoverage() / (rule.getSpacing() * rule.getSpacing()) * CHUNK_SIZE * CHUNK_SIZE;
+            System.out.println(String.format("Rule %d: %.1f instances per chunk, %.1f expected on flat enough ground.",
+                    r, instanceCounts[r] / (float) chunkCount, expected));
+            total += instanceCounts[r];
+        }
+        System.out.println(String.format("%d chunks, %d instances in %.1f KB packed. Per chunk: %.3f ms scattering, "
+                        + "%.2f ms merging and %.2f ms baking.", chunkCount, total,
+                total * StaticBatchBuilder.INSTANCE_FLOATS * 4 / 1024.0, scatterTime / 1000000.0 / chunkCount,
+                mergeTime / 1000000.0 / chunkCount, bakeTime / 1000000.0 / chunkCount));
+        System.out.println(String.format("%d chunk rules came out differently the second time, %d pairs of "
+                + "instances are closer than the grid allows.", changedChunks, tooClose));
+    }
+
+    /**
+     * This method counts the pairs of packed instances closer than the given distance along the ground.
+     */
+    private static int countTooClose(float[] instances, int count, float distance) {
+        int pairs = 0;
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                float dx = instances[i * StaticBatchBuilder.INSTANCE_FLOATS] - instances[j * StaticBatchBuilder.INSTANCE_FLOATS];
+                float dz = instances[i * StaticBatchBuilder.INSTANCE_FLOATS + 2]
+                        - instances[j * StaticBatchBuilder.INSTANCE_FLOATS + 2];
+                if (dx * dx + dz * dz < distance * distance) {
+                    pairs++;
+                }
+            }
+        }
+        return pairs;
+    }
+
+    private static TexturedModel loadModel(String name, int id) {
+        ModelData data = OBJFileLoader.loadOBJ(name);
+        return new TexturedModel(new RawModel(id, data.getIndices().length), new ModelTexture(id), data);
+    }
+}
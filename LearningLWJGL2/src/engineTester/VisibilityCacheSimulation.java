@@ -0,0 +1,113 @@
+package engineTester;
+
+import entities.Camera;
+import entities.Entity;
+import entities.EntityStore;
+import models.RawModel;
+import models.TexturedModel;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import renderEngine.MasterRenderer;
+import renderEngine.VisibilityCache;
+import textures.ModelTexture;
+import toolbox.BoundingBox;
+import toolbox.Frustum;
+import toolbox.Maths;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * This class flies a camera through a field of boxes, without a display, moving and turning
+ * about more than one axis at once, and culls the boxes with a VisibilityCache every frame. It
+ * checks every frame's visible set against testing every box with a Frustum, prints how many
+ * full and incremental updates the cache did and how many boxes it tested, and fails if the
+ * cache ever gets a box wrong.
+ */
+public class VisibilityCacheSimulation {
+
+    private static final float MARGIN = 20;
+    private static final int MAX_FRAMES_BETWEEN_FULL_UPDATES = 60;
+    private static final int BOX_COUNT = 20000;
+    private static final float FIELD_SIZE = 2400;
+    private static final int FRAMES = 2000;
+    // How far the camera moves and how many degrees it turns about each axis per frame, at most.
+    private static final float SPEED = 0.4f;
+    private static final float TURN_SPEED = 0.08f;
+
+    public static void main(String[] args) {
+        Random rand = new Random(42);
+        EntityStore store = new EntityStore();
+        TexturedModel model = new TexturedModel(new RawModel(1, 3), new ModelTexture(1));
+        List<Entity> boxes = new ArrayList<Entity>();
+        Map<Entity, Integer> indices = new IdentityHashMap<Entity, Integer>();
+        for (int i = 0; i < BOX_COUNT; i++) {
+            float x = (rand.nextFloat() - 0.5f) * FIELD_SIZE;
+            float y = rand.nextFloat() * 60;
+            float z = (rand.nextFloat() - 0.5f) * FIELD_SIZE;
+            float size = 1 + rand.nextFloat() * 5;
+            Entity entity = new Entity(store, model, new Vector3f(x, y, z), 0, 0, 0, 1);
+            BoundingBox bounds = new BoundingBox();
+            bounds.include(x - size, y, z - size);
+            bounds.include(x + size, y + size * 2, z + size);
+            entity.setBounds(bounds);
+            indices.put(entity, boxes.size());
+            boxes.add(entity);
+        }
+
+        VisibilityCache cache = new VisibilityCache(MARGIN, MasterRenderer.getFarPlane(),
+                MAX_FRAMES_BETWEEN_FULL_UPDATES);
+        cache.setEntities(boxes);
+        Matrix4f projection = MasterRenderer.createProjectionMatrix(16 / 9f);
+        Matrix4f view = new Matrix4f();
+        Frustum frustum = new Frustum();
+        BoundingBox bounds = new BoundingBox();
+        Camera camera = new Camera(new Vector3f(0, 20, 0));
+        boolean[] cached = new boolean[BOX_COUNT];
+
+        long tested = 0;
+        int wrongFrames = 0;
+        int wrongBoxes = 0;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            // The camera turns about all three axes at once, at speeds that change over the path.
+            float t = frame / 100f;
+            camera.setPitch(camera.getPitch() + TURN_SPEED * (float) Math.sin(t * 0.7));
+            camera.setYaw(camera.getYaw() + TURN_SPEED * (float) Math.cos(t * 0.5));
+            camera.setRoll(camera.getRoll() + TURN_SPEED * 0.5f * (float) Math.sin(t * 1.3));
+            double yaw = Math.toRadians(camera.getYaw());
+            camera.getPosition().x += SPEED * (float) Math.sin(yaw);
+            camera.getPosition().z -= SPEED * (float) Math.cos(yaw);
+
+            List<Entity> visible = cache.update(camera, projection);
+            tested += cache.getLastTestedCount();
+            Arrays.fill(cached, false);
+            for (Entity entity : visible) {
+                cached[indices.get(entity)] = true;
+            }
+            frustum.update(projection, Maths.createViewMatrix(camera, view));
+            int wrong = 0;
+            for (int i = 0; i < BOX_COUNT; i++) {
+                boxes.get(i).getWorldBounds(bounds);
+                if (frustum.isVisible(bounds) != cached[i]) {
+                    wrong++;
+                }
+            }
+            if (wrong > 0) {
+                wrongFrames++;
+                wrongBoxes += wrong;
+            }
+        }
+
+        System.out.println(String.format("%d boxes over %d frames: %d full updates, %d incremental, %.0f boxes "
+                        + "tested per frame on average. %d frames had %d boxes the cache got wrong.", BOX_COUNT,
+                FRAMES, cache.getFullUpdates(), cache.getIncrementalUpdates(), tested / (double) FRAMES, wrongFrames,
+                wrongBoxes));
+        if (wrongBoxes > 0) {
+            throw new RuntimeException("The visibility cache disagrees with culling every box!");
+        }
+    }
+}
@@ -2,6 +2,7 @@ package entities;
 
 import org.lwjgl.input.Keyboard;
 import org.lwjgl.util.vector.Vector3f;
+import renderEngine.DisplayManager;
 
 /**
  * This class represents our virtual camera.
@@ -9,6 +10,18 @@ import org.lwjgl.util.vector.Vector3f;
  */
 public class Camera {
 
+    // How fast the camera moves, in units per second.
+    private static final float SPEED = 12;
+    private static final float VERTICAL_SPEED = 6;
+
+    // The keys the camera responds to, as bits of the input passed to move(int, float).
+    public static final int INPUT_FORWARD = 1;
+    public static final int INPUT_BACK = 2;
+    public static final int INPUT_LEFT = 4;
+    public static final int INPUT_RIGHT = 8;
+    public static final int INPUT_UP = 16;
+    public static final int INPUT_DOWN = 32;
+
     private Vector3f position = new Vector3f(0,0,0);
     private float pitch = 10;
     private float yaw;
@@ -22,28 +35,66 @@ public class Camera {
 
     /**
      * This method moves the camera around. It is called every frame.
+     * The distance moved depends on the time the last frame took, so the speed is the same at any frame rate.
      */
     public void move(){
-        if(Keyboard.isKeyDown(Keyboard.KEY_W)){
-            position.z -= 0.1f;
+        move(readInput(), DisplayManager.getFrameTimeSeconds());
+    }
+
+    /**
+     * This method moves the camera for the given input bits over the given time, in seconds.
+     * It doesn't touch the keyboard, so it can be called from any thread.
+     */
+    public void move(int input, float delta){
+        float distance = SPEED * delta;
+        float verticalDistance = VERTICAL_SPEED * delta;
+        if((input & INPUT_FORWARD) != 0){
+            position.z -= distance;
         }
-        if(Keyboard.isKeyDown(Keyboard.KEY_D)){
-            position.x += 0.1f;
+        if((input & INPUT_RIGHT) != 0){
+            position.x += distance;
         }
 
-        if(Keyboard.isKeyDown(Keyboard.KEY_A)){
-            position.x -= 0.1f;
+        if((input & INPUT_LEFT) != 0){
+            position.x -= distance;
         }
-        if(Keyboard.isKeyDown(Keyboard.KEY_S)){
-            position.z += 0.1f;
+        if((input & INPUT_BACK) != 0){
+            position.z += distance;
         }
 
+        if((input & INPUT_UP) != 0){
+            position.y += verticalDistance;
+        }
+        if((input & INPUT_DOWN) != 0){
+            position.y -= verticalDistance;
+        }
+    }
+
+    /**
+     * This method reads the keys the camera responds to into input bits.
+     * It must be called on the thread that made the display.
+     */
+    public static int readInput(){
+        int input = 0;
+        if(Keyboard.isKeyDown(Keyboard.KEY_W)){
+            input |= INPUT_FORWARD;
+        }
+        if(Keyboard.isKeyDown(Keyboard.KEY_S)){
+            input |= INPUT_BACK;
+        }
+        if(Keyboard.isKeyDown(Keyboard.KEY_A)){
+            input |= INPUT_LEFT;
+        }
+        if(Keyboard.isKeyDown(Keyboard.KEY_D)){
+            input |= INPUT_RIGHT;
+        }
         if(Keyboard.isKeyDown(Keyboard.KEY_SPACE)){
-            position.y += 0.05f;
+            input |= INPUT_UP;
         }
         if(Keyboard.isKeyDown(Keyboard.KEY_LSHIFT)){
-            position.y -= 0.05f;
+            input |= INPUT_DOWN;
         }
+        return input;
     }
 
     public Vector3f getPosition() {
@@ -61,4 +112,16 @@ public class Camera {
     public float getRoll() {
         return roll;
     }
+
+    public void setPitch(float pitch) {
+        this.pitch = pitch;
+    }
+
+    public void setYaw(float yaw) {
+        this.yaw = yaw;
+    }
+
+    public void setRoll(float roll) {
+        this.roll = roll;
+    }
 }
\ No newline at end of file
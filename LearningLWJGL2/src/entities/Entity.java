@@ -1,90 +1,252 @@
 package entities;
 
 import models.TexturedModel;
+import objConverter.ModelData;
+import org.lwjgl.util.vector.Matrix4f;
 import org.lwjgl.util.vector.Vector3f;
+import toolbox.BoundingBox;
+import toolbox.Maths;
 
 /**
  * This class is essentially an instance of a model. It contains
  * a model, position, rotation, and scale.
+ *
+ * The entity is a view of a slot in an EntityStore, where its fields and its transformation
+ * matrix are really kept, so that all the entities of a store can be gone over in bulk. remove()
+ * frees the slot once the entity is no longer needed; the entity mustn't be used after that.
+ *
+ * A store keeps every entity in it alive, so an entity that is simply dropped is never garbage
+ * collected and keeps its slot, and bulk work, forever. This matters most for the constructor
+ * without a store, which puts the entity into EntityStore.getDefault() where it stays until the
+ * game exits: only use it for entities that live as long as the game, and call remove() on any
+ * other entity once it is no longer needed.
+ *
+ * The matrix is only rebuilt when it is asked for after the position, rotation or scale has
+ * changed, so an entity that doesn't move never builds it again. The setters are what mark it as
+ * changed. There is no Vector3f of the position to change, since the position is kept in the
+ * store: it is read with getX(), getY() and getZ() or copied out with getPosition(dest), and
+ * changed with setPosition() or increasePosition().
  */
 public class Entity {
 
-    private TexturedModel model;
-    private Vector3f position;
-    private float rotX, rotY, rotZ;
-    private float scale;
-
-    // Constructor
+    private final EntityStore store;
+    private final int handle;
+    private final EntityStore.Page page;
+    private final int index;
+    // Made the first time it is asked for, and refreshed from the store.
+    private Matrix4f transformation;
+    // The build of the matrix in the store that was last copied into 'transformation'.
+    private int loadedBuild = -1;
+
+    /**
+     * Constructor. The entity goes into EntityStore.getDefault(), which keeps it, even once
+     * nothing else refers to it, until remove() is called.
+     */
     public Entity(TexturedModel model, Vector3f position, float rotX, float rotY, float rotZ,
                   float scale) {
-        this.model = model;
-        this.position = position;
-        this.rotX = rotX;
-        this.rotY = rotY;
-        this.rotZ = rotZ;
-        this.scale = scale;
+        this(EntityStore.getDefault(), model, position, rotX, rotY, rotZ, scale);
+    }
+
+    /**
+     * Constructor. Takes in the store to keep the entity in, and the same as the one above.
+     */
+    public Entity(EntityStore store, TexturedModel model, Vector3f position, float rotX, float rotY, float rotZ,
+                  float scale) {
+        this.store = store;
+        this.handle = store.add(this, model, position.x, position.y, position.z, rotX, rotY, rotZ, scale);
+        this.page = store.getPage(handle);
+        this.index = EntityStore.getIndex(handle);
+    }
+
+    /**
+     * This method frees the entity's slot in its store.
+     */
+    public void remove() {
+        store.remove(handle);
     }
 
     //
     // Getter and Setter Methods
     //
     public void increasePosition(float dx, float dy, float dz) {
-        this.position.x += dx;
-        this.position.y += dy;
-        this.position.z += dz;
+        page.x[index] += dx;
+        page.y[index] += dy;
+        page.z[index] += dz;
+        page.flags[index] |= EntityStore.CHANGED;
     }
 
     public void increaseRotation(float dx, float dy, float dz) {
-        this.rotX += dx;
-        this.rotY += dy;
-        this.rotZ += dz;
+        page.rotX[index] += dx;
+        page.rotY[index] += dy;
+        page.rotZ[index] += dz;
+        page.flags[index] |= EntityStore.CHANGED;
     }
 
     public TexturedModel getModel() {
-        return model;
+        return page.models[index];
     }
 
     public void setModel(TexturedModel model) {
-        this.model = model;
+        page.models[index] = model;
+    }
+
+    /**
+     * This method copies the entity's position into dest and returns dest. Changing dest doesn't
+     * move the entity; use setPosition() for that.
+     */
+    public Vector3f getPosition(Vector3f dest) {
+        dest.set(page.x[index], page.y[index], page.z[index]);
+        return dest;
     }
 
-    public Vector3f getPosition() {
-        return position;
+    public float getX() {
+        return page.x[index];
+    }
+
+    public float getY() {
+        return page.y[index];
+    }
+
+    public float getZ() {
+        return page.z[index];
     }
 
     public void setPosition(Vector3f position) {
-        this.position = position;
+        setPosition(position.x, position.y, position.z);
+    }
+
+    public void setPosition(float x, float y, float z) {
+        page.x[index] = x;
+        page.y[index] = y;
+        page.z[index] = z;
+        page.flags[index] |= EntityStore.CHANGED;
     }
 
     public float getRotX() {
-        return rotX;
+        return page.rotX[index];
     }
 
     public void setRotX(float rotX) {
-        this.rotX = rotX;
+        page.rotX[index] = rotX;
+        page.flags[index] |= EntityStore.CHANGED;
     }
 
     public float getRotY() {
-        return rotY;
+        return page.rotY[index];
     }
 
     public void setRotY(float rotY) {
-        this.rotY = rotY;
+        page.rotY[index] = rotY;
+        page.flags[index] |= EntityStore.CHANGED;
     }
 
     public float getRotZ() {
-        return rotZ;
+        return page.rotZ[index];
     }
 
     public void setRotZ(float rotZ) {
-        this.rotZ = rotZ;
+        page.rotZ[index] = rotZ;
+        page.flags[index] |= EntityStore.CHANGED;
     }
 
     public float getScale() {
-        return scale;
+        return page.scale[index];
     }
 
     public void setScale(float scale) {
-        this.scale = scale;
+        page.scale[index] = scale;
+        page.flags[index] |= EntityStore.CHANGED;
+    }
+
+    public boolean isStatic() {
+        return (page.flags[index] & EntityStore.STATIC) != 0;
+    }
+
+    public void setStatic(boolean isStatic) {
+        if (isStatic) {
+            page.flags[index] |= EntityStore.STATIC;
+        } else {
+            page.flags[index] &= ~EntityStore.STATIC;
+        }
+    }
+
+    /**
+     * This method returns the entity's transformation matrix, rebuilding it first if the entity has
+     * moved, turned or changed size since it was last built. The matrix is the entity's own, so it
+     * must not be changed, and one entity's matrix must not be asked for from two threads at once.
+     */
+    public Matrix4f getTransformationMatrix() {
+        if ((page.flags[index] & EntityStore.CHANGED) != 0) {
+            EntityStore.rebuild(page, index);
+        }
+        if (transformation == null) {
+            transformation = new Matrix4f();
+        }
+        if (loadedBuild != page.builds[index]) {
+            Maths.loadMatrix(page.matrices, index * 16, transformation);
+            loadedBuild = page.builds[index];
+        }
+        return transformation;
+    }
+
+    /**
+     * Returns how many times the transformation matrix has been built.
+     */
+    public int getTransformationBuilds() {
+        return page.builds[index];
+    }
+
+    public EntityStore getStore() {
+        return store;
+    }
+
+    public int getHandle() {
+        return handle;
+    }
+
+    public BoundingBox getBounds() {
+        return page.bounds[index];
+    }
+
+    public void setBounds(BoundingBox bounds) {
+        page.bounds[index] = bounds;
+    }
+
+    /**
+     * This method writes a world space box around the entity into dest and returns true.
+     * It uses the entity's bounding box if it has one, otherwise a box around the model's
+     * furthest point. It returns false if neither is known.
+     */
+    public boolean getWorldBounds(BoundingBox dest) {
+        dest.reset();
+        BoundingBox bounds = page.bounds[index];
+        if (bounds != null) {
+            dest.include(bounds);
+            return true;
+        }
+        ModelData data = page.models[index].getModelData();
+        if (data == null) {
+            return false;
+        }
+        float radius = data.getFurthestPoint() * page.scale[index];
+        float x = page.x[index], y = page.y[index], z = page.z[index];
+        dest.include(x - radius, y - radius, z - radius);
+        dest.include(x + radius, y + radius, z + radius);
+        return true;
+    }
+
+    /**
+     * This method returns the squared distance from a point to this entity.
+     * It is used to sort entities front to back.
+     */
+    public float distanceSquared(Vector3f point) {
+        BoundingBox bounds = page.bounds[index];
+        if (bounds != null && !bounds.isEmpty()) {
+            return bounds.distanceSquared(point.x, point.y, point.z);
+        }
+        float dx = page.x[index] - point.x;
+        float dy = page.y[index] - point.y;
+        float dz = page.z[index] - point.z;
+        return dx * dx + dy * dy + dz * dz;
     }
 }
\ No newline at end of file
@@ -0,0 +1,309 @@
+package entities;
+
+import jobs.JobSystem;
+import models.TexturedModel;
+import objConverter.ModelData;
+import org.lwjgl.util.vector.Matrix4f;
+import toolbox.BatchMaths;
+import toolbox.BoundingBox;
+import toolbox.Frustum;
+import toolbox.Maths;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class keeps the data of many entities in arrays of primitives, one array per field,
+ * instead of in one object per entity. An Entity is only a view of its slot in a store, so
+ * looping over every entity's position or matrix walks along a few arrays rather than jumping
+ * around the heap from object to object.
+ *
+ * The arrays are split into pages of PAGE_SIZE slots. A full store gets another page, and the
+ * pages already there are never copied or moved, so an entity's handle (its page and its slot in
+ * the page) stays the same for as long as it lives, and entities can be added on one thread while
+ * others change the ones they own. The slots of removed entities are used again for new ones.
+ *
+ * The bulk methods, updateTransformations(), cull() and fillInstanceBuffer(), go over the
+ * entities a page at a time, with the pages spread over a job system if they are given one.
+ * They must not run while entities are being added or removed, or while the entities they
+ * go over are being changed.
+ */
+public class EntityStore {
+
+    static final int PAGE_BITS = 10;
+    public static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    // How many instances fillInstanceBuffer() gives each piece of work.
+    private static final int INSTANCE_GRAIN_SIZE = 512;
+
+    // The bits of a slot's flags.
+    static final int LIVE = 1;
+    static final int STATIC = 2;
+    static final int CHANGED = 4;
+
+    // The store entities are put in when they aren't given one.
+    private static final EntityStore DEFAULT = new EntityStore();
+
+    private volatile Page[] pages = new Page[0];
+    // One past the highest slot ever used.
+    private volatile int size = 0;
+    private int[] freeSlots = new int[16];
+    private int freeCount = 0;
+    private int count = 0;
+    private final AtomicInteger lastRebuildCount = new AtomicInteger();
+
+    /**
+     * This method returns the store entities created without one go into. It lives as long as the
+     * game, so the entities in it are only ever freed by their remove().
+     */
+    public static EntityStore getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * This method finds a free slot for an entity, fills it in and returns the slot's handle.
+     */
+    synchronized int add(Entity entity, TexturedModel model, float x, float y, float z, float rotX, float rotY,
+                         float rotZ, float scale) {
+        int handle;
+        if (freeCount > 0) {
+            handle = freeSlots[--freeCount];
+        } else {
+            handle = size;
+            if (handle >> PAGE_BITS == pages.length) {
+                Page[] grown = new Page[pages.length + 1];
+                System.arraycopy(pages, 0, grown, 0, pages.length);
+                grown[pages.length] = new Page();
+                pages = grown;
+            }
+            size = handle + 1;
+        }
+        Page page = pages[handle >> PAGE_BITS];
+        int i = handle & PAGE_MASK;
+        page.x[i] = x;
+        page.y[i] = y;
+        page.z[i] = z;
+        page.rotX[i] = rotX;
+        page.rotY[i] = rotY;
+        page.rotZ[i] = rotZ;
+        page.scale[i] = scale;
+        page.models[i] = model;
+        page.bounds[i] = null;
+        page.entities[i] = entity;
+        page.builds[i] = 0;
+        page.flags[i] = LIVE | CHANGED;
+        count++;
+        return handle;
+    }
+
+    /**
+     * This method frees the slot of a handle, so it can be used for another entity.
+     */
+    synchronized void remove(int handle) {
+        Page page = getPage(handle);
+        int i = handle & PAGE_MASK;
+        if ((page.flags[i] & LIVE) == 0) {
+            throw new IllegalArgumentException("Entity " + handle + " has already been removed!");
+        }
+        page.flags[i] = 0;
+        page.models[i] = null;
+        page.bounds[i] = null;
+        page.entities[i] = null;
+        if (freeCount == freeSlots.length) {
+            int[] grown = new int[freeSlots.length * 2];
+            System.arraycopy(freeSlots, 0, grown, 0, freeCount);
+            freeSlots = grown;
+        }
+        freeSlots[freeCount++] = handle;
+        count--;
+    }
+
+    Page getPage(int handle) {
+        return pages[handle >> PAGE_BITS];
+    }
+
+    static int getIndex(int handle) {
+        return handle & PAGE_MASK;
+    }
+
+    /**
+     * This method rebuilds the transformation matrix in a slot and marks it as up to date.
+     */
+    static void rebuild(Page page, int i) {
+        Maths.storeTransformationMatrix(page.x[i], page.y[i], page.z[i], page.rotX[i], page.rotY[i], page.rotZ[i],
+                page.scale[i], page.matrices, i * 16);
+        page.flags[i] &= ~CHANGED;
+        page.builds[i]++;
+    }
+
+    /**
+     * This method rebuilds the matrix of every entity that has moved, turned or changed size since
+     * its matrix was last built, a page per piece of work. The jobs may be null, to do it all on
+     * this thread. Afterwards the entities' getTransformationMatrix() only has to copy it.
+     */
+    public void updateTransformations(JobSystem jobs) {
+        final Page[] pages = this.pages;
+        final int size = this.size;
+        lastRebuildCount.set(0);
+        forPages(jobs, pages.length, (from, to) -> {
+            int rebuilt = 0;
+            for (int p = from; p < to; p++) {
+                Page page = pages[p];
+                int end = Math.min(PAGE_SIZE, size - p * PAGE_SIZE);
+                int[] flags = page.flags;
+                for (int i = 0; i < end; i++) {
+                    if ((flags[i] & (LIVE | CHANGED)) == (LIVE | CHANGED)) {
+                        rebuild(page, i);
+                        rebuilt++;
+                    }
+                }
+            }
+            lastRebuildCount.addAndGet(rebuilt);
+        });
+    }
+
+    /**
+     * This method tests every entity against the frustum, and writes the handles of the ones that
+     * might be visible into 'visible', in handle order. It returns how many there are; 'visible'
+     * must have room for getCount(). An entity is tested with its bounding box if it has one,
+     * otherwise with a sphere around its model's furthest point, or as a point if neither is known.
+     */
+    public int cull(final Frustum frustum, int[] visible, JobSystem jobs) {
+        final Page[] pages = this.pages;
+        final int size = this.size;
+        forPages(jobs, pages.length, (from, to) -> {
+            for (int p = from; p < to; p++) {
+                Page page = pages[p];
+                int end = Math.min(PAGE_SIZE, size - p * PAGE_SIZE);
+                for (int i = 0; i < end; i++) {
+                    page.visible[i] = (page.flags[i] & LIVE) != 0 && isVisible(frustum, page, i);
+                }
+            }
+        });
+        int visibleCount = 0;
+        for (int p = 0; p < pages.length; p++) {
+            boolean[] pageVisible = pages[p].visible;
+            int end = Math.min(PAGE_SIZE, size - p * PAGE_SIZE);
+            for (int i = 0; i < end; i++) {
+                if (pageVisible[i]) {
+                    visible[visibleCount++] = (p << PAGE_BITS) | i;
+                }
+            }
+        }
+        return visibleCount;
+    }
+
+    private static boolean isVisible(Frustum frustum, Page page, int i) {
+        BoundingBox box = page.bounds[i];
+        if (box != null && !box.isEmpty()) {
+            return frustum.isVisible(box);
+        }
+        float radius = 0;
+        TexturedModel model = page.models[i];
+        ModelData data = model == null ? null : model.getModelData();
+        if (data != null) {
+            radius = data.getFurthestPoint() * page.scale[i];
+        }
+        return frustum.isVisible(page.x[i], page.y[i], page.z[i], radius);
+    }
+
+    /**
+     * This method writes the transformation matrices of the given entities into a buffer, one
+     * after the other in column major order, as instance data to upload. It rebuilds the matrices
+     * that are out of date on the way. The handles must all be different, since two pieces of work
+     * rebuilding the same matrix would get in each other's way. The buffer's position isn't moved.
+     */
+    public void fillInstanceBuffer(int[] handles, int instanceCount, FloatBuffer dest, JobSystem jobs) {
+        fillInstanceBuffer(handles, instanceCount, null, dest, jobs);
+    }
+
+    /**
+     * This method is fillInstanceBuffer() writing each matrix multiplied by the view projection
+     * matrix, so the shader gets the whole model view projection matrix of every instance. The
+     * view projection matrix may be null, to write the transformation matrices as they are.
+     */
+    public void fillInstanceBuffer(final int[] handles, int instanceCount, final Matrix4f viewProjection,
+                                   final FloatBuffer dest, JobSystem jobs) {
+        // Each piece gathers its matrices into one array, multiplies them all at once and
+        // writes them with one bulk put.
+        JobSystem.RangeBody body = (from, to) -> {
+            float[] block = new float[(to - from) * BatchMaths.MATRIX_FLOATS];
+            for (int k = from; k < to; k++) {
+                Page page = getPage(handles[k]);
+                int i = handles[k] & PAGE_MASK;
+                if ((page.flags[i] & CHANGED) != 0) {
+                    rebuild(page, i);
+                }
+                System.arraycopy(page.matrices, i * 16, block, (k - from) * 16, 16);
+            }
+            if (viewProjection != null) {
+                BatchMaths.multiply(viewProjection, block, 0, to - from, block, 0);
+            }
+            BatchMaths.storeColumns(block, 0, to - from, dest, from * BatchMaths.MATRIX_FLOATS);
+        };
+        if (jobs == null) {
+            for (int from = 0; from < instanceCount; from += INSTANCE_GRAIN_SIZE) {
+                body.run(from, Math.min(instanceCount, from + INSTANCE_GRAIN_SIZE));
+            }
+        } else {
+            jobs.parallelFor(0, instanceCount, INSTANCE_GRAIN_SIZE, body);
+        }
+    }
+
+    private static void forPages(JobSystem jobs, int pageCount, JobSystem.RangeBody body) {
+        if (jobs == null) {
+            body.run(0, pageCount);
+        } else {
+            jobs.parallelFor(0, pageCount, 1, body);
+        }
+    }
+
+    /**
+     * This method returns the entity with the given handle, or null if its slot is free.
+     */
+    public Entity getEntity(int handle) {
+        return getPage(handle).entities[handle & PAGE_MASK];
+    }
+
+    /**
+     * GETTERS
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    public int getCapacity() {
+        return pages.length * PAGE_SIZE;
+    }
+
+    /**
+     * Returns how many matrices the last updateTransformations() rebuilt.
+     */
+    public int getLastRebuildCount() {
+        return lastRebuildCount.get();
+    }
+
+    /**
+     * This class is one page of slots, with an array for every field of an entity.
+     */
+    static final class Page {
+
+        final float[] x = new float[PAGE_SIZE];
+        final float[] y = new float[PAGE_SIZE];
+        final float[] z = new float[PAGE_SIZE];
+        final float[] rotX = new float[PAGE_SIZE];
+        final float[] rotY = new float[PAGE_SIZE];
+        final float[] rotZ = new float[PAGE_SIZE];
+        final float[] scale = new float[PAGE_SIZE];
+        // The transformation matrices, 16 floats each in column major order.
+        final float[] matrices = new float[PAGE_SIZE * 16];
+        final int[] flags = new int[PAGE_SIZE];
+        // How many times each matrix has been built.
+        final int[] builds = new int[PAGE_SIZE];
+        final TexturedModel[] models = new TexturedModel[PAGE_SIZE];
+        final BoundingBox[] bounds = new BoundingBox[PAGE_SIZE];
+        final Entity[] entities = new Entity[PAGE_SIZE];
+        // The results of the last cull().
+        final boolean[] visible = new boolean[PAGE_SIZE];
+    }
+}
@@ -6,15 +6,23 @@ import org.lwjgl.util.vector.Vector3f;
  * This class represents light in our scene.
  * It has a position and a colour.
  * The colour is essentially the light's intensity.
+ * Point lights also have a radius, the distance at which their light fades out completely.
+ * A light with a radius of 0 reaches everything, like the sun.
  */
 public class Light {
 
     private Vector3f position;
     private Vector3f colour;
+    private float radius;
 
     public Light(Vector3f position, Vector3f colour) {
+        this(position, colour, 0);
+    }
+
+    public Light(Vector3f position, Vector3f colour, float radius) {
         this.position = position;
         this.colour = colour;
+        this.radius = radius;
     }
 
 
@@ -33,4 +41,12 @@ public class Light {
     public void setColour(Vector3f colour) {
         this.colour = colour;
     }
+
+    public float getRadius() {
+        return radius;
+    }
+
+    public void setRadius(float radius) {
+        this.radius = radius;
+    }
 }
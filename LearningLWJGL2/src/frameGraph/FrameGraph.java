@@ -0,0 +1,381 @@
+package frameGraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class is the list of render passes for one frame, along with the render targets they use.
+ *
+ * Every pass declares the targets it reads and the targets it writes. Targets are either
+ * imported, such as the window or a frame buffer someone else owns, or transient, meaning
+ * they only live for this frame and the graph finds them a texture. compile() then:
+ *  - culls the passes whose output nothing uses. Working back from the last pass, a pass is
+ *    kept if it writes an imported target, is marked to keep, or writes a target that a pass
+ *    kept after it reads. Everything else is dropped, along with the targets only it used.
+ *  - works out the lifetime of every transient target, from the first kept pass that uses it
+ *    to the last, and gives targets with equal descriptions and lifetimes that don't overlap
+ *    the same physical target. A shadow map and a bloom target of the same size never cost
+ *    more than one texture between them.
+ *
+ * The passes run in the order they were added, so that order must already be one that works.
+ * A graph whose passes don't change is compiled once and can be executed every frame; it only
+ * has to be cleared and built again when they do. Compiling it doesn't use OpenGL; execute()
+ * gets its textures from a RenderTargetAllocator, again every time it runs.
+ */
+public class FrameGraph {
+
+    private final List<Pass> passes = new ArrayList<Pass>();
+    private final List<Resource> resources = new ArrayList<Resource>();
+
+    private final List<Pass> schedule = new ArrayList<Pass>();
+    private final List<Pass> culled = new ArrayList<Pass>();
+    // The description of every physical target, and the last scheduled pass to use each.
+    private final List<RenderTargetDescription> physicalTargets = new ArrayList<RenderTargetDescription>();
+    private final List<Integer> physicalLastUse = new ArrayList<Integer>();
+    private boolean compiled = false;
+
+    // The physical targets handed out during execute().
+    private RenderTarget[] acquired = new RenderTarget[0];
+
+    /**
+     * This method adds a target owned by someone else, such as the window. Passes that write
+     * it are always kept. The target may be null, for example for whatever frame buffer is
+     * bound when the graph runs.
+     */
+    public Resource importTarget(String name, RenderTarget target) {
+        Resource resource = new Resource(name, resources.size(), null, target);
+        resources.add(resource);
+        compiled = false;
+        return resource;
+    }
+
+    /**
+     * This method adds a target that only lives for this frame. It gets a texture while the
+     * passes using it run, possibly shared with other transient targets.
+     */
+    public Resource createTarget(String name, RenderTargetDescription description) {
+        Resource resource = new Resource(name, resources.size(), description, null);
+        resources.add(resource);
+        compiled = false;
+        return resource;
+    }
+
+    /**
+     * This method adds a pass. Its reads and writes are declared on the pass it returns.
+     */
+    public Pass addPass(String name, RenderPass work) {
+        Pass pass = new Pass(name, passes.size(), work);
+        passes.add(pass);
+        compiled = false;
+        return pass;
+    }
+
+    /**
+     * This method culls the unused passes and assigns the transient targets to physical ones.
+     * It throws an IllegalStateException if a pass reads a transient target before any pass writes it.
+     */
+    public void compile() {
+        for (Pass pass : passes) {
+            for (Resource read : pass.reads) {
+                if (!read.isImported() && (read.firstWriter < 0 || read.firstWriter >= pass.index)) {
+                    throw new IllegalStateException("Pass " + pass.name + " reads " + read.name
+                            + " before any pass writes it!");
+                }
+            }
+        }
+
+        // Working back from the end, finding which passes are needed.
+        boolean[] needed = new boolean[resources.size()];
+        schedule.clear();
+        culled.clear();
+        for (int i = passes.size() - 1; i >= 0; i--) {
+            Pass pass = passes.get(i);
+            boolean keep = pass.keep;
+            for (Resource written : pass.writes) {
+                keep |= written.isImported() || needed[written.index];
+            }
+            if (keep) {
+                for (Resource read : pass.reads) {
+                    needed[read.index] = true;
+                }
+                schedule.add(pass);
+            } else {
+                culled.add(pass);
+            }
+        }
+        Collections.reverse(schedule);
+        Collections.reverse(culled);
+
+        // Every transient target's lifetime, in positions in the schedule.
+        for (Resource resource : resources) {
+            resource.firstUse = -1;
+            resource.lastUse = -1;
+            resource.physicalIndex = -1;
+        }
+        for (int position = 0; position < schedule.size(); position++) {
+            Pass pass = schedule.get(position);
+            pass.position = position;
+            markUse(pass.reads, position);
+            markUse(pass.writes, position);
+        }
+
+        // The targets are placed in the order they are first used, each into the first physical
+        // target that matches it and was last used before it starts.
+        physicalTargets.clear();
+        physicalLastUse.clear();
+        for (int position = 0; position < schedule.size(); position++) {
+            for (Resource resource : resources) {
+                if (resource.isImported() || resource.firstUse != position) {
+                    continue;
+                }
+                for (int p = 0; p < physicalTargets.size() && resource.physicalIndex < 0; p++) {
+                    if (physicalLastUse.get(p) < position && physicalTargets.get(p).equals(resource.description)) {
+                        resource.physicalIndex = p;
+                        physicalLastUse.set(p, resource.lastUse);
+                    }
+                }
+                if (resource.physicalIndex < 0) {
+                    resource.physicalIndex = physicalTargets.size();
+                    physicalTargets.add(resource.description);
+                    physicalLastUse.add(resource.lastUse);
+                }
+            }
+        }
+        compiled = true;
+    }
+
+    /**
+     * This method runs the scheduled passes in order, compiling the graph first if needed.
+     * Every physical target is taken from the allocator just before the first pass that uses it,
+     * and given back right after the last one.
+     */
+    public void execute(RenderTargetAllocator allocator) {
+        if (!compiled) {
+            compile();
+        }
+        if (acquired.length < physicalTargets.size()) {
+            acquired = new RenderTarget[physicalTargets.size()];
+        }
+        for (Pass pass : schedule) {
+            acquireTargets(pass.writes, allocator);
+            pass.work.execute(this);
+            for (int p = 0; p < physicalTargets.size(); p++) {
+                if (physicalLastUse.get(p) == pass.position && acquired[p] != null) {
+                    allocator.release(acquired[p]);
+                    acquired[p] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * This method returns the render target behind a resource. For a transient target it is
+     * only valid while the passes that declared it run.
+     */
+    public RenderTarget getTarget(Resource resource) {
+        if (resource.isImported()) {
+            return resource.importedTarget;
+        }
+        if (resource.physicalIndex < 0 || acquired[resource.physicalIndex] == null) {
+            throw new IllegalStateException("The target " + resource.name + " isn't in use by the running pass!");
+        }
+        return acquired[resource.physicalIndex];
+    }
+
+    /**
+     * This method removes every pass and target, to build another graph.
+     */
+    public void clear() {
+        passes.clear();
+        resources.clear();
+        schedule.clear();
+        culled.clear();
+        physicalTargets.clear();
+        physicalLastUse.clear();
+        compiled = false;
+    }
+
+    /**
+     * GETTERS for the results of compile().
+     */
+    public List<Pass> getSchedule() {
+        return Collections.unmodifiableList(schedule);
+    }
+
+    public List<Pass> getCulledPasses() {
+        return Collections.unmodifiableList(culled);
+    }
+
+    public int getPhysicalTargetCount() {
+        return physicalTargets.size();
+    }
+
+    /**
+     * Returns the memory the transient targets take with aliasing, in bytes.
+     */
+    public long getTransientMemory() {
+        long total = 0;
+        for (RenderTargetDescription description : physicalTargets) {
+            total += description.getSizeInBytes();
+        }
+        return total;
+    }
+
+    /**
+     * Returns the memory the transient targets used by the scheduled passes would take if
+     * each had its own texture, in bytes.
+     */
+    public long getUnaliasedMemory() {
+        long total = 0;
+        for (Resource resource : resources) {
+            if (!resource.isImported() && resource.physicalIndex >= 0) {
+                total += resource.description.getSizeInBytes();
+            }
+        }
+        return total;
+    }
+
+    public String getReport() {
+        StringBuilder report = new StringBuilder("Frame graph: ");
+        for (int i = 0; i < schedule.size(); i++) {
+            report.append(i > 0 ? " -> " : "").append(schedule.get(i).name);
+        }
+        report.append(String.format("%n  culled: %s", culled.isEmpty() ? "nothing" : culled));
+        for (Resource resource : resources) {
+            if (!resource.isImported()) {
+                report.append(String.format("%n  %s (%s): %s", resource.name, resource.description,
+                        resource.physicalIndex < 0 ? "unused" : "physical target " + resource.physicalIndex
+                                + ", passes " + resource.firstUse + " to " + resource.lastUse));
+            }
+        }
+        report.append(String.format("%n  %d physical targets, %.2f MB instead of %.2f MB.", physicalTargets.size(),
+                getTransientMemory() / 1048576.0, getUnaliasedMemory() / 1048576.0));
+        return report.toString();
+    }
+
+    private void markUse(List<Resource> used, int position) {
+        for (Resource resource : used) {
+            if (resource.firstUse < 0) {
+                resource.firstUse = position;
+            }
+            resource.lastUse = position;
+        }
+    }
+
+    private void acquireTargets(List<Resource> written, RenderTargetAllocator allocator) {
+        for (Resource resource : written) {
+            int p = resource.physicalIndex;
+            if (p >= 0 && acquired[p] == null) {
+                acquired[p] = allocator.acquire(physicalTargets.get(p));
+            }
+        }
+    }
+
+    /**
+     * This class is a render target in the graph, imported or transient.
+     */
+    public static class Resource {
+
+        private final String name;
+        private final int index;
+        private final RenderTargetDescription description;
+        private final RenderTarget importedTarget;
+        // The first pass that writes it, in the order the passes were added.
+        private int firstWriter = -1;
+        // Filled in by compile().
+        private int firstUse;
+        private int lastUse;
+        private int physicalIndex;
+
+        private Resource(String name, int index, RenderTargetDescription description, RenderTarget importedTarget) {
+            this.name = name;
+            this.index = index;
+            this.description = description;
+            this.importedTarget = importedTarget;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isImported() {
+            return description == null;
+        }
+
+        public RenderTargetDescription getDescription() {
+            return description;
+        }
+
+        /**
+         * Returns which physical target the compiled graph put this target in, or -1 if it's
+         * imported or not used by any scheduled pass.
+         */
+        public int getPhysicalIndex() {
+            return physicalIndex;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * This class is one pass in the graph: its work and the targets it reads and writes.
+     */
+    public static class Pass {
+
+        private final String name;
+        private final int index;
+        private final RenderPass work;
+        private final List<Resource> reads = new ArrayList<Resource>();
+        private final List<Resource> writes = new ArrayList<Resource>();
+        private boolean keep = false;
+        private int position = -1;
+
+        private Pass(String name, int index, RenderPass work) {
+            this.name = name;
+            this.index = index;
+            this.work = work;
+        }
+
+        /**
+         * This method declares targets the pass reads, and returns the pass.
+         */
+        public Pass reads(Resource... targets) {
+            Collections.addAll(reads, targets);
+            return this;
+        }
+
+        /**
+         * This method declares targets the pass writes, and returns the pass.
+         */
+        public Pass writes(Resource... targets) {
+            for (Resource target : targets) {
+                writes.add(target);
+                if (target.firstWriter < 0) {
+                    target.firstWriter = index;
+                }
+            }
+            return this;
+        }
+
+        /**
+         * This method marks the pass as having an effect outside the graph, so it is never culled.
+         */
+        public Pass keep() {
+            keep = true;
+            return this;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package frameGraph;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+import org.lwjgl.opengl.GL30;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is the OpenGL implementation of the render target allocator.
+ * Released targets are kept and handed out again for the same description, so after the
+ * first few frames no frame buffers or textures are created at all.
+ */
+public class GLRenderTargetPool implements RenderTargetAllocator {
+
+    private final List<RenderTarget> free = new ArrayList<RenderTarget>();
+    private final List<RenderTarget> all = new ArrayList<RenderTarget>();
+
+    @Override
+    public RenderTarget acquire(RenderTargetDescription description) {
+        for (int i = 0; i < free.size(); i++) {
+            if (free.get(i).getDescription().equals(description)) {
+                return free.remove(i);
+            }
+        }
+        RenderTarget target = create(description);
+        all.add(target);
+        return target;
+    }
+
+    @Override
+    public void release(RenderTarget target) {
+        free.add(target);
+    }
+
+    /**
+     * Returns how many targets the pool has created, in use or not.
+     */
+    public int getTargetCount() {
+        return all.size();
+    }
+
+    public void cleanUp() {
+        for (RenderTarget target : all) {
+            GL30.glDeleteFramebuffers(target.getFrameBufferID());
+            GL11.glDeleteTextures(target.getTextureID());
+        }
+        all.clear();
+        free.clear();
+    }
+
+    private static RenderTarget create(RenderTargetDescription description) {
+        int textureID = GL11.glGenTextures();
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureID);
+        int format = description.isDepth() ? GL11.GL_DEPTH_COMPONENT : GL11.GL_RGBA;
+        if (description.getFormat() == RenderTargetDescription.R32F) {
+            format = GL11.GL_RED;
+        }
+        int type = description.getFormat() == RenderTargetDescription.RGBA8 ? GL11.GL_UNSIGNED_BYTE : GL11.GL_FLOAT;
+        GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, description.getFormat(), description.getWidth(),
+                description.getHeight(), 0, format, type, (ByteBuffer) null);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+
+        int frameBufferID = GL30.glGenFramebuffers();
+        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, frameBufferID);
+        if (description.isDepth()) {
+            GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_DEPTH_ATTACHMENT, GL11.GL_TEXTURE_2D, textureID, 0);
+            // A depth only target has no colour to draw to.
+            GL11.glDrawBuffer(GL11.GL_NONE);
+            GL11.glReadBuffer(GL11.GL_NONE);
+        } else {
+            GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0, GL11.GL_TEXTURE_2D, textureID, 0);
+        }
+        int status = GL30.glCheckFramebufferStatus(GL30.GL_FRAMEBUFFER);
+        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
+        if (status != GL30.GL_FRAMEBUFFER_COMPLETE) {
+            GL30.glDeleteFramebuffers(frameBufferID);
+            GL11.glDeleteTextures(textureID);
+            throw new IllegalStateException("Could not create a " + description + " render target! Status: " + status);
+        }
+        return new RenderTarget(frameBufferID, textureID, description);
+    }
+}
@@ -0,0 +1,10 @@
+package frameGraph;
+
+/**
+ * This interface is the work a frame graph pass does when it runs. The graph is passed in
+ * so the pass can look up the render targets it declared.
+ */
+public interface RenderPass {
+
+    void execute(FrameGraph graph);
+}
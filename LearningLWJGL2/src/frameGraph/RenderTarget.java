@@ -0,0 +1,30 @@
+package frameGraph;
+
+/**
+ * This class is a render target the passes can draw into or read from: a frame buffer with
+ * a single texture attached, as a colour or a depth attachment depending on its format.
+ */
+public class RenderTarget {
+
+    private final int frameBufferID;
+    private final int textureID;
+    private final RenderTargetDescription description;
+
+    public RenderTarget(int frameBufferID, int textureID, RenderTargetDescription description) {
+        this.frameBufferID = frameBufferID;
+        this.textureID = textureID;
+        this.description = description;
+    }
+
+    public int getFrameBufferID() {
+        return frameBufferID;
+    }
+
+    public int getTextureID() {
+        return textureID;
+    }
+
+    public RenderTargetDescription getDescription() {
+        return description;
+    }
+}
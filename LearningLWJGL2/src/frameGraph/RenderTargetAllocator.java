@@ -0,0 +1,19 @@
+package frameGraph;
+
+/**
+ * This interface hands out the actual render targets behind a frame graph's transient targets.
+ * The real game uses GLRenderTargetPool. Because the frame graph only ever talks to this
+ * interface, a stub implementation can be used to run it without an OpenGL context.
+ */
+public interface RenderTargetAllocator {
+
+    /**
+     * This method returns a render target matching the description that no one else is using.
+     */
+    RenderTarget acquire(RenderTargetDescription description);
+
+    /**
+     * This method gives back a target from acquire(). Its contents may be overwritten from now on.
+     */
+    void release(RenderTarget target);
+}
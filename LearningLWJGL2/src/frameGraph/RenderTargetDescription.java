@@ -0,0 +1,101 @@
+package frameGraph;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL14;
+import org.lwjgl.opengl.GL30;
+
+/**
+ * This class describes a render target: its size and its texture format.
+ * Two transient targets with equal descriptions can share one texture if they are never
+ * needed at the same time.
+ */
+public class RenderTargetDescription {
+
+    // The texture formats supported, as OpenGL internal formats.
+    public static final int RGBA8 = GL11.GL_RGBA8;
+    public static final int RGBA16F = GL30.GL_RGBA16F;
+    public static final int R32F = GL30.GL_R32F;
+    public static final int DEPTH24 = GL14.GL_DEPTH_COMPONENT24;
+
+    private final int width;
+    private final int height;
+    private final int format;
+
+    public RenderTargetDescription(int width, int height, int format) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("A render target must be at least 1x1!");
+        }
+        getBytesPerPixel(format);
+        this.width = width;
+        this.height = height;
+        this.format = format;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    public boolean isDepth() {
+        return format == DEPTH24;
+    }
+
+    /**
+     * This method returns roughly how much GPU memory a target like this takes, in bytes.
+     */
+    public long getSizeInBytes() {
+        return (long) width * height * getBytesPerPixel(format);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof RenderTargetDescription)) {
+            return false;
+        }
+        RenderTargetDescription description = (RenderTargetDescription) other;
+        return width == description.width && height == description.height && format == description.format;
+    }
+
+    @Override
+    public int hashCode() {
+        return (width * 31 + height) * 31 + format;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height + " " + getFormatName(format);
+    }
+
+    private static int getBytesPerPixel(int format) {
+        switch (format) {
+            case RGBA8:
+            case R32F:
+            case DEPTH24:
+                return 4;
+            case RGBA16F:
+                return 8;
+            default:
+                throw new IllegalArgumentException("Unsupported render target format: " + format);
+        }
+    }
+
+    private static String getFormatName(int format) {
+        switch (format) {
+            case RGBA8:
+                return "RGBA8";
+            case RGBA16F:
+                return "RGBA16F";
+            case R32F:
+                return "R32F";
+            default:
+                return "DEPTH24";
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package jobs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is one piece of work for the JobSystem, which may depend on other jobs.
+ *
+ * Every job has a counter of the things it is still waiting for: one for every unfinished job it
+ * depends on, plus one for not having been scheduled yet. Each finished dependency and the call
+ * to schedule() take one off, and whichever of them brings it to 0 puts the job on the pool.
+ * Nothing ever blocks waiting for a dependency, so the workers are only ever busy with jobs
+ * that are ready to run.
+ *
+ * A job can be run again by calling reset() once it has finished, which keeps its dependencies.
+ * If a job throws an exception, the jobs that depend on it are skipped, and waitUntilFinished()
+ * throws it again on the thread waiting for them.
+ */
+public class Job {
+
+    private final JobSystem jobSystem;
+    private final String name;
+    private final Runnable work;
+    private final List<Job> dependents = new ArrayList<Job>();
+    private int dependencyCount = 0;
+
+    private final AtomicInteger waitingFor = new AtomicInteger(1);
+    private volatile RuntimeException failure;
+    private boolean finished = false;
+    private ForkJoinTask<?> task;
+
+    // When the job last started and finished, from System.nanoTime.
+    private volatile long startTime;
+    private volatile long endTime;
+
+    Job(JobSystem jobSystem, String name, Runnable work) {
+        this.jobSystem = jobSystem;
+        this.name = name;
+        this.work = work;
+        this.task = createTask();
+    }
+
+    /**
+     * This method makes this job wait for the other job to finish before it runs.
+     * It may only be called before the job is scheduled.
+     */
+    public void dependsOn(Job other) {
+        if (other == this) {
+            throw new IllegalArgumentException("A job can't depend on itself: " + name);
+        }
+        other.dependents.add(this);
+        dependencyCount++;
+        waitingFor.incrementAndGet();
+    }
+
+    /**
+     * This method lets the job run as soon as all of its dependencies have finished.
+     */
+    public void schedule() {
+        release();
+    }
+
+    /**
+     * This method gets a finished job ready to be scheduled again. Its dependencies must be reset too.
+     */
+    public void reset() {
+        synchronized (this) {
+            if (!finished && waitingFor.get() == 0) {
+                throw new IllegalStateException("The job is still running: " + name);
+            }
+            finished = false;
+        }
+        failure = null;
+        waitingFor.set(dependencyCount + 1);
+        task = createTask();
+    }
+
+    /**
+     * This method waits until the job has finished, and throws the exception the job or one of
+     * its dependencies threw, if there was one.
+     */
+    public void waitUntilFinished() {
+        synchronized (this) {
+            boolean interrupted = false;
+            while (!finished) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * GETTERS
+     */
+    public String getName() {
+        return name;
+    }
+
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * Returns how long the work took the last time the job ran, in nanoseconds.
+     */
+    public long getDuration() {
+        return endTime - startTime;
+    }
+
+    ForkJoinTask<?> getTask() {
+        return task;
+    }
+
+    private ForkJoinTask<?> createTask() {
+        return ForkJoinTask.adapt(new Runnable() {
+            @Override
+            public void run() {
+                execute();
+            }
+        });
+    }
+
+    private void release() {
+        if (waitingFor.decrementAndGet() == 0) {
+            jobSystem.submit(this);
+        }
+    }
+
+    private void execute() {
+        startTime = System.nanoTime();
+        if (failure == null) {
+            try {
+                work.run();
+            } catch (RuntimeException e) {
+                failure = e;
+            } catch (Error e) {
+                failure = new RuntimeException("Job " + name + " failed", e);
+            }
+        }
+        endTime = System.nanoTime();
+        for (Job dependent : dependents) {
+            if (failure != null) {
+                dependent.failure = failure;
+            }
+            dependent.release();
+        }
+        synchronized (this) {
+            finished = true;
+            notifyAll();
+        }
+    }
+}
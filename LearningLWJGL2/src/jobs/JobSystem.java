@@ -0,0 +1,126 @@
+package jobs;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class runs jobs on a pool of worker threads.
+ *
+ * The pool is a ForkJoinPool, which is work stealing: every worker has its own queue of jobs,
+ * works through it newest first, and takes the oldest jobs from the other workers' queues when
+ * it runs out. That keeps the workers busy without a shared queue they all fight over, and it is
+ * what makes splitting work into many small jobs cheap.
+ *
+ * There are two ways to use it:
+ *  - Jobs, which run once all the jobs they depend on have finished (see Job),
+ *  - parallelFor(), which splits a range of indices in halves until the pieces are small enough,
+ *    and runs the pieces in parallel.
+ */
+public class JobSystem {
+
+    /**
+     * This is the work done on one piece of a parallelFor() range, from index 'from' up to 'to'.
+     */
+    public interface RangeBody {
+        void run(int from, int to);
+    }
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructor. Takes in the number of worker threads.
+     */
+    public JobSystem(int threadCount) {
+        this.pool = new ForkJoinPool(Math.max(1, threadCount));
+    }
+
+    /**
+     * This method creates a job that runs the given work. It doesn't run until schedule() is
+     * called on it and all the jobs it depends on have finished.
+     */
+    public Job createJob(String name, Runnable work) {
+        return new Job(this, name, work);
+    }
+
+    /**
+     * This method runs the body over the range from 'from' up to 'to', in pieces of at most
+     * 'grainSize' indices, and returns once every piece is done. Called from a job, the calling
+     * worker takes part in the work instead of waiting.
+     */
+    public void parallelFor(int from, int to, int grainSize, RangeBody body) {
+        if (to - from <= grainSize) {
+            if (from < to) {
+                body.run(from, to);
+            }
+            return;
+        }
+        RangeTask task = new RangeTask(from, to, Math.max(1, grainSize), body);
+        if (ForkJoinTask.getPool() == pool) {
+            task.invoke();
+        } else {
+            pool.invoke(task);
+        }
+    }
+
+    public int getThreadCount() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * This method returns how many jobs were stolen from one worker's queue by another so far.
+     */
+    public long getStealCount() {
+        return pool.getStealCount();
+    }
+
+    /**
+     * This method stops the workers once they have finished the jobs already scheduled.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * This method puts a job whose dependencies have all finished onto the pool.
+     */
+    void submit(Job job) {
+        if (ForkJoinTask.getPool() == pool) {
+            // Forked from a worker, it goes on that worker's own queue, where it is likely to
+            // run next and find the data the finished job left in the cache.
+            job.getTask().fork();
+        } else {
+            pool.execute(job.getTask());
+        }
+    }
+
+    /**
+     * This class is a piece of a parallelFor() range. It splits itself in two until it is small enough.
+     */
+    private static class RangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int grainSize;
+        private final RangeBody body;
+
+        private RangeTask(int from, int to, int grainSize, RangeBody body) {
+            this.from = from;
+            this.to = to;
+            this.grainSize = grainSize;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grainSize) {
+                body.run(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeTask(from, middle, grainSize, body), new RangeTask(middle, to, grainSize, body));
+        }
+    }
+}
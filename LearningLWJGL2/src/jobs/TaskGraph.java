@@ -0,0 +1,202 @@
+package jobs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class is the work done every frame, as a set of stages run by a JobSystem.
+ *
+ * Every stage names the data it reads and the data it writes. A stage waits for the stages added
+ * before it that write something it reads, or read or write something it writes, and for nothing
+ * else, so stages that don't share any data run at the same time. The result is always the same
+ * as running the stages one by one in the order they were added.
+ *
+ * The stages are turned into jobs once, on the first run, and the jobs are reset and reused every
+ * frame after that. How long every stage takes is kept for profiling.
+ */
+public class TaskGraph {
+
+    private final JobSystem jobSystem;
+    private final List<Stage> stages = new ArrayList<Stage>();
+    private boolean compiled = false;
+
+    // Statistics.
+    private int frameCount = 0;
+    private long lastFrameTime = 0;
+    private long totalFrameTime = 0;
+
+    public TaskGraph(JobSystem jobSystem) {
+        this.jobSystem = jobSystem;
+    }
+
+    /**
+     * This method adds a stage. Its reads and writes are given on the stage it returns.
+     * No stages can be added once the graph has run.
+     */
+    public Stage addStage(String name, Runnable work) {
+        if (compiled) {
+            throw new IllegalStateException("Stages can't be added once the graph has run!");
+        }
+        Stage stage = new Stage(name, jobSystem.createJob(name, work));
+        stages.add(stage);
+        return stage;
+    }
+
+    /**
+     * This method runs every stage once and returns when they have all finished. If a stage threw
+     * an exception, it is thrown again here once the rest are done.
+     */
+    public void run() {
+        if (!compiled) {
+            compile();
+        } else {
+            for (Stage stage : stages) {
+                stage.job.reset();
+            }
+        }
+        long start = System.nanoTime();
+        for (Stage stage : stages) {
+            stage.job.schedule();
+        }
+        RuntimeException failure = null;
+        for (Stage stage : stages) {
+            try {
+                stage.job.waitUntilFinished();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        lastFrameTime = System.nanoTime() - start;
+        totalFrameTime += lastFrameTime;
+        frameCount++;
+        for (Stage stage : stages) {
+            stage.recordTime(start);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * This method returns the stages, in the order they were added.
+     */
+    public List<Stage> getStages() {
+        return Collections.unmodifiableList(stages);
+    }
+
+    /**
+     * Returns how long the last run took from start to finish, in milliseconds.
+     */
+    public float getLastFrameTime() {
+        return lastFrameTime / 1000000f;
+    }
+
+    public String getReport() {
+        if (frameCount == 0) {
+            return "Task graph: not run.";
+        }
+        StringBuilder report = new StringBuilder(String.format("Task graph: %d frames on %d threads, average %.3f ms.",
+                frameCount, jobSystem.getThreadCount(), totalFrameTime / 1000000.0 / frameCount));
+        for (Stage stage : stages) {
+            report.append(String.format("%n  %s: average %.3f ms, longest %.3f ms, starts %.3f ms in, after %s",
+                    stage.name, stage.totalTime / 1000000.0 / frameCount, stage.longestTime / 1000000.0,
+                    stage.totalStartOffset / 1000000.0 / frameCount,
+                    stage.dependencies.isEmpty() ? "nothing" : stage.dependencies));
+        }
+        return report.toString();
+    }
+
+    /**
+     * This method works out which stages each stage waits for.
+     */
+    private void compile() {
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            for (int j = 0; j < i; j++) {
+                Stage earlier = stages.get(j);
+                if (overlaps(stage.reads, earlier.writes) || overlaps(stage.writes, earlier.reads)
+                        || overlaps(stage.writes, earlier.writes)) {
+                    stage.job.dependsOn(earlier.job);
+                    stage.dependencies.add(earlier.name);
+                }
+            }
+        }
+        compiled = true;
+    }
+
+    private static boolean overlaps(Set<String> a, Set<String> b) {
+        for (String name : a) {
+            if (b.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This class is one stage of the graph: its work, what it reads and writes, and its timings.
+     */
+    public static class Stage {
+
+        private final String name;
+        private final Job job;
+        private final Set<String> reads = new HashSet<String>();
+        private final Set<String> writes = new HashSet<String>();
+        private final List<String> dependencies = new ArrayList<String>();
+
+        // Statistics, in nanoseconds.
+        private long lastTime = 0;
+        private long totalTime = 0;
+        private long longestTime = 0;
+        private long totalStartOffset = 0;
+
+        private Stage(String name, Job job) {
+            this.name = name;
+            this.job = job;
+        }
+
+        /**
+         * This method declares data the stage reads, and returns the stage.
+         */
+        public Stage reads(String... names) {
+            reads.addAll(Arrays.asList(names));
+            return this;
+        }
+
+        /**
+         * This method declares data the stage writes, and returns the stage.
+         */
+        public Stage writes(String... names) {
+            writes.addAll(Arrays.asList(names));
+            return this;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns how long the stage took in the last run, in milliseconds.
+         */
+        public float getLastTime() {
+            return lastTime / 1000000f;
+        }
+
+        public List<String> getDependencies() {
+            return Collections.unmodifiableList(dependencies);
+        }
+
+        private void recordTime(long frameStart) {
+            lastTime = job.getDuration();
+            totalTime += lastTime;
+            longestTime = Math.max(longestTime, lastTime);
+            totalStartOffset += job.getStartTime() - frameStart;
+        }
+    }
+}
@@ -9,10 +9,17 @@ public class RawModel {
 
     private int vaoID;
     private int vertexCount;
+    // True if the VAO has baked lighting in attribute list 3 (see StaticLightBaker).
+    private boolean bakedLighting;
 
     public RawModel(int vaoID, int vertexCount) {
+        this(vaoID, vertexCount, false);
+    }
+
+    public RawModel(int vaoID, int vertexCount, boolean bakedLighting) {
         this.vaoID = vaoID;
         this.vertexCount = vertexCount;
+        this.bakedLighting = bakedLighting;
     }
 
     public int getVaoID() {
@@ -22,4 +29,8 @@ public class RawModel {
     public int getVertexCount() {
         return vertexCount;
     }
+
+    public boolean hasBakedLighting() {
+        return bakedLighting;
+    }
 }
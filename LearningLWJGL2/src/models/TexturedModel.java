@@ -1,20 +1,29 @@
 package models;
 
+import objConverter.ModelData;
 import textures.ModelTexture;
 
 /**
  * This class is a textured model.
  * It contains both model data (raw model) and texture data (model texture)
  * to form a combined textured model.
+ * It can also keep the model's geometry on the CPU (model data), which is needed
+ * by anything that works on the vertices themselves, like static batching.
  */
 public class TexturedModel {
 
     private RawModel rawModel;
     private ModelTexture modelTexture;
+    private ModelData modelData;
 
     public TexturedModel(RawModel model, ModelTexture texture) {
+        this(model, texture, null);
+    }
+
+    public TexturedModel(RawModel model, ModelTexture texture, ModelData data) {
         this.rawModel = model;
         this.modelTexture = texture;
+        this.modelData = data;
     }
 
     public RawModel getRawModel() {
@@ -24,4 +33,11 @@ public class TexturedModel {
     public ModelTexture getTexture() {
         return modelTexture;
     }
+
+    /**
+     * Returns the model's geometry, or null if it wasn't kept on the CPU.
+     */
+    public ModelData getModelData() {
+        return modelData;
+    }
 }
@@ -0,0 +1,284 @@
+package renderEngine;
+
+import entities.Light;
+import org.lwjgl.util.vector.Matrix4f;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * This class works out which point lights reach which part of the screen, for clustered lighting.
+ * The view frustum is cut into a grid of clusters: tiles across the screen, and slices in depth
+ * which get thicker further away from the camera. Each cluster gets a list of the lights whose
+ * bounding sphere touches its box, so the fragment shader only has to loop over a few lights
+ * instead of all of them.
+ *
+ * The slices are filled in parallel, since each slice only writes to its own clusters.
+ * This class does not use OpenGL, so it can be run and timed without a display.
+ */
+public class ClusteredLightAssigner {
+
+    public static final int MAX_LIGHTS_PER_CLUSTER = 64;
+
+    private final int clustersX;
+    private final int clustersY;
+    private final int clustersZ;
+    private final int clusterCount;
+    private final float nearPlane;
+    private final float farPlane;
+
+    // The view space box of each cluster, stored as min x, min y, min z, max x, max y, max z.
+    private final float[] clusterBoxes;
+
+    // The lights of this frame in view space: x, y, z, radius.
+    private float[] viewLights = new float[0];
+    private int lightCount = 0;
+
+    // Every cluster has room for MAX_LIGHTS_PER_CLUSTER indices while the slices are being filled.
+    private final int[] clusterScratch;
+    private final int[] clusterScratchCounts;
+    // The squared x distance from the current light to each column, one row of these per slice.
+    private final float[] columnDistances;
+
+    // The packed result: an offset and count for each cluster, and one list of all the light indices.
+    private final int[] clusterGrid;
+    private int[] lightIndices;
+    private int lightIndexCount = 0;
+    private int overflowCount = 0;
+
+    /**
+     * Constructor. Takes in the number of clusters along each axis, the projection matrix
+     * and the near and far plane distances it was made with.
+     */
+    public ClusteredLightAssigner(int clustersX, int clustersY, int clustersZ, Matrix4f projectionMatrix,
+                                  float nearPlane, float farPlane) {
+        this.clustersX = clustersX;
+        this.clustersY = clustersY;
+        this.clustersZ = clustersZ;
+        this.clusterCount = clustersX * clustersY * clustersZ;
+        this.nearPlane = nearPlane;
+        this.farPlane = farPlane;
+        this.clusterBoxes = new float[clusterCount * 6];
+        this.clusterScratch = new int[clusterCount * MAX_LIGHTS_PER_CLUSTER];
+        this.clusterScratchCounts = new int[clusterCount];
+        this.columnDistances = new float[clustersX * clustersZ];
+        this.clusterGrid = new int[clusterCount * 2];
+        this.lightIndices = new int[clusterCount * 4];
+        createClusterBoxes(projectionMatrix);
+    }
+
+    /**
+     * This method assigns the lights to the clusters for the given view matrix.
+     * Only lights with a radius above 0 (point lights) are assigned; the index stored for each
+     * light is its position in the list.
+     */
+    public void assignLights(List<Light> lights, Matrix4f viewMatrix) {
+        transformLights(lights, viewMatrix);
+        Arrays.fill(clusterScratchCounts, 0);
+        IntStream.range(0, clustersZ).parallel().forEach(this::assignSlice);
+        packClusters();
+    }
+
+    /**
+     * This method returns the slice a view space depth (distance in front of the camera) falls in.
+     * The fragment shader works it out the same way.
+     */
+    public int getSlice(float depth) {
+        if (depth <= nearPlane) {
+            return 0;
+        }
+        int slice = (int) (Math.log(depth / nearPlane) / Math.log(farPlane / nearPlane) * clustersZ);
+        return Math.min(slice, clustersZ - 1);
+    }
+
+    /**
+     * GETTERS
+     */
+    public int getClustersX() {
+        return clustersX;
+    }
+
+    public int getClustersY() {
+        return clustersY;
+    }
+
+    public int getClustersZ() {
+        return clustersZ;
+    }
+
+    public int getClusterCount() {
+        return clusterCount;
+    }
+
+    public float getNearPlane() {
+        return nearPlane;
+    }
+
+    public float getFarPlane() {
+        return farPlane;
+    }
+
+    /**
+     * Returns the offset into the light index list and the number of lights for every cluster.
+     * Cluster (x, y, z) is at index x + clustersX * (y + clustersY * z).
+     */
+    public int[] getClusterGrid() {
+        return clusterGrid;
+    }
+
+    /**
+     * Returns the light index list. Only the first getLightIndexCount() entries are used.
+     */
+    public int[] getLightIndices() {
+        return lightIndices;
+    }
+
+    public int getLightIndexCount() {
+        return lightIndexCount;
+    }
+
+    /**
+     * Returns the number of lights that were dropped because a cluster already had
+     * MAX_LIGHTS_PER_CLUSTER lights in it.
+     */
+    public int getOverflowCount() {
+        return overflowCount;
+    }
+
+    /**
+     * This method works out the view space box of every cluster. A cluster's box has to hold both
+     * ends of its tile's frustum, from the near side of its slice to the far side.
+     */
+    private void createClusterBoxes(Matrix4f projection) {
+        for (int z = 0; z < clustersZ; z++) {
+            float near = sliceDepth(z);
+            float far = sliceDepth(z + 1);
+            for (int y = 0; y < clustersY; y++) {
+                float ndcMinY = -1 + 2f * y / clustersY;
+                float ndcMaxY = -1 + 2f * (y + 1) / clustersY;
+                for (int x = 0; x < clustersX; x++) {
+                    float ndcMinX = -1 + 2f * x / clustersX;
+                    float ndcMaxX = -1 + 2f * (x + 1) / clustersX;
+                    // At a depth d in front of the camera, a point at ndc x is at view space x = ndc * d / m00.
+                    float minX = Math.min(ndcMinX * near, ndcMinX * far) / projection.m00;
+                    float maxX = Math.max(ndcMaxX * near, ndcMaxX * far) / projection.m00;
+                    float minY = Math.min(ndcMinY * near, ndcMinY * far) / projection.m11;
+                    float maxY = Math.max(ndcMaxY * near, ndcMaxY * far) / projection.m11;
+                    int box = clusterIndex(x, y, z) * 6;
+                    clusterBoxes[box] = minX;
+                    clusterBoxes[box + 1] = minY;
+                    clusterBoxes[box + 2] = -far;
+                    clusterBoxes[box + 3] = maxX;
+                    clusterBoxes[box + 4] = maxY;
+                    clusterBoxes[box + 5] = -near;
+                }
+            }
+        }
+    }
+
+    /**
+     * This method returns the depth at which the given slice starts.
+     * Slices are spaced exponentially so that clusters are roughly cube shaped.
+     */
+    private float sliceDepth(int slice) {
+        return (float) (nearPlane * Math.pow(farPlane / nearPlane, (double) slice / clustersZ));
+    }
+
+    private void transformLights(List<Light> lights, Matrix4f m) {
+        if (viewLights.length < lights.size() * 4) {
+            viewLights = new float[lights.size() * 4];
+        }
+        lightCount = lights.size();
+        for (int i = 0; i < lightCount; i++) {
+            Light light = lights.get(i);
+            float x = light.getPosition().x, y = light.getPosition().y, z = light.getPosition().z;
+            viewLights[i * 4] = m.m00 * x + m.m10 * y + m.m20 * z + m.m30;
+            viewLights[i * 4 + 1] = m.m01 * x + m.m11 * y + m.m21 * z + m.m31;
+            viewLights[i * 4 + 2] = m.m02 * x + m.m12 * y + m.m22 * z + m.m32;
+            viewLights[i * 4 + 3] = light.getRadius();
+        }
+    }
+
+    /**
+     * This method finds the lights for every cluster in one slice. The lights that don't reach
+     * the slice's depth range at all are skipped before testing them against each cluster.
+     */
+    private void assignSlice(int z) {
+        float sliceNear = sliceDepth(z);
+        float sliceFar = sliceDepth(z + 1);
+        for (int light = 0; light < lightCount; light++) {
+            float radius = viewLights[light * 4 + 3];
+            if (radius <= 0) {
+                continue;
+            }
+            float depth = -viewLights[light * 4 + 2];
+            if (depth + radius < sliceNear || depth - radius > sliceFar) {
+                continue;
+            }
+            float lx = viewLights[light * 4], ly = viewLights[light * 4 + 1], lz = viewLights[light * 4 + 2];
+            float radiusSquared = radius * radius;
+            // Every cluster in a slice shares its z range, every cluster in a row its y range
+            // and every cluster in a column its x range. So the squared distance from the light
+            // to a cluster's box is the sum of three parts that are each worked out only once.
+            int sliceBox = clusterIndex(0, 0, z) * 6;
+            float dz = Math.max(Math.max(clusterBoxes[sliceBox + 2] - lz, 0), lz - clusterBoxes[sliceBox + 5]);
+            float dzSquared = dz * dz;
+            for (int x = 0; x < clustersX; x++) {
+                int box = clusterIndex(x, 0, z) * 6;
+                float dx = Math.max(Math.max(clusterBoxes[box] - lx, 0), lx - clusterBoxes[box + 3]);
+                columnDistances[z * clustersX + x] = dx * dx;
+            }
+            for (int y = 0; y < clustersY; y++) {
+                int box = clusterIndex(0, y, z) * 6;
+                float dy = Math.max(Math.max(clusterBoxes[box + 1] - ly, 0), ly - clusterBoxes[box + 4]);
+                float dyzSquared = dy * dy + dzSquared;
+                if (dyzSquared > radiusSquared) {
+                    continue;
+                }
+                for (int x = 0; x < clustersX; x++) {
+                    int cluster = clusterIndex(x, y, z);
+                    if (columnDistances[z * clustersX + x] + dyzSquared <= radiusSquared) {
+                        int count = clusterScratchCounts[cluster];
+                        if (count < MAX_LIGHTS_PER_CLUSTER) {
+                            clusterScratch[cluster * MAX_LIGHTS_PER_CLUSTER + count] = light;
+                        }
+                        clusterScratchCounts[cluster] = count + 1;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * This method packs the per cluster lists one after the other into the light index list.
+     */
+    private void packClusters() {
+        int total = 0;
+        overflowCount = 0;
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            int count = clusterScratchCounts[cluster];
+            if (count > MAX_LIGHTS_PER_CLUSTER) {
+                overflowCount += count - MAX_LIGHTS_PER_CLUSTER;
+                count = MAX_LIGHTS_PER_CLUSTER;
+            }
+            total += count;
+        }
+        if (lightIndices.length < total) {
+            lightIndices = new int[total * 2];
+        }
+        int offset = 0;
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            int count = Math.min(clusterScratchCounts[cluster], MAX_LIGHTS_PER_CLUSTER);
+            System.arraycopy(clusterScratch, cluster * MAX_LIGHTS_PER_CLUSTER, lightIndices, offset, count);
+            clusterGrid[cluster * 2] = offset;
+            clusterGrid[cluster * 2 + 1] = count;
+            offset += count;
+        }
+        lightIndexCount = total;
+    }
+
+    private int clusterIndex(int x, int y, int z) {
+        return x + clustersX * (y + clustersY * z);
+    }
+}
@@ -0,0 +1,179 @@
+package renderEngine;
+
+import entities.Light;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.util.vector.Matrix4f;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class uploads the result of the clustered light assigner to OpenGL every frame.
+ * The data is stored in three buffer textures which the fragment shaders read with texelFetch:
+ *  - the cluster grid, an offset and count for every cluster,
+ *  - the light index list,
+ *  - the lights themselves, two texels each: position and radius, then colour.
+ */
+public class ClusteredLighting {
+
+    // The texture units the three buffer textures are bound to. Unit 0 is the model's texture.
+    public static final int GRID_TEXTURE_UNIT = 1;
+    public static final int INDEX_TEXTURE_UNIT = 2;
+    public static final int LIGHT_TEXTURE_UNIT = 3;
+
+    // Passed to the shaders to turn on their clustered lighting code.
+    public static final Map<String, String> SHADER_DEFINES = Collections.singletonMap("CLUSTERED_LIGHTING", "1");
+
+    private static final int CLUSTERS_X = 16;
+    private static final int CLUSTERS_Y = 9;
+    private static final int CLUSTERS_Z = 24;
+
+    private final ClusteredLightAssigner assigner;
+    private float tileWidth;
+    private float tileHeight;
+
+    private final BufferTexture gridTexture = new BufferTexture(GL30.GL_RG32I);
+    private final BufferTexture indexTexture = new BufferTexture(GL30.GL_R32I);
+    private final BufferTexture lightTexture = new BufferTexture(GL30.GL_RGBA32F);
+
+    private IntBuffer gridBuffer;
+    private IntBuffer indexBuffer = BufferUtils.createIntBuffer(1);
+    private FloatBuffer lightBuffer = BufferUtils.createFloatBuffer(8);
+
+    /**
+     * Constructor. Takes in the projection matrix, its near and far planes, and the size in
+     * pixels of the screen being rendered to.
+     */
+    public ClusteredLighting(Matrix4f projectionMatrix, float nearPlane, float farPlane, int width, int height) {
+        this.assigner = new ClusteredLightAssigner(CLUSTERS_X, CLUSTERS_Y, CLUSTERS_Z, projectionMatrix,
+                nearPlane, farPlane);
+        setScreenSize(width, height);
+        this.gridBuffer = BufferUtils.createIntBuffer(assigner.getClusterCount() * 2);
+    }
+
+    /**
+     * This method assigns the lights to clusters for this frame and uploads the results.
+     */
+    public void update(List<Light> lights, Matrix4f viewMatrix) {
+        assigner.assignLights(lights, viewMatrix);
+
+        gridBuffer.clear();
+        gridBuffer.put(assigner.getClusterGrid());
+        gridBuffer.flip();
+        gridTexture.upload(gridBuffer);
+
+        int indexCount = Math.max(assigner.getLightIndexCount(), 1);
+        if (indexBuffer.capacity() < indexCount) {
+            indexBuffer = BufferUtils.createIntBuffer(indexCount * 2);
+        }
+        indexBuffer.clear();
+        indexBuffer.put(assigner.getLightIndices(), 0, assigner.getLightIndexCount());
+        if (assigner.getLightIndexCount() == 0) {
+            // OpenGL doesn't like empty buffers, so there is always at least one entry.
+            indexBuffer.put(0);
+        }
+        indexBuffer.flip();
+        indexTexture.upload(indexBuffer);
+
+        int lightFloats = Math.max(lights.size(), 1) * 8;
+        if (lightBuffer.capacity() < lightFloats) {
+            lightBuffer = BufferUtils.createFloatBuffer(lightFloats * 2);
+        }
+        lightBuffer.clear();
+        for (Light light : lights) {
+            lightBuffer.put(light.getPosition().x).put(light.getPosition().y).put(light.getPosition().z);
+            lightBuffer.put(light.getRadius());
+            lightBuffer.put(light.getColour().x).put(light.getColour().y).put(light.getColour().z).put(0);
+        }
+        if (lights.isEmpty()) {
+            lightBuffer.put(new float[8]);
+        }
+        lightBuffer.flip();
+        lightTexture.upload(lightBuffer);
+    }
+
+    /**
+     * This method binds the three buffer textures to their texture units, ready for drawing.
+     */
+    public void bindTextures() {
+        gridTexture.bind(GRID_TEXTURE_UNIT);
+        indexTexture.bind(INDEX_TEXTURE_UNIT);
+        lightTexture.bind(LIGHT_TEXTURE_UNIT);
+        GL13.glActiveTexture(GL13.GL_TEXTURE0);
+    }
+
+    /**
+     * This method changes the size in pixels of the screen being rendered to, for when the
+     * scene is rendered at a different resolution. The shaders must be given the new tile size.
+     */
+    public void setScreenSize(int width, int height) {
+        this.tileWidth = (float) width / CLUSTERS_X;
+        this.tileHeight = (float) height / CLUSTERS_Y;
+    }
+
+    public ClusteredLightAssigner getAssigner() {
+        return assigner;
+    }
+
+    public float getTileWidth() {
+        return tileWidth;
+    }
+
+    public float getTileHeight() {
+        return tileHeight;
+    }
+
+    public void cleanUp() {
+        gridTexture.cleanUp();
+        indexTexture.cleanUp();
+        lightTexture.cleanUp();
+    }
+
+    /**
+     * This class is a buffer object along with the buffer texture that reads from it.
+     */
+    private static class BufferTexture {
+
+        private final int format;
+        private final int bufferID;
+        private final int textureID;
+
+        private BufferTexture(int format) {
+            this.format = format;
+            this.bufferID = GL15.glGenBuffers();
+            this.textureID = GL11.glGenTextures();
+        }
+
+        private void upload(IntBuffer data) {
+            GL15.glBindBuffer(GL31.GL_TEXTURE_BUFFER, bufferID);
+            // The data changes every frame, hence 'GL15.GL_STREAM_DRAW'.
+            GL15.glBufferData(GL31.GL_TEXTURE_BUFFER, data, GL15.GL_STREAM_DRAW);
+            GL15.glBindBuffer(GL31.GL_TEXTURE_BUFFER, 0);
+        }
+
+        private void upload(FloatBuffer data) {
+            GL15.glBindBuffer(GL31.GL_TEXTURE_BUFFER, bufferID);
+            GL15.glBufferData(GL31.GL_TEXTURE_BUFFER, data, GL15.GL_STREAM_DRAW);
+            GL15.glBindBuffer(GL31.GL_TEXTURE_BUFFER, 0);
+        }
+
+        private void bind(int unit) {
+            GL13.glActiveTexture(GL13.GL_TEXTURE0 + unit);
+            GL11.glBindTexture(GL31.GL_TEXTURE_BUFFER, textureID);
+            GL31.glTexBuffer(GL31.GL_TEXTURE_BUFFER, format, bufferID);
+        }
+
+        private void cleanUp() {
+            GL15.glDeleteBuffers(bufferID);
+            GL11.glDeleteTextures(textureID);
+        }
+    }
+}
@@ -17,6 +17,9 @@ public class DisplayManager {
                              FPS_CAP = 120;
     private static final String TITLE = "LWJGL 2 Tutorial!";
 
+    // Caps the frame rate and measures the frame times.
+    private static final FramePacer framePacer = new FramePacer(FPS_CAP);
+
     /**
      * Creates a display window on which we can render our game. The dimensions
      * of the window are determined by setting the display mode. By using
@@ -44,13 +47,48 @@ public class DisplayManager {
     /**
      * This method is used to update the display at the end of every frame. When
      * we have set up a rendering process this method will display whatever
-     * we've been rendering onto the screen. The "sync" method is used here to
+     * we've been rendering onto the screen. The frame pacer is used here to
      * cap the frame rate. Without this the computer would just try to run the
      * game as fast as it possibly can, doing more work than it needs to.
      */
     public static void updateDisplay(){
-        Display.sync(FPS_CAP);
+        framePacer.waitForNextFrame();
         Display.update();
+        framePacer.frameFinished();
+    }
+
+    /**
+     * This method changes the frame rate cap. 0 turns the cap off.
+     */
+    public static void setTargetFrameRate(int targetFrameRate){
+        framePacer.setTargetFrameRate(targetFrameRate);
+    }
+
+    /**
+     * This method returns the time between the last two frames in seconds. Anything that moves
+     * should multiply its speed by this, so it moves just as fast at any frame rate.
+     */
+    public static float getFrameTimeSeconds(){
+        return framePacer.getDelta();
+    }
+
+    /**
+     * This method returns how long the last frame took to render, in milliseconds,
+     * leaving out the time spent waiting to cap the frame rate. It is 0 until a frame has been measured.
+     */
+    public static float getFrameWorkTime(){
+        return framePacer.getCpuTime();
+    }
+
+    /**
+     * This method returns the time one frame may take at the frame rate cap, in milliseconds.
+     */
+    public static float getTargetFrameTime(){
+        return framePacer.getTargetFrameTime();
+    }
+
+    public static FramePacer getFramePacer(){
+        return framePacer;
     }
 
     /**
@@ -0,0 +1,268 @@
+package renderEngine;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.util.vector.Matrix4f;
+import toolbox.Maths;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * This class is a list of draw commands for one frame, stored off the Java heap.
+ *
+ * Every command is a fixed size record holding everything the GL thread needs to make one
+ * draw call: the VAO, the number of indices, the texture, the material and the transformation
+ * matrix, which is ready to be passed straight to glUniformMatrix4. Along with each command
+ * goes a sort key, which orders the commands by pass, shader, model and distance.
+ *
+ * Commands are written by index, so several threads can record into the same buffer at once
+ * as long as each one writes its own range of indices. Once they are all done the keys are
+ * sorted and the GL thread replays the commands in that order.
+ */
+public class DrawCommandBuffer {
+
+    // The flags stored with each command.
+    public static final int FLAG_FAKE_LIGHTING = 1;
+    public static final int FLAG_TRANSPARENCY = 2;
+    public static final int FLAG_BAKED_LIGHTING = 4;
+
+    // The shaders a command can be drawn with, in the order they are drawn in each pass.
+    public static final int SHADER_TERRAIN = 0;
+    public static final int SHADER_ENTITY = 1;
+    public static final int SHADER_BAKED_ENTITY = 2;
+
+    // The passes, drawn in this order.
+    public static final int PASS_OPAQUE = 0;
+    public static final int PASS_ALPHA_TESTED = 1;
+
+    // The sort key is, from the highest bits down: the pass (1 bit), the shader (2 bits), the
+    // model (16 bits), the distance to the camera (24 bits) and the command's index (20 bits).
+    // The index makes every key unique, and tells the replay where the command is stored.
+    //
+    // The shader and model are above the distance on purpose: each shader and model is bound
+    // once. The commands are front to back within one model, and the models themselves are
+    // numbered nearest first within each pass and shader by DrawCommandRecorder, so batches
+    // that are a model of their own come out front to back too. Since SHADER_TERRAIN is 0,
+    // this means all the terrain in a pass is drawn before any entity, however close the
+    // entity is. The terrain covers most of the screen and its hills hide most entities, so
+    // drawing it first gets the depth test its best occluder; the cost is that the ground
+    // behind the nearest entities is shaded and then drawn over. With the depth prepass on,
+    // nothing is shaded twice, so the order only saves state changes.
+    private static final int INDEX_BITS = 20;
+    private static final int DEPTH_BITS = 24;
+    private static final int MODEL_BITS = 16;
+    private static final int SHADER_SHIFT = INDEX_BITS + DEPTH_BITS + MODEL_BITS;
+    private static final int PASS_SHIFT = SHADER_SHIFT + 2;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+    public static final int MAX_COMMANDS = 1 << INDEX_BITS;
+    public static final int MAX_MODELS = 1 << MODEL_BITS;
+
+    // Below this many commands, sorting on one thread is quicker.
+    private static final int PARALLEL_SORT_THRESHOLD = 8192;
+
+    // Every command is 24 ints: vao, index count, texture, flags, shine damper, reflectivity,
+    // the height map (terrain only), an unused int so the matrix starts on a 32 byte boundary,
+    // and then the 16 matrix floats. Terrain commands have no matrix; the tile's offset, size
+    // and height range, and the patch's place, grid and morph range go in its place.
+    private static final int COMMAND_INTS = 24;
+    private static final int HEIGHT_MAP_OFFSET = 6;
+    private static final int MATRIX_OFFSET = 8;
+
+    private ByteBuffer data;
+    private IntBuffer ints;
+    private FloatBuffer floats;
+    // A view of one command's matrix. Reused for every command, so replaying allocates nothing.
+    private FloatBuffer matrixView;
+    private long[] keys;
+    private int count = 0;
+
+    public DrawCommandBuffer(int initialCapacity) {
+        allocate(Math.max(initialCapacity, 16));
+    }
+
+    /**
+     * This method empties the buffer and makes sure it has room for the given number of commands.
+     * It must be called before the commands are recorded, since recording never grows the buffer.
+     */
+    public void reset(int commandCount) {
+        if (commandCount > MAX_COMMANDS) {
+            throw new IllegalArgumentException("Too many draw commands in one frame: " + commandCount);
+        }
+        if (commandCount > keys.length) {
+            allocate(Math.max(commandCount, keys.length * 2));
+        }
+        count = commandCount;
+    }
+
+    /**
+     * This method writes a command at the given index, with the entity's transformation matrix.
+     * Different threads may record different indices at the same time.
+     */
+    public void record(int index, int pass, int shader, int model, float distance, int vaoID, int indexCount,
+                       int textureID, int flags, float shineDamper, float reflectivity, Matrix4f transformation) {
+        int base = index * COMMAND_INTS;
+        ints.put(base, vaoID);
+        ints.put(base + 1, indexCount);
+        ints.put(base + 2, textureID);
+        ints.put(base + 3, flags);
+        floats.put(base + 4, shineDamper);
+        floats.put(base + 5, reflectivity);
+        Maths.storeMatrix(transformation, floats, base + MATRIX_OFFSET);
+        keys[index] = createKey(pass, shader, model, distance, index);
+    }
+
+    /**
+     * This method writes the command for a patch of a terrain tile at the given index. The patch's
+     * x and z are measured from the tile's corner; a whole tile is one patch at 0, 0 of the tile's
+     * size. Terrains are always drawn in the opaque pass with the terrain shader.
+     */
+    public void recordTerrain(int index, int model, float distance, int vaoID, int indexCount, int textureID,
+                              int heightMapID, float shineDamper, float reflectivity, float x, float z, float size,
+                              float minHeight, float maxHeight, float patchX, float patchZ, float patchSize,
+                              int patchQuads, float morphStart, float morphEnd) {
+        int base = index * COMMAND_INTS;
+        ints.put(base, vaoID);
+        ints.put(base + 1, indexCount);
+        ints.put(base + 2, textureID);
+        ints.put(base + 3, 0);
+        floats.put(base + 4, shineDamper);
+        floats.put(base + 5, reflectivity);
+        ints.put(base + HEIGHT_MAP_OFFSET, heightMapID);
+        floats.put(base + MATRIX_OFFSET, x);
+        floats.put(base + MATRIX_OFFSET + 1, z);
+        floats.put(base + MATRIX_OFFSET + 2, size);
+        floats.put(base + MATRIX_OFFSET + 3, minHeight);
+        floats.put(base + MATRIX_OFFSET + 4, maxHeight);
+        floats.put(base + MATRIX_OFFSET + 5, patchX);
+        floats.put(base + MATRIX_OFFSET + 6, patchZ);
+        floats.put(base + MATRIX_OFFSET + 7, patchSize);
+        floats.put(base + MATRIX_OFFSET + 8, patchQuads);
+        floats.put(base + MATRIX_OFFSET + 9, morphStart);
+        floats.put(base + MATRIX_OFFSET + 10, morphEnd);
+        keys[index] = createKey(PASS_OPAQUE, SHADER_TERRAIN, model, distance, index);
+    }
+
+    /**
+     * This method sorts the commands into the order they should be drawn.
+     * Big frames are sorted on several threads.
+     */
+    public void sort() {
+        if (count > PARALLEL_SORT_THRESHOLD) {
+            Arrays.parallelSort(keys, 0, count);
+        } else {
+            Arrays.sort(keys, 0, count);
+        }
+    }
+
+    /**
+     * This method sorts only the commands stored from index 'from' up to 'to'. If the commands
+     * were recorded so that every range is already in the right place, sorting each range is
+     * the same as sorting them all, and different ranges can be sorted on different threads.
+     */
+    public void sortRange(int from, int to) {
+        Arrays.sort(keys, from, to);
+    }
+
+    /**
+     * This method returns the position, in sorted order, of the first command of the given
+     * pass or a later one. The buffer must have been sorted.
+     */
+    public int getPassStart(int pass) {
+        long first = (long) pass << PASS_SHIFT;
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] < first) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * This method returns where the command at the given sorted position is stored.
+     * The other getters take this index.
+     */
+    public int getCommandIndex(int sortedPosition) {
+        return (int) (keys[sortedPosition] & INDEX_MASK);
+    }
+
+    public int getShader(int sortedPosition) {
+        return (int) (keys[sortedPosition] >>> SHADER_SHIFT) & 3;
+    }
+
+    public int getVaoID(int index) {
+        return ints.get(index * COMMAND_INTS);
+    }
+
+    public int getIndexCount(int index) {
+        return ints.get(index * COMMAND_INTS + 1);
+    }
+
+    public int getTextureID(int index) {
+        return ints.get(index * COMMAND_INTS + 2);
+    }
+
+    public int getFlags(int index) {
+        return ints.get(index * COMMAND_INTS + 3);
+    }
+
+    public float getShineDamper(int index) {
+        return floats.get(index * COMMAND_INTS + 4);
+    }
+
+    public float getReflectivity(int index) {
+        return floats.get(index * COMMAND_INTS + 5);
+    }
+
+    public int getHeightMapID(int index) {
+        return ints.get(index * COMMAND_INTS + HEIGHT_MAP_OFFSET);
+    }
+
+    /**
+     * This method returns one of a terrain command's tile values: 0 and 1 are the x and z of its
+     * corner, 2 its size, 3 and 4 its lowest and highest height, 5 and 6 the patch's corner from
+     * the tile's, 7 its size, 8 the squares along its grid's side, and 9 and 10 its morph range.
+     */
+    public float getTileValue(int index, int value) {
+        return floats.get(index * COMMAND_INTS + MATRIX_OFFSET + value);
+    }
+
+    /**
+     * This method returns a buffer positioned on the command's 16 matrix floats.
+     * The same buffer is returned every time, so it is only valid until the next call.
+     */
+    public FloatBuffer getMatrix(int index) {
+        int start = index * COMMAND_INTS + MATRIX_OFFSET;
+        matrixView.limit(start + 16);
+        matrixView.position(start);
+        return matrixView;
+    }
+
+    /**
+     * This method turns a distance in 0 to 1 (0 at the camera, 1 at the far plane) into the sort key.
+     */
+    private static long createKey(int pass, int shader, int model, float distance, int index) {
+        long depth = (long) (Math.max(0, Math.min(distance, 1)) * ((1 << DEPTH_BITS) - 1));
+        return ((long) pass << PASS_SHIFT) | ((long) shader << SHADER_SHIFT)
+                | ((long) model << (INDEX_BITS + DEPTH_BITS)) | (depth << INDEX_BITS) | index;
+    }
+
+    private void allocate(int capacity) {
+        // The old commands don't need copying, since reset() is only called before recording.
+        data = BufferUtils.createByteBuffer(capacity * COMMAND_INTS * 4);
+        ints = data.asIntBuffer();
+        floats = data.asFloatBuffer();
+        matrixView = data.asFloatBuffer();
+        keys = new long[capacity];
+    }
+}
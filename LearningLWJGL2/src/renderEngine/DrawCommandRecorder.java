@@ -0,0 +1,303 @@
+package renderEngine;
+
+import entities.Entity;
+import jobs.JobSystem;
+import models.RawModel;
+import models.TexturedModel;
+import org.lwjgl.util.vector.Vector3f;
+import terrains.Terrain;
+import terrains.TerrainLod;
+import terrains.TerrainPatchList;
+import textures.ModelTexture;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * This class turns the entities and terrains processed in a frame into a sorted draw command buffer.
+ *
+ * The entity lists are cut into slices of ENTITIES_PER_TASK entities. Every slice knows in
+ * advance which range of the buffer its commands go into, so the slices are recorded in
+ * parallel without any locking. Building the transformation matrices, which used to be done
+ * one entity at a time on the GL thread, is spread over all the cores this way.
+ *
+ * The models are put in draw order before recording: terrains, then by pass and shader, and
+ * then nearest first, by the distance of each model's nearest entity. Each model's commands
+ * are stored together in that order, so the whole buffer is sorted by sorting the terrains'
+ * range and then each model's range front to back, which is also done in parallel. Vegetation
+ * chunks and static batches are each a model of their own with a single entity, so it is the
+ * model order that draws them front to back.
+ * The work runs on a JobSystem if one is set, and on the common fork join pool otherwise.
+ * Terrains are recorded either as whole tiles, or as the patches picked by a TerrainLod.
+ * This class does not use OpenGL.
+ */
+public class DrawCommandRecorder {
+
+    private static final int ENTITIES_PER_TASK = 64;
+
+    // Puts the models in the order their commands are drawn in.
+    private static final Comparator<ModelBatch> DRAW_ORDER = new Comparator<ModelBatch>() {
+        @Override
+        public int compare(ModelBatch a, ModelBatch b) {
+            int pass = Integer.compare(a.pass, b.pass);
+            if (pass != 0) {
+                return pass;
+            }
+            int shader = Integer.compare(a.shader, b.shader);
+            return shader != 0 ? shader : Float.compare(a.nearestDistanceSquared, b.nearestDistanceSquared);
+        }
+    };
+
+    private final List<RecordTask> tasks = new ArrayList<RecordTask>();
+    private int taskCount = 0;
+    // The models of the frame in draw order, out of the batches kept from frame to frame.
+    private final List<ModelBatch> batches = new ArrayList<ModelBatch>();
+    private final List<ModelBatch> models = new ArrayList<ModelBatch>();
+    // Where each model's commands start in the buffer, with the end of the last one at the end.
+    private int[] modelStarts = new int[16];
+    private JobSystem jobSystem;
+
+    // How long the last record() took, in nanoseconds.
+    private long lastRecordTime = 0;
+
+    /**
+     * This method records a command for every entity and terrain into the buffer, and sorts them.
+     * Distances are measured from the camera position and scaled by the far plane for the sort key.
+     */
+    public void record(Map<TexturedModel, List<Entity>> entities, List<Terrain> terrains,
+                       Vector3f cameraPosition, float farPlane, DrawCommandBuffer buffer) {
+        record(entities, terrains, null, cameraPosition, farPlane, buffer);
+    }
+
+    /**
+     * This method does the same, but draws the terrains as the given patches instead of whole
+     * tiles. The patches' tile indices refer to the terrains list. Passing in null patches draws
+     * whole tiles.
+     */
+    public void record(Map<TexturedModel, List<Entity>> entities, List<Terrain> terrains,
+                       TerrainPatchList patches, Vector3f cameraPosition, float farPlane, DrawCommandBuffer buffer) {
+        long start = System.nanoTime();
+        models.clear();
+        for (Map.Entry<TexturedModel, List<Entity>> entry : entities.entrySet()) {
+            if (models.size() == batches.size()) {
+                batches.add(new ModelBatch());
+            }
+            ModelBatch batch = batches.get(models.size());
+            batch.set(entry.getKey(), entry.getValue());
+            models.add(batch);
+        }
+        if (jobSystem != null) {
+            jobSystem.parallelFor(0, models.size(), 1, (from, to) -> {
+                for (int m = from; m < to; m++) {
+                    models.get(m).findNearest(cameraPosition);
+                }
+            });
+        } else {
+            models.parallelStream().forEach(batch -> batch.findNearest(cameraPosition));
+        }
+        Collections.sort(models, DRAW_ORDER);
+        if (terrains.size() + models.size() > DrawCommandBuffer.MAX_MODELS) {
+            throw new IllegalArgumentException("Too many models in one frame: " + (terrains.size() + models.size()));
+        }
+        if (modelStarts.length < models.size() + 1) {
+            modelStarts = new int[(models.size() + 1) * 2];
+        }
+
+        // The terrains come first and are few, so they are recorded on this thread.
+        int terrainCount = patches != null ? patches.getCount() : terrains.size();
+        int commandCount = terrainCount;
+        taskCount = 0;
+        for (int m = 0; m < models.size(); m++) {
+            List<Entity> batch = models.get(m).entities;
+            modelStarts[m] = commandCount;
+            for (int from = 0; from < batch.size(); from += ENTITIES_PER_TASK) {
+                int to = Math.min(from + ENTITIES_PER_TASK, batch.size());
+                nextTask().set(models.get(m).model, batch, from, to, terrains.size() + m, commandCount);
+                commandCount += to - from;
+            }
+        }
+        modelStarts[models.size()] = commandCount;
+        buffer.reset(commandCount);
+
+        final float inverseFarPlane = 1 / farPlane;
+        if (patches != null) {
+            recordPatches(terrains, patches, cameraPosition, inverseFarPlane, buffer);
+        } else {
+            for (int i = 0; i < terrains.size(); i++) {
+                Terrain terrain = terrains.get(i);
+                float distance = (float) Math.sqrt(terrain.distanceSquared(cameraPosition.x, cameraPosition.y,
+                        cameraPosition.z)) * inverseFarPlane;
+                recordTerrain(buffer, i, terrain, i, distance, terrain.getModel(), 0, 0, Terrain.getSize(),
+                        Terrain.getVertexCount() - 1, TerrainLod.NO_MORPH, TerrainLod.NO_MORPH);
+            }
+        }
+        // The terrain commands are stored before the first model's, so their range is sorted on
+        // its own too: tile by tile, and front to back within each tile. There are only a few
+        // hundred of them even as patches, so they are sorted on this thread.
+        buffer.sortRange(0, terrainCount);
+        if (jobSystem != null) {
+            jobSystem.parallelFor(0, taskCount, 1, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    tasks.get(i).run(buffer, cameraPosition, inverseFarPlane);
+                }
+            });
+            jobSystem.parallelFor(0, models.size(), 1, (from, to) -> {
+                for (int m = from; m < to; m++) {
+                    buffer.sortRange(modelStarts[m], modelStarts[m + 1]);
+                }
+            });
+        } else {
+            IntStream.range(0, taskCount).parallel().forEach(i -> tasks.get(i).run(buffer, cameraPosition, inverseFarPlane));
+            IntStream.range(0, models.size()).parallel().forEach(m -> buffer.sortRange(modelStarts[m], modelStarts[m + 1]));
+        }
+
+        // The batches are kept, but not the entity lists they point to.
+        for (ModelBatch batch : models) {
+            batch.set(null, null);
+        }
+        lastRecordTime = System.nanoTime() - start;
+    }
+
+    /**
+     * This method records a command for every terrain patch. The tile is used as the model, so
+     * the patches are drawn tile by tile and only switch height maps between tiles.
+     */
+    private void recordPatches(List<Terrain> terrains, TerrainPatchList patches, Vector3f cameraPosition,
+                               float inverseFarPlane, DrawCommandBuffer buffer) {
+        for (int i = 0; i < patches.getCount(); i++) {
+            int tile = patches.getTile(i);
+            Terrain terrain = terrains.get(tile);
+            float distance = (float) Math.sqrt(patches.distanceSquared(i, cameraPosition.x, cameraPosition.y,
+                    cameraPosition.z)) * inverseFarPlane;
+            int quads = patches.getQuads(i);
+            recordTerrain(buffer, i, terrain, tile, distance, terrain.getPatchModel(quads),
+                    patches.getX(i) - terrain.getX(), patches.getZ(i) - terrain.getZ(), patches.getSize(i), quads,
+                    patches.getMorphStart(i), patches.getMorphEnd(i));
+        }
+    }
+
+    private static void recordTerrain(DrawCommandBuffer buffer, int index, Terrain terrain, int model,
+                                      float distance, RawModel grid, float patchX, float patchZ, float patchSize,
+                                      int patchQuads, float morphStart, float morphEnd) {
+        ModelTexture texture = terrain.getTexture();
+        buffer.recordTerrain(index, model, distance, grid.getVaoID(), grid.getVertexCount(), texture.getID(),
+                terrain.getHeightTextureID(), texture.getShineDamper(), texture.getReflectivity(), terrain.getX(),
+                terrain.getZ(), Terrain.getSize(), terrain.getHeightMapMin(), terrain.getHeightMapMax(), patchX, patchZ,
+                patchSize, patchQuads, morphStart, morphEnd);
+    }
+
+    /**
+     * This method sets the job system to record on, or null for the common fork join pool.
+     */
+    public void setJobSystem(JobSystem jobSystem) {
+        this.jobSystem = jobSystem;
+    }
+
+    /**
+     * Returns how long the last record() took, in nanoseconds.
+     */
+    public long getLastRecordTime() {
+        return lastRecordTime;
+    }
+
+    private RecordTask nextTask() {
+        if (taskCount == tasks.size()) {
+            tasks.add(new RecordTask());
+        }
+        return tasks.get(taskCount++);
+    }
+
+    private static int getPass(TexturedModel model) {
+        return model.getTexture().isHasTransparency() ? DrawCommandBuffer.PASS_ALPHA_TESTED
+                : DrawCommandBuffer.PASS_OPAQUE;
+    }
+
+    private static int getShader(TexturedModel model) {
+        return model.getRawModel().hasBakedLighting() ? DrawCommandBuffer.SHADER_BAKED_ENTITY
+                : DrawCommandBuffer.SHADER_ENTITY;
+    }
+
+    /**
+     * This class is one model processed this frame, with its entities and what it is sorted by.
+     */
+    private static class ModelBatch {
+
+        private TexturedModel model;
+        private List<Entity> entities;
+        private int pass;
+        private int shader;
+        private float nearestDistanceSquared;
+
+        private void set(TexturedModel model, List<Entity> entities) {
+            this.model = model;
+            this.entities = entities;
+            if (model != null) {
+                pass = getPass(model);
+                shader = getShader(model);
+            }
+        }
+
+        /**
+         * This method finds how far the model's nearest entity is from the camera.
+         */
+        private void findNearest(Vector3f cameraPosition) {
+            float nearest = Float.MAX_VALUE;
+            for (int i = 0; i < entities.size(); i++) {
+                nearest = Math.min(nearest, entities.get(i).distanceSquared(cameraPosition));
+            }
+            nearestDistanceSquared = nearest;
+        }
+    }
+
+    /**
+     * This class is one slice of an entity list, and the range of the buffer it records into.
+     * The tasks are kept and reused from frame to frame.
+     */
+    private static class RecordTask {
+
+        private TexturedModel model;
+        private List<Entity> entities;
+        private int from;
+        private int to;
+        private int modelID;
+        private int firstCommand;
+
+        private void set(TexturedModel model, List<Entity> entities, int from, int to, int modelID,
+                         int firstCommand) {
+            this.model = model;
+            this.entities = entities;
+            this.from = from;
+            this.to = to;
+            this.modelID = modelID;
+            this.firstCommand = firstCommand;
+        }
+
+        private void run(DrawCommandBuffer buffer, Vector3f cameraPosition, float inverseFarPlane) {
+            RawModel rawModel = model.getRawModel();
+            ModelTexture texture = model.getTexture();
+            int pass = getPass(model);
+            int shader = getShader(model);
+            int flags = 0;
+            if (texture.isUseFakeLighting()) {
+                flags |= DrawCommandBuffer.FLAG_FAKE_LIGHTING;
+            }
+            if (texture.isHasTransparency()) {
+                flags |= DrawCommandBuffer.FLAG_TRANSPARENCY;
+            }
+            if (rawModel.hasBakedLighting()) {
+                flags |= DrawCommandBuffer.FLAG_BAKED_LIGHTING;
+            }
+            for (int i = from; i < to; i++) {
+                Entity entity = entities.get(i);
+                float distance = (float) Math.sqrt(entity.distanceSquared(cameraPosition)) * inverseFarPlane;
+                buffer.record(firstCommand + i - from, pass, shader, modelID, distance, rawModel.getVaoID(),
+                        rawModel.getVertexCount(), texture.getID(), flags, texture.getShineDamper(),
+                        texture.getReflectivity(), entity.getTransformationMatrix());
+            }
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package renderEngine;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import shaders.DepthShader;
+import shaders.ShaderProgram;
+import shaders.StaticShader;
+import shaders.TerrainDepthShader;
+import shaders.TerrainShader;
+
+/**
+ * This class replays a sorted draw command buffer on the GL thread.
+ * The commands come sorted by shader and model, so it only switches shader, VAO, texture or
+ * material when the next command needs a different one, and otherwise just loads the
+ * command's matrix and draws.
+ * The depth prepass replays the same commands with the depth shaders instead, which only place
+ * the vertices.
+ */
+public class DrawCommandRenderer {
+
+    // The depth shaders renderDepth() picks between.
+    private static final int DEPTH_TERRAIN = 0;
+    private static final int DEPTH_OPAQUE = 1;
+    private static final int DEPTH_ALPHA_TESTED = 2;
+
+    private final StaticShader shader;
+    private final StaticShader bakedShader;
+    private final TerrainShader terrainShader;
+    private final DepthShader depthShader;
+    private final DepthShader alphaTestedDepthShader;
+    private final TerrainDepthShader terrainDepthShader;
+
+    public DrawCommandRenderer(StaticShader shader, StaticShader bakedShader, TerrainShader terrainShader,
+                               DepthShader depthShader, DepthShader alphaTestedDepthShader,
+                               TerrainDepthShader terrainDepthShader) {
+        this.shader = shader;
+        this.bakedShader = bakedShader;
+        this.terrainShader = terrainShader;
+        this.depthShader = depthShader;
+        this.alphaTestedDepthShader = alphaTestedDepthShader;
+        this.terrainDepthShader = terrainDepthShader;
+    }
+
+    /**
+     * This method draws the commands from sorted position 'from' up to 'to'.
+     * Every draw call is counted in the given stats.
+     */
+    public void render(DrawCommandBuffer commands, int from, int to, RenderPassStats stats) {
+        if (from >= to) {
+            return;
+        }
+        int activeShader = -1;
+        int boundVao = -1;
+        int boundTexture = -1;
+        int boundHeightMap = -1;
+        int fakeLighting = -1;
+        float shineDamper = Float.NaN;
+        float reflectivity = Float.NaN;
+        boolean culling = true;
+
+        for (int position = from; position < to; position++) {
+            int command = commands.getCommandIndex(position);
+            int shaderType = commands.getShader(position);
+            if (shaderType != activeShader) {
+                startShader(shaderType);
+                activeShader = shaderType;
+                // Uniforms belong to a program, so everything has to be loaded again for the new one.
+                fakeLighting = -1;
+                shineDamper = Float.NaN;
+                reflectivity = Float.NaN;
+            }
+
+            int flags = commands.getFlags(command);
+            int vao = commands.getVaoID(command);
+            if (vao != boundVao) {
+                GL30.glBindVertexArray(vao);
+                GL20.glEnableVertexAttribArray(0);
+                // The terrain grid only has positions; the rest comes from the height map.
+                if (shaderType != DrawCommandBuffer.SHADER_TERRAIN) {
+                    GL20.glEnableVertexAttribArray(1);
+                    GL20.glEnableVertexAttribArray(2);
+                }
+                // Attribute list 3 holds the baked lighting, if the model has any.
+                if ((flags & DrawCommandBuffer.FLAG_BAKED_LIGHTING) != 0) {
+                    GL20.glEnableVertexAttribArray(3);
+                }
+                boundVao = vao;
+            }
+
+            // Culling is disabled for transparent textures, so both sides of grass and ferns show.
+            boolean transparent = (flags & DrawCommandBuffer.FLAG_TRANSPARENCY) != 0;
+            if (transparent == culling) {
+                if (transparent) {
+                    MasterRenderer.disableCulling();
+                } else {
+                    MasterRenderer.enableCulling();
+                }
+                culling = !transparent;
+            }
+
+            float commandShine = commands.getShineDamper(command);
+            float commandReflectivity = commands.getReflectivity(command);
+            if (commandShine != shineDamper || commandReflectivity != reflectivity) {
+                if (shaderType == DrawCommandBuffer.SHADER_TERRAIN) {
+                    terrainShader.loadShineVariables(commandShine, commandReflectivity);
+                } else {
+                    entityShader(shaderType).loadShineVariables(commandShine, commandReflectivity);
+                }
+                shineDamper = commandShine;
+                reflectivity = commandReflectivity;
+            }
+            if (shaderType != DrawCommandBuffer.SHADER_TERRAIN) {
+                int commandFakeLighting = flags & DrawCommandBuffer.FLAG_FAKE_LIGHTING;
+                if (commandFakeLighting != fakeLighting) {
+                    entityShader(shaderType).loadFakeLightingVariable(commandFakeLighting != 0);
+                    fakeLighting = commandFakeLighting;
+                }
+            }
+
+            int texture = commands.getTextureID(command);
+            if (texture != boundTexture) {
+                GL13.glActiveTexture(GL13.GL_TEXTURE0);
+                GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture);
+                boundTexture = texture;
+            }
+
+            if (shaderType == DrawCommandBuffer.SHADER_TERRAIN) {
+                // Every tile shares the grids, so only its height map and place change between patches.
+                int heightMap = commands.getHeightMapID(command);
+                if (heightMap != boundHeightMap) {
+                    GL13.glActiveTexture(GL13.GL_TEXTURE0 + TerrainShader.HEIGHT_MAP_TEXTURE_UNIT);
+                    GL11.glBindTexture(GL11.GL_TEXTURE_2D, heightMap);
+                    GL13.glActiveTexture(GL13.GL_TEXTURE0);
+                    boundHeightMap = heightMap;
+                }
+                terrainShader.loadTile(commands.getTileValue(command, 0), commands.getTileValue(command, 1),
+                        commands.getTileValue(command, 2), commands.getTileValue(command, 3),
+                        commands.getTileValue(command, 4));
+                terrainShader.loadPatch(commands.getTileValue(command, 5), commands.getTileValue(command, 6),
+                        commands.getTileValue(command, 7), (int) commands.getTileValue(command, 8),
+                        commands.getTileValue(command, 9), commands.getTileValue(command, 10));
+            } else {
+                entityShader(shaderType).loadTransformationMatrix(commands.getMatrix(command));
+            }
+            int indexCount = commands.getIndexCount(command);
+            GL11.glDrawElements(GL11.GL_TRIANGLES, indexCount, GL11.GL_UNSIGNED_INT, 0);
+            stats.recordDraw(indexCount);
+        }
+
+        GL20.glDisableVertexAttribArray(0);
+        GL20.glDisableVertexAttribArray(1);
+        GL20.glDisableVertexAttribArray(2);
+        GL20.glDisableVertexAttribArray(3);
+        GL30.glBindVertexArray(0);
+        MasterRenderer.enableCulling();
+        shader.stop();
+    }
+
+    /**
+     * This method draws the commands from sorted position 'from' up to 'to' into the depth buffer
+     * only, with the depth shaders. Only the commands with the FLAG_TRANSPARENCY flag bind their
+     * texture and run the alpha tested shader; every other entity is drawn with the shader that
+     * has no fragment work, and the terrain with the terrain's. Every draw call is counted in the
+     * given stats. The colour writes are the caller's to turn off.
+     */
+    public void renderDepth(DrawCommandBuffer commands, int from, int to, RenderPassStats stats) {
+        if (from >= to) {
+            return;
+        }
+        int activeShader = -1;
+        int boundVao = -1;
+        int boundTexture = -1;
+        int boundHeightMap = -1;
+        boolean culling = true;
+
+        for (int position = from; position < to; position++) {
+            int command = commands.getCommandIndex(position);
+            int flags = commands.getFlags(command);
+            boolean transparent = (flags & DrawCommandBuffer.FLAG_TRANSPARENCY) != 0;
+            int depthType = commands.getShader(position) == DrawCommandBuffer.SHADER_TERRAIN ? DEPTH_TERRAIN
+                    : transparent ? DEPTH_ALPHA_TESTED : DEPTH_OPAQUE;
+            if (depthType != activeShader) {
+                depthShader(depthType).start();
+                activeShader = depthType;
+            }
+
+            int vao = commands.getVaoID(command);
+            if (vao != boundVao) {
+                GL30.glBindVertexArray(vao);
+                GL20.glEnableVertexAttribArray(0);
+                boundVao = vao;
+            }
+            // Only the alpha tested shader reads the texture coordinates. Enabling them is kept
+            // with the shader rather than the VAO, since the same model could be drawn by both.
+            if (depthType == DEPTH_ALPHA_TESTED) {
+                GL20.glEnableVertexAttribArray(1);
+            } else {
+                GL20.glDisableVertexAttribArray(1);
+            }
+
+            // Both sides of grass and ferns are drawn, as in the colour passes.
+            if (transparent == culling) {
+                if (transparent) {
+                    MasterRenderer.disableCulling();
+                } else {
+                    MasterRenderer.enableCulling();
+                }
+                culling = !transparent;
+            }
+
+            if (depthType == DEPTH_ALPHA_TESTED) {
+                int texture = commands.getTextureID(command);
+                if (texture != boundTexture) {
+                    GL13.glActiveTexture(GL13.GL_TEXTURE0);
+                    GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture);
+                    boundTexture = texture;
+                }
+            }
+
+            if (depthType == DEPTH_TERRAIN) {
+                int heightMap = commands.getHeightMapID(command);
+                if (heightMap != boundHeightMap) {
+                    GL13.glActiveTexture(GL13.GL_TEXTURE0 + TerrainShader.HEIGHT_MAP_TEXTURE_UNIT);
+                    GL11.glBindTexture(GL11.GL_TEXTURE_2D, heightMap);
+                    GL13.glActiveTexture(GL13.GL_TEXTURE0);
+                    boundHeightMap = heightMap;
+                }
+                terrainDepthShader.loadTile(commands.getTileValue(command, 0), commands.getTileValue(command, 1),
+                        commands.getTileValue(command, 2), commands.getTileValue(command, 3),
+                        commands.getTileValue(command, 4));
+                terrainDepthShader.loadPatch(commands.getTileValue(command, 5), commands.getTileValue(command, 6),
+                        commands.getTileValue(command, 7), (int) commands.getTileValue(command, 8),
+                        commands.getTileValue(command, 9), commands.getTileValue(command, 10));
+            } else if (depthType == DEPTH_ALPHA_TESTED) {
+                alphaTestedDepthShader.loadTransformationMatrix(commands.getMatrix(command));
+            } else {
+                depthShader.loadTransformationMatrix(commands.getMatrix(command));
+            }
+            int indexCount = commands.getIndexCount(command);
+            GL11.glDrawElements(GL11.GL_TRIANGLES, indexCount, GL11.GL_UNSIGNED_INT, 0);
+            stats.recordDraw(indexCount);
+        }
+
+        GL20.glDisableVertexAttribArray(0);
+        GL20.glDisableVertexAttribArray(1);
+        GL30.glBindVertexArray(0);
+        MasterRenderer.enableCulling();
+        depthShader.stop();
+    }
+
+    private ShaderProgram depthShader(int depthType) {
+        if (depthType == DEPTH_TERRAIN) {
+            return terrainDepthShader;
+        }
+        return depthType == DEPTH_ALPHA_TESTED ? alphaTestedDepthShader : depthShader;
+    }
+
+    private void startShader(int shaderType) {
+        if (shaderType == DrawCommandBuffer.SHADER_TERRAIN) {
+            terrainShader.start();
+        } else {
+            entityShader(shaderType).start();
+        }
+    }
+
+    private StaticShader entityShader(int shaderType) {
+        return shaderType == DrawCommandBuffer.SHADER_BAKED_ENTITY ? bakedShader : shader;
+    }
+}
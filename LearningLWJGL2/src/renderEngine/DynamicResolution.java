@@ -0,0 +1,154 @@
+package renderEngine;
+
+import frameGraph.RenderTarget;
+import frameGraph.RenderTargetDescription;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL30;
+
+/**
+ * This class renders the scene into an offscreen frame buffer at a resolution that changes
+ * with the frame time, and then stretches it over the window.
+ *
+ * The colour and depth textures are transient targets of the MasterRenderer's frame graph,
+ * described at the largest size the scale can reach, so the render target pool hands the
+ * same two back every frame. A lower scale only renders into the bottom left corner of them,
+ * by shrinking the viewport, so changing the scale never has to create new textures. This
+ * class only owns the frame buffer they are attached to. At the end of the frame that corner
+ * is blitted onto the window with linear filtering.
+ */
+public class DynamicResolution {
+
+    private final ResolutionScaleController controller;
+    private final int windowWidth;
+    private final int windowHeight;
+    private final int bufferWidth;
+    private final int bufferHeight;
+
+    private final int frameBufferID;
+    // The textures attached to the frame buffer, so they are only attached again when they change.
+    private int colourTextureID = 0;
+    private int depthTextureID = 0;
+
+    private int renderWidth;
+    private int renderHeight;
+
+    // Statistics.
+    private int frames = 0;
+    private double scaleSum = 0;
+    private float lowestScale;
+
+    /**
+     * Constructor. Takes in the size of the window and the controller that picks the scale.
+     */
+    public DynamicResolution(int windowWidth, int windowHeight, ResolutionScaleController controller) {
+        this.controller = controller;
+        this.windowWidth = windowWidth;
+        this.windowHeight = windowHeight;
+        this.bufferWidth = Math.round(windowWidth * controller.getMaxScale());
+        this.bufferHeight = Math.round(windowHeight * controller.getMaxScale());
+        this.lowestScale = controller.getScale();
+
+        frameBufferID = GL30.glGenFramebuffers();
+        updateRenderSize();
+    }
+
+    /**
+     * This method passes the last frame's time, in milliseconds, to the controller
+     * and works out the size of the next frame. Frame times of 0 or less mean there is
+     * no measurement yet, and are ignored.
+     */
+    public void update(float frameTime) {
+        if (frameTime > 0) {
+            controller.update(frameTime);
+        }
+        updateRenderSize();
+        frames++;
+        scaleSum += controller.getScale();
+        lowestScale = Math.min(lowestScale, controller.getScale());
+    }
+
+    /**
+     * This method binds the frame buffer with the given colour and depth targets attached, and
+     * sets the viewport to the current render size. Everything drawn after this goes into the
+     * targets. They must match getBufferDescription() with RGBA8 and DEPTH24. It throws an
+     * IllegalStateException if the driver can't draw into them.
+     */
+    public void bindFrameBuffer(RenderTarget colour, RenderTarget depth) {
+        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, frameBufferID);
+        if (colour.getTextureID() != colourTextureID || depth.getTextureID() != depthTextureID) {
+            GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0, GL11.GL_TEXTURE_2D,
+                    colour.getTextureID(), 0);
+            GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_DEPTH_ATTACHMENT, GL11.GL_TEXTURE_2D,
+                    depth.getTextureID(), 0);
+            colourTextureID = colour.getTextureID();
+            depthTextureID = depth.getTextureID();
+            int status = GL30.glCheckFramebufferStatus(GL30.GL_FRAMEBUFFER);
+            if (status != GL30.GL_FRAMEBUFFER_COMPLETE) {
+                GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
+                throw new IllegalStateException("Could not draw into the dynamic resolution targets! Status: "
+                        + status);
+            }
+        }
+        GL11.glViewport(0, 0, renderWidth, renderHeight);
+    }
+
+    /**
+     * This method stretches the rendered part of the frame buffer over the whole window and
+     * binds the window again.
+     */
+    public void resolveToScreen() {
+        GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, frameBufferID);
+        GL30.glBindFramebuffer(GL30.GL_DRAW_FRAMEBUFFER, 0);
+        GL30.glBlitFramebuffer(0, 0, renderWidth, renderHeight, 0, 0, windowWidth, windowHeight,
+                GL11.GL_COLOR_BUFFER_BIT, GL11.GL_LINEAR);
+        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
+        GL11.glViewport(0, 0, windowWidth, windowHeight);
+    }
+
+    /**
+     * GETTERS
+     */
+    public float getScale() {
+        return controller.getScale();
+    }
+
+    public int getRenderWidth() {
+        return renderWidth;
+    }
+
+    public int getRenderHeight() {
+        return renderHeight;
+    }
+
+    /**
+     * Returns the description of a target the scene can be rendered into at any scale, in the given format.
+     */
+    public RenderTargetDescription getBufferDescription(int format) {
+        return new RenderTargetDescription(bufferWidth, bufferHeight, format);
+    }
+
+    public ResolutionScaleController getController() {
+        return controller;
+    }
+
+    public String getReport() {
+        float average = frames == 0 ? controller.getScale() : (float) (scaleSum / frames);
+        return String.format("Dynamic resolution: scale %.2f (%dx%d), average %.2f, lowest %.2f, "
+                        + "%d decreases and %d increases over %d frames.", controller.getScale(), renderWidth,
+                renderHeight, average, lowestScale, controller.getDecreaseCount(), controller.getIncreaseCount(),
+                frames);
+    }
+
+    /**
+     * This method deletes the frame buffer. The textures belong to the render target pool.
+     */
+    public void cleanUp() {
+        GL30.glDeleteFramebuffers(frameBufferID);
+    }
+
+    private void updateRenderSize() {
+        float scale = controller.getScale();
+        renderWidth = Math.max(1, Math.min(bufferWidth, Math.round(windowWidth * scale)));
+        renderHeight = Math.max(1, Math.min(bufferHeight, Math.round(windowHeight * scale)));
+    }
+}
@@ -0,0 +1,174 @@
+package renderEngine;
+
+/**
+ * This class caps the frame rate and measures how long every frame takes.
+ *
+ * Waiting for the next frame is done in two steps: the thread sleeps until it is close to the
+ * deadline, and then spins on System.nanoTime for the rest. Sleeping alone is too coarse, since
+ * the thread often wakes up a millisecond or more late, which shows up as uneven frame times.
+ * How long before the deadline the sleeping stops is learned from how late the sleeps have
+ * actually been: it grows straight away after a late wake up and shrinks slowly again.
+ *
+ * The deadlines are spaced exactly one frame apart, so a frame that finishes a little late
+ * doesn't push every later frame back. A frame that misses its deadline completely is counted,
+ * and the deadlines start again from that frame instead of rushing to catch up.
+ *
+ * For every frame it records:
+ *  - the delta, the time from the end of the last frame to the end of this one,
+ *  - the CPU time, the time spent working, including swapping the buffers,
+ *  - the idle time, the time spent waiting for the deadline.
+ */
+public class FramePacer {
+
+    // The spinning starts at least this long before the deadline, in nanoseconds.
+    private static final long MIN_SPIN_TIME = 500000;
+    // Extra time added on top of the latest sleep overshoot.
+    private static final long SPIN_MARGIN = 250000;
+    // The longest delta handed out, in seconds, so one long stall doesn't launch the camera across the map.
+    private static final float MAX_DELTA = 0.25f;
+
+    private long framePeriod;
+    private long nextDeadline = 0;
+    private long spinTime = 2000000;
+
+    private long lastFrameEnd = 0;
+    private long workEnd;
+    private long waitEnd;
+
+    // The last frame's measurements, in nanoseconds.
+    private long delta = 0;
+    private long cpuTime = 0;
+    private long idleTime = 0;
+
+    // Statistics over every frame.
+    private int frameCount = 0;
+    private int missedDeadlines = 0;
+    private long totalDelta = 0;
+    private long totalCpuTime = 0;
+    private long totalIdleTime = 0;
+    private long longestDelta = 0;
+
+    /**
+     * Constructor. Takes in the target frame rate; 0 turns the cap off.
+     */
+    public FramePacer(int targetFrameRate) {
+        setTargetFrameRate(targetFrameRate);
+    }
+
+    /**
+     * This method changes the target frame rate. 0 turns the cap off.
+     */
+    public void setTargetFrameRate(int targetFrameRate) {
+        this.framePeriod = targetFrameRate > 0 ? 1000000000L / targetFrameRate : 0;
+        this.nextDeadline = 0;
+    }
+
+    /**
+     * This method is called once the frame's work is done. It waits until the frame's deadline.
+     */
+    public void waitForNextFrame() {
+        workEnd = System.nanoTime();
+        if (framePeriod > 0) {
+            if (nextDeadline == 0) {
+                nextDeadline = workEnd + framePeriod;
+            } else if (workEnd > nextDeadline) {
+                missedDeadlines++;
+                nextDeadline = workEnd;
+            }
+            waitUntil(nextDeadline);
+            nextDeadline += framePeriod;
+        }
+        waitEnd = System.nanoTime();
+    }
+
+    /**
+     * This method is called after the buffers have been swapped. It finishes the frame's measurements.
+     */
+    public void frameFinished() {
+        long now = System.nanoTime();
+        if (lastFrameEnd != 0) {
+            // The time until the work was done, and the time it took to swap the buffers.
+            delta = now - lastFrameEnd;
+            cpuTime = (workEnd - lastFrameEnd) + (now - waitEnd);
+            idleTime = waitEnd - workEnd;
+            frameCount++;
+            totalDelta += delta;
+            totalCpuTime += cpuTime;
+            totalIdleTime += idleTime;
+            longestDelta = Math.max(longestDelta, delta);
+        }
+        lastFrameEnd = now;
+    }
+
+    /**
+     * This method returns the time between the last two frames in seconds, for moving things at
+     * a speed that doesn't depend on the frame rate. It is 0 until a frame has been measured.
+     */
+    public float getDelta() {
+        return Math.min(delta / 1000000000f, MAX_DELTA);
+    }
+
+    /**
+     * GETTERS for the last frame's times, in milliseconds.
+     */
+    public float getFrameTime() {
+        return delta / 1000000f;
+    }
+
+    public float getCpuTime() {
+        return cpuTime / 1000000f;
+    }
+
+    public float getIdleTime() {
+        return idleTime / 1000000f;
+    }
+
+    /**
+     * Returns the time one frame may take, in milliseconds, or 0 if there is no cap.
+     */
+    public float getTargetFrameTime() {
+        return framePeriod / 1000000f;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getMissedDeadlines() {
+        return missedDeadlines;
+    }
+
+    public String getReport() {
+        if (frameCount == 0) {
+            return "Frame pacing: no frames measured.";
+        }
+        return String.format("Frame pacing: %d frames, average %.2f ms (%.2f ms CPU, %.2f ms idle), "
+                        + "longest %.2f ms, %d missed deadlines.", frameCount, totalDelta / 1000000.0 / frameCount,
+                totalCpuTime / 1000000.0 / frameCount, totalIdleTime / 1000000.0 / frameCount,
+                longestDelta / 1000000.0, missedDeadlines);
+    }
+
+    /**
+     * This method sleeps until shortly before the deadline and spins for the rest.
+     */
+    private void waitUntil(long deadline) {
+        long remaining = deadline - System.nanoTime();
+        while (remaining > spinTime) {
+            long sleep = remaining - spinTime;
+            long before = System.nanoTime();
+            try {
+                Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long overshoot = System.nanoTime() - before - sleep;
+            // Late wake ups raise the spin time straight away, and it slowly comes back down after.
+            spinTime = Math.max(MIN_SPIN_TIME, Math.max(spinTime - spinTime / 64, overshoot + SPIN_MARGIN));
+            remaining = deadline - System.nanoTime();
+        }
+        while (System.nanoTime() < deadline) {
+            // Spinning: nothing to do but check the time again.
+        }
+    }
+}
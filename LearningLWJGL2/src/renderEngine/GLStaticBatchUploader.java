@@ -0,0 +1,30 @@
+package renderEngine;
+
+import models.RawModel;
+import objConverter.ModelData;
+
+/**
+ * This class uploads merged static batches with the Loader. It must only be used on the GL thread.
+ */
+public class GLStaticBatchUploader implements StaticBatchUploader {
+
+    private final Loader loader;
+
+    public GLStaticBatchUploader(Loader loader) {
+        this.loader = loader;
+    }
+
+    @Override
+    public RawModel upload(ModelData mesh, float[] bakedLighting) {
+        if (bakedLighting != null) {
+            return loader.loadToVAO(mesh.getVertices(), mesh.getTextureCoords(), mesh.getNormals(), bakedLighting,
+                    mesh.getIndices());
+        }
+        return loader.loadToVAO(mesh.getVertices(), mesh.getTextureCoords(), mesh.getNormals(), mesh.getIndices());
+    }
+
+    @Override
+    public void unload(RawModel model) {
+        loader.unloadVAO(model);
+    }
+}
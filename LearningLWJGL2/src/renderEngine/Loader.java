@@ -3,6 +3,7 @@ package renderEngine;
 import models.RawModel;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
 import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
@@ -12,10 +13,14 @@ import org.newdawn.slick.opengl.TextureLoader;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Handles the loading of geometry data into VAOs. It also keeps track of all
@@ -27,6 +32,8 @@ public class Loader {
     private List<Integer> vaos = new ArrayList<Integer>();
     private List<Integer> vbos = new ArrayList<Integer>();
     private List<Integer> textures = new ArrayList<Integer>();
+    // This maps each VAO to the VBOs stored in it, so that a single VAO can be unloaded.
+    private Map<Integer, List<Integer>> vaoBuffers = new HashMap<Integer, List<Integer>>();
 
     /**
      * This method takes in geometry data of positions, texture coordinates, normals, and indices
@@ -36,14 +43,65 @@ public class Loader {
      */
     public RawModel loadToVAO(float[] positions, float[] textureCoords, float[] normals, int[] indices){
         int vaoID = createVAO();
+        int firstVbo = vbos.size();
         bindIndicesBuffer(indices);
         storeDataInAttributeList(0, 3, positions);
         storeDataInAttributeList(1, 2, textureCoords);
         storeDataInAttributeList(2, 3, normals);
         unbindVAO();
+        vaoBuffers.put(vaoID, new ArrayList<Integer>(vbos.subList(firstVbo, vbos.size())));
         return new RawModel(vaoID, indices.length);
     }
 
+    /**
+     * This method does the same as the one above, but also stores baked lighting
+     * (two floats per vertex, see StaticLightBaker) in attribute list 3.
+     */
+    public RawModel loadToVAO(float[] positions, float[] textureCoords, float[] normals, float[] bakedLighting,
+                              int[] indices){
+        int vaoID = createVAO();
+        int firstVbo = vbos.size();
+        bindIndicesBuffer(indices);
+        storeDataInAttributeList(0, 3, positions);
+        storeDataInAttributeList(1, 2, textureCoords);
+        storeDataInAttributeList(2, 3, normals);
+        storeDataInAttributeList(3, 2, bakedLighting);
+        unbindVAO();
+        vaoBuffers.put(vaoID, new ArrayList<Integer>(vbos.subList(firstVbo, vbos.size())));
+        return new RawModel(vaoID, indices.length, true);
+    }
+
+    /**
+     * This method stores only positions, of the given number of coordinates each, and indices.
+     * It is used for meshes whose other data comes from somewhere else, like the terrain grid.
+     */
+    public RawModel loadToVAO(float[] positions, int dimensions, int[] indices){
+        int vaoID = createVAO();
+        int firstVbo = vbos.size();
+        bindIndicesBuffer(indices);
+        storeDataInAttributeList(0, dimensions, positions);
+        unbindVAO();
+        vaoBuffers.put(vaoID, new ArrayList<Integer>(vbos.subList(firstVbo, vbos.size())));
+        return new RawModel(vaoID, indices.length);
+    }
+
+    /**
+     * This method deletes a VAO and all of its VBOs before the game closes.
+     * It is used for models that get rebuilt while the game is running.
+     */
+    public void unloadVAO(RawModel model){
+        int vaoID = model.getVaoID();
+        List<Integer> buffers = vaoBuffers.remove(vaoID);
+        if (buffers != null) {
+            for (int vbo : buffers){
+                GL15.glDeleteBuffers(vbo);
+            }
+            vbos.removeAll(buffers);
+        }
+        GL30.glDeleteVertexArrays(vaoID);
+        vaos.remove(Integer.valueOf(vaoID));
+    }
+
     /**
      * This method loads a texture into OpenGL.
      * It takes in a filename and loads the file into OpenGL, and then
@@ -64,6 +122,52 @@ public class Loader {
         return texture.getTextureID();
     }
 
+    /**
+     * This method loads a square grid of 16 bit heights into a single channel texture, where
+     * 0 to 65535 reads as 0 to 1 in the shader. It is filtered linearly and clamped at the edges.
+     * It returns the ID of the texture.
+     */
+    public int loadHeightTexture(short[] heights, int size){
+        return loadHeightTexture(ShortBuffer.wrap(heights), size);
+    }
+
+    /**
+     * This method does the same for heights in a buffer, from its position to its limit. A direct
+     * buffer in the native byte order, such as a view of a memory mapped file, is handed to
+     * OpenGL as it is; anything else is copied first.
+     */
+    public int loadHeightTexture(ShortBuffer heights, int size){
+        ShortBuffer buffer = heights;
+        if (!heights.isDirect() || heights.order() != ByteOrder.nativeOrder()) {
+            buffer = BufferUtils.createShortBuffer(heights.remaining());
+            buffer.put(heights.duplicate());
+            buffer.flip();
+        }
+        int textureID = GL11.glGenTextures();
+        textures.add(textureID);
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureID);
+        // The rows are made of 2 byte values, which may not be a multiple of 4 bytes long.
+        GL11.glPixelStorei(GL11.GL_UNPACK_ALIGNMENT, 2);
+        GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL30.GL_R16, size, size, 0, GL11.GL_RED,
+                GL11.GL_UNSIGNED_SHORT, buffer);
+        GL11.glPixelStorei(GL11.GL_UNPACK_ALIGNMENT, 4);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+        return textureID;
+    }
+
+    /**
+     * This method deletes a texture before the game closes.
+     * It is used for textures of things that come and go, such as streamed terrain tiles.
+     */
+    public void deleteTexture(int textureID){
+        GL11.glDeleteTextures(textureID);
+        textures.remove(Integer.valueOf(textureID));
+    }
+
     /**
      * This method loops through the lists vbos, vaos, and textures and
      * clears them. This is so that when the game closes, all data is eliminated.
@@ -3,22 +3,49 @@ package renderEngine;
 import entities.Camera;
 import entities.Entity;
 import entities.Light;
+import frameGraph.FrameGraph;
+import frameGraph.GLRenderTargetPool;
+import frameGraph.RenderPass;
+import frameGraph.RenderTargetDescription;
+import jobs.JobSystem;
 import models.TexturedModel;
 import org.lwjgl.opengl.Display;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.util.vector.Matrix4f;
+import shaders.DepthShader;
 import shaders.StaticShader;
+import shaders.TerrainDepthShader;
 import shaders.TerrainShader;
 import terrains.Terrain;
+import terrains.TerrainLod;
+import terrains.TerrainPatchList;
+import toolbox.Frustum;
+import toolbox.Maths;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * This class handles all our rendering for our scene.
- * It uses its own renderer and static shader.
+ * It owns the shaders, and draws everything through one DrawCommandRenderer.
+ * Every frame is drawn in passes:
+ *  - an optional depth prepass, which only fills the depth buffer,
+ *  - the opaque pass, with the terrains and entities,
+ *  - the alpha tested pass, with the entities that have transparent textures (grass, ferns).
+ * The draw calls are first recorded as commands on worker threads (see DrawCommandRecorder),
+ * sorted by pass and shader, then by model with the model of the nearest entity first, and then
+ * front to back within each model, and then replayed on this thread.
+ * Drawing near things first means the depth test can throw away the hidden pixels
+ * before the fragment shader runs on them. The shader comes before the distance, so all the
+ * terrain is drawn before any entity (see DrawCommandBuffer for why).
+ * The passes are put together in a FrameGraph once, which orders them, drops the ones nothing
+ * uses and finds textures for the render targets they need along the way. It is only built
+ * again when the passes change. With dynamic resolution the scene is drawn into transient colour
+ * and depth targets, and a last pass stretches them over the window.
+ * With terrain LOD on, the terrains are drawn as patches picked by a TerrainLod instead of whole tiles.
  */
 public class MasterRenderer {
 
@@ -32,26 +59,168 @@ public class MasterRenderer {
                                BLUE = 0.5f;
 
     private Matrix4f projectionMatrix;
+    // This frame's view matrix, worked out once at the start of render().
+    private final Matrix4f viewMatrix = new Matrix4f();
 
-    private StaticShader shader = new StaticShader();
-    private EntityRenderer renderer;
-
-    private TerrainRenderer terrainRenderer;
-    private TerrainShader terrainShader = new TerrainShader();
+    private StaticShader shader;
+    // The cheaper entity shader for models with baked lighting (see StaticLightBaker).
+    private StaticShader bakedShader;
+    private TerrainShader terrainShader;
+    // The shaders of the depth prepass, which only place the vertices. The alpha tested one
+    // also samples the texture, to discard the same pixels the colour pass does.
+    private DepthShader depthShader;
+    private DepthShader alphaTestedDepthShader;
+    private TerrainDepthShader terrainDepthShader;
 
     // This HashMap maps TexturedModels to a list of Entity objects.
     private Map<TexturedModel, List<Entity>> entities = new HashMap<TexturedModel, List<Entity>>();
     // This is a list of our terrains.
     private List<Terrain> terrains = new ArrayList<Terrain>();
 
+    // If true, everything is drawn to the depth buffer first so that the colour passes
+    // only shade the pixels that end up on screen. It helps in scenes full of foliage.
+    private boolean depthPrepass = false;
+
+    // The draw calls and triangles of each pass in the last frame.
+    private RenderPassStats depthPrepassStats = new RenderPassStats("Depth prepass");
+    private RenderPassStats opaqueStats = new RenderPassStats("Opaque");
+    private RenderPassStats alphaTestedStats = new RenderPassStats("Alpha tested");
+
+    // The draw commands of the frame, recorded in parallel and replayed on the GL thread.
+    private DrawCommandRecorder commandRecorder = new DrawCommandRecorder();
+    private DrawCommandBuffer commands = new DrawCommandBuffer(1024);
+    private DrawCommandRenderer commandRenderer;
+    // Where the alpha tested commands start in the sorted buffer.
+    private int alphaTestedStart;
+
+    // The passes of the frame, and the pool the transient render targets come from.
+    private FrameGraph frameGraph = new FrameGraph();
+    private boolean frameGraphBuilt = false;
+    private GLRenderTargetPool renderTargets = new GLRenderTargetPool();
+    // The targets the passes draw into.
+    private FrameGraph.Resource sceneColour;
+    private FrameGraph.Resource sceneDepth;
+    // If set, the scene is drawn at the size it picks and stretched over the window.
+    private DynamicResolution dynamicResolution;
+    private final RenderPass clearPass = graph -> {
+        if (dynamicResolution != null) {
+            dynamicResolution.bindFrameBuffer(graph.getTarget(sceneColour), graph.getTarget(sceneDepth));
+        }
+        prepare();
+    };
+    private final RenderPass depthPrepassPass = graph -> {
+        // Only the entities with transparent textures sample them here, to discard the same
+        // pixels as their colour pass. Everything else just writes its depth.
+        GL11.glColorMask(false, false, false, false);
+        commandRenderer.renderDepth(commands, 0, commands.getCount(), depthPrepassStats);
+        GL11.glColorMask(true, true, true, true);
+        // The colour passes draw the exact same depths again, so they must pass on equal.
+        GL11.glDepthFunc(GL11.GL_LEQUAL);
+    };
+    private final RenderPass opaquePass = graph -> commandRenderer.render(commands, 0, alphaTestedStart, opaqueStats);
+    private final RenderPass alphaTestedPass = graph -> {
+        commandRenderer.render(commands, alphaTestedStart, commands.getCount(), alphaTestedStats);
+        GL11.glDepthFunc(GL11.GL_LESS);
+    };
+    private final RenderPass resolvePass = graph -> dynamicResolution.resolveToScreen();
+
+    // If set, the terrains are drawn as the patches it picks, culled against the frustum.
+    private TerrainLod terrainLod;
+    private TerrainPatchList terrainPatches = new TerrainPatchList();
+    private Frustum frustum = new Frustum();
+
+    // If set, entities hidden behind its occluders are removed before anything is drawn.
+    private OcclusionCuller occlusionCuller;
+
+    // Only used in clustered lighting mode, where any number of point lights can be used.
+    private ClusteredLighting clusteredLighting;
+    // The size of the image being rendered, which is smaller than the window with dynamic resolution.
+    private int renderWidth;
+    private int renderHeight;
+
     /**
-     * Constructor. Sets up the projection matrix and creates an entity renderer.
+     * Constructor. Sets up the projection matrix and creates the shaders.
      */
     public MasterRenderer(){
+        this(false);
+    }
+
+    /**
+     * Constructor. If clusteredLighting is true the shaders are made with their clustered
+     * lighting code turned on, so that the point lights passed to render() light the scene.
+     */
+    public MasterRenderer(boolean clusteredLighting){
         enableCulling();
         createProjectionMatrix();
-        renderer = new EntityRenderer(shader, projectionMatrix);
-        terrainRenderer = new TerrainRenderer(terrainShader, projectionMatrix);
+        renderWidth = Display.getWidth();
+        renderHeight = Display.getHeight();
+        Map<String, String> bakedDefines = new HashMap<String, String>();
+        bakedDefines.put(StaticLightBaker.SHADER_DEFINE, "1");
+        if (clusteredLighting) {
+            bakedDefines.putAll(ClusteredLighting.SHADER_DEFINES);
+            shader = new StaticShader(ClusteredLighting.SHADER_DEFINES);
+            bakedShader = new StaticShader(bakedDefines);
+            terrainShader = new TerrainShader(ClusteredLighting.SHADER_DEFINES);
+            this.clusteredLighting = new ClusteredLighting(projectionMatrix, NEAR_PLANE, FAR_PLANE,
+                    Display.getWidth(), Display.getHeight());
+            connectClusteredLighting();
+        } else {
+            shader = new StaticShader();
+            bakedShader = new StaticShader(bakedDefines);
+            terrainShader = new TerrainShader();
+        }
+        depthShader = new DepthShader(false);
+        alphaTestedDepthShader = new DepthShader(true);
+        terrainDepthShader = new TerrainDepthShader();
+        loadProjectionMatrix();
+        commandRenderer = new DrawCommandRenderer(shader, bakedShader, terrainShader, depthShader,
+                alphaTestedDepthShader, terrainDepthShader);
+    }
+
+    /**
+     * This method loads the projection matrix into the shaders, and connects the terrain shaders'
+     * height map and the alpha tested depth shader's texture. None of them change while the game runs.
+     */
+    private void loadProjectionMatrix(){
+        for (StaticShader entityShader : new StaticShader[]{shader, bakedShader}) {
+            entityShader.start();
+            entityShader.loadProjectionMatrix(projectionMatrix);
+            entityShader.stop();
+        }
+        for (DepthShader entityDepthShader : new DepthShader[]{depthShader, alphaTestedDepthShader}) {
+            entityDepthShader.start();
+            entityDepthShader.loadProjectionMatrix(projectionMatrix);
+            entityDepthShader.connectTextureUnits();
+            entityDepthShader.stop();
+        }
+        for (TerrainShader terrainProgram : new TerrainShader[]{terrainShader, terrainDepthShader}) {
+            terrainProgram.start();
+            terrainProgram.loadProjectionMatrix(projectionMatrix);
+            terrainProgram.connectHeightMap();
+            terrainProgram.stop();
+        }
+    }
+
+    /**
+     * This method loads the cluster grid's size and texture units into the shaders. They never change.
+     */
+    private void connectClusteredLighting(){
+        ClusteredLightAssigner assigner = clusteredLighting.getAssigner();
+        for (StaticShader entityShader : new StaticShader[]{shader, bakedShader}) {
+            entityShader.start();
+            entityShader.connectTextureUnits(ClusteredLighting.GRID_TEXTURE_UNIT,
+                    ClusteredLighting.INDEX_TEXTURE_UNIT, ClusteredLighting.LIGHT_TEXTURE_UNIT);
+            entityShader.loadClusterParameters(assigner.getClustersX(), assigner.getClustersY(),
+                    assigner.getClustersZ(), clusteredLighting.getTileWidth(), clusteredLighting.getTileHeight(),
+                    NEAR_PLANE, FAR_PLANE);
+            entityShader.stop();
+        }
+        terrainShader.start();
+        terrainShader.connectTextureUnits(ClusteredLighting.GRID_TEXTURE_UNIT, ClusteredLighting.INDEX_TEXTURE_UNIT,
+                ClusteredLighting.LIGHT_TEXTURE_UNIT);
+        terrainShader.loadClusterParameters(assigner.getClustersX(), assigner.getClustersY(), assigner.getClustersZ(),
+                clusteredLighting.getTileWidth(), clusteredLighting.getTileHeight(), NEAR_PLANE, FAR_PLANE);
+        terrainShader.stop();
     }
 
 
@@ -77,24 +246,232 @@ public class MasterRenderer {
      * It uses the light and the camera to do this.
      */
     public void render(Light sun, Camera camera){
-        prepare();
+        render(sun, Collections.<Light>emptyList(), camera);
+    }
 
-        shader.start();
-        shader.loadSkyColour(RED, GREEN, BLUE);
-        shader.loadLight(sun);
-        shader.loadViewMatrix(camera);
-        renderer.render(entities);
-        shader.stop();
+    /**
+     * This method renders the scene lit by the sun and a list of point lights.
+     * The point lights are only used in clustered lighting mode.
+     */
+    public void render(Light sun, List<Light> pointLights, Camera camera){
+        if (dynamicResolution != null) {
+            setRenderSize(dynamicResolution.getRenderWidth(), dynamicResolution.getRenderHeight());
+        }
+        Maths.createViewMatrix(camera, viewMatrix);
+        loadFrameUniforms(sun);
+        if (clusteredLighting != null) {
+            clusteredLighting.update(pointLights, viewMatrix);
+            clusteredLighting.bindTextures();
+        }
+        if (occlusionCuller != null) {
+            cullOccludedEntities();
+        }
+        TerrainPatchList patches = null;
+        if (terrainLod != null) {
+            frustum.update(projectionMatrix, viewMatrix);
+            terrainLod.select(terrains, frustum, camera.getPosition(), terrainPatches);
+            patches = terrainPatches;
+        }
+        commandRecorder.record(entities, terrains, patches, camera.getPosition(), FAR_PLANE, commands);
+        alphaTestedStart = commands.getPassStart(DrawCommandBuffer.PASS_ALPHA_TESTED);
+
+        depthPrepassStats.reset();
+        opaqueStats.reset();
+        alphaTestedStats.reset();
+
+        if (!frameGraphBuilt) {
+            buildFrameGraph();
+        }
+        frameGraph.execute(renderTargets);
+
+        terrains.clear();
+        entities.clear();
+    }
+
+    /**
+     * This method puts the passes together in the frame graph and compiles it. It only runs
+     * again when the passes change, such as when the depth prepass is turned on or off, and
+     * every other frame just executes the compiled graph.
+     */
+    private void buildFrameGraph(){
+        frameGraph.clear();
+        if (dynamicResolution != null) {
+            sceneColour = frameGraph.createTarget("scene colour",
+                    dynamicResolution.getBufferDescription(RenderTargetDescription.RGBA8));
+            sceneDepth = frameGraph.createTarget("scene depth",
+                    dynamicResolution.getBufferDescription(RenderTargetDescription.DEPTH24));
+        } else {
+            // Both are whatever frame buffer is bound, which belongs to the caller.
+            sceneColour = frameGraph.importTarget("scene colour", null);
+            sceneDepth = frameGraph.importTarget("scene depth", null);
+        }
+        frameGraph.addPass("clear", clearPass).writes(sceneColour, sceneDepth);
+        if (depthPrepass) {
+            frameGraph.addPass("depth prepass", depthPrepassPass).reads(sceneDepth).writes(sceneDepth);
+        }
+        // The colour passes only draw over part of the picture, so they read what is there too.
+        frameGraph.addPass("opaque", opaquePass).reads(sceneColour, sceneDepth).writes(sceneColour, sceneDepth);
+        frameGraph.addPass("alpha tested", alphaTestedPass).reads(sceneColour, sceneDepth)
+                .writes(sceneColour, sceneDepth);
+        if (dynamicResolution != null) {
+            FrameGraph.Resource window = frameGraph.importTarget("window", null);
+            frameGraph.addPass("resolve", resolvePass).reads(sceneColour).writes(window);
+        }
+        frameGraph.compile();
+        frameGraphBuilt = true;
+    }
+
+    /**
+     * This method loads the uniform variables that are the same for the whole frame into the shaders.
+     */
+    private void loadFrameUniforms(Light sun){
+        for (StaticShader entityShader : new StaticShader[]{shader, bakedShader}) {
+            entityShader.start();
+            entityShader.loadSkyColour(RED, GREEN, BLUE);
+            entityShader.loadLight(sun);
+            entityShader.loadViewMatrix(viewMatrix);
+            entityShader.stop();
+        }
 
         terrainShader.start();
-        shader.loadSkyColour(RED, GREEN, BLUE);
+        terrainShader.loadSkyColour(RED, GREEN, BLUE);
         terrainShader.loadLight(sun);
-        terrainShader.loadViewMatrix(camera);
-        terrainRenderer.render(terrains);
+        terrainShader.loadViewMatrix(viewMatrix);
         terrainShader.stop();
 
-        terrains.clear();
-        entities.clear();
+        if (depthPrepass) {
+            for (DepthShader entityDepthShader : new DepthShader[]{depthShader, alphaTestedDepthShader}) {
+                entityDepthShader.start();
+                entityDepthShader.loadViewMatrix(viewMatrix);
+                entityDepthShader.stop();
+            }
+            terrainDepthShader.start();
+            terrainDepthShader.loadViewMatrix(viewMatrix);
+            terrainDepthShader.stop();
+        }
+    }
+
+    /**
+     * This method rasterizes the occluders for this frame's camera and then removes
+     * every entity that is hidden behind them.
+     */
+    private void cullOccludedEntities(){
+        occlusionCuller.rasterize(projectionMatrix, viewMatrix);
+        for (List<Entity> batch : entities.values()){
+            occlusionCuller.cull(batch);
+        }
+    }
+
+    /**
+     * This method is called when the scene is rendered at a different size than the window,
+     * such as with dynamic resolution. Only the clustered lighting cares, since it finds
+     * each pixel's cluster from its position on screen.
+     */
+    public void setRenderSize(int width, int height){
+        if (clusteredLighting != null && (renderWidth != width || renderHeight != height)) {
+            clusteredLighting.setScreenSize(width, height);
+            connectClusteredLighting();
+        }
+        renderWidth = width;
+        renderHeight = height;
+    }
+
+    /**
+     * This method makes render() draw the scene at the size the dynamic resolution picks, into
+     * colour and depth targets from the frame graph, and stretch it over the window. It also
+     * keeps the render size up to date. Passing in null draws into whatever frame buffer is bound.
+     */
+    public void setDynamicResolution(DynamicResolution dynamicResolution){
+        this.dynamicResolution = dynamicResolution;
+        frameGraphBuilt = false;
+        if (dynamicResolution == null) {
+            setRenderSize(Display.getWidth(), Display.getHeight());
+        }
+    }
+
+    /**
+     * This method sets the occlusion culler used before drawing. Passing in null turns occlusion culling off.
+     */
+    public void setOcclusionCuller(OcclusionCuller occlusionCuller){
+        this.occlusionCuller = occlusionCuller;
+    }
+
+    /**
+     * This method sets the job system the draw commands are recorded on.
+     * Passing in null records them on the common fork join pool.
+     */
+    public void setJobSystem(JobSystem jobSystem){
+        commandRecorder.setJobSystem(jobSystem);
+    }
+
+    public Matrix4f getProjectionMatrix(){
+        return projectionMatrix;
+    }
+
+    public static float getFarPlane(){
+        return FAR_PLANE;
+    }
+
+    public static float getNearPlane(){
+        return NEAR_PLANE;
+    }
+
+    /**
+     * This method turns the depth prepass on or off.
+     */
+    public void setDepthPrepass(boolean depthPrepass){
+        if (this.depthPrepass != depthPrepass) {
+            this.depthPrepass = depthPrepass;
+            frameGraphBuilt = false;
+        }
+    }
+
+    public boolean isDepthPrepass(){
+        return depthPrepass;
+    }
+
+    /**
+     * This method turns terrain level of detail on or off. When it is off every tile is drawn whole, at full detail.
+     */
+    public void setTerrainLod(boolean enabled){
+        terrainLod = enabled ? new TerrainLod(Terrain.getSize()) : null;
+    }
+
+    /**
+     * This method returns the terrain level of detail, to see what it picked last frame, or null if it is off.
+     */
+    public TerrainLod getTerrainLod(){
+        return terrainLod;
+    }
+
+    /**
+     * This method returns the frame graph, compiled by the first render() since the passes last
+     * changed, to see which passes run and which targets they use.
+     */
+    public FrameGraph getFrameGraph(){
+        return frameGraph;
+    }
+
+    /**
+     * This method returns how long recording and sorting the last frame's draw commands took, in nanoseconds.
+     */
+    public long getCommandRecordTime(){
+        return commandRecorder.getLastRecordTime();
+    }
+
+    /**
+     * GETTERS for the draw call and triangle counts of each pass in the last frame.
+     */
+    public RenderPassStats getDepthPrepassStats(){
+        return depthPrepassStats;
+    }
+
+    public RenderPassStats getOpaqueStats(){
+        return opaqueStats;
+    }
+
+    public RenderPassStats getAlphaTestedStats(){
+        return alphaTestedStats;
     }
 
     /**
@@ -131,7 +508,15 @@ public class MasterRenderer {
      */
     public void cleanUp(){
         shader.cleanUp();
+        bakedShader.cleanUp();
         terrainShader.cleanUp();
+        depthShader.cleanUp();
+        alphaTestedDepthShader.cleanUp();
+        terrainDepthShader.cleanUp();
+        renderTargets.cleanUp();
+        if (clusteredLighting != null) {
+            clusteredLighting.cleanUp();
+        }
     }
 
     /**
@@ -150,16 +535,25 @@ public class MasterRenderer {
      */
     private void createProjectionMatrix(){
         float aspectRatio = (float) Display.getWidth() / (float) Display.getHeight();
+        projectionMatrix = createProjectionMatrix(aspectRatio);
+    }
+
+    /**
+     * This method creates the projection matrix for a screen with the given aspect ratio.
+     * It doesn't need a display, so it can also be used by code that runs without one.
+     */
+    public static Matrix4f createProjectionMatrix(float aspectRatio){
         float y_scale = (float) ((1f / Math.tan(Math.toRadians(FOV / 2f))) * aspectRatio);
         float x_scale = y_scale / aspectRatio;
         float frustum_length = FAR_PLANE - NEAR_PLANE;
 
-        projectionMatrix = new Matrix4f();
-        projectionMatrix.m00 = x_scale;
-        projectionMatrix.m11 = y_scale;
-        projectionMatrix.m22 = -((FAR_PLANE + NEAR_PLANE) / frustum_length);
-        projectionMatrix.m23 = -1;
-        projectionMatrix.m32 = -((2 * NEAR_PLANE * FAR_PLANE) / frustum_length);
-        projectionMatrix.m33 = 0;
+        Matrix4f matrix = new Matrix4f();
+        matrix.m00 = x_scale;
+        matrix.m11 = y_scale;
+        matrix.m22 = -((FAR_PLANE + NEAR_PLANE) / frustum_length);
+        matrix.m23 = -1;
+        matrix.m32 = -((2 * NEAR_PLANE * FAR_PLANE) / frustum_length);
+        matrix.m33 = 0;
+        return matrix;
     }
 }
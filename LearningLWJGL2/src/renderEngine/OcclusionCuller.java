@@ -0,0 +1,520 @@
+package renderEngine;
+
+import entities.Entity;
+import jobs.JobSystem;
+import objConverter.ModelData;
+import org.lwjgl.util.vector.Matrix4f;
+import terrains.Terrain;
+import terrains.TerrainQuadtree;
+import toolbox.BoundingBox;
+import toolbox.Maths;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class does occlusion culling on the CPU. Every frame a few large occluders (terrain
+ * tiles, simplified meshes of big props) are rasterized into a small depth buffer, and then
+ * the bounding box of every entity is tested against it. Entities that are completely behind
+ * the occluders are not sent to OpenGL at all.
+ *
+ * The depth buffer is split into tiles. The triangles are sorted into the tiles they touch and
+ * then the tiles are rasterized as a parallelFor() on the game's job system, so no two threads
+ * ever write the same pixel.
+ * The buffer stores 1/w (one over the distance in front of the camera), which is linear in
+ * screen space, so a bigger value means closer. Everything here is plain Java, so it runs
+ * without an OpenGL context.
+ */
+public class OcclusionCuller {
+
+    private static final int TILE_SIZE = 32;
+    // Anything closer to the camera than this is clipped, so we never divide by zero.
+    private static final float NEAR_W = 0.1f;
+    // Each triangle is stored as 3 vertices of screen x, screen y and 1/w.
+    private static final int TRIANGLE_STRIDE = 9;
+
+    private final int width;
+    private final int height;
+    private final int tilesX;
+    private final int tilesY;
+    private final float[] depth;
+
+    private final List<Occluder> occluders = new ArrayList<Occluder>();
+    private final Matrix4f viewProjection = new Matrix4f();
+    // Reused to hold the bounds of the entity being tested.
+    private final BoundingBox entityBounds = new BoundingBox();
+
+    // The screen space triangles of the current frame and the triangles that touch each tile.
+    private float[] triangles = new float[TRIANGLE_STRIDE * 256];
+    private int triangleCount;
+    private final int[][] tileBins;
+    private final int[] tileBinCounts;
+
+    // Rasterizes the tiles, or null to rasterize them on the calling thread.
+    private final JobSystem jobs;
+
+    // Statistics of the last frame.
+    private long rasterizeNanos;
+    private long testNanos;
+    private int testedCount;
+    private int rejectedCount;
+
+    /**
+     * Constructor. Takes in the size of the depth buffer, which should be a lot smaller than the
+     * screen (256x128 is plenty), and the job system the tiles are rasterized on, which may be
+     * null to rasterize them on the calling thread.
+     */
+    public OcclusionCuller(int width, int height, JobSystem jobs) {
+        this.width = width;
+        this.height = height;
+        this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        this.depth = new float[width * height];
+        this.tileBins = new int[tilesX * tilesY][16];
+        this.tileBinCounts = new int[tilesX * tilesY];
+        this.jobs = jobs;
+    }
+
+    /**
+     * This method adds an occluder mesh. The positions are in model space and are moved into
+     * world space with the given transformation matrix. Occluders should be simple meshes that
+     * sit inside the object they stand for, otherwise things behind them are wrongly culled.
+     */
+    public void addOccluder(float[] positions, int[] indices, Matrix4f transformation) {
+        float[] world = new float[positions.length];
+        for (int i = 0; i < positions.length; i += 3) {
+            float x = positions[i], y = positions[i + 1], z = positions[i + 2];
+            world[i] = transformation.m00 * x + transformation.m10 * y + transformation.m20 * z + transformation.m30;
+            world[i + 1] = transformation.m01 * x + transformation.m11 * y + transformation.m21 * z + transformation.m31;
+            world[i + 2] = transformation.m02 * x + transformation.m12 * y + transformation.m22 * z + transformation.m32;
+        }
+        occluders.add(new Occluder(world, indices));
+    }
+
+    /**
+     * This method adds an entity as an occluder, using a simplified mesh in place of its real model.
+     */
+    public void addOccluder(Entity entity, ModelData occluderMesh) {
+        addOccluder(occluderMesh.getVertices(), occluderMesh.getIndices(), entity.getTransformationMatrix());
+    }
+
+    /**
+     * This method adds a terrain tile as an occluder, from the leaves of its quadtree.
+     */
+    public void addOccluder(Terrain terrain) {
+        TerrainQuadtree quadtree = terrain.getQuadtree();
+        addOccluder(quadtree, quadtree.getLevels() - 1);
+    }
+
+    /**
+     * This method adds a coarse heightfield under a terrain tile as an occluder. The tile is split
+     * into the nodes of one level of its quadtree, and each node becomes a flat step at the lowest
+     * height of the ground in it, with an upright wall where two neighbouring steps are at different
+     * heights. A step is below the ground everywhere in its node, and the ground on the edge between
+     * two nodes is at least as high as the higher step, since both nodes' heights include the samples
+     * on that edge, so the walls are under the ground too. The steps therefore only hide what the
+     * ground does, but unlike one flat quad at the tile's lowest height they keep the hills, which
+     * is what hides the things behind them.
+     */
+    public void addOccluder(TerrainQuadtree quadtree, int level) {
+        int cells = 1 << level;
+        float cellSize = quadtree.getNodeSize(level);
+        // Every step has its own four corners: top left, top right, bottom left, bottom right.
+        float[] positions = new float[cells * cells * 4 * 3];
+        for (int row = 0; row < cells; row++) {
+            for (int column = 0; column < cells; column++) {
+                float y = quadtree.getMinHeight(level, column, row);
+                for (int corner = 0; corner < 4; corner++) {
+                    int p = ((row * cells + column) * 4 + corner) * 3;
+                    positions[p] = quadtree.getX() + (column + (corner & 1)) * cellSize;
+                    positions[p + 1] = y;
+                    positions[p + 2] = quadtree.getZ() + (row + (corner >> 1)) * cellSize;
+                }
+            }
+        }
+        int[] indices = new int[(cells * cells + 2 * cells * (cells - 1)) * 6];
+        int count = 0;
+        for (int row = 0; row < cells; row++) {
+            for (int column = 0; column < cells; column++) {
+                int step = (row * cells + column) * 4;
+                count = addQuad(indices, count, step, step + 1, step + 2, step + 3);
+                if (column + 1 < cells && positions[step * 3 + 1] != positions[(step + 4) * 3 + 1]) {
+                    // The wall between this step's right edge and the next step's left edge.
+                    count = addQuad(indices, count, step + 1, step + 3, step + 4, step + 6);
+                }
+                int below = step + cells * 4;
+                if (row + 1 < cells && positions[step * 3 + 1] != positions[below * 3 + 1]) {
+                    // The wall between this step's bottom edge and the top edge of the one below.
+                    count = addQuad(indices, count, step + 2, step + 3, below, below + 1);
+                }
+            }
+        }
+        occluders.add(new Occluder(positions, Arrays.copyOf(indices, count)));
+    }
+
+    /**
+     * This method adds the two triangles of the quad a b c d, where a and d are opposite corners.
+     */
+    private static int addQuad(int[] indices, int count, int a, int b, int c, int d) {
+        indices[count++] = a;
+        indices[count++] = c;
+        indices[count++] = b;
+        indices[count++] = b;
+        indices[count++] = c;
+        indices[count++] = d;
+        return count;
+    }
+
+    public void clearOccluders() {
+        occluders.clear();
+    }
+
+    /**
+     * This method rasterizes all the occluders into the depth buffer. It is called once per frame,
+     * before any entities are tested.
+     */
+    public void rasterize(Matrix4f projectionMatrix, Matrix4f viewMatrix) {
+        long start = System.nanoTime();
+        Maths.mulProjectionView(projectionMatrix, viewMatrix, viewProjection);
+        triangleCount = 0;
+        Arrays.fill(tileBinCounts, 0);
+        for (Occluder occluder : occluders) {
+            setupOccluder(occluder);
+        }
+        if (jobs == null) {
+            for (int tile = 0; tile < tilesX * tilesY; tile++) {
+                rasterizeTile(tile);
+            }
+        } else {
+            jobs.parallelFor(0, tilesX * tilesY, 1, (from, to) -> {
+                for (int tile = from; tile < to; tile++) {
+                    rasterizeTile(tile);
+                }
+            });
+        }
+        rasterizeNanos = System.nanoTime() - start;
+        testNanos = 0;
+        testedCount = 0;
+        rejectedCount = 0;
+    }
+
+    /**
+     * This method returns false if the box is completely hidden behind the occluders.
+     * Boxes that cross the near plane or are outside the screen are always treated as visible,
+     * since throwing those away is the job of frustum culling.
+     */
+    public boolean isVisible(BoundingBox box) {
+        if (box.isEmpty()) {
+            return true;
+        }
+        long start = System.nanoTime();
+        boolean visible = testBox(box.getMinX(), box.getMinY(), box.getMinZ(),
+                box.getMaxX(), box.getMaxY(), box.getMaxZ());
+        testNanos += System.nanoTime() - start;
+        testedCount++;
+        if (!visible) {
+            rejectedCount++;
+        }
+        return visible;
+    }
+
+    /**
+     * This method tests an entity. Its bounding box is used if it has one, otherwise a box around
+     * its model's furthest point. Entities without either are always visible.
+     */
+    public boolean isVisible(Entity entity) {
+        if (!entity.getWorldBounds(entityBounds)) {
+            return true;
+        }
+        return isVisible(entityBounds);
+    }
+
+    /**
+     * This method removes every hidden entity from the list.
+     */
+    public void cull(List<Entity> entities) {
+        int kept = 0;
+        for (int i = 0; i < entities.size(); i++) {
+            Entity entity = entities.get(i);
+            if (isVisible(entity)) {
+                entities.set(kept++, entity);
+            }
+        }
+        entities.subList(kept, entities.size()).clear();
+    }
+
+    /**
+     * GETTERS for the statistics of the last frame.
+     */
+    public long getRasterizeNanos() {
+        return rasterizeNanos;
+    }
+
+    public long getTestNanos() {
+        return testNanos;
+    }
+
+    public int getTestedCount() {
+        return testedCount;
+    }
+
+    public int getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * This method returns the depth buffer, row by row from the bottom of the screen.
+     */
+    public float[] getDepthBuffer() {
+        return depth;
+    }
+
+    public String getReport() {
+        return "Occlusion culling: " + occluders.size() + " occluders, " + triangleCount + " triangles rasterized in "
+                + (rasterizeNanos / 1000) + " us, " + rejectedCount + " of " + testedCount + " draws rejected in "
+                + (testNanos / 1000) + " us.";
+    }
+
+    /**
+     * This method projects the 8 corners of a box and checks every depth buffer pixel the box
+     * covers on screen. If even one of those pixels is further away than the closest corner
+     * of the box, the box might be visible.
+     */
+    private boolean testBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        Matrix4f m = viewProjection;
+        float screenMinX = Float.POSITIVE_INFINITY, screenMinY = Float.POSITIVE_INFINITY;
+        float screenMaxX = Float.NEGATIVE_INFINITY, screenMaxY = Float.NEGATIVE_INFINITY;
+        float closest = 0;
+        for (int corner = 0; corner < 8; corner++) {
+            float x = (corner & 1) == 0 ? minX : maxX;
+            float y = (corner & 2) == 0 ? minY : maxY;
+            float z = (corner & 4) == 0 ? minZ : maxZ;
+            float w = m.m03 * x + m.m13 * y + m.m23 * z + m.m33;
+            if (w < NEAR_W) {
+                return true;
+            }
+            float inverseW = 1f / w;
+            float sx = ((m.m00 * x + m.m10 * y + m.m20 * z + m.m30) * inverseW * 0.5f + 0.5f) * width;
+            float sy = ((m.m01 * x + m.m11 * y + m.m21 * z + m.m31) * inverseW * 0.5f + 0.5f) * height;
+            screenMinX = Math.min(screenMinX, sx);
+            screenMinY = Math.min(screenMinY, sy);
+            screenMaxX = Math.max(screenMaxX, sx);
+            screenMaxY = Math.max(screenMaxY, sy);
+            closest = Math.max(closest, inverseW);
+        }
+        int x0 = Math.max(0, (int) Math.floor(screenMinX));
+        int y0 = Math.max(0, (int) Math.floor(screenMinY));
+        int x1 = Math.min(width - 1, (int) Math.ceil(screenMaxX));
+        int y1 = Math.min(height - 1, (int) Math.ceil(screenMaxY));
+        if (x0 > x1 || y0 > y1) {
+            return true;
+        }
+        for (int y = y0; y <= y1; y++) {
+            int row = y * width;
+            for (int x = x0; x <= x1; x++) {
+                if (depth[row + x] <= closest) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This method moves an occluder's triangles into screen space, clips them against the near
+     * plane and sorts them into the tiles they cover.
+     */
+    private void setupOccluder(Occluder occluder) {
+        Matrix4f m = viewProjection;
+        float[] positions = occluder.positions;
+        int vertexCount = positions.length / 3;
+        float[] clip = occluder.clipSpace;
+        for (int v = 0; v < vertexCount; v++) {
+            float x = positions[v * 3], y = positions[v * 3 + 1], z = positions[v * 3 + 2];
+            clip[v * 3] = m.m00 * x + m.m10 * y + m.m20 * z + m.m30;
+            clip[v * 3 + 1] = m.m01 * x + m.m11 * y + m.m21 * z + m.m31;
+            clip[v * 3 + 2] = m.m03 * x + m.m13 * y + m.m23 * z + m.m33;
+        }
+        int[] indices = occluder.indices;
+        float[] polygon = new float[4 * 3];
+        for (int i = 0; i + 2 < indices.length; i += 3) {
+            int count = clipTriangle(clip, indices[i], indices[i + 1], indices[i + 2], polygon);
+            // Clipping a triangle against one plane gives at most a quad, which is two triangles.
+            for (int t = 1; t + 1 < count; t++) {
+                addTriangle(polygon, 0, t, t + 1);
+            }
+        }
+    }
+
+    /**
+     * This method clips a triangle against the plane w = NEAR_W. The resulting polygon is written
+     * into the output as x, y, w triples and the number of its vertices is returned.
+     */
+    private static int clipTriangle(float[] clip, int i0, int i1, int i2, float[] out) {
+        int[] vertices = {i0, i1, i2};
+        int count = 0;
+        for (int e = 0; e < 3; e++) {
+            int a = vertices[e] * 3;
+            int b = vertices[(e + 1) % 3] * 3;
+            float wa = clip[a + 2];
+            float wb = clip[b + 2];
+            boolean aInside = wa >= NEAR_W;
+            boolean bInside = wb >= NEAR_W;
+            if (aInside) {
+                out[count * 3] = clip[a];
+                out[count * 3 + 1] = clip[a + 1];
+                out[count * 3 + 2] = wa;
+                count++;
+            }
+            if (aInside != bInside) {
+                float t = (NEAR_W - wa) / (wb - wa);
+                out[count * 3] = clip[a] + (clip[b] - clip[a]) * t;
+                out[count * 3 + 1] = clip[a + 1] + (clip[b + 1] - clip[a + 1]) * t;
+                out[count * 3 + 2] = NEAR_W;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * This method stores a clipped triangle in screen space and adds it to the bins of the tiles it touches.
+     */
+    private void addTriangle(float[] polygon, int a, int b, int c) {
+        if ((triangleCount + 1) * TRIANGLE_STRIDE > triangles.length) {
+            triangles = Arrays.copyOf(triangles, triangles.length * 2);
+        }
+        int base = triangleCount * TRIANGLE_STRIDE;
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        int[] corners = {a, b, c};
+        for (int i = 0; i < 3; i++) {
+            int p = corners[i] * 3;
+            float inverseW = 1f / polygon[p + 2];
+            float sx = (polygon[p] * inverseW * 0.5f + 0.5f) * width;
+            float sy = (polygon[p + 1] * inverseW * 0.5f + 0.5f) * height;
+            triangles[base + i * 3] = sx;
+            triangles[base + i * 3 + 1] = sy;
+            triangles[base + i * 3 + 2] = inverseW;
+            minX = Math.min(minX, sx);
+            minY = Math.min(minY, sy);
+            maxX = Math.max(maxX, sx);
+            maxY = Math.max(maxY, sy);
+        }
+        if (maxX < 0 || maxY < 0 || minX >= width || minY >= height) {
+            return;
+        }
+        int tileX0 = Math.max(0, (int) minX / TILE_SIZE);
+        int tileY0 = Math.max(0, (int) minY / TILE_SIZE);
+        int tileX1 = Math.min(tilesX - 1, (int) maxX / TILE_SIZE);
+        int tileY1 = Math.min(tilesY - 1, (int) maxY / TILE_SIZE);
+        for (int ty = tileY0; ty <= tileY1; ty++) {
+            for (int tx = tileX0; tx <= tileX1; tx++) {
+                int tile = ty * tilesX + tx;
+                if (tileBinCounts[tile] == tileBins[tile].length) {
+                    tileBins[tile] = Arrays.copyOf(tileBins[tile], tileBins[tile].length * 2);
+                }
+                tileBins[tile][tileBinCounts[tile]++] = triangleCount;
+            }
+        }
+        triangleCount++;
+    }
+
+    /**
+     * This method clears one tile of the depth buffer and rasterizes every triangle in its bin.
+     * Only this tile's pixels are written, so tiles can be rasterized by different threads at once.
+     */
+    private void rasterizeTile(int tile) {
+        int tileX0 = (tile % tilesX) * TILE_SIZE;
+        int tileY0 = (tile / tilesX) * TILE_SIZE;
+        int tileX1 = Math.min(width, tileX0 + TILE_SIZE) - 1;
+        int tileY1 = Math.min(height, tileY0 + TILE_SIZE) - 1;
+        for (int y = tileY0; y <= tileY1; y++) {
+            Arrays.fill(depth, y * width + tileX0, y * width + tileX1 + 1, 0);
+        }
+        int[] bin = tileBins[tile];
+        for (int i = 0; i < tileBinCounts[tile]; i++) {
+            rasterizeTriangle(bin[i] * TRIANGLE_STRIDE, tileX0, tileY0, tileX1, tileY1);
+        }
+    }
+
+    /**
+     * This method rasterizes one triangle into the part of the depth buffer inside the given
+     * rectangle. It uses edge functions, which are stepped with one add per pixel, and keeps the
+     * closest depth at each pixel centre that is inside all three edges.
+     */
+    private void rasterizeTriangle(int base, int rectX0, int rectY0, int rectX1, int rectY1) {
+        float x0 = triangles[base], y0 = triangles[base + 1], z0 = triangles[base + 2];
+        float x1 = triangles[base + 3], y1 = triangles[base + 4], z1 = triangles[base + 5];
+        float x2 = triangles[base + 6], y2 = triangles[base + 7], z2 = triangles[base + 8];
+        float area = (x1 - x0) * (y2 - y0) - (y1 - y0) * (x2 - x0);
+        if (Math.abs(area) < 1e-6f) {
+            return;
+        }
+        if (area < 0) {
+            // Swapping two vertices makes every triangle wind the same way, so one inside test works.
+            float tx = x1, ty = y1, tz = z1;
+            x1 = x2; y1 = y2; z1 = z2;
+            x2 = tx; y2 = ty; z2 = tz;
+            area = -area;
+        }
+        int minX = Math.max(rectX0, (int) Math.floor(Math.min(x0, Math.min(x1, x2))));
+        int maxX = Math.min(rectX1, (int) Math.ceil(Math.max(x0, Math.max(x1, x2))));
+        int minY = Math.max(rectY0, (int) Math.floor(Math.min(y0, Math.min(y1, y2))));
+        int maxY = Math.min(rectY1, (int) Math.ceil(Math.max(y0, Math.max(y1, y2))));
+        if (minX > maxX || minY > maxY) {
+            return;
+        }
+
+        // How much each edge function changes for one step in x and in y.
+        float a01 = y0 - y1, b01 = x1 - x0;
+        float a12 = y1 - y2, b12 = x2 - x1;
+        float a20 = y2 - y0, b20 = x0 - x2;
+        // The depth is a plane across the triangle: z = z0 + dzdx * (x - x0) + dzdy * (y - y0).
+        float inverseArea = 1f / area;
+        float dzdx = ((z1 - z0) * a20 + (z2 - z0) * a01) * inverseArea;
+        float dzdy = ((z1 - z0) * b20 + (z2 - z0) * b01) * inverseArea;
+
+        float px = minX + 0.5f;
+        float py = minY + 0.5f;
+        float rowE01 = b01 * (py - y0) + a01 * (px - x0);
+        float rowE12 = b12 * (py - y1) + a12 * (px - x1);
+        float rowE20 = b20 * (py - y2) + a20 * (px - x2);
+        float rowZ = z0 + dzdx * (px - x0) + dzdy * (py - y0);
+
+        for (int y = minY; y <= maxY; y++) {
+            float e01 = rowE01, e12 = rowE12, e20 = rowE20, z = rowZ;
+            int index = y * width + minX;
+            for (int x = minX; x <= maxX; x++, index++) {
+                if (e01 >= 0 && e12 >= 0 && e20 >= 0 && z > depth[index]) {
+                    depth[index] = z;
+                }
+                e01 += a01;
+                e12 += a12;
+                e20 += a20;
+                z += dzdx;
+            }
+            rowE01 += b01;
+            rowE12 += b12;
+            rowE20 += b20;
+            rowZ += dzdy;
+        }
+    }
+
+    /**
+     * This class is an occluder's triangle mesh in world space, with room for its clip space positions.
+     */
+    private static class Occluder {
+
+        private final float[] positions;
+        private final int[] indices;
+        private final float[] clipSpace;
+
+        private Occluder(float[] positions, int[] indices) {
+            this.positions = positions;
+            this.indices = indices;
+            this.clipSpace = new float[positions.length];
+        }
+    }
+}
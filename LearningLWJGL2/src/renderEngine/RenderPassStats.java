@@ -0,0 +1,50 @@
+package renderEngine;
+
+/**
+ * This class counts the draw calls and triangles submitted by one render pass in a frame.
+ * Comparing the counts of the different passes shows how much work each pass does.
+ */
+public class RenderPassStats {
+
+    private final String name;
+    private int drawCalls;
+    private long triangles;
+
+    public RenderPassStats(String name) {
+        this.name = name;
+    }
+
+    /**
+     * This method is called for every draw call made in the pass.
+     * Takes in the number of indices drawn.
+     */
+    public void recordDraw(int indexCount) {
+        drawCalls++;
+        triangles += indexCount / 3;
+    }
+
+    /**
+     * This method clears the counts. It is called at the start of every frame.
+     */
+    public void reset() {
+        drawCalls = 0;
+        triangles = 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getDrawCalls() {
+        return drawCalls;
+    }
+
+    public long getTriangles() {
+        return triangles;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + drawCalls + " draws, " + triangles + " triangles";
+    }
+}
@@ -0,0 +1,152 @@
+package renderEngine;
+
+/**
+ * This class decides the resolution scale for dynamic resolution from the measured frame times.
+ * When the frames take longer than the target, the scene is rendered with fewer pixels;
+ * when there is plenty of time left over, the resolution goes back up.
+ * The smoothed frame time starts at the target, so the first frames change nothing on their own.
+ *
+ * To stop the scale from bouncing up and down every frame there is hysteresis:
+ *  - the frame times are smoothed first, with very slow frames cut down to twice the smoothed
+ *    time, so a single slow frame does nothing,
+ *  - the scale only drops after a few frames in a row over the target, and only goes up
+ *    after many frames in a row well under it,
+ *  - after every change the controller waits a while to see its effect before changing again.
+ *
+ * The scale is the fraction of the window's width and height that is rendered.
+ * This class does not use OpenGL, so it can be fed made up frame times to check how it reacts.
+ */
+public class ResolutionScaleController {
+
+    // How much of every new frame time goes into the smoothed frame time.
+    private static final float SMOOTHING = 0.1f;
+    // A frame time is counted as at most this many times the smoothed one, so a single very slow
+    // frame, such as a hitch loading something, can't push the smoothed time over the budget alone.
+    private static final float MAX_FRAME_TIME_FACTOR = 2;
+    // The smoothed frame time must be above target * OVER_BUDGET to drop the scale,
+    // and below target * UNDER_BUDGET to raise it.
+    public static final float OVER_BUDGET = 1.05f;
+    public static final float UNDER_BUDGET = 0.8f;
+    // How many frames in a row it must be over or under before the scale changes.
+    private static final int FRAMES_BEFORE_DECREASE = 5;
+    private static final int FRAMES_BEFORE_INCREASE = 60;
+    // How many frames to wait after a change before the next one.
+    private static final int COOLDOWN_FRAMES = 15;
+    // The most the scale changes in one step, down and up.
+    private static final float MAX_DECREASE = 0.15f;
+    private static final float INCREASE_STEP = 0.05f;
+
+    private final float targetFrameTime;
+    private final float minScale;
+    private final float maxScale;
+
+    private float scale;
+    private float smoothedFrameTime;
+    private int framesOverBudget = 0;
+    private int framesUnderBudget = 0;
+    private int cooldown = 0;
+
+    // Statistics.
+    private int decreaseCount = 0;
+    private int increaseCount = 0;
+
+    /**
+     * Constructor. Takes in the target frame time in milliseconds and the lowest and highest
+     * scale allowed. The scale starts at the highest.
+     */
+    public ResolutionScaleController(float targetFrameTime, float minScale, float maxScale) {
+        if (minScale <= 0 || minScale > maxScale) {
+            throw new IllegalArgumentException("The scale bounds must be above 0 and in order!");
+        }
+        this.targetFrameTime = targetFrameTime;
+        this.minScale = minScale;
+        this.maxScale = maxScale;
+        this.scale = maxScale;
+        this.smoothedFrameTime = targetFrameTime;
+    }
+
+    /**
+     * This method takes in the time the last frame took, in milliseconds, and returns the
+     * scale to render the next frame at.
+     */
+    public float update(float frameTime) {
+        float counted = Math.min(frameTime, smoothedFrameTime * MAX_FRAME_TIME_FACTOR);
+        smoothedFrameTime += (counted - smoothedFrameTime) * SMOOTHING;
+
+        if (smoothedFrameTime > targetFrameTime * OVER_BUDGET) {
+            framesOverBudget++;
+            framesUnderBudget = 0;
+        } else if (smoothedFrameTime < targetFrameTime * UNDER_BUDGET) {
+            framesUnderBudget++;
+            framesOverBudget = 0;
+        } else {
+            framesOverBudget = 0;
+            framesUnderBudget = 0;
+        }
+
+        if (cooldown > 0) {
+            cooldown--;
+            return scale;
+        }
+        if (framesOverBudget >= FRAMES_BEFORE_DECREASE && scale > minScale) {
+            // When the fragment shader is the bottleneck the frame time follows the number of
+            // pixels, which is the scale squared. So this is the scale that should just fit.
+            float fitted = scale * (float) Math.sqrt(targetFrameTime / smoothedFrameTime);
+            setScale(Math.max(fitted, scale - MAX_DECREASE));
+            decreaseCount++;
+        } else if (framesUnderBudget >= FRAMES_BEFORE_INCREASE && scale < maxScale) {
+            setScale(scale + INCREASE_STEP);
+            increaseCount++;
+        }
+        return scale;
+    }
+
+    /**
+     * This method puts the controller back at the highest scale and forgets the frame times.
+     */
+    public void reset() {
+        scale = maxScale;
+        smoothedFrameTime = targetFrameTime;
+        framesOverBudget = 0;
+        framesUnderBudget = 0;
+        cooldown = 0;
+    }
+
+    /**
+     * GETTERS
+     */
+    public float getScale() {
+        return scale;
+    }
+
+    public float getSmoothedFrameTime() {
+        return smoothedFrameTime;
+    }
+
+    public float getTargetFrameTime() {
+        return targetFrameTime;
+    }
+
+    public float getMinScale() {
+        return minScale;
+    }
+
+    public float getMaxScale() {
+        return maxScale;
+    }
+
+    public int getDecreaseCount() {
+        return decreaseCount;
+    }
+
+    public int getIncreaseCount() {
+        return increaseCount;
+    }
+
+    private void setScale(float newScale) {
+        scale = Math.max(minScale, Math.min(maxScale, newScale));
+        framesOverBudget = 0;
+        framesUnderBudget = 0;
+        cooldown = COOLDOWN_FRAMES;
+    }
+}
@@ -0,0 +1,103 @@
+package renderEngine;
+
+import entities.Entity;
+import models.RawModel;
+import models.TexturedModel;
+import org.lwjgl.util.vector.Vector3f;
+import toolbox.BoundingBox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is one merged mesh made by the static batch builder.
+ * It holds every static entity in one chunk of the world that uses the same textured model.
+ * Once built, the whole batch is drawn as a single entity with an identity transformation,
+ * since the vertices are already in world space.
+ */
+public class StaticBatch {
+
+    private final int chunkX;
+    private final int chunkZ;
+    private final TexturedModel source;
+    private final List<Entity> entities = new ArrayList<Entity>();
+    private final BoundingBox bounds = new BoundingBox();
+
+    private Entity batchEntity;
+    private int vertexCount;
+    private int indexCount;
+
+    public StaticBatch(int chunkX, int chunkZ, TexturedModel source) {
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+        this.source = source;
+    }
+
+    /**
+     * This method is called once the merged mesh has been uploaded.
+     * It returns the model the batch used before, so it can be unloaded, or null if there wasn't one.
+     */
+    RawModel setMergedModel(RawModel model, int vertexCount) {
+        RawModel old = null;
+        if (batchEntity != null) {
+            old = batchEntity.getModel().getRawModel();
+            batchEntity.remove();
+        }
+        if (model == null) {
+            batchEntity = null;
+        } else {
+            batchEntity = new Entity(new TexturedModel(model, source.getTexture()),
+                    new Vector3f(0, 0, 0), 0, 0, 0, 1);
+            batchEntity.setStatic(true);
+            batchEntity.setBounds(bounds);
+        }
+        this.vertexCount = model == null ? 0 : vertexCount;
+        this.indexCount = model == null ? 0 : model.getVertexCount();
+        return old;
+    }
+
+    List<Entity> getEntityList() {
+        return entities;
+    }
+
+    /**
+     * GETTERS
+     */
+    public int getChunkX() {
+        return chunkX;
+    }
+
+    public int getChunkZ() {
+        return chunkZ;
+    }
+
+    public TexturedModel getSource() {
+        return source;
+    }
+
+    public int getEntityCount() {
+        return entities.size();
+    }
+
+    /**
+     * Returns the world space box around every vertex in the batch.
+     */
+    public BoundingBox getBounds() {
+        return bounds;
+    }
+
+    /**
+     * Returns the entity that draws the merged mesh, or null if the batch hasn't been built yet.
+     */
+    public Entity getBatchEntity() {
+        return batchEntity;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getIndexCount() {
+        return indexCount;
+    }
+}
@@ -0,0 +1,322 @@
+package renderEngine;
+
+import entities.Entity;
+import models.RawModel;
+import models.TexturedModel;
+import objConverter.ModelData;
+import textures.ModelTexture;
+import toolbox.BatchMaths;
+import toolbox.BoundingBox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * This class merges static entities into one mesh per world chunk and textured model.
+ * Instead of transforming and drawing every tree separately, the vertices of all the trees
+ * in a chunk are transformed into world space once, on the CPU, and uploaded as one VAO.
+ * Adding or removing an entity only marks its own batch as dirty, and update() only
+ * rebuilds the dirty batches.
+ * The textured models used here must have been created with their model data.
+ * If a light baker is set, the sun's lighting is baked into the merged meshes as they are built.
+ *
+ * The merging itself works on packed instances (see mergeInstances()), so meshes can also be
+ * merged from instances that were never entities, like scattered vegetation.
+ */
+public class StaticBatchBuilder {
+
+    // The floats of one packed instance: x, y, z, rotX, rotY, rotZ and scale.
+    public static final int INSTANCE_FLOATS = BatchMaths.INSTANCE_FLOATS;
+
+    // The size of a chunk along the x and z axis in world units.
+    private final float chunkSize;
+
+    // This maps a chunk's key to the batches in that chunk, one per textured model.
+    private final Map<Long, Map<TexturedModel, StaticBatch>> chunks = new HashMap<Long, Map<TexturedModel, StaticBatch>>();
+    // This remembers which batch every entity was added to, in case it is removed later.
+    private final Map<Entity, StaticBatch> entityBatches = new IdentityHashMap<Entity, StaticBatch>();
+    private final Set<StaticBatch> dirtyBatches = new LinkedHashSet<StaticBatch>();
+    private final List<Entity> batchEntities = new ArrayList<Entity>();
+
+    private int rebuildCount = 0;
+
+    // If set, every merged mesh gets baked lighting. See setLightBaker().
+    private StaticLightBaker lightBaker;
+
+    public StaticBatchBuilder(float chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * This method sets the baker used on the batches built from now on. Passing in null turns
+     * baking off. Only batches whose texture has no reflectivity are baked, since the baked
+     * shader doesn't do the sun's specular light.
+     */
+    public void setLightBaker(StaticLightBaker lightBaker) {
+        this.lightBaker = lightBaker;
+    }
+
+    /**
+     * This method adds a static entity to the batch of the chunk it is in.
+     * The batch is rebuilt the next time update() is called.
+     */
+    public void addEntity(Entity entity) {
+        TexturedModel model = entity.getModel();
+        if (model.getModelData() == null) {
+            throw new IllegalArgumentException("Static entities need a textured model with model data!");
+        }
+        int chunkX = (int) Math.floor(entity.getX() / chunkSize);
+        int chunkZ = (int) Math.floor(entity.getZ() / chunkSize);
+        long key = chunkKey(chunkX, chunkZ);
+        Map<TexturedModel, StaticBatch> chunk = chunks.get(key);
+        if (chunk == null) {
+            chunk = new HashMap<TexturedModel, StaticBatch>();
+            chunks.put(key, chunk);
+        }
+        StaticBatch batch = chunk.get(model);
+        if (batch == null) {
+            batch = new StaticBatch(chunkX, chunkZ, model);
+            chunk.put(model, batch);
+        }
+        batch.getEntityList().add(entity);
+        entityBatches.put(entity, batch);
+        dirtyBatches.add(batch);
+    }
+
+    /**
+     * This method removes an entity from its batch. The batch is rebuilt the next
+     * time update() is called.
+     */
+    public void removeEntity(Entity entity) {
+        StaticBatch batch = entityBatches.remove(entity);
+        if (batch != null) {
+            batch.getEntityList().remove(entity);
+            dirtyBatches.add(batch);
+        }
+    }
+
+    /**
+     * This method is called when a static entity has been moved, rotated or scaled.
+     * It may now belong to another chunk, so it is removed and added again.
+     */
+    public void entityChanged(Entity entity) {
+        removeEntity(entity);
+        addEntity(entity);
+    }
+
+    /**
+     * This method rebuilds every dirty batch. The vertices are transformed on worker threads
+     * and the merged meshes are then uploaded on this thread, which must be the uploader's
+     * thread (the OpenGL thread for GLStaticBatchUploader). The meshes they replace are unloaded.
+     * It returns the number of batches that were rebuilt.
+     */
+    public int update(StaticBatchUploader uploader) {
+        if (dirtyBatches.isEmpty()) {
+            return 0;
+        }
+        final List<StaticBatch> toBuild = new ArrayList<StaticBatch>(dirtyBatches);
+        dirtyBatches.clear();
+        final ModelData[] merged = new ModelData[toBuild.size()];
+        final float[][] lighting = new float[toBuild.size()][];
+        final StaticLightBaker baker = lightBaker;
+        IntStream.range(0, toBuild.size()).parallel().forEach(i -> {
+            merged[i] = mergeBatch(toBuild.get(i));
+            ModelTexture texture = toBuild.get(i).getSource().getTexture();
+            if (baker != null && merged[i] != null && texture.getReflectivity() == 0) {
+                lighting[i] = baker.bake(merged[i], texture.isUseFakeLighting());
+            }
+        });
+
+        for (int i = 0; i < toBuild.size(); i++) {
+            StaticBatch batch = toBuild.get(i);
+            ModelData data = merged[i];
+            RawModel model = null;
+            if (data != null) {
+                model = uploader.upload(data, lighting[i]);
+            } else {
+                // The batch is empty, so it is dropped along with its chunk if that is empty too.
+                long key = chunkKey(batch.getChunkX(), batch.getChunkZ());
+                Map<TexturedModel, StaticBatch> chunk = chunks.get(key);
+                chunk.remove(batch.getSource());
+                if (chunk.isEmpty()) {
+                    chunks.remove(key);
+                }
+            }
+            RawModel old = batch.setMergedModel(model, data == null ? 0 : data.getVertices().length / 3);
+            if (old != null) {
+                uploader.unload(old);
+            }
+        }
+        rebuildCount += toBuild.size();
+        rebuildBatchEntityList();
+        return toBuild.size();
+    }
+
+    /**
+     * This method returns the entities that draw the merged meshes. They can be passed straight
+     * into the master renderer's processEntity() in place of the original entities.
+     */
+    public List<Entity> getBatchEntities() {
+        return batchEntities;
+    }
+
+    /**
+     * This method returns every batch, including its bounding box, for culling.
+     */
+    public List<StaticBatch> getBatches() {
+        List<StaticBatch> batches = new ArrayList<StaticBatch>();
+        for (Map<TexturedModel, StaticBatch> chunk : chunks.values()) {
+            batches.addAll(chunk.values());
+        }
+        return batches;
+    }
+
+    public int getRebuildCount() {
+        return rebuildCount;
+    }
+
+    public int getChunkCount() {
+        return chunks.size();
+    }
+
+    /**
+     * This method returns a short report comparing batching to drawing every entity on its own.
+     * Batching saves one draw call per entity, but pays for it with a copy of the vertex
+     * data for every instance instead of one shared copy per model.
+     */
+    public String getReport() {
+        int entityCount = entityBatches.size();
+        int batchCount = 0;
+        long batchedBytes = 0;
+        Set<TexturedModel> models = new LinkedHashSet<TexturedModel>();
+        for (StaticBatch batch : getBatches()) {
+            batchCount++;
+            batchedBytes += meshBytes(batch.getVertexCount(), batch.getIndexCount());
+            models.add(batch.getSource());
+        }
+        long sharedBytes = 0;
+        for (TexturedModel model : models) {
+            ModelData data = model.getModelData();
+            sharedBytes += meshBytes(data.getVertices().length / 3, data.getIndices().length);
+        }
+        return "Static batching: " + entityCount + " entities in " + batchCount + " batches ("
+                + chunks.size() + " chunks). Draw calls " + entityCount + " -> " + batchCount
+                + ", vertex memory " + (sharedBytes / 1024) + " KB -> " + (batchedBytes / 1024) + " KB.";
+    }
+
+    /**
+     * This method merges every entity in a batch (see mergeInstances()), and recalculates the
+     * batch's bounding box. It returns null if the batch is empty.
+     */
+    private ModelData mergeBatch(StaticBatch batch) {
+        List<Entity> entities = batch.getEntityList();
+        batch.getBounds().reset();
+        if (entities.isEmpty()) {
+            return null;
+        }
+        float[] instances = new float[entities.size() * INSTANCE_FLOATS];
+        for (int e = 0; e < entities.size(); e++) {
+            Entity entity = entities.get(e);
+            int offset = e * INSTANCE_FLOATS;
+            instances[offset] = entity.getX();
+            instances[offset + 1] = entity.getY();
+            instances[offset + 2] = entity.getZ();
+            instances[offset + 3] = entity.getRotX();
+            instances[offset + 4] = entity.getRotY();
+            instances[offset + 5] = entity.getRotZ();
+            instances[offset + 6] = entity.getScale();
+        }
+        return mergeInstances(batch.getSource().getModelData(), instances, entities.size(), batch.getBounds());
+    }
+
+    /**
+     * This method transforms 'count' packed instances of a mesh into world space and writes them
+     * all into one set of arrays. Each instance gets its own range of the arrays, so the instances
+     * are transformed in parallel. The instances are INSTANCE_FLOATS floats each, and the world
+     * space box around the result is added to bounds. It doesn't use OpenGL.
+     */
+    public static ModelData mergeInstances(ModelData source, final float[] instances, int count, BoundingBox bounds) {
+        final float[] vertices = source.getVertices();
+        final float[] textureCoords = source.getTextureCoords();
+        final float[] normals = source.getNormals();
+        final int[] indices = source.getIndices();
+        final int sourceVertexCount = vertices.length / 3;
+
+        final float[] mergedVertices = new float[vertices.length * count];
+        final float[] mergedTextureCoords = new float[textureCoords.length * count];
+        final float[] mergedNormals = new float[normals.length * count];
+        final int[] mergedIndices = new int[indices.length * count];
+        final BoundingBox[] boxes = new BoundingBox[count];
+        final float[] matrices = new float[count * BatchMaths.MATRIX_FLOATS];
+        BatchMaths.compose(instances, 0, count, matrices, 0);
+
+        IntStream.range(0, count).parallel().forEach(e -> {
+            int matrix = e * BatchMaths.MATRIX_FLOATS;
+            float m00 = matrices[matrix], m01 = matrices[matrix + 1], m02 = matrices[matrix + 2];
+            float m10 = matrices[matrix + 4], m11 = matrices[matrix + 5], m12 = matrices[matrix + 6];
+            float m20 = matrices[matrix + 8], m21 = matrices[matrix + 9], m22 = matrices[matrix + 10];
+            float m30 = matrices[matrix + 12], m31 = matrices[matrix + 13], m32 = matrices[matrix + 14];
+            BoundingBox box = new BoundingBox();
+            int vertexOffset = e * sourceVertexCount;
+            for (int v = 0; v < sourceVertexCount; v++) {
+                float x = vertices[v * 3], y = vertices[v * 3 + 1], z = vertices[v * 3 + 2];
+                int out = (vertexOffset + v) * 3;
+                mergedVertices[out] = m00 * x + m10 * y + m20 * z + m30;
+                mergedVertices[out + 1] = m01 * x + m11 * y + m21 * z + m31;
+                mergedVertices[out + 2] = m02 * x + m12 * y + m22 * z + m32;
+                box.include(mergedVertices[out], mergedVertices[out + 1], mergedVertices[out + 2]);
+
+                // Normals only get the rotation. The scale is uniform so renormalizing removes it.
+                float nx = normals[v * 3], ny = normals[v * 3 + 1], nz = normals[v * 3 + 2];
+                float tx = m00 * nx + m10 * ny + m20 * nz;
+                float ty = m01 * nx + m11 * ny + m21 * nz;
+                float tz = m02 * nx + m12 * ny + m22 * nz;
+                float length = (float) Math.sqrt(tx * tx + ty * ty + tz * tz);
+                if (length > 0) {
+                    tx /= length;
+                    ty /= length;
+                    tz /= length;
+                }
+                mergedNormals[out] = tx;
+                mergedNormals[out + 1] = ty;
+                mergedNormals[out + 2] = tz;
+            }
+            System.arraycopy(textureCoords, 0, mergedTextureCoords, vertexOffset * 2, textureCoords.length);
+            int indexOffset = e * indices.length;
+            for (int i = 0; i < indices.length; i++) {
+                mergedIndices[indexOffset + i] = indices[i] + vertexOffset;
+            }
+            boxes[e] = box;
+        });
+
+        for (BoundingBox box : boxes) {
+            bounds.include(box);
+        }
+        return new ModelData(mergedVertices, mergedTextureCoords, mergedNormals, mergedIndices,
+                source.getFurthestPoint());
+    }
+
+    private void rebuildBatchEntityList() {
+        batchEntities.clear();
+        for (StaticBatch batch : getBatches()) {
+            if (batch.getBatchEntity() != null) {
+                batchEntities.add(batch.getBatchEntity());
+            }
+        }
+    }
+
+    private static long meshBytes(int vertexCount, int indexCount) {
+        // 3 position, 2 texture and 3 normal floats per vertex, and one int per index.
+        return vertexCount * 8L * 4L + indexCount * 4L;
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xffffffffL);
+    }
+}
@@ -0,0 +1,23 @@
+package renderEngine;
+
+import models.RawModel;
+import objConverter.ModelData;
+
+/**
+ * This interface moves the merged meshes of the StaticBatchBuilder into and out of video memory.
+ * The real game uses GLStaticBatchUploader. Because the builder only ever talks to this
+ * interface, a stub implementation can be used to run it without an OpenGL context.
+ */
+public interface StaticBatchUploader {
+
+    /**
+     * This method uploads a merged mesh and returns the model that draws it. The baked lighting
+     * is null if the batch isn't baked.
+     */
+    RawModel upload(ModelData mesh, float[] bakedLighting);
+
+    /**
+     * This method frees the video memory of a merged mesh that has been rebuilt or dropped.
+     */
+    void unload(RawModel model);
+}
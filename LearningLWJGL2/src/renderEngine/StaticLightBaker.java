@@ -0,0 +1,486 @@
+package renderEngine;
+
+import entities.Entity;
+import models.RawModel;
+import models.TexturedModel;
+import objConverter.ModelData;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * This class bakes the lighting of static geometry into its vertices.
+ * The sun never moves, so the diffuse light it gives each vertex is the same every frame.
+ * Instead of the fragment shader working it out again for every pixel, it is worked out once
+ * per vertex on the CPU and stored as an extra vertex attribute, which the BAKED_LIGHTING
+ * variant of the entity shader reads instead.
+ *
+ * Each vertex gets two values: the diffuse brightness, with the same 0.2 ambient floor the
+ * shader uses, and optionally an ambient occlusion factor. The occlusion is found by casting
+ * a few rays over the hemisphere above the vertex and counting how many of them hit the mesh
+ * within a short distance, so the inside of a tree's crown or the base of a fern gets darker.
+ *
+ * Vertices are baked in parallel. Every result is saved to disk under a hash of the mesh and
+ * the bake settings, so the next launch only has to read it back.
+ * Apart from bakeEntity(), this class does not use OpenGL.
+ */
+public class StaticLightBaker {
+
+    public static final String SHADER_DEFINE = "BAKED_LIGHTING";
+
+    // Written at the start of every cache file so we never load some other file by mistake.
+    private static final int MAGIC = 0x42414b45;
+    // Changing how the bake works must change this, so the old cache files aren't used.
+    private static final int VERSION = 1;
+    private static final String FILE_EXTENSION = ".bake";
+
+    // The same ambient floor as the fragment shader's max(nDotl, 0.2).
+    private static final float AMBIENT = 0.2f;
+    // How far the occlusion rays reach, how many there are, and how dark a fully covered vertex gets.
+    private static final float AO_RADIUS = 2.5f;
+    private static final int AO_RAYS = 12;
+    private static final float AO_STRENGTH = 0.7f;
+    // How far the rays start above their vertex, so they don't hit the triangles the vertex is on.
+    private static final float RAY_OFFSET = 0.01f;
+    // The most cells the occlusion grid has along each axis.
+    private static final int MAX_GRID_CELLS = 64;
+
+    // The ray directions around +z, spread evenly over the hemisphere and cosine weighted.
+    private static final float[] RAY_DIRECTIONS = createRayDirections();
+
+    private final Vector3f sunPosition;
+    private final boolean ambientOcclusion;
+    private final File cacheDirectory;
+
+    // Statistics. Meshes are baked in parallel, hence the atomic counters.
+    private final AtomicInteger bakedMeshes = new AtomicInteger();
+    private final AtomicInteger cacheHits = new AtomicInteger();
+    private final AtomicInteger bakedVertices = new AtomicInteger();
+
+    /**
+     * Constructor. Takes in the position of the sun, whether to bake ambient occlusion, and the
+     * folder the results are saved in. Passing in a null folder turns the disk cache off.
+     */
+    public StaticLightBaker(Vector3f sunPosition, boolean ambientOcclusion, File cacheDirectory) {
+        this.sunPosition = new Vector3f(sunPosition);
+        this.ambientOcclusion = ambientOcclusion;
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * This method bakes a mesh whose vertices are already in world space, like a static batch.
+     * If useFakeLighting is true every normal is taken to point straight up, like in the shader.
+     * It returns two floats per vertex: the diffuse brightness and the ambient occlusion.
+     */
+    public float[] bake(ModelData data, boolean useFakeLighting) {
+        return bake(data.getVertices(), data.getNormals(), data.getIndices(), useFakeLighting);
+    }
+
+    /**
+     * This method bakes a mesh that is placed in the world by the given transformation matrix.
+     */
+    public float[] bake(ModelData data, Matrix4f transformation, boolean useFakeLighting) {
+        float[] vertices = data.getVertices();
+        float[] normals = data.getNormals();
+        float[] worldVertices = new float[vertices.length];
+        float[] worldNormals = new float[normals.length];
+        Matrix4f m = transformation;
+        for (int v = 0; v < vertices.length; v += 3) {
+            float x = vertices[v], y = vertices[v + 1], z = vertices[v + 2];
+            worldVertices[v] = m.m00 * x + m.m10 * y + m.m20 * z + m.m30;
+            worldVertices[v + 1] = m.m01 * x + m.m11 * y + m.m21 * z + m.m31;
+            worldVertices[v + 2] = m.m02 * x + m.m12 * y + m.m22 * z + m.m32;
+            // The normals are renormalized when they are used, which removes the scale.
+            float nx = normals[v], ny = normals[v + 1], nz = normals[v + 2];
+            worldNormals[v] = m.m00 * nx + m.m10 * ny + m.m20 * nz;
+            worldNormals[v + 1] = m.m01 * nx + m.m11 * ny + m.m21 * nz;
+            worldNormals[v + 2] = m.m02 * nx + m.m12 * ny + m.m22 * nz;
+        }
+        return bake(worldVertices, worldNormals, data.getIndices(), useFakeLighting);
+    }
+
+    /**
+     * This method gives a single static entity its own copy of its model with baked lighting,
+     * and sets it as the entity's model. It must be called on the OpenGL thread, and again
+     * if the entity is ever moved.
+     */
+    public void bakeEntity(Entity entity, Loader loader) {
+        TexturedModel model = entity.getModel();
+        ModelData data = model.getModelData();
+        if (data == null) {
+            throw new IllegalArgumentException("Baked entities need a textured model with model data!");
+        }
+        float[] lighting = bake(data, entity.getTransformationMatrix(), model.getTexture().isUseFakeLighting());
+        RawModel rawModel = loader.loadToVAO(data.getVertices(), data.getTextureCoords(), data.getNormals(),
+                lighting, data.getIndices());
+        entity.setModel(new TexturedModel(rawModel, model.getTexture(), data));
+    }
+
+    /**
+     * GETTERS for the statistics.
+     */
+    public int getBakedMeshes() {
+        return bakedMeshes.get();
+    }
+
+    public int getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public int getBakedVertices() {
+        return bakedVertices.get();
+    }
+
+    public String getReport() {
+        return "Light baking: " + bakedMeshes.get() + " meshes baked (" + bakedVertices.get() + " vertices), "
+                + cacheHits.get() + " loaded from the cache.";
+    }
+
+    private float[] bake(float[] vertices, float[] normals, int[] indices, boolean useFakeLighting) {
+        File file = null;
+        if (cacheDirectory != null) {
+            file = new File(cacheDirectory, createKey(vertices, normals, indices, useFakeLighting) + FILE_EXTENSION);
+            float[] cached = readBake(file, vertices.length / 3);
+            if (cached != null) {
+                cacheHits.incrementAndGet();
+                return cached;
+            }
+        }
+
+        final int vertexCount = vertices.length / 3;
+        final float[] lighting = new float[vertexCount * 2];
+        final OcclusionGrid grid = ambientOcclusion ? new OcclusionGrid(vertices, indices) : null;
+        IntStream.range(0, vertexCount).parallel().forEach(v -> {
+            float nx, ny, nz;
+            if (useFakeLighting) {
+                nx = 0;
+                ny = 1;
+                nz = 0;
+            } else {
+                nx = normals[v * 3];
+                ny = normals[v * 3 + 1];
+                nz = normals[v * 3 + 2];
+                float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+                if (length > 0) {
+                    nx /= length;
+                    ny /= length;
+                    nz /= length;
+                }
+            }
+            float x = vertices[v * 3], y = vertices[v * 3 + 1], z = vertices[v * 3 + 2];
+            float lx = sunPosition.x - x, ly = sunPosition.y - y, lz = sunPosition.z - z;
+            float lightLength = (float) Math.sqrt(lx * lx + ly * ly + lz * lz);
+            float nDotl = lightLength > 0 ? (nx * lx + ny * ly + nz * lz) / lightLength : 0;
+            lighting[v * 2] = Math.max(nDotl, AMBIENT);
+            lighting[v * 2 + 1] = grid == null ? 1 : grid.ambientOcclusion(v, x, y, z, nx, ny, nz);
+        });
+
+        bakedMeshes.incrementAndGet();
+        bakedVertices.addAndGet(vertexCount);
+        if (file != null) {
+            writeBake(file, lighting);
+        }
+        return lighting;
+    }
+
+    /**
+     * This method creates the cache key. It is the SHA-256 hash, in hex, of the mesh and
+     * everything else that has an effect on the bake.
+     */
+    private String createKey(float[] vertices, float[] normals, int[] indices, boolean useFakeLighting) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        update(digest, VERSION);
+        update(digest, Float.floatToIntBits(sunPosition.x));
+        update(digest, Float.floatToIntBits(sunPosition.y));
+        update(digest, Float.floatToIntBits(sunPosition.z));
+        update(digest, ambientOcclusion ? 1 : 0);
+        update(digest, useFakeLighting ? 1 : 0);
+        update(digest, vertices.length);
+        for (float value : vertices) {
+            update(digest, Float.floatToIntBits(value));
+        }
+        update(digest, normals.length);
+        for (float value : normals) {
+            update(digest, Float.floatToIntBits(value));
+        }
+        update(digest, indices.length);
+        for (int value : indices) {
+            update(digest, value);
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static void update(MessageDigest digest, int value) {
+        digest.update((byte) (value >>> 24));
+        digest.update((byte) (value >>> 16));
+        digest.update((byte) (value >>> 8));
+        digest.update((byte) value);
+    }
+
+    /**
+     * This method reads a cached bake from the given file.
+     * It returns null if the file doesn't exist or isn't a valid bake for this many vertices.
+     */
+    private static float[] readBake(File file, int vertexCount) {
+        if (!file.isFile() || file.length() != 8 + vertexCount * 2L * 4L) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != vertexCount) {
+                return null;
+            }
+            float[] lighting = new float[vertexCount * 2];
+            for (int i = 0; i < lighting.length; i++) {
+                lighting[i] = in.readFloat();
+            }
+            return lighting;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * This method saves a bake to the given file. Failing to save isn't fatal,
+     * the mesh will just be baked again next time.
+     */
+    private static void writeBake(File file, float[] lighting) {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            return;
+        }
+        // Written to a temporary file first so a crash can't leave half a bake behind.
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(lighting.length / 2);
+            for (float value : lighting) {
+                out.writeFloat(value);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+            return;
+        }
+        file.delete();
+        if (!temp.renameTo(file)) {
+            temp.delete();
+        }
+    }
+
+    /**
+     * This method spreads the rays over the hemisphere around +z. Their density follows the
+     * cosine of the angle to +z, so counting the hits gives cosine weighted occlusion.
+     */
+    private static float[] createRayDirections() {
+        float[] directions = new float[AO_RAYS * 3];
+        double goldenAngle = Math.PI * (3 - Math.sqrt(5));
+        for (int i = 0; i < AO_RAYS; i++) {
+            double r = Math.sqrt((i + 0.5) / AO_RAYS);
+            double angle = i * goldenAngle;
+            directions[i * 3] = (float) (r * Math.cos(angle));
+            directions[i * 3 + 1] = (float) (r * Math.sin(angle));
+            directions[i * 3 + 2] = (float) Math.sqrt(1 - r * r);
+        }
+        return directions;
+    }
+
+    /**
+     * This class sorts a mesh's triangles into a grid of cells AO_RADIUS wide, so a ray only
+     * has to be tested against the triangles in the cells around its vertex.
+     */
+    private static class OcclusionGrid {
+
+        private final float[] vertices;
+        private final int[] indices;
+        private final float minX, minY, minZ;
+        private final float cellSize;
+        private final int cellsX, cellsY, cellsZ;
+        // The triangles in cell c are cellTriangles[cellStart[c]] up to cellTriangles[cellStart[c + 1]].
+        private final int[] cellStart;
+        private final int[] cellTriangles;
+
+        private OcclusionGrid(float[] vertices, int[] indices) {
+            this.vertices = vertices;
+            this.indices = indices;
+            float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+            float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+            for (int v = 0; v < vertices.length; v += 3) {
+                minX = Math.min(minX, vertices[v]);
+                minY = Math.min(minY, vertices[v + 1]);
+                minZ = Math.min(minZ, vertices[v + 2]);
+                maxX = Math.max(maxX, vertices[v]);
+                maxY = Math.max(maxY, vertices[v + 1]);
+                maxZ = Math.max(maxZ, vertices[v + 2]);
+            }
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            // Large meshes get bigger cells, so the grid never gets too big.
+            float largest = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+            this.cellSize = Math.max(AO_RADIUS, largest / MAX_GRID_CELLS);
+            this.cellsX = (int) ((maxX - minX) / cellSize) + 1;
+            this.cellsY = (int) ((maxY - minY) / cellSize) + 1;
+            this.cellsZ = (int) ((maxZ - minZ) / cellSize) + 1;
+
+            // The triangles are counted into the cells their boxes touch, then the cells are filled.
+            int triangleCount = indices.length / 3;
+            int[] counts = new int[cellsX * cellsY * cellsZ + 1];
+            for (int t = 0; t < triangleCount; t++) {
+                forEachCell(t, counts, null, null);
+            }
+            cellStart = new int[counts.length];
+            int total = 0;
+            for (int c = 0; c < counts.length - 1; c++) {
+                cellStart[c] = total;
+                total += counts[c];
+            }
+            cellStart[counts.length - 1] = total;
+            cellTriangles = new int[total];
+            int[] fill = new int[counts.length];
+            for (int t = 0; t < triangleCount; t++) {
+                forEachCell(t, null, fill, cellTriangles);
+            }
+        }
+
+        /**
+         * This method either counts the triangle into the cells its box touches, or writes it into them.
+         */
+        private void forEachCell(int t, int[] counts, int[] fill, int[] out) {
+            int a = indices[t * 3] * 3, b = indices[t * 3 + 1] * 3, c = indices[t * 3 + 2] * 3;
+            int x0 = cell(Math.min(vertices[a], Math.min(vertices[b], vertices[c])) - minX, cellsX);
+            int x1 = cell(Math.max(vertices[a], Math.max(vertices[b], vertices[c])) - minX, cellsX);
+            int y0 = cell(Math.min(vertices[a + 1], Math.min(vertices[b + 1], vertices[c + 1])) - minY, cellsY);
+            int y1 = cell(Math.max(vertices[a + 1], Math.max(vertices[b + 1], vertices[c + 1])) - minY, cellsY);
+            int z0 = cell(Math.min(vertices[a + 2], Math.min(vertices[b + 2], vertices[c + 2])) - minZ, cellsZ);
+            int z1 = cell(Math.max(vertices[a + 2], Math.max(vertices[b + 2], vertices[c + 2])) - minZ, cellsZ);
+            for (int z = z0; z <= z1; z++) {
+                for (int y = y0; y <= y1; y++) {
+                    for (int x = x0; x <= x1; x++) {
+                        int index = x + cellsX * (y + cellsY * z);
+                        if (counts != null) {
+                            counts[index]++;
+                        } else {
+                            out[cellStart[index] + fill[index]++] = t;
+                        }
+                    }
+                }
+            }
+        }
+
+        private int cell(float offset, int cells) {
+            return Math.max(0, Math.min(cells - 1, (int) (offset / cellSize)));
+        }
+
+        /**
+         * This method returns the ambient occlusion of a vertex: 1 if none of its rays hit
+         * anything, down to 1 - AO_STRENGTH if they all do.
+         */
+        private float ambientOcclusion(int vertex, float x, float y, float z, float nx, float ny, float nz) {
+            // A tangent and bitangent to turn the ray directions from around +z to around the normal.
+            float tx, ty, tz;
+            if (Math.abs(nx) < 0.9f) {
+                // cross(normal, (1, 0, 0))
+                tx = 0;
+                ty = nz;
+                tz = -ny;
+            } else {
+                // cross(normal, (0, 1, 0))
+                tx = -nz;
+                ty = 0;
+                tz = nx;
+            }
+            float tLength = (float) Math.sqrt(tx * tx + ty * ty + tz * tz);
+            tx /= tLength;
+            ty /= tLength;
+            tz /= tLength;
+            float bx = ny * tz - nz * ty, by = nz * tx - nx * tz, bz = nx * ty - ny * tx;
+
+            float ox = x + nx * RAY_OFFSET, oy = y + ny * RAY_OFFSET, oz = z + nz * RAY_OFFSET;
+            int x0 = cell(ox - AO_RADIUS - minX, cellsX), x1 = cell(ox + AO_RADIUS - minX, cellsX);
+            int y0 = cell(oy - AO_RADIUS - minY, cellsY), y1 = cell(oy + AO_RADIUS - minY, cellsY);
+            int z0 = cell(oz - AO_RADIUS - minZ, cellsZ), z1 = cell(oz + AO_RADIUS - minZ, cellsZ);
+
+            int hits = 0;
+            for (int r = 0; r < AO_RAYS; r++) {
+                float u = RAY_DIRECTIONS[r * 3], w = RAY_DIRECTIONS[r * 3 + 1], h = RAY_DIRECTIONS[r * 3 + 2];
+                float dx = tx * u + bx * w + nx * h;
+                float dy = ty * u + by * w + ny * h;
+                float dz = tz * u + bz * w + nz * h;
+                if (rayHits(vertex, ox, oy, oz, dx, dy, dz, x0, x1, y0, y1, z0, z1)) {
+                    hits++;
+                }
+            }
+            return 1 - AO_STRENGTH * hits / AO_RAYS;
+        }
+
+        private boolean rayHits(int vertex, float ox, float oy, float oz, float dx, float dy, float dz,
+                                int x0, int x1, int y0, int y1, int z0, int z1) {
+            for (int cz = z0; cz <= z1; cz++) {
+                for (int cy = y0; cy <= y1; cy++) {
+                    for (int cx = x0; cx <= x1; cx++) {
+                        int index = cx + cellsX * (cy + cellsY * cz);
+                        for (int i = cellStart[index]; i < cellStart[index + 1]; i++) {
+                            if (hitsTriangle(cellTriangles[i], vertex, ox, oy, oz, dx, dy, dz)) {
+                                return true;
+                            }
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * This method tests a ray against one triangle (Moller-Trumbore). The triangles that the
+         * ray's own vertex is part of are skipped.
+         */
+        private boolean hitsTriangle(int t, int vertex, float ox, float oy, float oz, float dx, float dy, float dz) {
+            int ia = indices[t * 3], ib = indices[t * 3 + 1], ic = indices[t * 3 + 2];
+            if (ia == vertex || ib == vertex || ic == vertex) {
+                return false;
+            }
+            int a = ia * 3, b = ib * 3, c = ic * 3;
+            float e1x = vertices[b] - vertices[a], e1y = vertices[b + 1] - vertices[a + 1], e1z = vertices[b + 2] - vertices[a + 2];
+            float e2x = vertices[c] - vertices[a], e2y = vertices[c + 1] - vertices[a + 1], e2z = vertices[c + 2] - vertices[a + 2];
+            float px = dy * e2z - dz * e2y, py = dz * e2x - dx * e2z, pz = dx * e2y - dy * e2x;
+            float det = e1x * px + e1y * py + e1z * pz;
+            if (Math.abs(det) < 1e-8f) {
+                return false;
+            }
+            float inverse = 1 / det;
+            float sx = ox - vertices[a], sy = oy - vertices[a + 1], sz = oz - vertices[a + 2];
+            float u = (sx * px + sy * py + sz * pz) * inverse;
+            if (u < 0 || u > 1) {
+                return false;
+            }
+            float qx = sy * e1z - sz * e1y, qy = sz * e1x - sx * e1z, qz = sx * e1y - sy * e1x;
+            float v = (dx * qx + dy * qy + dz * qz) * inverse;
+            if (v < 0 || u + v > 1) {
+                return false;
+            }
+            float distance = (e2x * qx + e2y * qy + e2z * qz) * inverse;
+            return distance > 0 && distance < AO_RADIUS;
+        }
+    }
+}
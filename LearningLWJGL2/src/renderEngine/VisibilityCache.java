@@ -0,0 +1,266 @@
+package renderEngine;
+
+import entities.Camera;
+import entities.Entity;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import toolbox.BoundingBox;
+import toolbox.Frustum;
+import toolbox.Maths;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class frustum culls a set of entities and reuses the results from frame to frame.
+ *
+ * A full update tests every entity and remembers which ones are near the edge of the frustum,
+ * meaning within a margin of one of its planes. As long as the camera has not moved or turned
+ * far enough to shift any plane by more than that margin, an entity that was well inside or
+ * well outside is still inside or outside. So the frames in between only test the entities near
+ * the edge and the entities that were added or changed. A full update is done again once the
+ * camera has moved or turned past the thresholds, or after a maximum number of frames.
+ */
+public class VisibilityCache {
+
+    private final Frustum frustum = new Frustum();
+    private final Matrix4f viewMatrix = new Matrix4f();
+    private final BoundingBox bounds = new BoundingBox();
+
+    // How far inside or outside of the frustum an entity must be to skip testing it.
+    private final float margin;
+    // How far the camera may move, and how many degrees it may turn, before a full update.
+    private final float moveThreshold;
+    private final float turnThreshold;
+    private final int maxFramesBetweenFullUpdates;
+
+    private final List<Entity> entities = new ArrayList<Entity>();
+    private final Map<Entity, Integer> indices = new IdentityHashMap<Entity, Integer>();
+    private boolean[] visible = new boolean[64];
+    private boolean[] nearEdge = new boolean[64];
+    // The entities near the frustum's edge and the entities that changed since the last frame.
+    private int[] edgeList = new int[64];
+    private int edgeCount = 0;
+    private final List<Entity> changed = new ArrayList<Entity>();
+    private boolean needsFullUpdate = true;
+
+    private final List<Entity> visibleEntities = new ArrayList<Entity>();
+
+    // The camera at the last full update.
+    private final Vector3f lastPosition = new Vector3f();
+    private float lastPitch;
+    private float lastYaw;
+    private float lastRoll;
+    private int framesSinceFullUpdate = 0;
+
+    // Statistics.
+    private int fullUpdates = 0;
+    private int incrementalUpdates = 0;
+    private int lastTestedCount = 0;
+
+    /**
+     * Constructor. The camera may move half the margin before a full update; the rest of the
+     * margin covers the planes swinging round as the camera turns, which moves distant points
+     * furthest, so the turn threshold is worked out from the far plane distance. The threshold
+     * is for the pitch, yaw and roll turned added together, since turning about several axes
+     * can swing a plane by as much as the sum of the angles.
+     */
+    public VisibilityCache(float margin, float farPlane, int maxFramesBetweenFullUpdates) {
+        this.margin = margin;
+        this.moveThreshold = margin * 0.5f;
+        this.turnThreshold = (float) Math.toDegrees((margin * 0.5f) / farPlane);
+        this.maxFramesBetweenFullUpdates = maxFramesBetweenFullUpdates;
+    }
+
+    /**
+     * This method adds an entity to the cache. It is tested on the next update.
+     */
+    public void add(Entity entity) {
+        if (indices.containsKey(entity)) {
+            return;
+        }
+        int index = entities.size();
+        entities.add(entity);
+        indices.put(entity, index);
+        if (index == visible.length) {
+            visible = Arrays.copyOf(visible, index * 2);
+            nearEdge = Arrays.copyOf(nearEdge, index * 2);
+        }
+        visible[index] = false;
+        nearEdge[index] = false;
+        changed.add(entity);
+    }
+
+    /**
+     * This method removes an entity from the cache.
+     * The last entity is moved into its place so the arrays stay packed.
+     */
+    public void remove(Entity entity) {
+        Integer index = indices.remove(entity);
+        if (index == null) {
+            return;
+        }
+        int last = entities.size() - 1;
+        Entity moved = entities.remove(last);
+        if (index != last) {
+            entities.set(index, moved);
+            indices.put(moved, index);
+            visible[index] = visible[last];
+            nearEdge[index] = nearEdge[last];
+        }
+        // The edge list holds indices, which have just changed, so it is rebuilt.
+        needsFullUpdate = true;
+    }
+
+    /**
+     * This method replaces all the entities in the cache.
+     */
+    public void setEntities(List<Entity> newEntities) {
+        entities.clear();
+        indices.clear();
+        changed.clear();
+        for (Entity entity : newEntities) {
+            add(entity);
+        }
+        changed.clear();
+        needsFullUpdate = true;
+    }
+
+    /**
+     * This method is called when an entity has moved, rotated or changed size, so it is tested again.
+     */
+    public void markChanged(Entity entity) {
+        if (indices.containsKey(entity)) {
+            changed.add(entity);
+        }
+    }
+
+    /**
+     * This method works out which entities are visible to the camera this frame and returns them.
+     * The returned list is reused, so it is only valid until the next update.
+     */
+    public List<Entity> update(Camera camera, Matrix4f projectionMatrix) {
+        frustum.update(projectionMatrix, Maths.createViewMatrix(camera, viewMatrix));
+        framesSinceFullUpdate++;
+        if (needsFullUpdate || cameraMovedTooFar(camera) || framesSinceFullUpdate >= maxFramesBetweenFullUpdates) {
+            fullUpdate(camera);
+        } else {
+            incrementalUpdate();
+        }
+        changed.clear();
+
+        visibleEntities.clear();
+        for (int i = 0; i < entities.size(); i++) {
+            if (visible[i]) {
+                visibleEntities.add(entities.get(i));
+            }
+        }
+        return visibleEntities;
+    }
+
+    /**
+     * GETTERS for the statistics.
+     */
+    public int getFullUpdates() {
+        return fullUpdates;
+    }
+
+    public int getIncrementalUpdates() {
+        return incrementalUpdates;
+    }
+
+    /**
+     * Returns the number of entities tested in the last update.
+     */
+    public int getLastTestedCount() {
+        return lastTestedCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    private boolean cameraMovedTooFar(Camera camera) {
+        Vector3f position = camera.getPosition();
+        float dx = position.x - lastPosition.x;
+        float dy = position.y - lastPosition.y;
+        float dz = position.z - lastPosition.z;
+        if (dx * dx + dy * dy + dz * dz > moveThreshold * moveThreshold) {
+            return true;
+        }
+        float turned = Math.abs(camera.getPitch() - lastPitch) + Math.abs(camera.getYaw() - lastYaw)
+                + Math.abs(camera.getRoll() - lastRoll);
+        return turned > turnThreshold;
+    }
+
+    private void fullUpdate(Camera camera) {
+        edgeCount = 0;
+        for (int i = 0; i < entities.size(); i++) {
+            test(i);
+            if (nearEdge[i]) {
+                addToEdgeList(i);
+            }
+        }
+        lastPosition.set(camera.getPosition());
+        lastPitch = camera.getPitch();
+        lastYaw = camera.getYaw();
+        lastRoll = camera.getRoll();
+        framesSinceFullUpdate = 0;
+        needsFullUpdate = false;
+        lastTestedCount = entities.size();
+        fullUpdates++;
+    }
+
+    private void incrementalUpdate() {
+        int tested = 0;
+        for (int e = 0; e < edgeCount; e++) {
+            test(edgeList[e]);
+            tested++;
+        }
+        for (Entity entity : changed) {
+            Integer index = indices.get(entity);
+            if (index == null) {
+                continue;
+            }
+            boolean wasNearEdge = nearEdge[index];
+            test(index);
+            tested++;
+            // A changed entity that is now near the edge must keep being tested.
+            if (nearEdge[index] && !wasNearEdge) {
+                addToEdgeList(index);
+            }
+        }
+        lastTestedCount = tested;
+        incrementalUpdates++;
+    }
+
+    /**
+     * This method tests one entity against the frustum and stores whether it is visible and near the edge.
+     * Entities whose bounds aren't known are always visible.
+     */
+    private void test(int index) {
+        if (!entities.get(index).getWorldBounds(bounds) || bounds.isEmpty()) {
+            visible[index] = true;
+            nearEdge[index] = false;
+            return;
+        }
+        float outside = frustum.distanceOutside(bounds);
+        if (outside > 0) {
+            visible[index] = false;
+            nearEdge[index] = outside <= margin;
+        } else {
+            visible[index] = true;
+            nearEdge[index] = frustum.distanceInside(bounds) <= margin;
+        }
+    }
+
+    private void addToEdgeList(int index) {
+        if (edgeCount == edgeList.length) {
+            edgeList = Arrays.copyOf(edgeList, edgeCount * 2);
+        }
+        edgeList[edgeCount++] = index;
+    }
+}
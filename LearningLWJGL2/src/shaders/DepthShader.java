@@ -0,0 +1,88 @@
+package shaders;
+
+import org.lwjgl.util.vector.Matrix4f;
+
+import java.nio.FloatBuffer;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * This class is the shader the depth prepass draws entities with. It only places the vertices,
+ * the same way StaticShader does, and writes no colour. The alpha tested variant also samples
+ * the model's texture to discard its transparent pixels; the plain one has no fragment work at
+ * all, so the depth test can run before it. Models with baked lighting use it too, since their
+ * positions are placed the same way.
+ */
+public class DepthShader extends ShaderProgram{
+
+    /**
+     * Declares the location of the shader code files.
+     */
+    private static final String VERTEX_FILE = "src/shaders/depthVertexShader.txt";
+    static final String FRAGMENT_FILE = "src/shaders/depthFragmentShader.txt";
+    private static final String ALPHA_TESTED = "ALPHA_TESTED";
+
+    // These variables hold the positions of their respective uniform variables.
+    private int location_transformationMatrix;
+    private int location_projectionMatrix;
+    private int location_viewMatrix;
+    private int location_modelTexture;
+
+    /**
+     * Constructor. If alphaTested is true the shader discards the pixels of the model's texture
+     * that the colour pass would, for models with transparent textures.
+     */
+    public DepthShader(boolean alphaTested) {
+        super(VERTEX_FILE, FRAGMENT_FILE, alphaTested ? Collections.singletonMap(ALPHA_TESTED, "1")
+                : Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * This method binds our various uniform variables to attribute lists
+     * in our VAO.
+     */
+    @Override
+    protected void bindAttributes() {
+        super.bindAttribute(0, "position");
+        super.bindAttribute(1, "textureCoordinates");
+    }
+
+    /**
+     * This method finds the locations of our uniform variables and stores them.
+     */
+    @Override
+    protected void getAllUniformLocations() {
+        location_transformationMatrix = super.getUniformLocation("transformationMatrix");
+        location_projectionMatrix = super.getUniformLocation("projectionMatrix");
+        location_viewMatrix = super.getUniformLocation("viewMatrix");
+        location_modelTexture = super.getUniformLocation("modelTexture");
+    }
+
+    /**
+     * This method tells the texture sampler to read from texture unit 0, where the model's texture is.
+     */
+    public void connectTextureUnits(){
+        super.loadInt(location_modelTexture, 0);
+    }
+
+    /**
+     * This method loads a transformation matrix that is already stored in a buffer, such as a draw command's.
+     */
+    public void loadTransformationMatrix(FloatBuffer matrix){
+        super.loadMatrix(location_transformationMatrix, matrix);
+    }
+
+    /**
+     * This method loads a view matrix that has already been worked out into the viewMatrix uniform variable.
+     */
+    public void loadViewMatrix(Matrix4f viewMatrix){
+        super.loadMatrix(location_viewMatrix, viewMatrix);
+    }
+
+    /**
+     * This method stores(loads) a projection matrix into our projectionMatrix uniform variable.
+     */
+    public void loadProjectionMatrix(Matrix4f projection){
+        super.loadMatrix(location_projectionMatrix, projection);
+    }
+}
@@ -0,0 +1,115 @@
+package shaders;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.ARBGetProgramBinary;
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GLContext;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * This class is the OpenGL implementation of the shader backend.
+ * Program binaries are handled through ARB_get_program_binary (core since OpenGL 4.1).
+ */
+public class GLShaderBackend implements ShaderBackend {
+
+    @Override
+    public String getDriverString() {
+        return GL11.glGetString(GL11.GL_VENDOR) + "|" + GL11.glGetString(GL11.GL_RENDERER) + "|"
+                + GL11.glGetString(GL11.GL_VERSION);
+    }
+
+    @Override
+    public boolean supportsProgramBinary() {
+        ContextCapabilities capabilities = GLContext.getCapabilities();
+        if (!capabilities.OpenGL41 && !capabilities.GL_ARB_get_program_binary) {
+            return false;
+        }
+        // Some drivers expose the extension but don't support any binary formats.
+        return GL11.glGetInteger(ARBGetProgramBinary.GL_NUM_PROGRAM_BINARY_FORMATS) > 0;
+    }
+
+    @Override
+    public int createProgram() {
+        return GL20.glCreateProgram();
+    }
+
+    @Override
+    public int compileShader(int type, CharSequence source) {
+        int shaderID = GL20.glCreateShader(type);
+        GL20.glShaderSource(shaderID, source);
+        GL20.glCompileShader(shaderID);
+        return shaderID;
+    }
+
+    @Override
+    public boolean isCompiled(int shaderID) {
+        return GL20.glGetShaderi(shaderID, GL20.GL_COMPILE_STATUS) != GL11.GL_FALSE;
+    }
+
+    @Override
+    public String getShaderLogAndDelete(int shaderID) {
+        String log = GL20.glGetShaderInfoLog(shaderID, 500);
+        GL20.glDeleteShader(shaderID);
+        return log;
+    }
+
+    @Override
+    public void deleteShader(int shaderID) {
+        GL20.glDeleteShader(shaderID);
+    }
+
+    @Override
+    public void bindAttribLocation(int programID, int attribute, String variableName) {
+        GL20.glBindAttribLocation(programID, attribute, variableName);
+    }
+
+    @Override
+    public boolean linkProgram(int programID, int vertexShaderID, int fragmentShaderID, boolean retrievable) {
+        GL20.glAttachShader(programID, vertexShaderID);
+        GL20.glAttachShader(programID, fragmentShaderID);
+        if (retrievable) {
+            ARBGetProgramBinary.glProgramParameteri(programID,
+                    ARBGetProgramBinary.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL11.GL_TRUE);
+        }
+        GL20.glLinkProgram(programID);
+        GL20.glValidateProgram(programID);
+        GL20.glDetachShader(programID, vertexShaderID);
+        GL20.glDetachShader(programID, fragmentShaderID);
+        GL20.glDeleteShader(vertexShaderID);
+        GL20.glDeleteShader(fragmentShaderID);
+        return GL20.glGetProgrami(programID, GL20.GL_LINK_STATUS) != GL11.GL_FALSE;
+    }
+
+    @Override
+    public String getProgramLog(int programID) {
+        return GL20.glGetProgramInfoLog(programID, 500);
+    }
+
+    @Override
+    public ProgramBinary getProgramBinary(int programID) {
+        int length = GL20.glGetProgrami(programID, ARBGetProgramBinary.GL_PROGRAM_BINARY_LENGTH);
+        if (length <= 0) {
+            return null;
+        }
+        ByteBuffer data = BufferUtils.createByteBuffer(length);
+        IntBuffer format = BufferUtils.createIntBuffer(1);
+        ARBGetProgramBinary.glGetProgramBinary(programID, null, format, data);
+        return new ProgramBinary(format.get(0), data);
+    }
+
+    @Override
+    public boolean loadProgramBinary(int programID, ProgramBinary binary) {
+        ARBGetProgramBinary.glProgramBinary(programID, binary.getFormat(), binary.getData());
+        // A rejected binary is not an OpenGL error, it just leaves the program unlinked.
+        return GL20.glGetProgrami(programID, GL20.GL_LINK_STATUS) != GL11.GL_FALSE;
+    }
+
+    @Override
+    public void deleteProgram(int programID) {
+        GL20.glDeleteProgram(programID);
+    }
+}
@@ -0,0 +1,114 @@
+package shaders;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This interface contains every OpenGL call the shader program cache needs in order to
+ * compile, link, save and restore shader programs.
+ * The real game uses GLShaderBackend. Because the cache only ever talks to this interface,
+ * a stub implementation can be used to run the cache without an OpenGL context.
+ */
+public interface ShaderBackend {
+
+    /**
+     * This method returns a string describing the driver and the graphics card
+     * (vendor, renderer and version). A program binary is only valid for the driver
+     * that created it, so this string is part of the cache key.
+     */
+    String getDriverString();
+
+    /**
+     * This method returns true if linked programs can be saved and restored as binaries.
+     */
+    boolean supportsProgramBinary();
+
+    /**
+     * This method creates an empty shader program and returns its ID.
+     */
+    int createProgram();
+
+    /**
+     * This method compiles the given source as a shader of the given type
+     * (GL_VERTEX_SHADER or GL_FRAGMENT_SHADER) and returns the shader's ID.
+     */
+    int compileShader(int type, CharSequence source);
+
+    /**
+     * This method returns true if the shader was compiled successfully.
+     */
+    boolean isCompiled(int shaderID);
+
+    /**
+     * This method returns the compile log of a shader and deletes the shader.
+     * It is used when a shader fails to compile.
+     */
+    String getShaderLogAndDelete(int shaderID);
+
+    /**
+     * This method deletes a shader. It is used when a shader that did compile is no longer
+     * needed because the other one failed to.
+     */
+    void deleteShader(int shaderID);
+
+    /**
+     * This method binds a vertex attribute index to a variable name in the program.
+     * It must be called before the program is linked.
+     */
+    void bindAttribLocation(int programID, int attribute, String variableName);
+
+    /**
+     * This method attaches the shaders to the program, links it and then detaches and deletes
+     * the shaders, since a linked program no longer needs them. The shaders are deleted even if
+     * linking fails.
+     * If retrievable is true the driver is asked to keep the program's binary so that it
+     * can be saved afterwards.
+     * It returns true if the program was linked successfully.
+     */
+    boolean linkProgram(int programID, int vertexShaderID, int fragmentShaderID, boolean retrievable);
+
+    /**
+     * This method returns the link log of a program. It is used when a program fails to link.
+     */
+    String getProgramLog(int programID);
+
+    /**
+     * This method reads back the binary of a linked program.
+     * It returns null if the driver can't give us one.
+     */
+    ProgramBinary getProgramBinary(int programID);
+
+    /**
+     * This method loads a previously saved binary into the program.
+     * It returns false if the driver rejects it (for example after a driver update),
+     * in which case the program has to be compiled from source.
+     */
+    boolean loadProgramBinary(int programID, ProgramBinary binary);
+
+    /**
+     * This method deletes a program.
+     */
+    void deleteProgram(int programID);
+
+    /**
+     * This class is a linked program's binary along with the driver specific format number
+     * needed to load it back in.
+     */
+    class ProgramBinary {
+
+        private final int format;
+        private final ByteBuffer data;
+
+        public ProgramBinary(int format, ByteBuffer data) {
+            this.format = format;
+            this.data = data;
+        }
+
+        public int getFormat() {
+            return format;
+        }
+
+        public ByteBuffer getData() {
+            return data;
+        }
+    }
+}
@@ -1,47 +1,83 @@
 package shaders;
 
 import org.lwjgl.BufferUtils;
-import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.FloatBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * This class represents a generic shader program that contains all the necessary methods
  * needed in a regular shader program.
- * A shader Program has a program ID, a vertex shader ID and a fragment shader ID.
+ * A shader Program has a program ID. The program is created through the shader program cache,
+ * so a program that was linked on a previous launch is loaded from its saved binary.
  */
 public abstract class ShaderProgram {
 
+    // The folder the linked program binaries are saved in.
+    private static final String CACHE_FOLDER = "shaderCache";
+
+    // One cache is shared by all the shader programs.
+    private static ShaderProgramCache programCache;
+
     private int programID;
-    private int vertexShaderID;
-    private int fragmentShaderID;
+    // The attributes bound by bindAttributes(). They are applied when the program is linked.
+    private Map<Integer, String> attributes = new HashMap<Integer, String>();
     // This buffer is to be reused every time we load a matrix into a uniform variable.
     private static FloatBuffer matrixBuffer = BufferUtils.createFloatBuffer(16);
 
     /**
-     * This constructor takes in the vertex and fragment shader files and loads them into OpenGL
-     * and gets their ID numbers. It then creates a shader program in OpenGL and binds the two
-     * shaders in OpenGL to the new shader program.
-     * This allows them to cooperate and be linked together.
+     * This constructor takes in the vertex and fragment shader files and reads them in.
+     * It then gets a linked shader program for them from the shader program cache.
      */
     public ShaderProgram(String vertexFile,String fragmentFile){
-        vertexShaderID = loadShader(vertexFile,GL20.GL_VERTEX_SHADER);
-        fragmentShaderID = loadShader(fragmentFile,GL20.GL_FRAGMENT_SHADER);
-        programID = GL20.glCreateProgram();
-        GL20.glAttachShader(programID, vertexShaderID);
-        GL20.glAttachShader(programID, fragmentShaderID);
+        this(vertexFile, fragmentFile, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * This constructor also takes in a map of defines. Each one is added to the top of both
+     * shaders as "#define NAME VALUE", which lets one shader file be used for several variants.
+     */
+    public ShaderProgram(String vertexFile, String fragmentFile, Map<String, String> defines){
+        String vertexSource = loadShaderSource(vertexFile, defines);
+        String fragmentSource = loadShaderSource(fragmentFile, defines);
         bindAttributes();
-        GL20.glLinkProgram(programID);
-        GL20.glValidateProgram(programID);
+        try {
+            programID = getProgramCache().loadProgram(vertexSource, fragmentSource, defines, attributes);
+        } catch (IllegalStateException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Could not create shader program from " + vertexFile + " and " + fragmentFile);
+            System.exit(-1);
+        }
         getAllUniformLocations();
     }
 
+    /**
+     * This method returns the shader program cache, creating it the first time it is needed.
+     */
+    public static ShaderProgramCache getProgramCache(){
+        if (programCache == null) {
+            programCache = new ShaderProgramCache(new GLShaderBackend(), new File(CACHE_FOLDER));
+        }
+        return programCache;
+    }
+
+    /**
+     * This method replaces the shader program cache. It must be called before any shader program is created.
+     */
+    public static void setProgramCache(ShaderProgramCache cache){
+        programCache = cache;
+    }
+
     /**
      * This method makes sure all the uniform locations are found.
      */
@@ -75,10 +111,7 @@ public abstract class ShaderProgram {
      */
     public void cleanUp(){
         stop();
-        GL20.glDetachShader(programID, vertexShaderID);
-        GL20.glDetachShader(programID, fragmentShaderID);
-        GL20.glDeleteShader(vertexShaderID);
-        GL20.glDeleteShader(fragmentShaderID);
+        // The shaders themselves were already deleted once the program was linked.
         GL20.glDeleteProgram(programID);
     }
 
@@ -93,9 +126,10 @@ public abstract class ShaderProgram {
      * This method takes in the attribute list number in the VAO that we want to bind
      * and it takes in the variable name of the variable in the shader code.
      * Essentially binds the Vertex data in the VAO to the input of the shader code.
+     * The binding is remembered and applied when the program is linked.
      */
     protected void bindAttribute(int attribute, String variableName){
-        GL20.glBindAttribLocation(programID, attribute, variableName);
+        attributes.put(attribute, variableName);
     }
 
     /**
@@ -106,6 +140,14 @@ public abstract class ShaderProgram {
         GL20.glUniform1f(location, value);
     }
 
+    /**
+     * This method takes the location of a uniform variable and stores
+     * an int value into that variable. It is used to tell samplers which texture unit to read.
+     */
+    protected void loadInt(int location, int value){
+        GL20.glUniform1i(location, value);
+    }
+
     /**
      * This method takes the location of a uniform variable and stores
      * a vector value into that variable.
@@ -114,6 +156,29 @@ public abstract class ShaderProgram {
         GL20.glUniform3f(location,vector.x,vector.y,vector.z);
     }
 
+    /**
+     * This method takes the location of a uniform variable and stores
+     * a 2D vector value into that variable.
+     */
+    protected void loadVector(int location, Vector2f vector){
+        GL20.glUniform2f(location,vector.x,vector.y);
+    }
+
+    /**
+     * This method does the same as the one above, without needing a Vector2f.
+     * It is used for values loaded before every draw call.
+     */
+    protected void loadVector(int location, float x, float y){
+        GL20.glUniform2f(location, x, y);
+    }
+
+    /**
+     * This method does the same for a 3D vector.
+     */
+    protected void loadVector(int location, float x, float y, float z){
+        GL20.glUniform3f(location, x, y, z);
+    }
+
     /**
      * This method takes the location of a uniform variable and stores a boolean
      * value into that variable. GLSL doesn't have booleans so we us 0 (false) and 1 (true).
@@ -137,33 +202,50 @@ public abstract class ShaderProgram {
     }
 
     /**
-     * This method takes in the name of a shader program file and an type telling it whether the file
-     * is a vertex shader or fragment shader. The method is essentially a file reading method that
-     * takes all the important data from the shader files and loads it into OpenGL for use.
-     * It returns the ID number of the newly created shader.
+     * This method takes the location of a uniform variable and stores a matrix that is
+     * already in a buffer, from the buffer's position, into that variable.
+     */
+    protected void loadMatrix(int location, FloatBuffer matrix){
+        GL20.glUniformMatrix4(location, false, matrix);
+    }
+
+    /**
+     * This method takes in the name of a shader program file and a map of defines.
+     * The method is essentially a file reading method that reads the shader code and adds the
+     * defines straight after the #version line.
+     * It returns the preprocessed shader code.
      */
-    private static int loadShader(String file, int type){
+    private static String loadShaderSource(String file, Map<String, String> defines){
         StringBuilder shaderSource = new StringBuilder();
         try{
             BufferedReader reader = new BufferedReader(new FileReader(file));
             String line;
+            boolean definesAdded = defines.isEmpty();
             while((line = reader.readLine())!=null){
                 shaderSource.append(line).append("//\n");
+                if(!definesAdded && line.trim().startsWith("#version")){
+                    appendDefines(shaderSource, defines);
+                    definesAdded = true;
+                }
             }
             reader.close();
+            if(!definesAdded){
+                // There is no #version line, so the defines go at the very top.
+                StringBuilder withDefines = new StringBuilder();
+                appendDefines(withDefines, defines);
+                shaderSource.insert(0, withDefines);
+            }
         }catch(IOException e){
             e.printStackTrace();
             System.exit(-1);
         }
-        int shaderID = GL20.glCreateShader(type);
-        GL20.glShaderSource(shaderID, shaderSource);
-        GL20.glCompileShader(shaderID);
-        if(GL20.glGetShader(shaderID, GL20.GL_COMPILE_STATUS )== GL11.GL_FALSE){
-            System.out.println(GL20.glGetShaderInfoLog(shaderID, 500));
-            System.err.println("Could not compile shader!");
-            System.exit(-1);
+        return shaderSource.toString();
+    }
+
+    private static void appendDefines(StringBuilder source, Map<String, String> defines){
+        for(Map.Entry<String, String> define : defines.entrySet()){
+            source.append("#define ").append(define.getKey()).append(' ').append(define.getValue()).append("\n");
         }
-        return shaderID;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,252 @@
+package shaders;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL20;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class creates linked shader programs and keeps a cache of their binaries on disk.
+ * Every program is identified by a hash of its preprocessed sources, its defines, its
+ * attribute bindings and the driver string. If a binary with that hash exists it is loaded
+ * instead of compiling the shaders again. If there is no binary, or the driver rejects it,
+ * the program is compiled and linked from source and its binary is saved for the next launch.
+ */
+public class ShaderProgramCache {
+
+    // Written at the start of every cache file so we never load some other file by mistake.
+    private static final int MAGIC = 0x53484452;
+    private static final String FILE_EXTENSION = ".bin";
+
+    private final ShaderBackend backend;
+    private final File directory;
+    private String driverString;
+    private Boolean binarySupported;
+
+    // Statistics, mostly to check that the cache is actually doing something.
+    private int hits = 0;
+    private int misses = 0;
+    private int rejected = 0;
+
+    /**
+     * Constructor. Takes in the backend that talks to OpenGL and the folder the binaries are saved in.
+     * Passing in a null folder turns the disk cache off and every program is compiled from source.
+     */
+    public ShaderProgramCache(ShaderBackend backend, File directory) {
+        this.backend = backend;
+        this.directory = directory;
+    }
+
+    /**
+     * This method returns the ID of a linked program made from the given preprocessed sources.
+     * The attribute bindings map attribute numbers to variable names in the shader code.
+     * It throws an IllegalStateException if the shaders can't be compiled or linked.
+     */
+    public int loadProgram(String vertexSource, String fragmentSource, Map<String, String> defines,
+                           Map<Integer, String> attributes) {
+        boolean useBinaries = directory != null && isBinarySupported();
+        String key = null;
+        File file = null;
+        int programID = backend.createProgram();
+
+        if (useBinaries) {
+            key = createKey(getDriverString(), vertexSource, fragmentSource, defines, attributes);
+            file = new File(directory, key + FILE_EXTENSION);
+            ShaderBackend.ProgramBinary binary = readBinary(file);
+            if (binary != null) {
+                if (backend.loadProgramBinary(programID, binary)) {
+                    hits++;
+                    return programID;
+                }
+                // The driver didn't accept the binary, so we fall through and compile it again.
+                rejected++;
+                file.delete();
+                backend.deleteProgram(programID);
+                programID = backend.createProgram();
+            }
+        }
+        misses++;
+
+        int vertexShaderID;
+        int fragmentShaderID;
+        try {
+            vertexShaderID = compile(GL20.GL_VERTEX_SHADER, vertexSource);
+        } catch (IllegalStateException e) {
+            backend.deleteProgram(programID);
+            throw e;
+        }
+        try {
+            fragmentShaderID = compile(GL20.GL_FRAGMENT_SHADER, fragmentSource);
+        } catch (IllegalStateException e) {
+            // The vertex shader compiled, so it has to be deleted here as nothing else will.
+            backend.deleteShader(vertexShaderID);
+            backend.deleteProgram(programID);
+            throw e;
+        }
+        for (Map.Entry<Integer, String> attribute : attributes.entrySet()) {
+            backend.bindAttribLocation(programID, attribute.getKey(), attribute.getValue());
+        }
+        // linkProgram() deletes both shaders whether or not the program links.
+        if (!backend.linkProgram(programID, vertexShaderID, fragmentShaderID, useBinaries)) {
+            String log = backend.getProgramLog(programID);
+            backend.deleteProgram(programID);
+            throw new IllegalStateException("Could not link shader program!\n" + log);
+        }
+
+        if (useBinaries) {
+            ShaderBackend.ProgramBinary binary = backend.getProgramBinary(programID);
+            if (binary != null) {
+                writeBinary(file, binary);
+            }
+        }
+        return programID;
+    }
+
+    /**
+     * GETTERS
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    public int getRejected() {
+        return rejected;
+    }
+
+    /**
+     * This method creates the cache key. It is the SHA-256 hash, in hex, of everything
+     * that has an effect on the linked program. The defines and attributes are added in
+     * sorted order so the key doesn't depend on map iteration order.
+     */
+    public static String createKey(String driverString, String vertexSource, String fragmentSource,
+                                   Map<String, String> defines, Map<Integer, String> attributes) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        update(digest, driverString);
+        update(digest, vertexSource);
+        update(digest, fragmentSource);
+        for (Map.Entry<String, String> define : new TreeMap<String, String>(defines).entrySet()) {
+            update(digest, define.getKey() + "=" + define.getValue());
+        }
+        for (Map.Entry<Integer, String> attribute : new TreeMap<Integer, String>(attributes).entrySet()) {
+            update(digest, attribute.getKey() + "=" + attribute.getValue());
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * This method adds a string to the hash. The length goes first so that
+     * two different splits of the same text don't give the same hash.
+     */
+    private static void update(MessageDigest digest, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update((byte) (bytes.length >>> 24));
+        digest.update((byte) (bytes.length >>> 16));
+        digest.update((byte) (bytes.length >>> 8));
+        digest.update((byte) bytes.length);
+        digest.update(bytes);
+    }
+
+    private int compile(int type, String source) {
+        int shaderID = backend.compileShader(type, source);
+        if (!backend.isCompiled(shaderID)) {
+            throw new IllegalStateException("Could not compile shader!\n" + backend.getShaderLogAndDelete(shaderID));
+        }
+        return shaderID;
+    }
+
+    private String getDriverString() {
+        if (driverString == null) {
+            driverString = backend.getDriverString();
+        }
+        return driverString;
+    }
+
+    private boolean isBinarySupported() {
+        if (binarySupported == null) {
+            binarySupported = backend.supportsProgramBinary();
+        }
+        return binarySupported;
+    }
+
+    /**
+     * This method reads a cached binary from the given file.
+     * It returns null if the file doesn't exist or isn't a valid cache file.
+     */
+    private static ShaderBackend.ProgramBinary readBinary(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            int format = in.readInt();
+            int length = in.readInt();
+            if (length <= 0 || length != file.length() - 12) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            ByteBuffer data = BufferUtils.createByteBuffer(length);
+            data.put(bytes);
+            data.flip();
+            return new ShaderBackend.ProgramBinary(format, data);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * This method saves a binary to the given file. Failing to save isn't fatal,
+     * the program will just be compiled from source again next time.
+     */
+    private static void writeBinary(File file, ShaderBackend.ProgramBinary binary) {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            return;
+        }
+        ByteBuffer data = binary.getData().duplicate();
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        // Written to a temporary file first so a crash can't leave half a binary behind.
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+            out.writeInt(MAGIC);
+            out.writeInt(binary.getFormat());
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+            return;
+        }
+        file.delete();
+        if (!temp.renameTo(file)) {
+            temp.delete();
+        }
+    }
+}
@@ -3,9 +3,13 @@ package shaders;
 import entities.Camera;
 import entities.Light;
 import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
 import toolbox.Maths;
 
+import java.nio.FloatBuffer;
+import java.util.Map;
+
 /**
  * This class is an implementation of the Shader Program.
  * It is used to create all our static models.
@@ -28,12 +32,27 @@ public class StaticShader extends ShaderProgram{
     private int location_reflectivity;
     private int location_useFakeLighting;
     private int location_skyColour;
+    private int location_modelTexture;
+    private int location_clusterGrid;
+    private int location_clusterLightIndices;
+    private int location_clusterLights;
+    private int location_clusterCounts;
+    private int location_clusterTileSize;
+    private int location_clusterDepthScale;
+
+    // Reused by loadViewMatrix(Camera) so it doesn't create a matrix every frame.
+    private final Matrix4f viewMatrix = new Matrix4f();
 
     // Constructor from ShaderProgram.
     public StaticShader() {
         super(VERTEX_FILE, FRAGMENT_FILE);
     }
 
+    // Constructor for a variant of the shader, made by passing in defines (e.g. CLUSTERED_LIGHTING, BAKED_LIGHTING).
+    public StaticShader(Map<String, String> defines) {
+        super(VERTEX_FILE, FRAGMENT_FILE, defines);
+    }
+
     /**
      * This method binds our various uniform variables to attribute lists
      * in our VAO.
@@ -43,6 +62,7 @@ public class StaticShader extends ShaderProgram{
         super.bindAttribute(0, "position");
         super.bindAttribute(1, "textureCoordinates");
         super.bindAttribute(2, "normal");
+        super.bindAttribute(3, "bakedLighting");
     }
 
     /**
@@ -59,6 +79,36 @@ public class StaticShader extends ShaderProgram{
         location_reflectivity = super.getUniformLocation("reflectivity");
         location_useFakeLighting = super.getUniformLocation("useFakeLighting");
         location_skyColour = super.getUniformLocation("skyColour");
+        location_modelTexture = super.getUniformLocation("modelTexture");
+        location_clusterGrid = super.getUniformLocation("clusterGrid");
+        location_clusterLightIndices = super.getUniformLocation("clusterLightIndices");
+        location_clusterLights = super.getUniformLocation("clusterLights");
+        location_clusterCounts = super.getUniformLocation("clusterCounts");
+        location_clusterTileSize = super.getUniformLocation("clusterTileSize");
+        location_clusterDepthScale = super.getUniformLocation("clusterDepthScale");
+    }
+
+    /**
+     * This method tells each sampler which texture unit to read from. The model's texture is
+     * on unit 0, and the clustered lighting buffer textures on the given units.
+     */
+    public void connectTextureUnits(int gridUnit, int indexUnit, int lightUnit){
+        super.loadInt(location_modelTexture, 0);
+        super.loadInt(location_clusterGrid, gridUnit);
+        super.loadInt(location_clusterLightIndices, indexUnit);
+        super.loadInt(location_clusterLights, lightUnit);
+    }
+
+    /**
+     * This method loads the size of the cluster grid into the shader, so that each pixel can
+     * work out which cluster it is in. The slices are spaced exponentially between the near and far planes.
+     */
+    public void loadClusterParameters(int clustersX, int clustersY, int clustersZ, float tileWidth,
+                                      float tileHeight, float nearPlane, float farPlane){
+        super.loadVector(location_clusterCounts, new Vector3f(clustersX, clustersY, clustersZ));
+        super.loadVector(location_clusterTileSize, new Vector2f(tileWidth, tileHeight));
+        float scale = (float) (clustersZ / Math.log(farPlane / nearPlane));
+        super.loadVector(location_clusterDepthScale, new Vector2f(scale, (float) Math.log(nearPlane) * scale));
     }
 
     /**
@@ -91,6 +141,13 @@ public class StaticShader extends ShaderProgram{
         super.loadMatrix(location_transformationMatrix, matrix);
     }
 
+    /**
+     * This method loads a transformation matrix that is already stored in a buffer, such as a draw command's.
+     */
+    public void loadTransformationMatrix(FloatBuffer matrix){
+        super.loadMatrix(location_transformationMatrix, matrix);
+    }
+
     /**
      * This method stores(loads) a light position vector and colour vector into our lightPosition
      * and lightColour uniform variables in our shader code.
@@ -105,7 +162,13 @@ public class StaticShader extends ShaderProgram{
      * It turns the camera into a matrix, and then loads that matrix into the variable.
      */
     public void loadViewMatrix(Camera camera){
-        Matrix4f viewMatrix = Maths.createViewMatrix(camera);
+        loadViewMatrix(Maths.createViewMatrix(camera, viewMatrix));
+    }
+
+    /**
+     * This method loads a view matrix that has already been worked out into the viewMatrix uniform variable.
+     */
+    public void loadViewMatrix(Matrix4f viewMatrix){
         super.loadMatrix(location_viewMatrix, viewMatrix);
     }
 
@@ -0,0 +1,17 @@
+package shaders;
+
+import java.util.Collections;
+
+/**
+ * This class is the shader the depth prepass draws terrain with. It is the terrain vertex shader
+ * with DEPTH_ONLY defined, so the vertices are placed and morphed by exactly the same code as in
+ * the colour pass but nothing is worked out for lighting, and a fragment shader that does nothing.
+ */
+public class TerrainDepthShader extends TerrainShader{
+
+    private static final String DEPTH_ONLY = "DEPTH_ONLY";
+
+    public TerrainDepthShader() {
+        super(DepthShader.FRAGMENT_FILE, Collections.singletonMap(DEPTH_ONLY, "1"));
+    }
+}
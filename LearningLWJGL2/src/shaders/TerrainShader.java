@@ -3,9 +3,12 @@ package shaders;
 import entities.Camera;
 import entities.Light;
 import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
 import toolbox.Maths;
 
+import java.util.Map;
+
 /**
  * This class is an implementation of the Shader Program.
  * It is used to create all our static models.
@@ -18,8 +21,10 @@ public class TerrainShader extends ShaderProgram{
     private static final String VERTEX_FILE = "src/shaders/terrainVertexShader.txt";
     private static final String FRAGMENT_FILE = "src/shaders/terrainFragmentShader.txt";
 
+    // The texture unit the tile's height map is bound to. Units 1 to 3 are taken by clustered lighting.
+    public static final int HEIGHT_MAP_TEXTURE_UNIT = 4;
+
     // These variables hole the positions of their respective uniform variables.
-    private int location_transformationMatrix;
     private int location_projectionMatrix;
     private int location_viewMatrix;
     private int location_lightPosition;
@@ -27,12 +32,39 @@ public class TerrainShader extends ShaderProgram{
     private int location_shineDamper;
     private int location_reflectivity;
     private int location_skyColour;
+    private int location_modelTexture;
+    private int location_clusterGrid;
+    private int location_clusterLightIndices;
+    private int location_clusterLights;
+    private int location_clusterCounts;
+    private int location_clusterTileSize;
+    private int location_clusterDepthScale;
+    private int location_tileOffset;
+    private int location_tileSize;
+    private int location_heightRange;
+    private int location_heightMap;
+    private int location_patch;
+    private int location_patchQuads;
+    private int location_morphRange;
+
+    // Reused by loadViewMatrix(Camera) so it doesn't create a matrix every frame.
+    private final Matrix4f viewMatrix = new Matrix4f();
 
     // Constructor from ShaderProgram.
     public TerrainShader() {
         super(VERTEX_FILE, FRAGMENT_FILE);
     }
 
+    // Constructor for a variant of the shader, made by passing in defines (e.g. CLUSTERED_LIGHTING).
+    public TerrainShader(Map<String, String> defines) {
+        super(VERTEX_FILE, FRAGMENT_FILE, defines);
+    }
+
+    // Constructor for a variant with its own fragment shader, such as TerrainDepthShader.
+    protected TerrainShader(String fragmentFile, Map<String, String> defines) {
+        super(VERTEX_FILE, fragmentFile, defines);
+    }
+
     /**
      * This method binds our various uniform variables to attribute lists
      * in our VAO.
@@ -40,8 +72,6 @@ public class TerrainShader extends ShaderProgram{
     @Override
     protected void bindAttributes() {
         super.bindAttribute(0, "position");
-        super.bindAttribute(1, "textureCoordinates");
-        super.bindAttribute(2, "normal");
     }
 
     /**
@@ -49,7 +79,6 @@ public class TerrainShader extends ShaderProgram{
      */
     @Override
     protected void getAllUniformLocations() {
-        location_transformationMatrix = super.getUniformLocation("transformationMatrix");
         location_projectionMatrix = super.getUniformLocation("projectionMatrix");
         location_viewMatrix = super.getUniformLocation("viewMatrix");
         location_lightPosition = super.getUniformLocation("lightPosition");
@@ -57,6 +86,50 @@ public class TerrainShader extends ShaderProgram{
         location_shineDamper = super.getUniformLocation("shineDamper");
         location_reflectivity = super.getUniformLocation("reflectivity");
         location_skyColour = super.getUniformLocation("skyColour");
+        location_modelTexture = super.getUniformLocation("modelTexture");
+        location_clusterGrid = super.getUniformLocation("clusterGrid");
+        location_clusterLightIndices = super.getUniformLocation("clusterLightIndices");
+        location_clusterLights = super.getUniformLocation("clusterLights");
+        location_clusterCounts = super.getUniformLocation("clusterCounts");
+        location_clusterTileSize = super.getUniformLocation("clusterTileSize");
+        location_clusterDepthScale = super.getUniformLocation("clusterDepthScale");
+        location_tileOffset = super.getUniformLocation("tileOffset");
+        location_tileSize = super.getUniformLocation("tileSize");
+        location_heightRange = super.getUniformLocation("heightRange");
+        location_heightMap = super.getUniformLocation("heightMap");
+        location_patch = super.getUniformLocation("patch");
+        location_patchQuads = super.getUniformLocation("patchQuads");
+        location_morphRange = super.getUniformLocation("morphRange");
+    }
+
+    /**
+     * This method tells the height map sampler which texture unit to read from.
+     */
+    public void connectHeightMap(){
+        super.loadInt(location_heightMap, HEIGHT_MAP_TEXTURE_UNIT);
+    }
+
+    /**
+     * This method tells each sampler which texture unit to read from. The model's texture is
+     * on unit 0, and the clustered lighting buffer textures on the given units.
+     */
+    public void connectTextureUnits(int gridUnit, int indexUnit, int lightUnit){
+        super.loadInt(location_modelTexture, 0);
+        super.loadInt(location_clusterGrid, gridUnit);
+        super.loadInt(location_clusterLightIndices, indexUnit);
+        super.loadInt(location_clusterLights, lightUnit);
+    }
+
+    /**
+     * This method loads the size of the cluster grid into the shader, so that each pixel can
+     * work out which cluster it is in. The slices are spaced exponentially between the near and far planes.
+     */
+    public void loadClusterParameters(int clustersX, int clustersY, int clustersZ, float tileWidth,
+                                      float tileHeight, float nearPlane, float farPlane){
+        super.loadVector(location_clusterCounts, new Vector3f(clustersX, clustersY, clustersZ));
+        super.loadVector(location_clusterTileSize, new Vector2f(tileWidth, tileHeight));
+        float scale = (float) (clustersZ / Math.log(farPlane / nearPlane));
+        super.loadVector(location_clusterDepthScale, new Vector2f(scale, (float) Math.log(nearPlane) * scale));
     }
 
     /**
@@ -75,10 +148,24 @@ public class TerrainShader extends ShaderProgram{
     }
 
     /**
-     * This method stores(loads) a matrix into our transformationMatrix uniform variable.
+     * This method loads where the tile being drawn is: the world x and z of its corner, its size,
+     * and the heights its height map's 0 and 1 stand for.
      */
-    public void loadTransformationMatrix(Matrix4f matrix){
-        super.loadMatrix(location_transformationMatrix, matrix);
+    public void loadTile(float x, float z, float size, float minHeight, float maxHeight){
+        super.loadVector(location_tileOffset, x, z);
+        super.loadFloat(location_tileSize, size);
+        super.loadVector(location_heightRange, minHeight, maxHeight - minHeight);
+    }
+
+    /**
+     * This method loads which part of the tile is being drawn: the x and z of the patch's corner
+     * from the tile's corner, its size, the number of squares along its grid's side, and the
+     * distances over which the grid morphs into the coarser one (TerrainLod.NO_MORPH for neither).
+     */
+    public void loadPatch(float x, float z, float size, int quads, float morphStart, float morphEnd){
+        super.loadVector(location_patch, x, z, size);
+        super.loadFloat(location_patchQuads, quads);
+        super.loadVector(location_morphRange, morphStart, morphEnd);
     }
 
     /**
@@ -95,7 +182,13 @@ public class TerrainShader extends ShaderProgram{
      * It turns the camera into a matrix, and then loads that matrix into the variable.
      */
     public void loadViewMatrix(Camera camera){
-        Matrix4f viewMatrix = Maths.createViewMatrix(camera);
+        loadViewMatrix(Maths.createViewMatrix(camera, viewMatrix));
+    }
+
+    /**
+     * This method loads a view matrix that has already been worked out into the viewMatrix uniform variable.
+     */
+    public void loadViewMatrix(Matrix4f viewMatrix){
         super.loadMatrix(location_viewMatrix, viewMatrix);
     }
 
@@ -0,0 +1,106 @@
+package simulation;
+
+/**
+ * This class turns real time into a whole number of fixed length simulation ticks.
+ *
+ * The time passed since the last call is added to an accumulator, and every full tick's worth
+ * of it is handed out as a tick to run. What is left over is carried to the next call, and as
+ * a fraction of a tick it says how far between the last two ticks the present moment is,
+ * which is what rendering uses to interpolate.
+ *
+ * If the ticks take longer to run than the time they simulate, the accumulator would grow a
+ * little more every call and the simulation would never catch up. So no more than
+ * maxTicksPerUpdate ticks are handed out at once, and the time beyond that is dropped: the
+ * simulation slows down for a moment instead of locking up.
+ *
+ * This class does not use OpenGL or a clock of its own, so it can be fed made up times.
+ */
+public class FixedTimestep {
+
+    private final long tickPeriod;
+    private final int maxTicksPerUpdate;
+
+    private long lastTime = 0;
+    private long accumulator = 0;
+
+    // Statistics.
+    private long tickCount = 0;
+    private long droppedTicks = 0;
+    private int cappedUpdates = 0;
+
+    /**
+     * Constructor. Takes in how many ticks to run a second, and the most to run in one update.
+     */
+    public FixedTimestep(int tickRate, int maxTicksPerUpdate) {
+        if (tickRate <= 0 || maxTicksPerUpdate <= 0) {
+            throw new IllegalArgumentException("The tick rate and the max ticks per update must be above 0!");
+        }
+        this.tickPeriod = 1000000000L / tickRate;
+        this.maxTicksPerUpdate = maxTicksPerUpdate;
+    }
+
+    /**
+     * This method takes in the current time from System.nanoTime and returns how many ticks
+     * should be run now. The first call only starts the clock and returns 0.
+     */
+    public int advance(long now) {
+        if (lastTime == 0) {
+            lastTime = now;
+            return 0;
+        }
+        accumulator += Math.max(0, now - lastTime);
+        lastTime = now;
+
+        long ticks = accumulator / tickPeriod;
+        if (ticks > maxTicksPerUpdate) {
+            droppedTicks += ticks - maxTicksPerUpdate;
+            cappedUpdates++;
+            accumulator -= (ticks - maxTicksPerUpdate) * tickPeriod;
+            ticks = maxTicksPerUpdate;
+        }
+        accumulator -= ticks * tickPeriod;
+        tickCount += ticks;
+        return (int) ticks;
+    }
+
+    /**
+     * This method returns how far the present moment is between the last tick and the next, from 0 to 1.
+     */
+    public float getAlpha() {
+        return (float) accumulator / tickPeriod;
+    }
+
+    /**
+     * This method returns the time the last tick simulated up to, in System.nanoTime terms.
+     */
+    public long getLastTickTime() {
+        return lastTime - accumulator;
+    }
+
+    /**
+     * GETTERS
+     */
+    public long getTickPeriod() {
+        return tickPeriod;
+    }
+
+    public float getTickSeconds() {
+        return tickPeriod / 1000000000f;
+    }
+
+    public int getMaxTicksPerUpdate() {
+        return maxTicksPerUpdate;
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    public long getDroppedTicks() {
+        return droppedTicks;
+    }
+
+    public int getCappedUpdates() {
+        return cappedUpdates;
+    }
+}
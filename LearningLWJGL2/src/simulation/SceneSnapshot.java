@@ -0,0 +1,247 @@
+package simulation;
+
+import entities.Camera;
+import entities.Entity;
+import entities.Light;
+
+import java.util.List;
+
+/**
+ * This class is a copy of everything that moves in the scene at the end of one simulation tick:
+ * the camera, the lights and the transforms of the simulated entities.
+ *
+ * The simulation thread fills one in after every tick and publishes it, and the render thread
+ * copies it onto its own camera, lights and entities before drawing. That way the two threads
+ * never touch the same objects. All the values are kept in plain float arrays which only grow,
+ * so taking a snapshot allocates nothing once the scene has stopped growing.
+ *
+ * The camera and entities are also kept as they were one tick earlier, so rendering can
+ * blend between the last two ticks. It draws the scene as it was at the moment being shown,
+ * minus one tick, so the motion is smooth whether the frames come faster or slower than ticks.
+ */
+public class SceneSnapshot {
+
+    // Every entity is stored as position (3), rotation (3) and scale.
+    private static final int ENTITY_FLOATS = 7;
+    // Every light is stored as position (3), colour (3) and radius.
+    private static final int LIGHT_FLOATS = 7;
+
+    private long tick = -1;
+    // When the snapshot was published, and when the input the tick used was read, from System.nanoTime.
+    private long publishTime;
+    private long inputTime;
+    // The moment the tick simulated up to, and the length of a tick, in nanoseconds.
+    private long tickTime;
+    private long tickPeriod = 1;
+
+    private final float[] camera = new float[6];
+    private final float[] previousCamera = new float[6];
+
+    private float[] lights = new float[0];
+    private int lightCount = 0;
+    private float[] entities = new float[0];
+    private float[] previousEntities = new float[0];
+    private int entityCount = 0;
+
+    /**
+     * This method copies the camera and entities as they are before the last tick into the
+     * snapshot, to interpolate from.
+     */
+    public void capturePrevious(Camera camera, List<Entity> entityList) {
+        storeCamera(camera, previousCamera);
+        previousEntities = storeEntities(entityList, previousEntities);
+    }
+
+    /**
+     * This method copies the camera, lights and entities into the snapshot. If capturePrevious()
+     * wasn't called since the last capture, there is nothing to interpolate from, and the
+     * previous tick is taken to be the same as this one.
+     */
+    public void capture(long tick, long inputTime, long tickTime, long tickPeriod, Camera camera,
+                        List<Light> lightList, List<Entity> entityList, boolean hasPrevious) {
+        this.tick = tick;
+        this.inputTime = inputTime;
+        this.tickTime = tickTime;
+        this.tickPeriod = tickPeriod;
+        storeCamera(camera, this.camera);
+
+        lightCount = lightList.size();
+        if (lights.length < lightCount * LIGHT_FLOATS) {
+            lights = new float[lightCount * LIGHT_FLOATS];
+        }
+        for (int i = 0; i < lightCount; i++) {
+            Light light = lightList.get(i);
+            int base = i * LIGHT_FLOATS;
+            lights[base] = light.getPosition().x;
+            lights[base + 1] = light.getPosition().y;
+            lights[base + 2] = light.getPosition().z;
+            lights[base + 3] = light.getColour().x;
+            lights[base + 4] = light.getColour().y;
+            lights[base + 5] = light.getColour().z;
+            lights[base + 6] = light.getRadius();
+        }
+
+        entityCount = entityList.size();
+        entities = storeEntities(entityList, entities);
+        if (!hasPrevious) {
+            System.arraycopy(this.camera, 0, previousCamera, 0, 6);
+            if (previousEntities.length < entities.length) {
+                previousEntities = new float[entities.length];
+            }
+            System.arraycopy(entities, 0, previousEntities, 0, entityCount * ENTITY_FLOATS);
+        }
+    }
+
+    /**
+     * This method records when the snapshot was handed over to the render thread.
+     */
+    public void setPublishTime(long publishTime) {
+        this.publishTime = publishTime;
+    }
+
+    /**
+     * This method returns how far to blend from the previous tick to this one for a frame shown
+     * at the given time, from 0 to 1. The frame shows the scene one tick in the past, so a
+     * frame drawn right as the tick finishes shows the previous tick.
+     */
+    public float getAlpha(long now) {
+        float alpha = (float) (now - tickTime) / tickPeriod;
+        return Math.max(0, Math.min(alpha, 1));
+    }
+
+    /**
+     * This method moves the given camera to where the snapshot's camera was.
+     */
+    public void applyToCamera(Camera camera) {
+        applyToCamera(camera, 1);
+    }
+
+    /**
+     * This method moves the given camera to the given blend of the last two ticks.
+     */
+    public void applyToCamera(Camera camera, float alpha) {
+        camera.getPosition().set(lerp(previousCamera[0], this.camera[0], alpha),
+                lerp(previousCamera[1], this.camera[1], alpha), lerp(previousCamera[2], this.camera[2], alpha));
+        camera.setPitch(lerpAngle(previousCamera[3], this.camera[3], alpha));
+        camera.setYaw(lerpAngle(previousCamera[4], this.camera[4], alpha));
+        camera.setRoll(lerpAngle(previousCamera[5], this.camera[5], alpha));
+    }
+
+    /**
+     * This method copies the lights onto the given list, which must hold at least as many lights
+     * as the snapshot, in the same order.
+     */
+    public void applyToLights(List<Light> lightList) {
+        for (int i = 0; i < lightCount; i++) {
+            Light light = lightList.get(i);
+            int base = i * LIGHT_FLOATS;
+            light.getPosition().set(lights[base], lights[base + 1], lights[base + 2]);
+            light.getColour().set(lights[base + 3], lights[base + 4], lights[base + 5]);
+            light.setRadius(lights[base + 6]);
+        }
+    }
+
+    /**
+     * This method copies the entity transforms onto the given list, which must hold at least as
+     * many entities as the snapshot, in the same order.
+     */
+    public void applyToEntities(List<Entity> entityList) {
+        applyToEntities(entityList, 1);
+    }
+
+    /**
+     * This method sets the given entities to the given blend of the last two ticks.
+     */
+    public void applyToEntities(List<Entity> entityList, float alpha) {
+        for (int i = 0; i < entityCount; i++) {
+            Entity entity = entityList.get(i);
+            int base = i * ENTITY_FLOATS;
+            entity.setPosition(blendEntity(base, alpha), blendEntity(base + 1, alpha), blendEntity(base + 2, alpha));
+            entity.setRotX(lerpAngle(previousEntities[base + 3], entities[base + 3], alpha));
+            entity.setRotY(lerpAngle(previousEntities[base + 4], entities[base + 4], alpha));
+            entity.setRotZ(lerpAngle(previousEntities[base + 5], entities[base + 5], alpha));
+            entity.setScale(blendEntity(base + 6, alpha));
+        }
+    }
+
+    /**
+     * GETTERS
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    public long getPublishTime() {
+        return publishTime;
+    }
+
+    public long getInputTime() {
+        return inputTime;
+    }
+
+    public long getTickTime() {
+        return tickTime;
+    }
+
+    public int getLightCount() {
+        return lightCount;
+    }
+
+    public int getEntityCount() {
+        return entityCount;
+    }
+
+    private float blendEntity(int index, float alpha) {
+        return lerp(previousEntities[index], entities[index], alpha);
+    }
+
+    private static float lerp(float from, float to, float alpha) {
+        return from + (to - from) * alpha;
+    }
+
+    /**
+     * This method blends two angles in degrees the short way round, so going from 359 to 1
+     * turns 2 degrees forwards instead of 358 backwards.
+     */
+    private static float lerpAngle(float from, float to, float alpha) {
+        float difference = (to - from) % 360;
+        if (difference > 180) {
+            difference -= 360;
+        } else if (difference < -180) {
+            difference += 360;
+        }
+        return from + difference * alpha;
+    }
+
+    private static void storeCamera(Camera camera, float[] dest) {
+        dest[0] = camera.getPosition().x;
+        dest[1] = camera.getPosition().y;
+        dest[2] = camera.getPosition().z;
+        dest[3] = camera.getPitch();
+        dest[4] = camera.getYaw();
+        dest[5] = camera.getRoll();
+    }
+
+    /**
+     * This method stores the entity transforms into dest, or into a bigger array if dest is
+     * too small, and returns the array used.
+     */
+    private static float[] storeEntities(List<Entity> entityList, float[] dest) {
+        int count = entityList.size();
+        if (dest.length < count * ENTITY_FLOATS) {
+            dest = new float[count * ENTITY_FLOATS];
+        }
+        for (int i = 0; i < count; i++) {
+            Entity entity = entityList.get(i);
+            int base = i * ENTITY_FLOATS;
+            dest[base] = entity.getX();
+            dest[base + 1] = entity.getY();
+            dest[base + 2] = entity.getZ();
+            dest[base + 3] = entity.getRotX();
+            dest[base + 4] = entity.getRotY();
+            dest[base + 5] = entity.getRotZ();
+            dest[base + 6] = entity.getScale();
+        }
+        return dest;
+    }
+}
@@ -0,0 +1,168 @@
+package simulation;
+
+import entities.Camera;
+import entities.Entity;
+import entities.Light;
+import renderEngine.FramePacer;
+import toolbox.TripleBuffer;
+
+import java.util.List;
+
+/**
+ * This class runs the simulation on its own thread, at its own rate, apart from rendering.
+ *
+ * The simulation moves in fixed steps of one tick, handed out by a FixedTimestep, so it behaves
+ * the same however fast the frames or the ticks themselves run. If it falls far behind, only
+ * a few ticks are run to catch up and the rest of the time is dropped.
+ *
+ * After every tick the camera, lights and simulated entities are copied into a SceneSnapshot
+ * and published through a TripleBuffer, so the render thread can always pick up the latest
+ * complete tick without locks and without waiting. The simulation owns the objects it is given:
+ * the render thread must only ever see them through the snapshots.
+ *
+ * The keyboard can only be read on the thread that made the display, so the render thread
+ * reads it every frame and passes it in with setInput().
+ */
+public class SimulationThread implements Runnable {
+
+    /**
+     * This is what the simulation does every tick. It is given the last input passed in
+     * and the length of a tick, in seconds, which is always the same.
+     */
+    public interface Step {
+        void update(int input, float delta);
+    }
+
+    private final Step step;
+    private final Camera camera;
+    private final List<Light> lights;
+    private final List<Entity> entities;
+    private final FramePacer pacer;
+    private final FixedTimestep timestep;
+    private final TripleBuffer<SceneSnapshot> snapshots =
+            new TripleBuffer<SceneSnapshot>(new SceneSnapshot(), new SceneSnapshot(), new SceneSnapshot());
+
+    private Thread thread;
+    private volatile boolean running = false;
+    private volatile int input = 0;
+    private volatile long inputTime = System.nanoTime();
+    private volatile long latestTick = 0;
+
+    // Statistics, written by the simulation thread.
+    private volatile long totalUpdateTime = 0;
+    private volatile long longestUpdateTime = 0;
+
+    /**
+     * Constructor. Takes in what to do every tick, the objects it moves, how many ticks to
+     * run a second and the most ticks to run at once when catching up. The starting state is
+     * published straight away as tick 0, so there is always a snapshot to render.
+     */
+    public SimulationThread(Step step, Camera camera, List<Light> lights, List<Entity> entities, int tickRate,
+                            int maxTicksPerUpdate) {
+        this.step = step;
+        this.camera = camera;
+        this.lights = lights;
+        this.entities = entities;
+        this.pacer = new FramePacer(tickRate);
+        this.timestep = new FixedTimestep(tickRate, maxTicksPerUpdate);
+        publish(0, inputTime, System.nanoTime(), false);
+    }
+
+    /**
+     * This method starts the simulation thread.
+     */
+    public void start() {
+        running = true;
+        thread = new Thread(this, "Simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * This method stops the simulation thread and waits for it to finish its tick.
+     */
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        long tick = 0;
+        float tickSeconds = timestep.getTickSeconds();
+        while (running) {
+            long start = System.nanoTime();
+            int ticks = timestep.advance(start);
+            if (ticks > 0) {
+                // The time is read before the input, so the latency measured is never too short.
+                long tickInputTime = inputTime;
+                int tickInput = input;
+                for (int i = 0; i < ticks; i++) {
+                    if (i == ticks - 1) {
+                        snapshots.getWriteSlot().capturePrevious(camera, entities);
+                    }
+                    step.update(tickInput, tickSeconds);
+                    tick++;
+                }
+                publish(tick, tickInputTime, timestep.getLastTickTime(), true);
+                long updateTime = System.nanoTime() - start;
+                totalUpdateTime += updateTime;
+                longestUpdateTime = Math.max(longestUpdateTime, updateTime);
+            }
+
+            pacer.waitForNextFrame();
+            pacer.frameFinished();
+        }
+    }
+
+    /**
+     * This method passes the input for the next tick to the simulation. It is called by the
+     * render thread, which is the only one allowed to read the keyboard.
+     */
+    public void setInput(int input) {
+        this.input = input;
+        this.inputTime = System.nanoTime();
+    }
+
+    /**
+     * This method returns the latest published snapshot. Only the render thread may call it,
+     * and the snapshot is only valid until its next call.
+     */
+    public SceneSnapshot getLatestSnapshot() {
+        return snapshots.acquire();
+    }
+
+    /**
+     * Returns the number of the latest tick published, to see how far behind a snapshot is.
+     */
+    public long getLatestTick() {
+        return latestTick;
+    }
+
+    public String getReport() {
+        long ticks = latestTick;
+        if (ticks == 0) {
+            return "Simulation: no ticks run.";
+        }
+        return String.format("Simulation: %d ticks, average update %.3f ms, longest %.3f ms, %d ticks dropped "
+                        + "in %d updates that fell behind. %s", ticks, totalUpdateTime / 1000000.0 / ticks,
+                longestUpdateTime / 1000000.0, timestep.getDroppedTicks(), timestep.getCappedUpdates(),
+                pacer.getReport());
+    }
+
+    private void publish(long tick, long tickInputTime, long tickTime, boolean hasPrevious) {
+        SceneSnapshot snapshot = snapshots.getWriteSlot();
+        snapshot.capture(tick, tickInputTime, tickTime, timestep.getTickPeriod(), camera, lights, entities,
+                hasPrevious);
+        snapshot.setPublishTime(System.nanoTime());
+        snapshots.publish();
+        latestTick = tick;
+    }
+}
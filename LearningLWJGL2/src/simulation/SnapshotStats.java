@@ -0,0 +1,97 @@
+package simulation;
+
+/**
+ * This class measures how far the rendered frames trail the simulation.
+ *
+ * For every frame it records:
+ *  - the snapshot age, the time from the snapshot being published to the frame starting to use it,
+ *  - the ticks behind, how many newer ticks the simulation had published by then,
+ *  - the input latency, the time from the input the snapshot's tick used being read to the
+ *    frame being shown,
+ *  - whether the snapshot had already been drawn in the frame before.
+ */
+public class SnapshotStats {
+
+    private long frameStart;
+    private SceneSnapshot current;
+    private long lastTick = -1;
+
+    // The last frame's measurements, in nanoseconds.
+    private long snapshotAge = 0;
+    private long inputLatency = 0;
+    private long ticksBehind = 0;
+
+    // Statistics over every frame.
+    private int frameCount = 0;
+    private int repeatedFrames = 0;
+    private long totalSnapshotAge = 0;
+    private long longestSnapshotAge = 0;
+    private long totalInputLatency = 0;
+    private long longestInputLatency = 0;
+    private long totalTicksBehind = 0;
+
+    /**
+     * This method is called when the render thread has picked up the snapshot it is about to draw.
+     */
+    public void frameStarted(SceneSnapshot snapshot, long latestTick) {
+        frameStart = System.nanoTime();
+        current = snapshot;
+        snapshotAge = frameStart - snapshot.getPublishTime();
+        ticksBehind = Math.max(0, latestTick - snapshot.getTick());
+        if (snapshot.getTick() == lastTick) {
+            repeatedFrames++;
+        }
+        lastTick = snapshot.getTick();
+    }
+
+    /**
+     * This method is called once the frame has been shown on the screen.
+     */
+    public void framePresented() {
+        if (current == null) {
+            return;
+        }
+        inputLatency = System.nanoTime() - current.getInputTime();
+        frameCount++;
+        totalSnapshotAge += snapshotAge;
+        longestSnapshotAge = Math.max(longestSnapshotAge, snapshotAge);
+        totalInputLatency += inputLatency;
+        longestInputLatency = Math.max(longestInputLatency, inputLatency);
+        totalTicksBehind += ticksBehind;
+        current = null;
+    }
+
+    /**
+     * GETTERS for the last frame's times, in milliseconds.
+     */
+    public float getSnapshotAge() {
+        return snapshotAge / 1000000f;
+    }
+
+    public float getInputLatency() {
+        return inputLatency / 1000000f;
+    }
+
+    public long getTicksBehind() {
+        return ticksBehind;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getRepeatedFrames() {
+        return repeatedFrames;
+    }
+
+    public String getReport() {
+        if (frameCount == 0) {
+            return "Snapshots: no frames measured.";
+        }
+        return String.format("Snapshots: %d frames, snapshot age average %.2f ms (longest %.2f ms), "
+                        + "input latency average %.2f ms (longest %.2f ms), %.2f ticks behind on average, "
+                        + "%d frames repeated a tick.", frameCount, totalSnapshotAge / 1000000.0 / frameCount,
+                longestSnapshotAge / 1000000.0, totalInputLatency / 1000000.0 / frameCount,
+                longestInputLatency / 1000000.0, (double) totalTicksBehind / frameCount, repeatedFrames);
+    }
+}
@@ -0,0 +1,25 @@
+package terrains;
+
+import renderEngine.Loader;
+
+/**
+ * This class uploads streamed terrain tiles with the Loader. It must only be used on the GL thread.
+ */
+public class GLTerrainTileUploader implements TerrainTileUploader {
+
+    private final Loader loader;
+
+    public GLTerrainTileUploader(Loader loader) {
+        this.loader = loader;
+    }
+
+    @Override
+    public void upload(Terrain terrain) {
+        terrain.upload(loader);
+    }
+
+    @Override
+    public void unload(Terrain terrain) {
+        terrain.unload(loader);
+    }
+}
@@ -0,0 +1,245 @@
+package terrains;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class reads a heightmap file, a map too big to keep on the heap, by memory mapping it
+ * instead of reading it in. Files are written by HeightmapImporter.
+ *
+ * The map is cut into square tiles of tileSamples x tileSamples samples. Neighbouring tiles share
+ * their edge samples, so every tile can be drawn on its own and still join up with the others.
+ * Every sample is 16 bits, spread over the whole map's height range.
+ *
+ * Along with the full map the file holds a mip pyramid: level 1 has every other sample of level 0
+ * in each direction, level 2 every other sample of level 1, and so on down to a single tile. The
+ * tiles of every level are the same size, so a tile of level n covers 2^n times as much ground.
+ * For every tile of every level the file also has:
+ *  - its lowest and highest sample, so the tile's bounds are known without reading it,
+ *  - a normal for each sample, stored as the x and z of the normal in one signed byte each.
+ *
+ * The file layout, all little endian:
+ *  - a HEADER_BYTES header: MAGIC, VERSION, tileSamples, the map's width and depth in samples,
+ *    the number of levels, the heights of sample 0 and 65535 and the distance between samples,
+ *  - a LEVEL_BYTES entry for every level: its width and depth in tiles, where its tiles start and
+ *    where its tile ranges start,
+ *  - for each level, its tiles row by row, each tile's samples (row by row along z) followed by its normals,
+ *  - for each level, the lowest and highest sample of each tile.
+ *
+ * Each level is mapped when the file is opened, in chunks of whole rows of tiles, since one
+ * mapping can't be bigger than 2 GB. Mapping only reserves address space: nothing is read until a
+ * tile is used, and then only the pages it is on. The views handed out are read only slices of the
+ * mappings, so nothing is copied, and they can be asked for from any thread.
+ */
+public class HeightmapFile {
+
+    public static final int MAGIC = 0x484D4150;
+    public static final int VERSION = 1;
+    static final int HEADER_BYTES = 64;
+    static final int LEVEL_BYTES = 24;
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    private static final int MAX_SAMPLE = 65535;
+    // The most bytes of tiles mapped in one chunk.
+    private static final long CHUNK_BYTES = 1L << 28;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int tileSamples;
+    private final int samplesX;
+    private final int samplesZ;
+    private final int levels;
+    private final float minHeight;
+    private final float maxHeight;
+    private final float sampleSpacing;
+    private final int[] tilesX;
+    private final int[] tilesZ;
+    // The mapped chunks of every level, and how many rows of tiles each chunk holds.
+    private final ByteBuffer[][] chunks;
+    private final int[] rowsPerChunk;
+    // The lowest and highest sample of every tile, for every level. They are small, so they stay mapped.
+    private final ShortBuffer[] tileRanges;
+
+    /**
+     * Constructor. Opens the file and reads its header and tile ranges.
+     */
+    public HeightmapFile(File path) throws IOException {
+        this.file = new RandomAccessFile(path, "r");
+        this.channel = file.getChannel();
+        try {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ORDER);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException(path + " is not a version " + VERSION + " heightmap file!");
+            }
+            tileSamples = header.getInt(8);
+            samplesX = header.getInt(12);
+            samplesZ = header.getInt(16);
+            levels = header.getInt(20);
+            minHeight = header.getFloat(24);
+            maxHeight = header.getFloat(28);
+            sampleSpacing = header.getFloat(32);
+
+            ByteBuffer levelTable = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES,
+                    (long) levels * LEVEL_BYTES).order(ORDER);
+            tilesX = new int[levels];
+            tilesZ = new int[levels];
+            chunks = new ByteBuffer[levels][];
+            rowsPerChunk = new int[levels];
+            tileRanges = new ShortBuffer[levels];
+            for (int level = 0; level < levels; level++) {
+                int entry = level * LEVEL_BYTES;
+                tilesX[level] = levelTable.getInt(entry);
+                tilesZ[level] = levelTable.getInt(entry + 4);
+                mapLevel(level, levelTable.getLong(entry + 8));
+                tileRanges[level] = channel.map(FileChannel.MapMode.READ_ONLY, levelTable.getLong(entry + 16),
+                        (long) tilesX[level] * tilesZ[level] * 4).order(ORDER).asShortBuffer();
+            }
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * This method maps a level's tiles, starting at the given place in the file.
+     */
+    private void mapLevel(int level, long offset) throws IOException {
+        long rowBytes = tilesX[level] * getTileBytes(tileSamples);
+        rowsPerChunk[level] = (int) Math.max(1, CHUNK_BYTES / rowBytes);
+        int chunkCount = (tilesZ[level] + rowsPerChunk[level] - 1) / rowsPerChunk[level];
+        chunks[level] = new ByteBuffer[chunkCount];
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            int rows = Math.min(rowsPerChunk[level], tilesZ[level] - chunk * rowsPerChunk[level]);
+            chunks[level][chunk] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    offset + chunk * rowsPerChunk[level] * rowBytes, rows * rowBytes);
+        }
+    }
+
+    /**
+     * This method returns a view of a tile's samples, row by row along z. Nothing is read until
+     * the samples are used, and then only the pages they are on.
+     */
+    public ShortBuffer getTileSamples(int level, int tileX, int tileZ) {
+        return getTileView(level, tileX, tileZ, 0, getSampleBytes()).asShortBuffer();
+    }
+
+    /**
+     * This method returns a view of a tile's normals: two signed bytes for each sample, the x and
+     * z of the normal times 127. The y is the rest of the normal's length, and always up.
+     */
+    public ByteBuffer getTileNormals(int level, int tileX, int tileZ) {
+        return getTileView(level, tileX, tileZ, getSampleBytes(), tileSamples * tileSamples * 2);
+    }
+
+    /**
+     * This method returns a slice of the part of a tile's bytes from 'offset' on. The chunk is
+     * duplicated first, so the views never touch each other's positions.
+     */
+    private ByteBuffer getTileView(int level, int tileX, int tileZ, int offset, int length) {
+        checkTile(level, tileX, tileZ);
+        ByteBuffer view = chunks[level][tileZ / rowsPerChunk[level]].duplicate();
+        int start = (int) (((long) (tileZ % rowsPerChunk[level]) * tilesX[level] + tileX) * getTileBytes(tileSamples))
+                + offset;
+        view.limit(start + length);
+        view.position(start);
+        return view.slice().order(ORDER);
+    }
+
+    /**
+     * This method returns the lowest height in a tile.
+     */
+    public float getTileMinHeight(int level, int tileX, int tileZ) {
+        checkTile(level, tileX, tileZ);
+        return toHeight(tileRanges[level].get((tileZ * tilesX[level] + tileX) * 2));
+    }
+
+    /**
+     * This method returns the highest height in a tile.
+     */
+    public float getTileMaxHeight(int level, int tileX, int tileZ) {
+        checkTile(level, tileX, tileZ);
+        return toHeight(tileRanges[level].get((tileZ * tilesX[level] + tileX) * 2 + 1));
+    }
+
+    /**
+     * This method turns a sample into a height.
+     */
+    public float toHeight(short sample) {
+        return minHeight + (sample & 0xFFFF) * (maxHeight - minHeight) / MAX_SAMPLE;
+    }
+
+    public boolean hasTile(int level, int tileX, int tileZ) {
+        return level >= 0 && level < levels && tileX >= 0 && tileX < tilesX[level] && tileZ >= 0
+                && tileZ < tilesZ[level];
+    }
+
+    private void checkTile(int level, int tileX, int tileZ) {
+        if (!hasTile(level, tileX, tileZ)) {
+            throw new IndexOutOfBoundsException("There is no tile " + tileX + ", " + tileZ + " in level " + level + "!");
+        }
+    }
+
+    /**
+     * This method closes the file. Views already handed out stay valid until they are garbage collected.
+     */
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Returns how many bytes a tile takes in the file, its samples and normals.
+     */
+    static long getTileBytes(int tileSamples) {
+        return (long) tileSamples * tileSamples * 4;
+    }
+
+    private int getSampleBytes() {
+        return tileSamples * tileSamples * 2;
+    }
+
+    /**
+     * GETTERS
+     */
+    public int getTileSamples() {
+        return tileSamples;
+    }
+
+    public int getSamplesX() {
+        return samplesX;
+    }
+
+    public int getSamplesZ() {
+        return samplesZ;
+    }
+
+    public int getLevels() {
+        return levels;
+    }
+
+    public int getTilesX(int level) {
+        return tilesX[level];
+    }
+
+    public int getTilesZ(int level) {
+        return tilesZ[level];
+    }
+
+    public float getMinHeight() {
+        return minHeight;
+    }
+
+    public float getMaxHeight() {
+        return maxHeight;
+    }
+
+    /**
+     * Returns the distance between two samples of level 0, in world units.
+     */
+    public float getSampleSpacing() {
+        return sampleSpacing;
+    }
+}
@@ -0,0 +1,337 @@
+package terrains;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class turns raw and PNG heightmaps into heightmap files (see HeightmapFile).
+ *
+ * Raw heightmaps, 16 bit samples row by row with no header, are memory mapped a window of rows at
+ * a time, so maps far bigger than the heap can be imported. PNG heightmaps are decoded by ImageIO,
+ * which needs the whole image on the heap, so they are only good for smaller maps.
+ *
+ * The file is written one row of tiles at a time, through a mapping of just that row. The levels
+ * of the mip pyramid are made one after the other, each from the level before it, which is read
+ * back from the file the same way.
+ */
+public class HeightmapImporter {
+
+    // How many rows of a raw heightmap are mapped at once.
+    private static final int RAW_WINDOW_ROWS = 1024;
+    // How many rows of tiles of the level before are kept mapped while making the next level.
+    private static final int CACHED_TILE_ROWS = 4;
+
+    /**
+     * This interface is a grid of 16 bit samples, 0 to 65535, being imported.
+     * Samples outside the grid are clamped to its edge.
+     */
+    public interface SampleGrid {
+        int getWidth();
+
+        int getDepth();
+
+        int getSample(int x, int z);
+    }
+
+    /**
+     * This method imports a raw heightmap of width x depth 16 bit samples in the given byte order.
+     * A sample of 0 stands for minHeight and 65535 for maxHeight, and the samples are sampleSpacing apart.
+     */
+    public static void importRaw(File raw, int width, int depth, ByteOrder order, float minHeight, float maxHeight,
+                                 float sampleSpacing, int tileSamples, File output) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(raw, "r")) {
+            if (input.length() < (long) width * depth * 2) {
+                throw new IOException(raw + " is too small for " + width + " x " + depth + " samples!");
+            }
+            write(new RawSampleGrid(input.getChannel(), width, depth, order), minHeight, maxHeight, sampleSpacing,
+                    tileSamples, output);
+        }
+    }
+
+    /**
+     * This method imports a greyscale PNG heightmap. 8 bit images are stretched to 16 bits.
+     */
+    public static void importPng(File png, float minHeight, float maxHeight, float sampleSpacing, int tileSamples,
+                                 File output) throws IOException {
+        BufferedImage image = ImageIO.read(png);
+        if (image == null) {
+            throw new IOException(png + " is not an image!");
+        }
+        Raster raster = image.getRaster();
+        int bits = raster.getSampleModel().getSampleSize(0);
+        int scale = bits >= 16 ? 1 : 65535 / ((1 << bits) - 1);
+        write(new SampleGrid() {
+            @Override
+            public int getWidth() {
+                return raster.getWidth();
+            }
+
+            @Override
+            public int getDepth() {
+                return raster.getHeight();
+            }
+
+            @Override
+            public int getSample(int x, int z) {
+                x = Math.max(0, Math.min(x, raster.getWidth() - 1));
+                z = Math.max(0, Math.min(z, raster.getHeight() - 1));
+                return Math.min(raster.getSample(x, z, 0) * scale, 65535);
+            }
+        }, minHeight, maxHeight, sampleSpacing, tileSamples, output);
+    }
+
+    /**
+     * This method writes a heightmap file with every level of the pyramid from the given samples.
+     */
+    public static void write(SampleGrid grid, float minHeight, float maxHeight, float sampleSpacing,
+                             int tileSamples, File output) throws IOException {
+        if (tileSamples < 2 || grid.getWidth() < 2 || grid.getDepth() < 2) {
+            throw new IllegalArgumentException("The map and the tiles need at least 2 samples a side!");
+        }
+        int quads = tileSamples - 1;
+        // A level has half as many samples as the one before, and the last level is a single tile.
+        int levels = 1;
+        while (getTileCount(grid.getWidth(), levels - 1, quads) > 1 || getTileCount(grid.getDepth(), levels - 1, quads) > 1) {
+            levels++;
+        }
+        int[] tilesX = new int[levels];
+        int[] tilesZ = new int[levels];
+        long[] tileOffsets = new long[levels];
+        long[] rangeOffsets = new long[levels];
+        long position = HeightmapFile.HEADER_BYTES + (long) levels * HeightmapFile.LEVEL_BYTES;
+        for (int level = 0; level < levels; level++) {
+            tilesX[level] = getTileCount(grid.getWidth(), level, quads);
+            tilesZ[level] = getTileCount(grid.getDepth(), level, quads);
+            tileOffsets[level] = position;
+            position += (long) tilesX[level] * tilesZ[level] * HeightmapFile.getTileBytes(tileSamples);
+        }
+        for (int level = 0; level < levels; level++) {
+            rangeOffsets[level] = position;
+            position += (long) tilesX[level] * tilesZ[level] * 4;
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(output, "rw")) {
+            file.setLength(0);
+            file.setLength(position);
+            FileChannel channel = file.getChannel();
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HeightmapFile.HEADER_BYTES
+                    + (long) levels * HeightmapFile.LEVEL_BYTES).order(HeightmapFile.ORDER);
+            header.putInt(0, HeightmapFile.MAGIC);
+            header.putInt(4, HeightmapFile.VERSION);
+            header.putInt(8, tileSamples);
+            header.putInt(12, grid.getWidth());
+            header.putInt(16, grid.getDepth());
+            header.putInt(20, levels);
+            header.putFloat(24, minHeight);
+            header.putFloat(28, maxHeight);
+            header.putFloat(32, sampleSpacing);
+            for (int level = 0; level < levels; level++) {
+                int entry = HeightmapFile.HEADER_BYTES + level * HeightmapFile.LEVEL_BYTES;
+                header.putInt(entry, tilesX[level]);
+                header.putInt(entry + 4, tilesZ[level]);
+                header.putLong(entry + 8, tileOffsets[level]);
+                header.putLong(entry + 16, rangeOffsets[level]);
+            }
+
+            float heightScale = (maxHeight - minHeight) / 65535;
+            SampleGrid levelGrid = grid;
+            for (int level = 0; level < levels; level++) {
+                if (level > 0) {
+                    levelGrid = new LevelSampleGrid(channel, tileOffsets[level - 1], tilesX[level - 1],
+                            tilesZ[level - 1], tileSamples, (levelGrid.getWidth() - 1) / 2 + 1,
+                            (levelGrid.getDepth() - 1) / 2 + 1);
+                }
+                float spacing = sampleSpacing * (1 << level);
+                writeLevel(channel, levelGrid, tileOffsets[level], rangeOffsets[level], tilesX[level], tilesZ[level],
+                        tileSamples, heightScale, spacing);
+            }
+        }
+    }
+
+    /**
+     * This method writes the tiles of one level, one row of tiles at a time, along with their ranges.
+     */
+    private static void writeLevel(FileChannel channel, SampleGrid grid, long tileOffset, long rangeOffset,
+                                   int tilesX, int tilesZ, int tileSamples, float heightScale, float spacing)
+            throws IOException {
+        int quads = tileSamples - 1;
+        long tileBytes = HeightmapFile.getTileBytes(tileSamples);
+        int sampleBytes = tileSamples * tileSamples * 2;
+        ShortBuffer ranges = channel.map(FileChannel.MapMode.READ_WRITE, rangeOffset, (long) tilesX * tilesZ * 4)
+                .order(HeightmapFile.ORDER).asShortBuffer();
+        for (int tileZ = 0; tileZ < tilesZ; tileZ++) {
+            MappedByteBuffer row = channel.map(FileChannel.MapMode.READ_WRITE,
+                    tileOffset + (long) tileZ * tilesX * tileBytes, tilesX * tileBytes);
+            row.order(HeightmapFile.ORDER);
+            for (int tileX = 0; tileX < tilesX; tileX++) {
+                int base = (int) (tileX * tileBytes);
+                int min = 65535;
+                int max = 0;
+                for (int i = 0; i < tileSamples; i++) {
+                    int z = tileZ * quads + i;
+                    for (int j = 0; j < tileSamples; j++) {
+                        int x = tileX * quads + j;
+                        int sample = grid.getSample(x, z);
+                        min = Math.min(min, sample);
+                        max = Math.max(max, sample);
+                        int index = i * tileSamples + j;
+                        row.putShort(base + index * 2, (short) sample);
+                        // The normal from the samples on either side, the same way the terrain shader does it.
+                        float dx = (grid.getSample(x - 1, z) - grid.getSample(x + 1, z)) * heightScale;
+                        float dz = (grid.getSample(x, z - 1) - grid.getSample(x, z + 1)) * heightScale;
+                        float dy = 2 * spacing;
+                        float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+                        row.put(base + sampleBytes + index * 2, (byte) Math.round(dx / length * 127));
+                        row.put(base + sampleBytes + index * 2 + 1, (byte) Math.round(dz / length * 127));
+                    }
+                }
+                ranges.put((tileZ * tilesX + tileX) * 2, (short) min);
+                ranges.put((tileZ * tilesX + tileX) * 2 + 1, (short) max);
+            }
+            row.force();
+        }
+    }
+
+    /**
+     * This method returns how many tiles a level needs along a side of the given number of samples.
+     */
+    private static int getTileCount(int samples, int level, int quads) {
+        int levelSamples = ((samples - 1) >> level) + 1;
+        return Math.max(1, (levelSamples - 1 + quads - 1) / quads);
+    }
+
+    /**
+     * This class reads a raw heightmap through a memory mapped window of rows, moved along as needed.
+     */
+    private static class RawSampleGrid implements SampleGrid {
+
+        private final FileChannel channel;
+        private final int width;
+        private final int depth;
+        private final ByteOrder order;
+        private ByteBuffer window;
+        private int windowStart = 0;
+        private int windowRows = 0;
+
+        private RawSampleGrid(FileChannel channel, int width, int depth, ByteOrder order) {
+            this.channel = channel;
+            this.width = width;
+            this.depth = depth;
+            this.order = order;
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getDepth() {
+            return depth;
+        }
+
+        @Override
+        public int getSample(int x, int z) {
+            x = Math.max(0, Math.min(x, width - 1));
+            z = Math.max(0, Math.min(z, depth - 1));
+            if (z < windowStart || z >= windowStart + windowRows) {
+                moveWindow(z);
+            }
+            return window.getShort(((z - windowStart) * width + x) * 2) & 0xFFFF;
+        }
+
+        private void moveWindow(int z) {
+            // The rows just above are mapped too, since the normals look one row back.
+            windowStart = Math.max(0, z - 1);
+            windowRows = Math.min(RAW_WINDOW_ROWS, depth - windowStart);
+            try {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, (long) windowStart * width * 2,
+                        (long) windowRows * width * 2).order(order);
+            } catch (IOException e) {
+                throw new RuntimeException("Couldn't map rows " + windowStart + " onwards of the heightmap!", e);
+            }
+        }
+    }
+
+    /**
+     * This class reads every other sample of a level already written to the file, which makes the
+     * samples of the next level. It keeps the last few rows of tiles it used mapped.
+     */
+    private static class LevelSampleGrid implements SampleGrid {
+
+        private final FileChannel channel;
+        private final long tileOffset;
+        private final int tilesX;
+        private final int tilesZ;
+        private final int tileSamples;
+        private final int width;
+        private final int depth;
+        private final Map<Integer, ByteBuffer> rows = new LinkedHashMap<Integer, ByteBuffer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, ByteBuffer> eldest) {
+                return size() > CACHED_TILE_ROWS;
+            }
+        };
+
+        private LevelSampleGrid(FileChannel channel, long tileOffset, int tilesX, int tilesZ, int tileSamples,
+                                int width, int depth) {
+            this.channel = channel;
+            this.tileOffset = tileOffset;
+            this.tilesX = tilesX;
+            this.tilesZ = tilesZ;
+            this.tileSamples = tileSamples;
+            this.width = width;
+            this.depth = depth;
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getDepth() {
+            return depth;
+        }
+
+        @Override
+        public int getSample(int x, int z) {
+            x = Math.max(0, Math.min(x, width - 1)) * 2;
+            z = Math.max(0, Math.min(z, depth - 1)) * 2;
+            int quads = tileSamples - 1;
+            // A sample on the edge between two tiles is in both, so either will do.
+            int tileX = Math.min(x / quads, tilesX - 1);
+            int tileZ = Math.min(z / quads, tilesZ - 1);
+            ByteBuffer row = getRow(tileZ);
+            int index = (z - tileZ * quads) * tileSamples + (x - tileX * quads);
+            return row.getShort((int) (tileX * HeightmapFile.getTileBytes(tileSamples)) + index * 2) & 0xFFFF;
+        }
+
+        private ByteBuffer getRow(int tileZ) {
+            ByteBuffer row = rows.get(tileZ);
+            if (row == null) {
+                long rowBytes = tilesX * HeightmapFile.getTileBytes(tileSamples);
+                try {
+                    row = channel.map(FileChannel.MapMode.READ_ONLY, tileOffset + tileZ * rowBytes, rowBytes)
+                            .order(HeightmapFile.ORDER);
+                } catch (IOException e) {
+                    throw new RuntimeException("Couldn't map row " + tileZ + " of the level's tiles!", e);
+                }
+                rows.put(tileZ, row);
+            }
+            return row;
+        }
+    }
+}
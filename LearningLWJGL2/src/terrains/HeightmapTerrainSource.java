@@ -0,0 +1,60 @@
+package terrains;
+
+import textures.ModelTexture;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * This class feeds terrain tiles from a HeightmapFile to the TerrainTileManager.
+ *
+ * The file's tiles must have as many samples as a Terrain. The tile at grid 0, 0 is the file's
+ * tile at originX, originZ, and the tiles past the edges of the map are flat, at its lowest height.
+ * The terrains are made straight from views of the file, so a tile's samples are read from the
+ * file only when they are used, and never copied onto the heap.
+ */
+public class HeightmapTerrainSource implements TerrainSource {
+
+    private final HeightmapFile file;
+    private final int originX;
+    private final int originZ;
+
+    public HeightmapTerrainSource(HeightmapFile file, int originX, int originZ) {
+        if (file.getTileSamples() != Terrain.getVertexCount()) {
+            throw new IllegalArgumentException("The heightmap's tiles have " + file.getTileSamples()
+                    + " samples a side, not " + Terrain.getVertexCount() + "!");
+        }
+        this.file = file;
+        this.originX = originX;
+        this.originZ = originZ;
+    }
+
+    @Override
+    public float[] getHeights(int gridX, int gridZ) {
+        float[] heights = new float[Terrain.getVertexCount() * Terrain.getVertexCount()];
+        if (!file.hasTile(0, gridX + originX, gridZ + originZ)) {
+            Arrays.fill(heights, file.getMinHeight());
+            return heights;
+        }
+        ShortBuffer samples = getSamples(gridX, gridZ);
+        for (int i = 0; i < heights.length; i++) {
+            heights[i] = file.toHeight(samples.get(i));
+        }
+        return heights;
+    }
+
+    @Override
+    public Terrain createTerrain(int gridX, int gridZ, ModelTexture texture) {
+        int tileX = gridX + originX;
+        int tileZ = gridZ + originZ;
+        if (!file.hasTile(0, tileX, tileZ)) {
+            return new Terrain(gridX, gridZ, texture, getHeights(gridX, gridZ));
+        }
+        return new Terrain(gridX, gridZ, texture, getSamples(gridX, gridZ), file.getMinHeight(), file.getMaxHeight(),
+                file.getTileMinHeight(0, tileX, tileZ), file.getTileMaxHeight(0, tileX, tileZ));
+    }
+
+    private ShortBuffer getSamples(int gridX, int gridZ) {
+        return file.getTileSamples(0, gridX + originX, gridZ + originZ);
+    }
+}
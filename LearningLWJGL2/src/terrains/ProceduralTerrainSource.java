@@ -0,0 +1,266 @@
+package terrains;
+
+import jobs.JobSystem;
+
+/**
+ * This class makes up terrain heights for the TerrainTileManager from gradient noise, so the
+ * world goes on for as long as the camera does without a heightmap file.
+ *
+ * The height at a point is the sum of a few octaves of 2D gradient (Perlin) noise, each twice as
+ * fine and half as high as the one before. The gradient at a corner of the noise lattice comes
+ * from hashing the seed, the octave and the corner, so there are no tables and the same seed
+ * always gives the same world, whatever order the tiles are asked for in. Samples are placed by
+ * their index in the whole world rather than in their tile, so the edge samples neighbouring
+ * tiles share come out exactly the same.
+ *
+ * getHeight() works out a single point, and is the reference the tiles are checked against.
+ * Tiles are made a row at a time instead: the lattice cells and blend weights of every column
+ * are the same for every row, so they are worked out once per tile, and the gradients along a
+ * row once per row. What is left for each sample is a few multiplies and adds from arrays, with
+ * no hashing, branching or rounding, which the JIT compiles to a tight loop. It gives exactly
+ * the same heights as getHeight(). With a JobSystem the rows are split over its workers.
+ *
+ * This class does not use OpenGL, and can be used from any number of threads at once.
+ */
+public class ProceduralTerrainSource implements TerrainSource {
+
+    // How many rows each piece of a tile gets when it is split over the job system.
+    private static final int ROWS_PER_JOB = 8;
+    // The directions the lattice gradients can point in.
+    private static final float DIAGONAL = 0.70710677f;
+    private static final float[] GRADIENT_X = {1, -1, 0, 0, DIAGONAL, -DIAGONAL, DIAGONAL, -DIAGONAL};
+    private static final float[] GRADIENT_Z = {0, 0, 1, -1, DIAGONAL, DIAGONAL, -DIAGONAL, -DIAGONAL};
+
+    private final long seed;
+    private final float amplitude;
+    private final JobSystem jobSystem;
+    // The frequency, weight and seed of each octave.
+    private final float[] frequencies;
+    private final float[] weights;
+    private final long[] octaveSeeds;
+    private final float spacing = Terrain.getSize() / (Terrain.getVertexCount() - 1);
+
+    /**
+     * Constructor. Takes in the seed, the number of octaves, the wavelength of the first octave
+     * in world units, how high the hills get, and the job system the rows are split over, which
+     * can be null to make every tile on the thread that asks for it.
+     */
+    public ProceduralTerrainSource(long seed, int octaves, float wavelength, float amplitude, JobSystem jobSystem) {
+        if (octaves < 1 || wavelength <= 0) {
+            throw new IllegalArgumentException("The noise needs at least one octave and a positive wavelength!");
+        }
+        this.seed = seed;
+        this.amplitude = amplitude;
+        this.jobSystem = jobSystem;
+        this.frequencies = new float[octaves];
+        this.weights = new float[octaves];
+        this.octaveSeeds = new long[octaves];
+        for (int octave = 0; octave < octaves; octave++) {
+            frequencies[octave] = (float) ((1L << octave) / (double) wavelength);
+            weights[octave] = 1f / (1 << octave);
+            octaveSeeds[octave] = seed + octave * 0x632BE59BD9B4E019L;
+        }
+    }
+
+    @Override
+    public float[] getHeights(int gridX, int gridZ) {
+        float[] heights = new float[Terrain.getVertexCount() * Terrain.getVertexCount()];
+        generate(gridX, gridZ, heights, null);
+        return heights;
+    }
+
+    /**
+     * This method returns the height at a world x and z, one point at a time.
+     */
+    public float getHeight(float worldX, float worldZ) {
+        float sum = 0;
+        for (int octave = 0; octave < frequencies.length; octave++) {
+            float x = worldX * frequencies[octave];
+            float z = worldZ * frequencies[octave];
+            int cellX = (int) Math.floor(x);
+            int cellZ = (int) Math.floor(z);
+            float fractionX = x - cellX;
+            float fractionZ = z - cellZ;
+            long octaveSeed = octaveSeeds[octave];
+            int corner00 = hash(octaveSeed, cellX, cellZ) & 7;
+            int corner10 = hash(octaveSeed, cellX + 1, cellZ) & 7;
+            int corner01 = hash(octaveSeed, cellX, cellZ + 1) & 7;
+            int corner11 = hash(octaveSeed, cellX + 1, cellZ + 1) & 7;
+            float n00 = GRADIENT_X[corner00] * fractionX + GRADIENT_Z[corner00] * fractionZ;
+            float n10 = GRADIENT_X[corner10] * (fractionX - 1) + GRADIENT_Z[corner10] * fractionZ;
+            float n01 = GRADIENT_X[corner01] * fractionX + GRADIENT_Z[corner01] * (fractionZ - 1);
+            float n11 = GRADIENT_X[corner11] * (fractionX - 1) + GRADIENT_Z[corner11] * (fractionZ - 1);
+            float fadeX = fade(fractionX);
+            float top = n00 + fadeX * (n10 - n00);
+            float bottom = n01 + fadeX * (n11 - n01);
+            sum += weights[octave] * (top + fade(fractionZ) * (bottom - top));
+        }
+        return sum * amplitude;
+    }
+
+    /**
+     * This method makes the heights of a tile, VERTEX_COUNT x VERTEX_COUNT of them row by row
+     * along z, and if normals isn't null, the unit normal at every sample as three floats. The
+     * normals are worked out from the samples on either side like the terrain shader does, but
+     * using the real samples past the tile's edges, so they match across tiles as well.
+     */
+    public void generate(int gridX, int gridZ, float[] heights, float[] normals) {
+        int count = Terrain.getVertexCount();
+        int firstX = gridX * (count - 1);
+        int firstZ = gridZ * (count - 1);
+        if (normals == null) {
+            generateSamples(firstX, firstZ, count, heights);
+            return;
+        }
+        // One more sample on every side, for the normals at the edges.
+        int padded = count + 2;
+        float[] border = new float[padded * padded];
+        generateSamples(firstX - 1, firstZ - 1, padded, border);
+        for (int z = 0; z < count; z++) {
+            System.arraycopy(border, (z + 1) * padded + 1, heights, z * count, count);
+        }
+        forRows(count, (from, to) -> {
+            for (int z = from; z < to; z++) {
+                for (int x = 0; x < count; x++) {
+                    int centre = (z + 1) * padded + x + 1;
+                    float normalX = border[centre - 1] - border[centre + 1];
+                    float normalY = 2 * spacing;
+                    float normalZ = border[centre - padded] - border[centre + padded];
+                    float length = (float) Math.sqrt(normalX * normalX + normalY * normalY + normalZ * normalZ);
+                    int index = (z * count + x) * 3;
+                    normals[index] = normalX / length;
+                    normals[index + 1] = normalY / length;
+                    normals[index + 2] = normalZ / length;
+                }
+            }
+        });
+    }
+
+    /**
+     * This method fills dest with a size x size square of samples, whose corner is sample firstX,
+     * firstZ of the whole world.
+     */
+    private void generateSamples(int firstX, int firstZ, int size, float[] dest) {
+        // The lattice cell of every column, counted from the first column's, and how far into it
+        // the column is, for every octave. They don't change from row to row.
+        int octaves = frequencies.length;
+        int[] firstCells = new int[octaves];
+        int[][] cells = new int[octaves][size];
+        float[][] fractions = new float[octaves][size];
+        float[][] fades = new float[octaves][size];
+        int maxCells = 0;
+        for (int octave = 0; octave < octaves; octave++) {
+            for (int i = 0; i < size; i++) {
+                float x = ((firstX + i) * spacing) * frequencies[octave];
+                int cell = (int) Math.floor(x);
+                if (i == 0) {
+                    firstCells[octave] = cell;
+                }
+                cells[octave][i] = cell - firstCells[octave];
+                fractions[octave][i] = x - cell;
+                fades[octave][i] = fade(x - cell);
+            }
+            maxCells = Math.max(maxCells, cells[octave][size - 1] + 2);
+        }
+
+        int rowCells = maxCells;
+        forRows(size, (from, to) -> {
+            // The gradients along the lattice rows above and below the sample row.
+            float[] topX = new float[rowCells];
+            float[] topZ = new float[rowCells];
+            float[] bottomX = new float[rowCells];
+            float[] bottomZ = new float[rowCells];
+            for (int row = from; row < to; row++) {
+                int rowStart = row * size;
+                for (int i = 0; i < size; i++) {
+                    dest[rowStart + i] = 0;
+                }
+                for (int octave = 0; octave < octaves; octave++) {
+                    float z = ((firstZ + row) * spacing) * frequencies[octave];
+                    int cellZ = (int) Math.floor(z);
+                    float fractionZ = z - cellZ;
+                    float fadeZ = fade(fractionZ);
+                    long octaveSeed = octaveSeeds[octave];
+                    int cellCount = cells[octave][size - 1] + 2;
+                    for (int c = 0; c < cellCount; c++) {
+                        int top = hash(octaveSeed, firstCells[octave] + c, cellZ) & 7;
+                        int bottom = hash(octaveSeed, firstCells[octave] + c, cellZ + 1) & 7;
+                        topX[c] = GRADIENT_X[top];
+                        topZ[c] = GRADIENT_Z[top] * fractionZ;
+                        bottomX[c] = GRADIENT_X[bottom];
+                        bottomZ[c] = GRADIENT_Z[bottom] * (fractionZ - 1);
+                    }
+                    addOctaveRow(dest, rowStart, size, cells[octave], fractions[octave], fades[octave], fadeZ,
+                            weights[octave], topX, topZ, bottomX, bottomZ);
+                }
+                for (int i = 0; i < size; i++) {
+                    dest[rowStart + i] *= amplitude;
+                }
+            }
+        });
+    }
+
+    /**
+     * This method adds one octave of noise to a row of samples. It is the same sum as getHeight(),
+     * with everything that doesn't change along the row worked out beforehand.
+     */
+    private static void addOctaveRow(float[] dest, int rowStart, int size, int[] cells, float[] fractions,
+                                     float[] fades, float fadeZ, float weight, float[] topX, float[] topZ,
+                                     float[] bottomX, float[] bottomZ) {
+        for (int i = 0; i < size; i++) {
+            int c = cells[i];
+            float fractionX = fractions[i];
+            float n00 = topX[c] * fractionX + topZ[c];
+            float n10 = topX[c + 1] * (fractionX - 1) + topZ[c + 1];
+            float n01 = bottomX[c] * fractionX + bottomZ[c];
+            float n11 = bottomX[c + 1] * (fractionX - 1) + bottomZ[c + 1];
+            float top = n00 + fades[i] * (n10 - n00);
+            float bottom = n01 + fades[i] * (n11 - n01);
+            dest[rowStart + i] += weight * (top + fadeZ * (bottom - top));
+        }
+    }
+
+    /**
+     * This method runs the body over the rows, split over the job system if there is one.
+     */
+    private void forRows(int rows, JobSystem.RangeBody body) {
+        if (jobSystem == null) {
+            body.run(0, rows);
+        } else {
+            jobSystem.parallelFor(0, rows, ROWS_PER_JOB, body);
+        }
+    }
+
+    /**
+     * This method is the noise's blending curve, 6t^5 - 15t^4 + 10t^3, which is flat at both ends
+     * so the noise has no creases along the cell edges.
+     */
+    private static float fade(float t) {
+        return t * t * t * (t * (t * 6 - 15) + 10);
+    }
+
+    /**
+     * This method mixes a seed and a lattice corner into a well spread number.
+     */
+    private static int hash(long seed, int x, int z) {
+        long hash = seed ^ (x * 0x9E3779B97F4A7C15L) ^ (z * 0xC2B2AE3D27D4EB4FL);
+        hash = (hash ^ (hash >>> 31)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 29)) * 0x94D049BB133111EBL;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * GETTERS
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getOctaves() {
+        return frequencies.length;
+    }
+
+    public float getAmplitude() {
+        return amplitude;
+    }
+}
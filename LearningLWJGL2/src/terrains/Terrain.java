@@ -4,80 +4,311 @@ import models.RawModel;
 import renderEngine.Loader;
 import textures.ModelTexture;
 
+import java.nio.ShortBuffer;
+
 /**
  * This class Terrain represents a terrain in our world. Each terrain has a grid position
  * in the world, a size, a vertex count, a texture, and a model.
+ *
+ * The model is the grid shared by every tile (see TerrainGrid). What makes a tile different is
+ * its heights, which are stored as 16 bit values spread between the tile's lowest and highest
+ * point, both here for the CPU and in a height texture for the vertex shader. The normals are
+ * worked out from the heights in the shader, so they aren't stored at all. The samples can also
+ * be a view straight into a HeightmapFile, in which case they are spread over the whole map's
+ * height range instead, and never copied onto the heap.
+ *
+ * For drawing with level of detail every tile also has a quadtree (see TerrainQuadtree), and the
+ * smaller patch grids its nodes are drawn with, which are shared by every tile as well.
+ *
+ * A tile can be made without OpenGL, on any thread, and uploaded later on the GL thread. That is
+ * how streamed tiles (see TerrainTileManager) are made, and unloaded again when they go away.
+ *
+ * The height and normal of the ground at any point of the tile can be asked for from any thread,
+ * since they only read the samples. To find the tile a point is on, see TerrainLookup.
  */
 public class Terrain {
 
     private static final float SIZE = 800;
     private static final int VERTEX_COUNT = 128;
+    // The most a 16 bit height sample can hold.
+    private static final int MAX_SAMPLE = 65535;
+    // The distance between two samples.
+    private static final float SQUARE_SIZE = SIZE / (VERTEX_COUNT - 1);
 
     private float x;
     private float z;
     private RawModel model;
+    private RawModel patchModel;
+    private RawModel halfPatchModel;
+    private TerrainQuadtree quadtree;
     private ModelTexture texture;
+    private ShortBuffer heights;
+    // The lowest and highest point of the tile.
+    private float minHeight;
+    private float maxHeight;
+    // The heights a sample of 0 and of MAX_SAMPLE stand for.
+    private float heightMapMin;
+    private float heightMapMax;
+    private int heightTextureID = 0;
 
     /**
      * Constructor takes in a gridX,Z position, a loader, and texture and creates
-     * our terrain.
+     * our terrain. The terrain is flat.
      */
     public Terrain(int gridX, int gridZ, Loader loader, ModelTexture texture){
+        this(gridX, gridZ, loader, texture, new float[VERTEX_COUNT * VERTEX_COUNT]);
+    }
+
+    /**
+     * Constructor for a terrain with the given heights, VERTEX_COUNT x VERTEX_COUNT of them,
+     * row by row along z.
+     */
+    public Terrain(int gridX, int gridZ, Loader loader, ModelTexture texture, float[] heights){
+        this(gridX, gridZ, texture, heights);
+        upload(loader);
+    }
+
+    /**
+     * Constructor for a terrain that isn't uploaded yet. It doesn't use OpenGL, so it can be
+     * called from any thread, but the terrain can't be drawn until upload() is called.
+     */
+    public Terrain(int gridX, int gridZ, ModelTexture texture, float[] heights){
+        if (heights.length != VERTEX_COUNT * VERTEX_COUNT) {
+            throw new IllegalArgumentException("A terrain needs " + VERTEX_COUNT * VERTEX_COUNT + " heights!");
+        }
         this.texture = texture;
         this.x = gridX * SIZE;
         this.z = gridZ * SIZE;
-        this.model = generateTerrain(loader);
+        this.heights = ShortBuffer.wrap(quantizeHeights(heights));
+        this.heightMapMin = minHeight;
+        this.heightMapMax = maxHeight;
+        this.quadtree = new TerrainQuadtree(x, z, SIZE, TerrainLod.LEVELS, VERTEX_COUNT, this::getSampleHeight);
     }
 
+    /**
+     * Constructor for a terrain that uses the given samples as they are, such as a view of a tile
+     * in a HeightmapFile. A sample of 0 stands for heightMapMin and 65535 for heightMapMax, and
+     * the tile's lowest and highest points are passed in too. It isn't uploaded yet.
+     */
+    public Terrain(int gridX, int gridZ, ModelTexture texture, ShortBuffer samples, float heightMapMin,
+                   float heightMapMax, float minHeight, float maxHeight){
+        if (samples.remaining() != VERTEX_COUNT * VERTEX_COUNT) {
+            throw new IllegalArgumentException("A terrain needs " + VERTEX_COUNT * VERTEX_COUNT + " samples!");
+        }
+        this.texture = texture;
+        this.x = gridX * SIZE;
+        this.z = gridZ * SIZE;
+        this.heights = samples.slice();
+        this.heightMapMin = heightMapMin;
+        this.heightMapMax = heightMapMax;
+        this.minHeight = minHeight;
+        this.maxHeight = maxHeight;
+        this.quadtree = new TerrainQuadtree(x, z, SIZE, TerrainLod.LEVELS, VERTEX_COUNT, this::getSampleHeight);
+    }
 
+    /**
+     * This method loads the terrain's height map into OpenGL, and finds the grids it is drawn with.
+     * It must be called on the GL thread.
+     */
+    public void upload(Loader loader){
+        if (heightTextureID != 0) {
+            return;
+        }
+        this.model = TerrainGrid.getGrid(loader, VERTEX_COUNT);
+        this.patchModel = TerrainGrid.getGrid(loader, TerrainLod.PATCH_QUADS + 1);
+        this.halfPatchModel = TerrainGrid.getGrid(loader, TerrainLod.PATCH_QUADS / 2 + 1);
+        this.heightTextureID = loader.loadHeightTexture(heights, VERTEX_COUNT);
+    }
 
+    /**
+     * This method deletes the terrain's height map from OpenGL. The grids are shared, so they stay.
+     * The terrain can be uploaded again afterwards.
+     */
+    public void unload(Loader loader){
+        if (heightTextureID != 0) {
+            loader.deleteTexture(heightTextureID);
+            heightTextureID = 0;
+        }
+    }
+
+    /**
+     * This method stores the heights as 16 bit samples between the lowest and highest of them.
+     */
+    private short[] quantizeHeights(float[] heightValues){
+        minHeight = Float.POSITIVE_INFINITY;
+        maxHeight = Float.NEGATIVE_INFINITY;
+        for (float height : heightValues){
+            minHeight = Math.min(minHeight, height);
+            maxHeight = Math.max(maxHeight, height);
+        }
+        float range = maxHeight - minHeight;
+        short[] samples = new short[heightValues.length];
+        for (int i = 0; i < heightValues.length; i++){
+            int sample = range > 0 ? Math.round((heightValues[i] - minHeight) / range * MAX_SAMPLE) : 0;
+            samples[i] = (short) sample;
+        }
+        return samples;
+    }
+
+    /**
+     * This method returns the height of the ground at a world x and z, exactly as it is drawn at
+     * full detail, or NaN if the point isn't on this tile. Each square of the grid is drawn as two
+     * triangles, split from its top right to its bottom left corner (see TerrainGrid), so the
+     * height is blended from the corners of the triangle the point is in.
+     */
+    public float getHeightOfTerrain(float worldX, float worldZ) {
+        float gridX = (worldX - x) / SQUARE_SIZE;
+        float gridZ = (worldZ - z) / SQUARE_SIZE;
+        if (!isOnGrid(gridX, gridZ)) {
+            return Float.NaN;
+        }
+        int column = Math.min((int) gridX, VERTEX_COUNT - 2);
+        int row = Math.min((int) gridZ, VERTEX_COUNT - 2);
+        float xCoord = gridX - column;
+        float zCoord = gridZ - row;
+        int topLeft = row * VERTEX_COUNT + column;
+        float topRight = getSample(topLeft + 1);
+        float bottomLeft = getSample(topLeft + VERTEX_COUNT);
+        if (xCoord + zCoord <= 1) {
+            float corner = getSample(topLeft);
+            return corner + (topRight - corner) * xCoord + (bottomLeft - corner) * zCoord;
+        }
+        float corner = getSample(topLeft + VERTEX_COUNT + 1);
+        return corner + (bottomLeft - corner) * (1 - xCoord) + (topRight - corner) * (1 - zCoord);
+    }
 
     /**
-     * This method is temporary and will be changed.
-     * **************EDIT THIS COMMENT**************
+     * This method returns the height at a world x and z blended from the four samples around it,
+     * the way the height map is filtered on the GPU, or NaN if the point isn't on this tile. It is
+     * smoother than getHeightOfTerrain(), but can be a little above or below the drawn triangles.
      */
-    private RawModel generateTerrain(Loader loader){
-        int count = VERTEX_COUNT * VERTEX_COUNT;
-        float[] vertices = new float[count * 3];
-        float[] normals = new float[count * 3];
-        float[] textureCoords = new float[count*2];
-        int[] indices = new int[6*(VERTEX_COUNT-1)*(VERTEX_COUNT-1)];
-        int vertexPointer = 0;
-        for(int i=0;i<VERTEX_COUNT;i++){
-            for(int j=0;j<VERTEX_COUNT;j++){
-                vertices[vertexPointer*3] = (float)j/((float)VERTEX_COUNT - 1) * SIZE;
-                vertices[vertexPointer*3+1] = 0;
-                vertices[vertexPointer*3+2] = (float)i/((float)VERTEX_COUNT - 1) * SIZE;
-                normals[vertexPointer*3] = 0;
-                normals[vertexPointer*3+1] = 1;
-                normals[vertexPointer*3+2] = 0;
-                textureCoords[vertexPointer*2] = (float)j/((float)VERTEX_COUNT - 1);
-                textureCoords[vertexPointer*2+1] = (float)i/((float)VERTEX_COUNT - 1);
-                vertexPointer++;
-            }
+    public float getBilinearHeight(float worldX, float worldZ) {
+        float gridX = (worldX - x) / SQUARE_SIZE;
+        float gridZ = (worldZ - z) / SQUARE_SIZE;
+        if (!isOnGrid(gridX, gridZ)) {
+            return Float.NaN;
         }
-        int pointer = 0;
-        for(int gz=0;gz<VERTEX_COUNT-1;gz++){
-            for(int gx=0;gx<VERTEX_COUNT-1;gx++){
-                int topLeft = (gz*VERTEX_COUNT)+gx;
-                int topRight = topLeft + 1;
-                int bottomLeft = ((gz+1)*VERTEX_COUNT)+gx;
-                int bottomRight = bottomLeft + 1;
-                indices[pointer++] = topLeft;
-                indices[pointer++] = bottomLeft;
-                indices[pointer++] = topRight;
-                indices[pointer++] = topRight;
-                indices[pointer++] = bottomLeft;
-                indices[pointer++] = bottomRight;
-            }
+        int column = Math.min((int) gridX, VERTEX_COUNT - 2);
+        int row = Math.min((int) gridZ, VERTEX_COUNT - 2);
+        float xCoord = gridX - column;
+        float zCoord = gridZ - row;
+        int topLeft = row * VERTEX_COUNT + column;
+        float top = getSample(topLeft);
+        top += (getSample(topLeft + 1) - top) * xCoord;
+        float bottom = getSample(topLeft + VERTEX_COUNT);
+        bottom += (getSample(topLeft + VERTEX_COUNT + 1) - bottom) * xCoord;
+        return top + (bottom - top) * zCoord;
+    }
+
+    /**
+     * This method writes the unit normal of the ground at a world x and z into dest, starting at
+     * 'offset', and returns false, writing nothing, if the point isn't on this tile. The normals
+     * at the corners of the triangle the point is in are worked out like the vertex shader does,
+     * and blended like the rasterizer does, so it matches the lighting of the drawn ground.
+     */
+    public boolean getNormalOfTerrain(float worldX, float worldZ, float[] dest, int offset) {
+        float gridX = (worldX - x) / SQUARE_SIZE;
+        float gridZ = (worldZ - z) / SQUARE_SIZE;
+        if (!isOnGrid(gridX, gridZ)) {
+            return false;
+        }
+        int column = Math.min((int) gridX, VERTEX_COUNT - 2);
+        int row = Math.min((int) gridZ, VERTEX_COUNT - 2);
+        float xCoord = gridX - column;
+        float zCoord = gridZ - row;
+        dest[offset] = 0;
+        dest[offset + 1] = 0;
+        dest[offset + 2] = 0;
+        float topRightWeight = xCoord;
+        float bottomLeftWeight = zCoord;
+        if (xCoord + zCoord <= 1) {
+            addSampleNormal(column, row, 1 - xCoord - zCoord, dest, offset);
+        } else {
+            addSampleNormal(column + 1, row + 1, xCoord + zCoord - 1, dest, offset);
+            topRightWeight = 1 - zCoord;
+            bottomLeftWeight = 1 - xCoord;
+        }
+        addSampleNormal(column + 1, row, topRightWeight, dest, offset);
+        addSampleNormal(column, row + 1, bottomLeftWeight, dest, offset);
+        float length = (float) Math.sqrt(dest[offset] * dest[offset] + dest[offset + 1] * dest[offset + 1]
+                + dest[offset + 2] * dest[offset + 2]);
+        dest[offset] /= length;
+        dest[offset + 1] /= length;
+        dest[offset + 2] /= length;
+        return true;
+    }
+
+    /**
+     * This method adds the unit normal at a sample, times the weight, to dest. Like the shader it
+     * uses the samples on either side, and the edge samples stand in for the ones past the edge.
+     */
+    private void addSampleNormal(int column, int row, float weight, float[] dest, int offset) {
+        if (weight <= 0) {
+            return;
         }
-        return loader.loadToVAO(vertices, textureCoords, normals, indices);
+        float left = getSampleHeight(Math.max(column - 1, 0), row);
+        float right = getSampleHeight(Math.min(column + 1, VERTEX_COUNT - 1), row);
+        float back = getSampleHeight(column, Math.max(row - 1, 0));
+        float front = getSampleHeight(column, Math.min(row + 1, VERTEX_COUNT - 1));
+        float normalX = left - right;
+        float normalY = 2 * SQUARE_SIZE;
+        float normalZ = back - front;
+        float scale = weight / (float) Math.sqrt(normalX * normalX + normalY * normalY + normalZ * normalZ);
+        dest[offset] += normalX * scale;
+        dest[offset + 1] += normalY * scale;
+        dest[offset + 2] += normalZ * scale;
+    }
+
+    /**
+     * Returns whether a position, counted in samples from the tile's corner, is on the tile. NaN isn't.
+     */
+    private static boolean isOnGrid(float gridX, float gridZ) {
+        return gridX >= 0 && gridX <= VERTEX_COUNT - 1 && gridZ >= 0 && gridZ <= VERTEX_COUNT - 1;
     }
 
+    private float getSample(int index) {
+        return heightMapMin + (heights.get(index) & 0xFFFF) * (heightMapMax - heightMapMin) / MAX_SAMPLE;
+    }
 
     /**
      * GETTERS
      */
+    public static float getSize() {
+        return SIZE;
+    }
+
+    public static int getVertexCount() {
+        return VERTEX_COUNT;
+    }
+
+    /**
+     * Returns how many bytes of video memory a tile's height map takes.
+     */
+    public static int getHeightMapBytes() {
+        return VERTEX_COUNT * VERTEX_COUNT * 2;
+    }
+
+    public boolean isUploaded() {
+        return heightTextureID != 0;
+    }
+
+    /**
+     * Returns the squared distance from a point to the closest point of this terrain.
+     */
+    public float distanceSquared(float pointX, float pointY, float pointZ) {
+        float dx = Math.max(Math.max(x - pointX, 0), pointX - (x + SIZE));
+        float dz = Math.max(Math.max(z - pointZ, 0), pointZ - (z + SIZE));
+        float dy = Math.max(Math.max(minHeight - pointY, 0), pointY - maxHeight);
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Returns the height of the sample in column gridX and row gridZ of the tile.
+     */
+    public float getSampleHeight(int gridX, int gridZ) {
+        return getSample(gridZ * VERTEX_COUNT + gridX);
+    }
+
     public float getX() {
         return x;
     }
@@ -90,7 +321,45 @@ public class Terrain {
         return model;
     }
 
+    /**
+     * Returns the grid a patch with the given number of squares along its side is drawn with.
+     */
+    public RawModel getPatchModel(int quads) {
+        return quads == TerrainLod.PATCH_QUADS ? patchModel : halfPatchModel;
+    }
+
+    public TerrainQuadtree getQuadtree() {
+        return quadtree;
+    }
+
     public ModelTexture getTexture() {
         return texture;
     }
+
+    public int getHeightTextureID() {
+        return heightTextureID;
+    }
+
+    public float getMinHeight() {
+        return minHeight;
+    }
+
+    public float getMaxHeight() {
+        return maxHeight;
+    }
+
+    /**
+     * Returns the height a height map value of 0 stands for. It is the lowest point of the tile,
+     * unless the samples come from a bigger map.
+     */
+    public float getHeightMapMin() {
+        return heightMapMin;
+    }
+
+    /**
+     * Returns the height a height map value of 1 stands for.
+     */
+    public float getHeightMapMax() {
+        return heightMapMax;
+    }
 }
@@ -0,0 +1,72 @@
+package terrains;
+
+import models.RawModel;
+import renderEngine.Loader;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class makes the flat grid mesh every terrain tile is drawn with.
+ *
+ * The grid only holds 2D positions from 0 to 1 across the tile. The vertex shader places it at
+ * the tile's offset, scales it to the tile's size and reads each vertex's height and normal from
+ * the tile's height texture. So the grid is the same for every tile, and only one is made for
+ * each resolution, no matter how many tiles there are.
+ */
+public class TerrainGrid {
+
+    // The grids made so far, by the number of vertices along a side.
+    private static final Map<Integer, RawModel> grids = new HashMap<Integer, RawModel>();
+
+    /**
+     * This method returns the grid with the given number of vertices along each side,
+     * making and loading it the first time it is asked for.
+     */
+    public static RawModel getGrid(Loader loader, int vertexCount) {
+        RawModel grid = grids.get(vertexCount);
+        if (grid == null) {
+            grid = loader.loadToVAO(createPositions(vertexCount), 2, createIndices(vertexCount));
+            grids.put(vertexCount, grid);
+        }
+        return grid;
+    }
+
+    /**
+     * This method returns the positions of a grid, as x and z from 0 to 1, row by row.
+     */
+    public static float[] createPositions(int vertexCount) {
+        float[] positions = new float[vertexCount * vertexCount * 2];
+        int pointer = 0;
+        for (int i = 0; i < vertexCount; i++) {
+            for (int j = 0; j < vertexCount; j++) {
+                positions[pointer++] = (float) j / (vertexCount - 1);
+                positions[pointer++] = (float) i / (vertexCount - 1);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * This method returns the indices of a grid, two triangles for every square.
+     */
+    public static int[] createIndices(int vertexCount) {
+        int[] indices = new int[6 * (vertexCount - 1) * (vertexCount - 1)];
+        int pointer = 0;
+        for (int gz = 0; gz < vertexCount - 1; gz++) {
+            for (int gx = 0; gx < vertexCount - 1; gx++) {
+                int topLeft = (gz * vertexCount) + gx;
+                int topRight = topLeft + 1;
+                int bottomLeft = ((gz + 1) * vertexCount) + gx;
+                int bottomRight = bottomLeft + 1;
+                indices[pointer++] = topLeft;
+                indices[pointer++] = bottomLeft;
+                indices[pointer++] = topRight;
+                indices[pointer++] = topRight;
+                indices[pointer++] = bottomLeft;
+                indices[pointer++] = bottomRight;
+            }
+        }
+        return indices;
+    }
+}
@@ -0,0 +1,157 @@
+package terrains;
+
+import org.lwjgl.util.vector.Vector3f;
+import toolbox.BoundingBox;
+import toolbox.Frustum;
+
+import java.util.List;
+
+/**
+ * This class picks the patches the terrain is drawn with each frame (continuous level of detail,
+ * or CDLOD). Every tile is a TerrainQuadtree, and every patch is a PATCH_QUADS x PATCH_QUADS grid
+ * stretched over one of its nodes.
+ *
+ * Level 0 is the leaves, the finest level, and every level up is half as detailed. Each level has
+ * a range: a node is only split into finer ones while part of it is within the range of the finer
+ * level. The ranges double from level to level, just like the node sizes, so however far the view
+ * reaches the camera is surrounded by about the same number of patches of each level, and the
+ * number of triangles hardly grows with the view distance.
+ *
+ * To keep the seams between levels closed the vertex shader morphs each patch's grid into the
+ * grid of the next coarser level: from the level's morph start to the end of its range, every
+ * other vertex slides onto the line between its neighbours. Where a patch meets a coarser one,
+ * its edge is at the end of its range, so it has already turned into the coarser grid, and both
+ * sides put their vertices in the same places. The morph is worked out from each vertex's own
+ * distance to the camera, so the levels blend smoothly instead of popping.
+ * This class does not use OpenGL.
+ */
+public class TerrainLod {
+
+    // The number of levels in every tile's quadtree. With 800 unit tiles the leaves are 100 units.
+    public static final int LEVELS = 4;
+    // The number of squares along a patch's side. It must be even, for the morph and half patches.
+    public static final int PATCH_QUADS = 16;
+    // How far through its range a level starts morphing into the next one.
+    private static final float MORPH_START = 0.7f;
+    // The range of the finest level, in leaf sizes. Below about 2, levels more than one apart could meet.
+    private static final float FIRST_RANGE = 2.5f;
+    // Passed as the morph range for a grid that shouldn't morph.
+    public static final float NO_MORPH = Float.MAX_VALUE;
+
+    private final float[] ranges = new float[LEVELS];
+    private final float[] morphStarts = new float[LEVELS];
+    private final BoundingBox box = new BoundingBox();
+
+    // Statistics for the last selection.
+    private int patchCount = 0;
+    private int triangleCount = 0;
+    private int culledNodes = 0;
+
+    /**
+     * Constructor. Sets up the ranges for tiles of the given size.
+     */
+    public TerrainLod(float tileSize) {
+        this(tileSize, FIRST_RANGE);
+    }
+
+    /**
+     * Constructor. Takes in the size of a tile and the range of the finest level, in leaf sizes.
+     */
+    public TerrainLod(float tileSize, float firstRange) {
+        float leafSize = tileSize / (1 << (LEVELS - 1));
+        float previous = 0;
+        for (int level = 0; level < LEVELS; level++) {
+            ranges[level] = leafSize * firstRange * (1 << level);
+            morphStarts[level] = previous + (ranges[level] - previous) * MORPH_START;
+            previous = ranges[level];
+        }
+    }
+
+    /**
+     * This method empties the list and adds the patches every terrain should be drawn with.
+     * The frustum may be null to skip culling.
+     */
+    public void select(List<Terrain> terrains, Frustum frustum, Vector3f cameraPosition, TerrainPatchList patches) {
+        patches.clear();
+        culledNodes = 0;
+        for (int i = 0; i < terrains.size(); i++) {
+            terrains.get(i).getQuadtree().select(this, frustum, cameraPosition.x, cameraPosition.y, cameraPosition.z,
+                    i, box, patches);
+        }
+        finishSelection(patches);
+    }
+
+    /**
+     * This method is the same as the one above for bare quadtrees, such as in a simulation.
+     */
+    public void selectQuadtrees(List<TerrainQuadtree> quadtrees, Frustum frustum, Vector3f cameraPosition,
+                                TerrainPatchList patches) {
+        patches.clear();
+        culledNodes = 0;
+        for (int i = 0; i < quadtrees.size(); i++) {
+            quadtrees.get(i).select(this, frustum, cameraPosition.x, cameraPosition.y, cameraPosition.z, i, box,
+                    patches);
+        }
+        finishSelection(patches);
+    }
+
+    private void finishSelection(TerrainPatchList patches) {
+        patchCount = patches.getCount();
+        triangleCount = 0;
+        for (int i = 0; i < patchCount; i++) {
+            triangleCount += 2 * patches.getQuads(i) * patches.getQuads(i);
+        }
+    }
+
+    /**
+     * This method counts a node skipped by the frustum. It is called by the quadtrees.
+     */
+    void nodeCulled() {
+        culledNodes++;
+    }
+
+    /**
+     * GETTERS
+     */
+    public int getLevels() {
+        return LEVELS;
+    }
+
+    /**
+     * Returns how far from the camera the given level is used.
+     */
+    public float getRange(int level) {
+        return ranges[level];
+    }
+
+    /**
+     * Returns the distance at which the given level starts turning into the next coarser one.
+     */
+    public float getMorphStart(int level) {
+        return morphStarts[level];
+    }
+
+    /**
+     * Returns the distance at which the given level has fully turned into the next coarser one.
+     */
+    public float getMorphEnd(int level) {
+        return ranges[level];
+    }
+
+    public int getPatchCount() {
+        return patchCount;
+    }
+
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    public int getCulledNodes() {
+        return culledNodes;
+    }
+
+    public String getReport() {
+        return String.format("Terrain LOD: %d patches, %d triangles, %d nodes culled.", patchCount, triangleCount,
+                culledNodes);
+    }
+}
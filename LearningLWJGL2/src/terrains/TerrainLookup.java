@@ -0,0 +1,208 @@
+package terrains;
+
+import jobs.JobSystem;
+import org.lwjgl.util.vector.Vector3f;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class finds the terrain tile under a world position in constant time, and asks it for the
+ * height or normal of the ground there, one point at a time or for whole arrays of points.
+ *
+ * The tiles are kept in a square array covering a window of the tile grid, so finding a point's
+ * tile is a division and an array index, with no hashing and no search. The TerrainTileManager
+ * moves the window with the camera and fills it with its resident tiles; a fixed set of tiles can
+ * be put in with setTerrains(). Points with no tile under them get NaN heights.
+ *
+ * The queries only read the tiles, so any number of threads can make them at once, and the batch
+ * methods split their points over a JobSystem. They write into arrays passed in, and allocate
+ * nothing for each point. The tiles must not be changed while queries are running.
+ */
+public class TerrainLookup {
+
+    // How many points each piece of a batch query gets.
+    private static final int GRAIN_SIZE = 1024;
+
+    private Terrain[] tiles = new Terrain[0];
+    // The grid position of the window's corner tile, and the window's width and depth in tiles.
+    private int originX = 0;
+    private int originZ = 0;
+    private int width = 0;
+    private int depth = 0;
+    private int tileCount = 0;
+    private final float[] normal = new float[3];
+
+    /**
+     * This method empties the lookup and moves its window to cover 'width' x 'depth' tiles from
+     * the given grid position. The array is only reallocated when it has to grow.
+     */
+    public void reset(int originX, int originZ, int width, int depth) {
+        if (width < 0 || depth < 0) {
+            throw new IllegalArgumentException("The lookup can't be " + width + " x " + depth + " tiles!");
+        }
+        if (tiles.length < width * depth) {
+            tiles = new Terrain[width * depth];
+        } else {
+            Arrays.fill(tiles, null);
+        }
+        this.originX = originX;
+        this.originZ = originZ;
+        this.width = width;
+        this.depth = depth;
+        this.tileCount = 0;
+    }
+
+    /**
+     * This method puts a tile in the lookup. Tiles outside the window are left out, and it returns
+     * whether the tile was put in.
+     */
+    public boolean setTerrain(Terrain terrain) {
+        int column = getGridX(terrain) - originX;
+        int row = getGridZ(terrain) - originZ;
+        if (column < 0 || column >= width || row < 0 || row >= depth) {
+            return false;
+        }
+        if (tiles[row * width + column] == null) {
+            tileCount++;
+        }
+        tiles[row * width + column] = terrain;
+        return true;
+    }
+
+    /**
+     * This method fills the lookup with the given tiles, moving the window to just cover them.
+     */
+    public void setTerrains(List<Terrain> terrains) {
+        if (terrains.isEmpty()) {
+            reset(0, 0, 0, 0);
+            return;
+        }
+        int minX = Integer.MAX_VALUE;
+        int minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxZ = Integer.MIN_VALUE;
+        for (Terrain terrain : terrains) {
+            minX = Math.min(minX, getGridX(terrain));
+            minZ = Math.min(minZ, getGridZ(terrain));
+            maxX = Math.max(maxX, getGridX(terrain));
+            maxZ = Math.max(maxZ, getGridZ(terrain));
+        }
+        reset(minX, minZ, maxX - minX + 1, maxZ - minZ + 1);
+        for (Terrain terrain : terrains) {
+            setTerrain(terrain);
+        }
+    }
+
+    /**
+     * This method returns the tile under a world x and z, or null if there isn't one.
+     */
+    public Terrain getTerrain(float worldX, float worldZ) {
+        int column = (int) Math.floor(worldX / Terrain.getSize()) - originX;
+        int row = (int) Math.floor(worldZ / Terrain.getSize()) - originZ;
+        if (column < 0 || column >= width || row < 0 || row >= depth) {
+            return null;
+        }
+        return tiles[row * width + column];
+    }
+
+    /**
+     * This method returns the height of the drawn ground at a world x and z (see
+     * Terrain.getHeightOfTerrain()), or NaN if there is no tile there.
+     */
+    public float getHeight(float worldX, float worldZ) {
+        Terrain terrain = getTerrain(worldX, worldZ);
+        return terrain == null ? Float.NaN : terrain.getHeightOfTerrain(worldX, worldZ);
+    }
+
+    /**
+     * This method writes the normal of the ground at a world x and z into dest, and returns false,
+     * leaving dest alone, if there is no tile there. It uses a scratch array of the lookup's, so
+     * unlike the other queries it must only be called from one thread.
+     */
+    public boolean getNormal(float worldX, float worldZ, Vector3f dest) {
+        Terrain terrain = getTerrain(worldX, worldZ);
+        if (terrain == null || !terrain.getNormalOfTerrain(worldX, worldZ, normal, 0)) {
+            return false;
+        }
+        dest.set(normal[0], normal[1], normal[2]);
+        return true;
+    }
+
+    /**
+     * This method writes the heights of the ground at the first 'count' points of xs and zs into
+     * heights, with NaN where there is no tile. The points are split over the job system, or done
+     * on this thread if it is null.
+     */
+    public void getHeights(float[] xs, float[] zs, float[] heights, int count, JobSystem jobSystem) {
+        if (jobSystem == null) {
+            getHeights(xs, zs, heights, 0, count);
+        } else {
+            jobSystem.parallelFor(0, count, GRAIN_SIZE, (from, to) -> getHeights(xs, zs, heights, from, to));
+        }
+    }
+
+    private void getHeights(float[] xs, float[] zs, float[] heights, int from, int to) {
+        for (int i = from; i < to; i++) {
+            heights[i] = getHeight(xs[i], zs[i]);
+        }
+    }
+
+    /**
+     * This method writes the normals of the ground at the first 'count' points of xs and zs into
+     * normals, three floats for each, with NaN where there is no tile. The points are split over
+     * the job system, or done on this thread if it is null.
+     */
+    public void getNormals(float[] xs, float[] zs, float[] normals, int count, JobSystem jobSystem) {
+        if (jobSystem == null) {
+            getNormals(xs, zs, normals, 0, count);
+        } else {
+            jobSystem.parallelFor(0, count, GRAIN_SIZE, (from, to) -> getNormals(xs, zs, normals, from, to));
+        }
+    }
+
+    private void getNormals(float[] xs, float[] zs, float[] normals, int from, int to) {
+        for (int i = from; i < to; i++) {
+            Terrain terrain = getTerrain(xs[i], zs[i]);
+            if (terrain == null || !terrain.getNormalOfTerrain(xs[i], zs[i], normals, i * 3)) {
+                normals[i * 3] = Float.NaN;
+                normals[i * 3 + 1] = Float.NaN;
+                normals[i * 3 + 2] = Float.NaN;
+            }
+        }
+    }
+
+    private static int getGridX(Terrain terrain) {
+        return Math.round(terrain.getX() / Terrain.getSize());
+    }
+
+    private static int getGridZ(Terrain terrain) {
+        return Math.round(terrain.getZ() / Terrain.getSize());
+    }
+
+    /**
+     * GETTERS
+     */
+    public int getOriginX() {
+        return originX;
+    }
+
+    public int getOriginZ() {
+        return originZ;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Returns how many tiles are in the lookup.
+     */
+    public int getTileCount() {
+        return tileCount;
+    }
+}
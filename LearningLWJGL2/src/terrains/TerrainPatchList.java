@@ -0,0 +1,115 @@
+package terrains;
+
+import java.util.Arrays;
+
+/**
+ * This class is the list of terrain patches picked for a frame (see TerrainLod), stored in
+ * primitive arrays so a frame's selection allocates nothing once the arrays have grown.
+ * Every patch has the index of its tile, the world x and z of its corner, its size, the height
+ * range under it, its level, the number of squares along its side and its morph range.
+ * This class does not use OpenGL.
+ */
+public class TerrainPatchList {
+
+    // x, z, size, lowest height, highest height, morph start and morph end of each patch.
+    private static final int FLOATS = 7;
+
+    private int count = 0;
+    private int[] tiles = new int[64];
+    private int[] levels = new int[64];
+    private int[] quads = new int[64];
+    private float[] values = new float[64 * FLOATS];
+
+    /**
+     * This method empties the list.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * This method adds a patch to the end of the list.
+     */
+    public void add(int tile, float x, float z, float size, float minHeight, float maxHeight, int level,
+                    int patchQuads, float morphStart, float morphEnd) {
+        if (count == tiles.length) {
+            tiles = Arrays.copyOf(tiles, count * 2);
+            levels = Arrays.copyOf(levels, count * 2);
+            quads = Arrays.copyOf(quads, count * 2);
+            values = Arrays.copyOf(values, count * 2 * FLOATS);
+        }
+        tiles[count] = tile;
+        levels[count] = level;
+        quads[count] = patchQuads;
+        int base = count * FLOATS;
+        values[base] = x;
+        values[base + 1] = z;
+        values[base + 2] = size;
+        values[base + 3] = minHeight;
+        values[base + 4] = maxHeight;
+        values[base + 5] = morphStart;
+        values[base + 6] = morphEnd;
+        count++;
+    }
+
+    /**
+     * Returns the squared distance from a point to the closest point of the patch.
+     */
+    public float distanceSquared(int patch, float pointX, float pointY, float pointZ) {
+        int base = patch * FLOATS;
+        float x = values[base];
+        float z = values[base + 1];
+        float size = values[base + 2];
+        float dx = Math.max(Math.max(x - pointX, 0), pointX - (x + size));
+        float dy = Math.max(Math.max(values[base + 3] - pointY, 0), pointY - values[base + 4]);
+        float dz = Math.max(Math.max(z - pointZ, 0), pointZ - (z + size));
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * GETTERS
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public int getTile(int patch) {
+        return tiles[patch];
+    }
+
+    public int getLevel(int patch) {
+        return levels[patch];
+    }
+
+    public int getQuads(int patch) {
+        return quads[patch];
+    }
+
+    public float getX(int patch) {
+        return values[patch * FLOATS];
+    }
+
+    public float getZ(int patch) {
+        return values[patch * FLOATS + 1];
+    }
+
+    public float getSize(int patch) {
+        return values[patch * FLOATS + 2];
+    }
+
+    public float getMinHeight(int patch) {
+        return values[patch * FLOATS + 3];
+    }
+
+    public float getMaxHeight(int patch) {
+        return values[patch * FLOATS + 4];
+    }
+
+    public float getMorphStart(int patch) {
+        return values[patch * FLOATS + 5];
+    }
+
+    public float getMorphEnd(int patch) {
+        return values[patch * FLOATS + 6];
+    }
+}
@@ -0,0 +1,233 @@
+package terrains;
+
+import toolbox.BoundingBox;
+import toolbox.Frustum;
+
+/**
+ * This class is a quadtree over one terrain tile, for drawing it with continuous level of detail.
+ *
+ * The root covers the whole tile, and each level below splits every node into four, down to the
+ * leaves. Any node can be drawn as a patch: the same small grid (see TerrainLod) stretched over
+ * the node, so a leaf is drawn with the most detail and the root with the least. Every node keeps
+ * the lowest and highest height under it, which gives it a bounding box for frustum culling and
+ * for measuring how far it is from the camera.
+ *
+ * The patches for a frame are picked by walking down from the root. A node is split while part
+ * of it is within the range of the next finer level, and drawn whole otherwise. Nodes outside the
+ * frustum are skipped with everything under them. See TerrainLod for how the ranges keep the
+ * seams between levels closed.
+ * This class does not use OpenGL.
+ */
+public class TerrainQuadtree {
+
+    /**
+     * This interface gives the height of one sample of a tile's height grid.
+     */
+    public interface SampleHeights {
+        float getHeight(int gridX, int gridZ);
+    }
+
+    private final float x;
+    private final float z;
+    private final float size;
+    private final int levels;
+    // The lowest and highest height under every node. The levels are stored one after the other
+    // from the root down, and the nodes of each level row by row.
+    private final float[] minHeights;
+    private final float[] maxHeights;
+    private final int[] levelStarts;
+
+    /**
+     * Constructor. Takes in the world x and z of the tile's corner, its size, the number of levels
+     * (1 is just the root) and the tile's sampleCount x sampleCount height grid.
+     */
+    public TerrainQuadtree(float x, float z, float size, int levels, int sampleCount, SampleHeights heights) {
+        if (levels < 1 || (sampleCount - 1) < (1 << (levels - 1))) {
+            throw new IllegalArgumentException("The height grid is too small for " + levels + " levels!");
+        }
+        this.x = x;
+        this.z = z;
+        this.size = size;
+        this.levels = levels;
+        this.levelStarts = new int[levels + 1];
+        for (int level = 0; level < levels; level++) {
+            levelStarts[level + 1] = levelStarts[level] + (1 << level) * (1 << level);
+        }
+        this.minHeights = new float[levelStarts[levels]];
+        this.maxHeights = new float[levelStarts[levels]];
+        findLeafHeights(sampleCount, heights);
+        for (int level = levels - 2; level >= 0; level--) {
+            findParentHeights(level);
+        }
+    }
+
+    /**
+     * This method finds the height range under every leaf from the samples it covers. The samples
+     * on a leaf's edges are counted in both leaves, since both are drawn through them.
+     */
+    private void findLeafHeights(int sampleCount, SampleHeights heights) {
+        int leaves = 1 << (levels - 1);
+        int quads = sampleCount - 1;
+        for (int row = 0; row < leaves; row++) {
+            int fromZ = row * quads / leaves;
+            int toZ = ((row + 1) * quads + leaves - 1) / leaves;
+            for (int column = 0; column < leaves; column++) {
+                int fromX = column * quads / leaves;
+                int toX = ((column + 1) * quads + leaves - 1) / leaves;
+                float min = Float.POSITIVE_INFINITY;
+                float max = Float.NEGATIVE_INFINITY;
+                for (int gz = fromZ; gz <= toZ; gz++) {
+                    for (int gx = fromX; gx <= toX; gx++) {
+                        float height = heights.getHeight(gx, gz);
+                        min = Math.min(min, height);
+                        max = Math.max(max, height);
+                    }
+                }
+                int node = getNode(levels - 1, column, row);
+                minHeights[node] = min;
+                maxHeights[node] = max;
+            }
+        }
+    }
+
+    /**
+     * This method finds the height range under every node of a level from its four children.
+     */
+    private void findParentHeights(int level) {
+        int nodes = 1 << level;
+        for (int row = 0; row < nodes; row++) {
+            for (int column = 0; column < nodes; column++) {
+                float min = Float.POSITIVE_INFINITY;
+                float max = Float.NEGATIVE_INFINITY;
+                for (int child = 0; child < 4; child++) {
+                    int childNode = getNode(level + 1, column * 2 + (child & 1), row * 2 + (child >> 1));
+                    min = Math.min(min, minHeights[childNode]);
+                    max = Math.max(max, maxHeights[childNode]);
+                }
+                int node = getNode(level, column, row);
+                minHeights[node] = min;
+                maxHeights[node] = max;
+            }
+        }
+    }
+
+    /**
+     * This method adds the patches this tile should be drawn with to the list. The frustum may be
+     * null to skip culling. The box is only used as scratch space, so every thread needs its own.
+     */
+    public void select(TerrainLod lod, Frustum frustum, float cameraX, float cameraY, float cameraZ,
+                       int tile, BoundingBox box, TerrainPatchList patches) {
+        if (lod.getLevels() != levels) {
+            throw new IllegalArgumentException("The quadtree has " + levels + " levels, not " + lod.getLevels() + "!");
+        }
+        if (!selectNode(lod, frustum, cameraX, cameraY, cameraZ, tile, box, patches, 0, 0, 0)) {
+            // The whole tile is further away than the coarsest range, so it is drawn at that level.
+            setBox(box, 0, 0, 0);
+            if (frustum == null || frustum.isVisible(box)) {
+                addPatch(lod, patches, tile, 0, 0, 0, levels - 1, false);
+            } else {
+                lod.nodeCulled();
+            }
+        }
+    }
+
+    /**
+     * This method picks the patches for one node and everything under it. It returns false if the
+     * node is entirely outside its level's range, in which case the parent draws that part.
+     */
+    private boolean selectNode(TerrainLod lod, Frustum frustum, float cameraX, float cameraY, float cameraZ,
+                               int tile, BoundingBox box, TerrainPatchList patches, int level, int column, int row) {
+        int lodLevel = levels - 1 - level;
+        setBox(box, level, column, row);
+        if (!isWithin(box, cameraX, cameraY, cameraZ, lod.getRange(lodLevel))) {
+            return false;
+        }
+        if (frustum != null && !frustum.isVisible(box)) {
+            // Nothing under it can be seen either.
+            lod.nodeCulled();
+            return true;
+        }
+        if (lodLevel == 0 || !isWithin(box, cameraX, cameraY, cameraZ, lod.getRange(lodLevel - 1))) {
+            addPatch(lod, patches, tile, level, column, row, lodLevel, false);
+            return true;
+        }
+        for (int child = 0; child < 4; child++) {
+            int childColumn = column * 2 + (child & 1);
+            int childRow = row * 2 + (child >> 1);
+            if (!selectNode(lod, frustum, cameraX, cameraY, cameraZ, tile, box, patches, level + 1, childColumn,
+                    childRow)) {
+                // The child is out of its own range, so its quarter is drawn at this node's level,
+                // with a grid half as fine. Its box is still in the scratch box from the call above.
+                if (frustum == null || frustum.isVisible(box)) {
+                    addPatch(lod, patches, tile, level + 1, childColumn, childRow, lodLevel, true);
+                } else {
+                    lod.nodeCulled();
+                }
+            }
+        }
+        return true;
+    }
+
+    private void addPatch(TerrainLod lod, TerrainPatchList patches, int tile, int level, int column, int row,
+                          int lodLevel, boolean half) {
+        float nodeSize = getNodeSize(level);
+        int node = getNode(level, column, row);
+        int quads = half ? TerrainLod.PATCH_QUADS / 2 : TerrainLod.PATCH_QUADS;
+        patches.add(tile, x + column * nodeSize, z + row * nodeSize, nodeSize, minHeights[node], maxHeights[node],
+                lodLevel, quads, lod.getMorphStart(lodLevel), lod.getMorphEnd(lodLevel));
+    }
+
+    private void setBox(BoundingBox box, int level, int column, int row) {
+        float nodeSize = getNodeSize(level);
+        int node = getNode(level, column, row);
+        box.reset();
+        box.include(x + column * nodeSize, minHeights[node], z + row * nodeSize);
+        box.include(x + (column + 1) * nodeSize, maxHeights[node], z + (row + 1) * nodeSize);
+    }
+
+    private static boolean isWithin(BoundingBox box, float pointX, float pointY, float pointZ, float range) {
+        return box.distanceSquared(pointX, pointY, pointZ) <= range * range;
+    }
+
+    private int getNode(int level, int column, int row) {
+        return levelStarts[level] + row * (1 << level) + column;
+    }
+
+    /**
+     * GETTERS
+     */
+    public float getNodeSize(int level) {
+        return size / (1 << level);
+    }
+
+    public int getLevels() {
+        return levels;
+    }
+
+    public int getNodeCount() {
+        return levelStarts[levels];
+    }
+
+    /**
+     * Returns the lowest height under a node, given its level (0 is the root) and its column and row in that level.
+     */
+    public float getMinHeight(int level, int column, int row) {
+        return minHeights[getNode(level, column, row)];
+    }
+
+    public float getMaxHeight(int level, int column, int row) {
+        return maxHeights[getNode(level, column, row)];
+    }
+
+    public float getX() {
+        return x;
+    }
+
+    public float getZ() {
+        return z;
+    }
+
+    public float getSize() {
+        return size;
+    }
+}
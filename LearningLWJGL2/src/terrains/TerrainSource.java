@@ -0,0 +1,26 @@
+package terrains;
+
+import textures.ModelTexture;
+
+/**
+ * This interface gives the heights of terrain tiles to the TerrainTileManager. It is called on
+ * the manager's worker threads, with several tiles at once, so it must be safe to call from
+ * any thread and shouldn't use OpenGL.
+ */
+public interface TerrainSource {
+
+    /**
+     * This method returns the heights of the tile at the given grid position, Terrain.getVertexCount()
+     * squared of them, row by row along z. The samples on a tile's edges are the same as the
+     * ones on the neighbouring tile's edges, so the tiles join up.
+     */
+    float[] getHeights(int gridX, int gridZ);
+
+    /**
+     * This method builds the tile at the given grid position, without uploading it. Sources that
+     * already hold their heights as samples can make the tile straight from them instead.
+     */
+    default Terrain createTerrain(int gridX, int gridZ, ModelTexture texture) {
+        return new Terrain(gridX, gridZ, texture, getHeights(gridX, gridZ));
+    }
+}
@@ -0,0 +1,354 @@
+package terrains;
+
+import textures.ModelTexture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class streams terrain tiles in and out around the camera, so the world doesn't end where
+ * the tiles stop, and video memory doesn't grow with the size of the world.
+ *
+ * Every frame it works out the ring of tiles around the camera's tile that should be drawn, and:
+ *  - asks for the ones it doesn't have yet, nearest first. Their heights come from a TerrainSource,
+ *    and the tiles are built on background worker threads, which take no part in the frame.
+ *  - uploads the tiles that have been built, but at most a few per frame, so a burst of new tiles
+ *    doesn't cause a stutter. Tiles that left the ring while being built are thrown away.
+ *  - evicts tiles when the next upload wouldn't fit in the video memory budget. Tiles that leave
+ *    the ring are kept for as long as the budget allows, in case the camera turns back, and the
+ *    least recently wanted are evicted first. Tiles in the ring are never evicted.
+ *
+ * The tiles are kept in a LinkedHashMap in access order, which keeps them in least recently used
+ * order for free: asking for a ring tile moves it to the back. Everything except building the
+ * tiles happens on the thread that calls update(), which must be the GL thread when the tiles are
+ * uploaded with a GLTerrainTileUploader.
+ *
+ * The drawn tiles are also kept in a TerrainLookup covering the ring, for height queries.
+ */
+public class TerrainTileManager {
+
+    // The states a tile goes through.
+    private static final int GENERATING = 0;
+    private static final int RESIDENT = 1;
+
+    private final TerrainSource source;
+    private final ModelTexture texture;
+    private final TerrainTileUploader uploader;
+    private final int ringRadius;
+    private final long memoryBudget;
+    private final int maxUploadsPerFrame;
+    private final ExecutorService workers;
+
+    // Every tile being built or kept, by grid position, least recently wanted first.
+    private final LinkedHashMap<Long, Tile> tiles = new LinkedHashMap<Long, Tile>(64, 0.75f, true);
+    // The tiles the workers have finished, waiting to be uploaded.
+    private final ConcurrentLinkedQueue<Tile> generated = new ConcurrentLinkedQueue<Tile>();
+    // The x and z grid offsets of the ring's tiles from the camera's tile, nearest first.
+    private final int[][] ringOffsets;
+    // The resident tiles in the ring, which are the ones drawn.
+    private final List<Terrain> terrains = new ArrayList<Terrain>();
+    private final List<Terrain> previousTerrains = new ArrayList<Terrain>();
+    private final TerrainLookup lookup = new TerrainLookup();
+    private int centreX = 0;
+    private int centreZ = 0;
+
+    // Statistics.
+    private long residentBytes = 0;
+    private int residentCount = 0;
+    private int pendingCount = 0;
+    private int uploadCount = 0;
+    private int lastFrameUploads = 0;
+    private int evictionCount = 0;
+    private int discardedCount = 0;
+    private long totalGenerationTime = 0;
+    private long longestGenerationTime = 0;
+    private long totalTimeUntilResident = 0;
+
+    /**
+     * Constructor. Takes in where the heights come from, the texture of every tile, the uploader,
+     * how many tiles the ring reaches out from the camera's tile, the video memory budget for the
+     * height maps in bytes, how many tiles may be uploaded each frame and how many worker threads
+     * build them.
+     */
+    public TerrainTileManager(TerrainSource source, ModelTexture texture, TerrainTileUploader uploader,
+                              int ringRadius, long memoryBudget, int maxUploadsPerFrame, int threadCount) {
+        if (memoryBudget < (long) (2 * ringRadius + 1) * (2 * ringRadius + 1) * Terrain.getHeightMapBytes()) {
+            throw new IllegalArgumentException("The memory budget doesn't fit the ring of tiles!");
+        }
+        this.source = source;
+        this.texture = texture;
+        this.uploader = uploader;
+        this.ringRadius = ringRadius;
+        this.memoryBudget = memoryBudget;
+        this.maxUploadsPerFrame = maxUploadsPerFrame;
+        this.ringOffsets = createRingOffsets(ringRadius);
+        this.workers = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Terrain Generator " + (count++));
+                thread.setDaemon(true);
+                // Building tiles can wait; the frame can't.
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * This method returns the grid offsets of every tile in the ring, nearest to the centre first.
+     */
+    private static int[][] createRingOffsets(int radius) {
+        int side = 2 * radius + 1;
+        int[][] offsets = new int[side * side][];
+        int pointer = 0;
+        for (int dz = -radius; dz <= radius; dz++) {
+            for (int dx = -radius; dx <= radius; dx++) {
+                offsets[pointer++] = new int[]{dx, dz};
+            }
+        }
+        Arrays.sort(offsets, (a, b) -> Integer.compare(a[0] * a[0] + a[1] * a[1], b[0] * b[0] + b[1] * b[1]));
+        return offsets;
+    }
+
+    /**
+     * This method is called once per frame with the camera's position. It asks for new tiles,
+     * uploads finished ones and evicts old ones. It returns true if the tiles to draw changed.
+     */
+    public boolean update(float cameraX, float cameraZ) {
+        centreX = (int) Math.floor(cameraX / Terrain.getSize());
+        centreZ = (int) Math.floor(cameraZ / Terrain.getSize());
+        requestRing();
+        uploadGenerated();
+
+        previousTerrains.clear();
+        previousTerrains.addAll(terrains);
+        terrains.clear();
+        for (int[] offset : ringOffsets) {
+            Tile tile = tiles.get(getKey(centreX + offset[0], centreZ + offset[1]));
+            if (tile.state == RESIDENT) {
+                terrains.add(tile.terrain);
+            }
+        }
+        if (terrains.equals(previousTerrains)) {
+            return false;
+        }
+        lookup.reset(centreX - ringRadius, centreZ - ringRadius, 2 * ringRadius + 1, 2 * ringRadius + 1);
+        for (Terrain terrain : terrains) {
+            lookup.setTerrain(terrain);
+        }
+        return true;
+    }
+
+    /**
+     * This method starts building every ring tile that isn't there yet, nearest first. Getting a
+     * tile from the map also moves it to the back of the least recently used order.
+     */
+    private void requestRing() {
+        for (int[] offset : ringOffsets) {
+            int gridX = centreX + offset[0];
+            int gridZ = centreZ + offset[1];
+            long key = getKey(gridX, gridZ);
+            if (tiles.get(key) == null) {
+                Tile tile = new Tile(gridX, gridZ);
+                tiles.put(key, tile);
+                pendingCount++;
+                workers.execute(() -> generate(tile));
+            }
+        }
+    }
+
+    /**
+     * This method builds a tile on a worker thread and hands it to the queue of finished tiles.
+     */
+    private void generate(Tile tile) {
+        try {
+            tile.terrain = source.createTerrain(tile.gridX, tile.gridZ, texture);
+        } catch (RuntimeException e) {
+            tile.failure = e;
+        }
+        tile.generatedTime = System.nanoTime();
+        generated.add(tile);
+    }
+
+    /**
+     * This method uploads up to maxUploadsPerFrame of the finished tiles.
+     */
+    private void uploadGenerated() {
+        lastFrameUploads = 0;
+        Tile tile;
+        while (lastFrameUploads < maxUploadsPerFrame && (tile = generated.poll()) != null) {
+            pendingCount--;
+            if (tile.failure != null) {
+                throw new RuntimeException("Generating terrain tile " + tile.gridX + ", " + tile.gridZ + " failed!",
+                        tile.failure);
+            }
+            long generationTime = tile.generatedTime - tile.requestTime;
+            totalGenerationTime += generationTime;
+            longestGenerationTime = Math.max(longestGenerationTime, generationTime);
+            if (!isInRing(tile)) {
+                tiles.remove(getKey(tile.gridX, tile.gridZ));
+                discardedCount++;
+                continue;
+            }
+            makeRoom(Terrain.getHeightMapBytes());
+            uploader.upload(tile.terrain);
+            tile.state = RESIDENT;
+            residentBytes += Terrain.getHeightMapBytes();
+            residentCount++;
+            uploadCount++;
+            lastFrameUploads++;
+            totalTimeUntilResident += System.nanoTime() - tile.requestTime;
+        }
+    }
+
+    /**
+     * This method evicts the least recently wanted tiles outside the ring until the given number of
+     * bytes fits in the budget. Iterating doesn't count as access, so it doesn't change the order.
+     * The budget is checked to hold the whole ring, so there is always room for a ring tile.
+     */
+    private void makeRoom(long bytes) {
+        Iterator<Tile> iterator = tiles.values().iterator();
+        while (residentBytes + bytes > memoryBudget && iterator.hasNext()) {
+            Tile tile = iterator.next();
+            if (tile.state == RESIDENT && !isInRing(tile)) {
+                uploader.unload(tile.terrain);
+                iterator.remove();
+                residentBytes -= Terrain.getHeightMapBytes();
+                residentCount--;
+                evictionCount++;
+            }
+        }
+    }
+
+    private boolean isInRing(Tile tile) {
+        return Math.abs(tile.gridX - centreX) <= ringRadius && Math.abs(tile.gridZ - centreZ) <= ringRadius;
+    }
+
+    private static long getKey(int gridX, int gridZ) {
+        return ((long) gridX << 32) | (gridZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * This method stops the workers and unloads every resident tile.
+     */
+    public void cleanUp() {
+        workers.shutdownNow();
+        for (Tile tile : tiles.values()) {
+            if (tile.state == RESIDENT) {
+                uploader.unload(tile.terrain);
+            }
+        }
+        tiles.clear();
+        terrains.clear();
+        lookup.reset(0, 0, 0, 0);
+        residentBytes = 0;
+        residentCount = 0;
+    }
+
+    /**
+     * This method returns the tiles to draw this frame, nearest first. The list is reused, and
+     * only changes in update().
+     */
+    public List<Terrain> getTerrains() {
+        return terrains;
+    }
+
+    /**
+     * This method returns a lookup of the drawn tiles, for asking the height of the ground. It
+     * only changes in update().
+     */
+    public TerrainLookup getLookup() {
+        return lookup;
+    }
+
+    /**
+     * GETTERS for the statistics.
+     */
+    public int getResidentCount() {
+        return residentCount;
+    }
+
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public int getPendingCount() {
+        return pendingCount;
+    }
+
+    public int getUploadCount() {
+        return uploadCount;
+    }
+
+    public int getLastFrameUploads() {
+        return lastFrameUploads;
+    }
+
+    public int getEvictionCount() {
+        return evictionCount;
+    }
+
+    public int getDiscardedCount() {
+        return discardedCount;
+    }
+
+    /**
+     * Returns the average time from asking for a tile to a worker finishing it, in milliseconds.
+     */
+    public float getAverageGenerationTime() {
+        int finished = uploadCount + discardedCount;
+        return finished == 0 ? 0 : totalGenerationTime / 1000000f / finished;
+    }
+
+    public float getLongestGenerationTime() {
+        return longestGenerationTime / 1000000f;
+    }
+
+    /**
+     * Returns the average time from asking for a tile to it being uploaded, in milliseconds.
+     */
+    public float getAverageTimeUntilResident() {
+        return uploadCount == 0 ? 0 : totalTimeUntilResident / 1000000f / uploadCount;
+    }
+
+    public String getReport() {
+        return String.format("Terrain tiles: %d resident (%.2f of %.2f MB), %d pending, %d uploaded, %d evicted, "
+                        + "%d discarded. Generation took %.2f ms on average and %.2f ms at most, and %.2f ms until "
+                        + "uploaded.", residentCount, residentBytes / 1048576.0, memoryBudget / 1048576.0,
+                pendingCount, uploadCount, evictionCount, discardedCount, getAverageGenerationTime(),
+                getLongestGenerationTime(), getAverageTimeUntilResident());
+    }
+
+    /**
+     * This class is one tile and where it is up to. The worker sets the terrain, the failure and the
+     * generated time before handing the tile over through the queue, which makes them visible.
+     */
+    private static class Tile {
+
+        private final int gridX;
+        private final int gridZ;
+        private final long requestTime = System.nanoTime();
+        private int state = GENERATING;
+        private Terrain terrain;
+        private RuntimeException failure;
+        private long generatedTime;
+
+        private Tile(int gridX, int gridZ) {
+            this.gridX = gridX;
+            this.gridZ = gridZ;
+        }
+    }
+}
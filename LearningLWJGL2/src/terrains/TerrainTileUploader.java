@@ -0,0 +1,19 @@
+package terrains;
+
+/**
+ * This interface moves streamed terrain tiles into and out of video memory for the TerrainTileManager.
+ * The real game uses GLTerrainTileUploader. Because the manager only ever talks to this
+ * interface, a stub implementation can be used to run it without an OpenGL context.
+ */
+public interface TerrainTileUploader {
+
+    /**
+     * This method uploads a tile that has been generated, so it can be drawn.
+     */
+    void upload(Terrain terrain);
+
+    /**
+     * This method frees the video memory of a tile that is being evicted.
+     */
+    void unload(Terrain terrain);
+}
@@ -0,0 +1,176 @@
+package toolbox;
+
+import org.lwjgl.util.vector.Matrix4f;
+
+import java.nio.FloatBuffer;
+
+/**
+ * This class works on many matrices at once, packed one after the other in float arrays, 16
+ * floats each in the column major order OpenGL expects, instead of one Matrix4f object each.
+ * It is for per instance data: building the model matrices of thousands of instances, multiplying
+ * the view projection matrix into them, moving their bounding spheres into world space, and
+ * writing the results straight into the buffer that gets uploaded.
+ *
+ * Every method takes the index of the first float to read and to write and a count, so a batch
+ * can be split into ranges and the ranges done on different threads. The loops keep the matrix
+ * that is the same for the whole batch in locals, so the JIT can keep it in registers. The
+ * methods on arrays don't create any objects, and the ones writing into a buffer only create a
+ * small block array and a view of the buffer per call. This class does not use OpenGL.
+ */
+public class BatchMaths {
+
+    public static final int MATRIX_FLOATS = 16;
+    // A packed instance is x, y, z, rotX, rotY, rotZ, scale, like in StaticBatchBuilder.
+    public static final int INSTANCE_FLOATS = 7;
+    // A sphere is x, y, z, radius.
+    public static final int SPHERE_FLOATS = 4;
+    // The first three rows of an affine matrix, which is all of it that has to be uploaded.
+    public static final int ROWS_FLOATS = 12;
+    // How many matrices the methods that write into a buffer work out before each write.
+    private static final int BLOCK_SIZE = 64;
+
+    /**
+     * This method builds the transformation matrices of 'count' packed instances, the same as
+     * Maths.createTransformationMatrix, and writes them one after the other into dest.
+     */
+    public static void compose(float[] instances, int instanceOffset, int count, float[] dest, int destOffset) {
+        for (int n = 0; n < count; n++) {
+            int i = instanceOffset + n * INSTANCE_FLOATS;
+            Maths.storeTransformationMatrix(instances[i], instances[i + 1], instances[i + 2], instances[i + 3],
+                    instances[i + 4], instances[i + 5], instances[i + 6], dest, destOffset + n * MATRIX_FLOATS);
+        }
+    }
+
+    /**
+     * This method is compose() for instances kept in an array per field, such as the pages of an
+     * EntityStore, from index 'from' up to from + count.
+     */
+    public static void compose(float[] x, float[] y, float[] z, float[] rotX, float[] rotY, float[] rotZ,
+                               float[] scale, int from, int count, float[] dest, int destOffset) {
+        for (int n = 0; n < count; n++) {
+            int i = from + n;
+            Maths.storeTransformationMatrix(x[i], y[i], z[i], rotX[i], rotY[i], rotZ[i], scale[i], dest,
+                    destOffset + n * MATRIX_FLOATS);
+        }
+    }
+
+    /**
+     * This method multiplies 'left' into 'count' packed matrices, left * matrix, and writes the
+     * results one after the other into dest. dest may be the same array, at the same offset.
+     */
+    public static void multiply(Matrix4f left, float[] src, int srcOffset, int count, float[] dest, int destOffset) {
+        float l00 = left.m00, l01 = left.m01, l02 = left.m02, l03 = left.m03;
+        float l10 = left.m10, l11 = left.m11, l12 = left.m12, l13 = left.m13;
+        float l20 = left.m20, l21 = left.m21, l22 = left.m22, l23 = left.m23;
+        float l30 = left.m30, l31 = left.m31, l32 = left.m32, l33 = left.m33;
+        for (int n = 0; n < count; n++) {
+            int s = srcOffset + n * MATRIX_FLOATS;
+            int d = destOffset + n * MATRIX_FLOATS;
+            // A column at a time: each column of the result is left times that column.
+            for (int c = 0; c < 16; c += 4) {
+                float x = src[s + c], y = src[s + c + 1], z = src[s + c + 2], w = src[s + c + 3];
+                dest[d + c] = l00 * x + l10 * y + l20 * z + l30 * w;
+                dest[d + c + 1] = l01 * x + l11 * y + l21 * z + l31 * w;
+                dest[d + c + 2] = l02 * x + l12 * y + l22 * z + l32 * w;
+                dest[d + c + 3] = l03 * x + l13 * y + l23 * z + l33 * w;
+            }
+        }
+    }
+
+    /**
+     * This method is multiply() writing into a buffer, starting at the given index, without moving
+     * the buffer's position, so several threads can write different parts of one buffer. The
+     * results are worked out a block at a time into an array and each block is written with one
+     * bulk put, which is about twice as fast as putting the floats one by one.
+     */
+    public static void multiply(Matrix4f left, float[] src, int srcOffset, int count, FloatBuffer dest,
+                                int destOffset) {
+        float[] block = new float[Math.min(count, BLOCK_SIZE) * MATRIX_FLOATS];
+        FloatBuffer target = dest.duplicate();
+        for (int start = 0; start < count; start += BLOCK_SIZE) {
+            int blockCount = Math.min(BLOCK_SIZE, count - start);
+            multiply(left, src, srcOffset + start * MATRIX_FLOATS, blockCount, block, 0);
+            target.position(destOffset + start * MATRIX_FLOATS);
+            target.put(block, 0, blockCount * MATRIX_FLOATS);
+        }
+    }
+
+    /**
+     * This method moves 'count' packed spheres by the packed affine matrices with the same index.
+     * The centres are transformed, and the radii are multiplied by the largest scale of the
+     * matrix, so the new spheres hold everything the old ones did.
+     */
+    public static void transformSpheres(float[] matrices, int matrixOffset, float[] spheres, int sphereOffset,
+                                        int count, float[] dest, int destOffset) {
+        for (int n = 0; n < count; n++) {
+            int m = matrixOffset + n * MATRIX_FLOATS;
+            int s = sphereOffset + n * SPHERE_FLOATS;
+            int d = destOffset + n * SPHERE_FLOATS;
+            float x = spheres[s], y = spheres[s + 1], z = spheres[s + 2], radius = spheres[s + 3];
+            float m00 = matrices[m], m01 = matrices[m + 1], m02 = matrices[m + 2];
+            float m10 = matrices[m + 4], m11 = matrices[m + 5], m12 = matrices[m + 6];
+            float m20 = matrices[m + 8], m21 = matrices[m + 9], m22 = matrices[m + 10];
+            float scaleX = m00 * m00 + m01 * m01 + m02 * m02;
+            float scaleY = m10 * m10 + m11 * m11 + m12 * m12;
+            float scaleZ = m20 * m20 + m21 * m21 + m22 * m22;
+            float scale = (float) Math.sqrt(Math.max(scaleX, Math.max(scaleY, scaleZ)));
+            dest[d] = m00 * x + m10 * y + m20 * z + matrices[m + 12];
+            dest[d + 1] = m01 * x + m11 * y + m21 * z + matrices[m + 13];
+            dest[d + 2] = m02 * x + m12 * y + m22 * z + matrices[m + 14];
+            dest[d + 3] = radius * scale;
+        }
+    }
+
+    /**
+     * This method transposes 'count' packed matrices into dest, for code that wants them row by
+     * row. dest must not overlap src.
+     */
+    public static void transpose(float[] src, int srcOffset, int count, float[] dest, int destOffset) {
+        for (int n = 0; n < count; n++) {
+            int s = srcOffset + n * MATRIX_FLOATS;
+            int d = destOffset + n * MATRIX_FLOATS;
+            for (int row = 0; row < 4; row++) {
+                for (int column = 0; column < 4; column++) {
+                    dest[d + row * 4 + column] = src[s + column * 4 + row];
+                }
+            }
+        }
+    }
+
+    /**
+     * This method writes 'count' packed matrices into a buffer as they are, 16 floats each,
+     * starting at the given index and without moving the buffer's position.
+     */
+    public static void storeColumns(float[] src, int srcOffset, int count, FloatBuffer dest, int destOffset) {
+        FloatBuffer target = dest.duplicate();
+        target.position(destOffset);
+        target.put(src, srcOffset, count * MATRIX_FLOATS);
+    }
+
+    /**
+     * This method writes the first three rows of 'count' packed affine matrices into a buffer, 12
+     * floats each, starting at the given index and without moving the buffer's position. The
+     * last row of an affine matrix is always 0, 0, 0, 1, so leaving it out uploads a quarter less,
+     * and a shader gets the matrix back from three vec4 attributes as transpose(mat4(r0, r1, r2,
+     * vec4(0, 0, 0, 1))).
+     */
+    public static void storeRows(float[] src, int srcOffset, int count, FloatBuffer dest, int destOffset) {
+        float[] block = new float[Math.min(count, BLOCK_SIZE) * ROWS_FLOATS];
+        FloatBuffer target = dest.duplicate();
+        for (int start = 0; start < count; start += BLOCK_SIZE) {
+            int blockCount = Math.min(BLOCK_SIZE, count - start);
+            for (int n = 0; n < blockCount; n++) {
+                int s = srcOffset + (start + n) * MATRIX_FLOATS;
+                int d = n * ROWS_FLOATS;
+                for (int row = 0; row < 3; row++) {
+                    block[d + row * 4] = src[s + row];
+                    block[d + row * 4 + 1] = src[s + 4 + row];
+                    block[d + row * 4 + 2] = src[s + 8 + row];
+                    block[d + row * 4 + 3] = src[s + 12 + row];
+                }
+            }
+            target.position(destOffset + start * ROWS_FLOATS);
+            target.put(block, 0, blockCount * ROWS_FLOATS);
+        }
+    }
+}
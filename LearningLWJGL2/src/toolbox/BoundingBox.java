@@ -0,0 +1,94 @@
+package toolbox;
+
+/**
+ * This class is an axis aligned bounding box in world space.
+ * It is stored as a minimum and maximum corner and is used for culling.
+ * A new box is empty, and grows as points are added to it.
+ */
+public class BoundingBox {
+
+    private float minX, minY, minZ;
+    private float maxX, maxY, maxZ;
+
+    public BoundingBox() {
+        reset();
+    }
+
+    /**
+     * This method empties the box so that the next added point becomes both corners.
+     */
+    public void reset() {
+        minX = minY = minZ = Float.POSITIVE_INFINITY;
+        maxX = maxY = maxZ = Float.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * This method grows the box so that it contains the given point.
+     */
+    public void include(float x, float y, float z) {
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        minZ = Math.min(minZ, z);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+        maxZ = Math.max(maxZ, z);
+    }
+
+    /**
+     * This method grows the box so that it contains the other box.
+     */
+    public void include(BoundingBox other) {
+        if (other.isEmpty()) {
+            return;
+        }
+        include(other.minX, other.minY, other.minZ);
+        include(other.maxX, other.maxY, other.maxZ);
+    }
+
+    public boolean isEmpty() {
+        return minX > maxX;
+    }
+
+    /**
+     * This method returns the squared distance from a point to the closest point of the box.
+     * It is 0 if the point is inside the box.
+     */
+    public float distanceSquared(float x, float y, float z) {
+        float dx = Math.max(Math.max(minX - x, 0), x - maxX);
+        float dy = Math.max(Math.max(minY - y, 0), y - maxY);
+        float dz = Math.max(Math.max(minZ - z, 0), z - maxZ);
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * GETTERS
+     */
+    public float getMinX() {
+        return minX;
+    }
+
+    public float getMinY() {
+        return minY;
+    }
+
+    public float getMinZ() {
+        return minZ;
+    }
+
+    public float getMaxX() {
+        return maxX;
+    }
+
+    public float getMaxY() {
+        return maxY;
+    }
+
+    public float getMaxZ() {
+        return maxZ;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + minX + ", " + minY + ", " + minZ + "] -> [" + maxX + ", " + maxY + ", " + maxZ + "]";
+    }
+}
@@ -0,0 +1,91 @@
+package toolbox;
+
+import org.lwjgl.util.vector.Matrix4f;
+
+/**
+ * This class is the view frustum: the six planes (left, right, bottom, top, near, far)
+ * around everything the camera can see. The planes are taken straight out of the
+ * projection * view matrix, and each one faces into the frustum.
+ */
+public class Frustum {
+
+    // Every plane is stored as a, b, c, d with ax + by + cz + d being the signed distance.
+    private final float[] planes = new float[6 * 4];
+    private final Matrix4f viewProjection = new Matrix4f();
+
+    /**
+     * This method updates the planes for the given projection and view matrices.
+     */
+    public void update(Matrix4f projectionMatrix, Matrix4f viewMatrix) {
+        Matrix4f m = Maths.mulProjectionView(projectionMatrix, viewMatrix, viewProjection);
+        // Each plane is the fourth row of the matrix plus or minus one of the others.
+        setPlane(0, m.m03 + m.m00, m.m13 + m.m10, m.m23 + m.m20, m.m33 + m.m30);
+        setPlane(1, m.m03 - m.m00, m.m13 - m.m10, m.m23 - m.m20, m.m33 - m.m30);
+        setPlane(2, m.m03 + m.m01, m.m13 + m.m11, m.m23 + m.m21, m.m33 + m.m31);
+        setPlane(3, m.m03 - m.m01, m.m13 - m.m11, m.m23 - m.m21, m.m33 - m.m31);
+        setPlane(4, m.m03 + m.m02, m.m13 + m.m12, m.m23 + m.m22, m.m33 + m.m32);
+        setPlane(5, m.m03 - m.m02, m.m13 - m.m12, m.m23 - m.m22, m.m33 - m.m32);
+    }
+
+    /**
+     * This method returns how far the box is outside the frustum.
+     * It is positive if the whole box is behind at least one plane, and 0 or negative otherwise.
+     */
+    public float distanceOutside(BoundingBox box) {
+        float outside = Float.NEGATIVE_INFINITY;
+        for (int p = 0; p < 24; p += 4) {
+            // The corner of the box furthest along the plane's normal.
+            float distance = planes[p] * (planes[p] > 0 ? box.getMaxX() : box.getMinX())
+                    + planes[p + 1] * (planes[p + 1] > 0 ? box.getMaxY() : box.getMinY())
+                    + planes[p + 2] * (planes[p + 2] > 0 ? box.getMaxZ() : box.getMinZ())
+                    + planes[p + 3];
+            outside = Math.max(outside, -distance);
+        }
+        return outside;
+    }
+
+    /**
+     * This method returns how far the box is inside the frustum.
+     * It is positive if the whole box is in front of every plane, and 0 or negative otherwise.
+     */
+    public float distanceInside(BoundingBox box) {
+        float inside = Float.POSITIVE_INFINITY;
+        for (int p = 0; p < 24; p += 4) {
+            // The corner of the box furthest against the plane's normal.
+            float distance = planes[p] * (planes[p] > 0 ? box.getMinX() : box.getMaxX())
+                    + planes[p + 1] * (planes[p + 1] > 0 ? box.getMinY() : box.getMaxY())
+                    + planes[p + 2] * (planes[p + 2] > 0 ? box.getMinZ() : box.getMaxZ())
+                    + planes[p + 3];
+            inside = Math.min(inside, distance);
+        }
+        return inside;
+    }
+
+    /**
+     * This method returns true if any part of the box might be inside the frustum.
+     */
+    public boolean isVisible(BoundingBox box) {
+        return distanceOutside(box) <= 0;
+    }
+
+    /**
+     * This method returns true if any part of the sphere might be inside the frustum.
+     */
+    public boolean isVisible(float x, float y, float z, float radius) {
+        for (int p = 0; p < 24; p += 4) {
+            if (planes[p] * x + planes[p + 1] * y + planes[p + 2] * z + planes[p + 3] < -radius) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void setPlane(int index, float a, float b, float c, float d) {
+        // Normalising the plane makes the distances real world units.
+        float length = (float) Math.sqrt(a * a + b * b + c * c);
+        planes[index * 4] = a / length;
+        planes[index * 4 + 1] = b / length;
+        planes[index * 4 + 2] = c / length;
+        planes[index * 4 + 3] = d / length;
+    }
+}
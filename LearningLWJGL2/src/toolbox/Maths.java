@@ -5,6 +5,8 @@ import org.lwjgl.util.vector.Matrix;
 import org.lwjgl.util.vector.Matrix4f;
 import org.lwjgl.util.vector.Vector3f;
 
+import java.nio.FloatBuffer;
+
 public class Maths {
 
     /**
@@ -25,6 +27,170 @@ public class Maths {
         return matrix;
     }
 
+    /**
+     * This method works out the same matrix as createTransformationMatrix, but writes it into
+     * dest and returns it instead of creating a new one. The rotations are multiplied out by hand,
+     * so each sin and cos is worked out once, and no objects are created.
+     */
+    public static Matrix4f createTransformationMatrix(Vector3f translation, float rx, float ry, float rz,
+                                                      float scale, Matrix4f dest) {
+        return createTransformationMatrix(translation.x, translation.y, translation.z, rx, ry, rz, scale, dest);
+    }
+
+    /**
+     * This method is createTransformationMatrix(Vector3f, float, float, float, float, Matrix4f)
+     * with the translation passed as three floats.
+     */
+    public static Matrix4f createTransformationMatrix(float x, float y, float z, float rx, float ry, float rz,
+                                                      float scale, Matrix4f dest) {
+        // Most entities only turn around y, so the sin and cos of 0 are skipped.
+        float sx = rx == 0 ? 0 : (float) Math.sin(Math.toRadians(rx));
+        float cx = rx == 0 ? 1 : (float) Math.cos(Math.toRadians(rx));
+        float sy = ry == 0 ? 0 : (float) Math.sin(Math.toRadians(ry));
+        float cy = ry == 0 ? 1 : (float) Math.cos(Math.toRadians(ry));
+        float sz = rz == 0 ? 0 : (float) Math.sin(Math.toRadians(rz));
+        float cz = rz == 0 ? 1 : (float) Math.cos(Math.toRadians(rz));
+        // The rotation is Rx * Ry * Rz; every column is then multiplied by the scale.
+        dest.m00 = cy * cz * scale;
+        dest.m01 = (sx * sy * cz + cx * sz) * scale;
+        dest.m02 = (-cx * sy * cz + sx * sz) * scale;
+        dest.m03 = 0;
+        dest.m10 = -cy * sz * scale;
+        dest.m11 = (-sx * sy * sz + cx * cz) * scale;
+        dest.m12 = (cx * sy * sz + sx * cz) * scale;
+        dest.m13 = 0;
+        dest.m20 = sy * scale;
+        dest.m21 = -sx * cy * scale;
+        dest.m22 = cx * cy * scale;
+        dest.m23 = 0;
+        dest.m30 = x;
+        dest.m31 = y;
+        dest.m32 = z;
+        dest.m33 = 1;
+        return dest;
+    }
+
+    /**
+     * This method writes the same matrix as createTransformationMatrix into a buffer, starting at
+     * the given index, in the column major order OpenGL expects. It works the matrix out directly
+     * instead of multiplying matrices together, and it doesn't create any objects, so it is
+     * safe to call from several threads writing different parts of one buffer.
+     */
+    public static void storeTransformationMatrix(Vector3f translation, float rx, float ry, float rz,
+                                                 float scale, FloatBuffer dest, int offset) {
+        // Most entities only turn around y, so the sin and cos of 0 are skipped.
+        float sx = rx == 0 ? 0 : (float) Math.sin(Math.toRadians(rx));
+        float cx = rx == 0 ? 1 : (float) Math.cos(Math.toRadians(rx));
+        float sy = ry == 0 ? 0 : (float) Math.sin(Math.toRadians(ry));
+        float cy = ry == 0 ? 1 : (float) Math.cos(Math.toRadians(ry));
+        float sz = rz == 0 ? 0 : (float) Math.sin(Math.toRadians(rz));
+        float cz = rz == 0 ? 1 : (float) Math.cos(Math.toRadians(rz));
+        // The rotation is Rx * Ry * Rz; every column is then multiplied by the scale.
+        dest.put(offset, cy * cz * scale);
+        dest.put(offset + 1, (sx * sy * cz + cx * sz) * scale);
+        dest.put(offset + 2, (-cx * sy * cz + sx * sz) * scale);
+        dest.put(offset + 3, 0);
+        dest.put(offset + 4, -cy * sz * scale);
+        dest.put(offset + 5, (-sx * sy * sz + cx * cz) * scale);
+        dest.put(offset + 6, (cx * sy * sz + sx * cz) * scale);
+        dest.put(offset + 7, 0);
+        dest.put(offset + 8, sy * scale);
+        dest.put(offset + 9, -sx * cy * scale);
+        dest.put(offset + 10, cx * cy * scale);
+        dest.put(offset + 11, 0);
+        dest.put(offset + 12, translation.x);
+        dest.put(offset + 13, translation.y);
+        dest.put(offset + 14, translation.z);
+        dest.put(offset + 15, 1);
+    }
+
+    /**
+     * This method writes the same matrix as createTransformationMatrix into an array, starting at
+     * the given index, in column major order.
+     */
+    public static void storeTransformationMatrix(Vector3f translation, float rx, float ry, float rz,
+                                                 float scale, float[] dest, int offset) {
+        storeTransformationMatrix(translation.x, translation.y, translation.z, rx, ry, rz, scale, dest, offset);
+    }
+
+    /**
+     * This method is storeTransformationMatrix(Vector3f, float, float, float, float, float[], int)
+     * with the translation passed as three floats.
+     */
+    public static void storeTransformationMatrix(float x, float y, float z, float rx, float ry, float rz,
+                                                 float scale, float[] dest, int offset) {
+        float sx = rx == 0 ? 0 : (float) Math.sin(Math.toRadians(rx));
+        float cx = rx == 0 ? 1 : (float) Math.cos(Math.toRadians(rx));
+        float sy = ry == 0 ? 0 : (float) Math.sin(Math.toRadians(ry));
+        float cy = ry == 0 ? 1 : (float) Math.cos(Math.toRadians(ry));
+        float sz = rz == 0 ? 0 : (float) Math.sin(Math.toRadians(rz));
+        float cz = rz == 0 ? 1 : (float) Math.cos(Math.toRadians(rz));
+        dest[offset] = cy * cz * scale;
+        dest[offset + 1] = (sx * sy * cz + cx * sz) * scale;
+        dest[offset + 2] = (-cx * sy * cz + sx * sz) * scale;
+        dest[offset + 3] = 0;
+        dest[offset + 4] = -cy * sz * scale;
+        dest[offset + 5] = (-sx * sy * sz + cx * cz) * scale;
+        dest[offset + 6] = (cx * sy * sz + sx * cz) * scale;
+        dest[offset + 7] = 0;
+        dest[offset + 8] = sy * scale;
+        dest[offset + 9] = -sx * cy * scale;
+        dest[offset + 10] = cx * cy * scale;
+        dest[offset + 11] = 0;
+        dest[offset + 12] = x;
+        dest[offset + 13] = y;
+        dest[offset + 14] = z;
+        dest[offset + 15] = 1;
+    }
+
+    /**
+     * This method copies a matrix stored in column major order in an array, starting at the given
+     * index, into dest and returns it.
+     */
+    public static Matrix4f loadMatrix(float[] src, int offset, Matrix4f dest) {
+        dest.m00 = src[offset];
+        dest.m01 = src[offset + 1];
+        dest.m02 = src[offset + 2];
+        dest.m03 = src[offset + 3];
+        dest.m10 = src[offset + 4];
+        dest.m11 = src[offset + 5];
+        dest.m12 = src[offset + 6];
+        dest.m13 = src[offset + 7];
+        dest.m20 = src[offset + 8];
+        dest.m21 = src[offset + 9];
+        dest.m22 = src[offset + 10];
+        dest.m23 = src[offset + 11];
+        dest.m30 = src[offset + 12];
+        dest.m31 = src[offset + 13];
+        dest.m32 = src[offset + 14];
+        dest.m33 = src[offset + 15];
+        return dest;
+    }
+
+    /**
+     * This method writes a matrix into a buffer, starting at the given index, in the column major
+     * order OpenGL expects. Unlike Matrix4f.store() it doesn't move the buffer's position, so
+     * several threads can write different parts of one buffer.
+     */
+    public static void storeMatrix(Matrix4f matrix, FloatBuffer dest, int offset) {
+        dest.put(offset, matrix.m00);
+        dest.put(offset + 1, matrix.m01);
+        dest.put(offset + 2, matrix.m02);
+        dest.put(offset + 3, matrix.m03);
+        dest.put(offset + 4, matrix.m10);
+        dest.put(offset + 5, matrix.m11);
+        dest.put(offset + 6, matrix.m12);
+        dest.put(offset + 7, matrix.m13);
+        dest.put(offset + 8, matrix.m20);
+        dest.put(offset + 9, matrix.m21);
+        dest.put(offset + 10, matrix.m22);
+        dest.put(offset + 11, matrix.m23);
+        dest.put(offset + 12, matrix.m30);
+        dest.put(offset + 13, matrix.m31);
+        dest.put(offset + 14, matrix.m32);
+        dest.put(offset + 15, matrix.m33);
+    }
+
     /**
      * This method creates a new matrix for the view.
      * The matrix values are based on the values stored in the camera.
@@ -40,4 +206,151 @@ public class Maths {
         Matrix4f.translate(negativeCameraPos, viewMatrix, viewMatrix);
         return viewMatrix;
     }
+
+    /**
+     * This method works out the same matrix as createViewMatrix, but writes it into dest and
+     * returns it instead of creating a new one. The view is Rx(pitch) * Ry(yaw) * T(-position),
+     * multiplied out by hand.
+     */
+    public static Matrix4f createViewMatrix(Camera camera, Matrix4f dest) {
+        double pitch = Math.toRadians(camera.getPitch());
+        double yaw = Math.toRadians(camera.getYaw());
+        float sx = (float) Math.sin(pitch);
+        float cx = (float) Math.cos(pitch);
+        float sy = (float) Math.sin(yaw);
+        float cy = (float) Math.cos(yaw);
+        Vector3f position = camera.getPosition();
+        float px = position.x;
+        float py = position.y;
+        float pz = position.z;
+        dest.m00 = cy;
+        dest.m01 = sx * sy;
+        dest.m02 = -cx * sy;
+        dest.m03 = 0;
+        dest.m10 = 0;
+        dest.m11 = cx;
+        dest.m12 = sx;
+        dest.m13 = 0;
+        dest.m20 = sy;
+        dest.m21 = -sx * cy;
+        dest.m22 = cx * cy;
+        dest.m23 = 0;
+        // The translation is the rotation applied to the negative camera position.
+        dest.m30 = -(cy * px + sy * pz);
+        dest.m31 = -(sx * sy * px + cx * py - sx * cy * pz);
+        dest.m32 = -(-cx * sy * px + sx * py + cx * cy * pz);
+        dest.m33 = 1;
+        return dest;
+    }
+
+    /**
+     * This method works out view * model for an entity straight from its position, rotation and
+     * scale, without building the model matrix first, and writes it into dest. The view must be
+     * affine (its last row 0, 0, 0, 1), which every view matrix is. dest may be the view matrix.
+     */
+    public static Matrix4f createModelViewMatrix(Matrix4f view, Vector3f translation, float rx, float ry,
+                                                 float rz, float scale, Matrix4f dest) {
+        float sx = rx == 0 ? 0 : (float) Math.sin(Math.toRadians(rx));
+        float cx = rx == 0 ? 1 : (float) Math.cos(Math.toRadians(rx));
+        float sy = ry == 0 ? 0 : (float) Math.sin(Math.toRadians(ry));
+        float cy = ry == 0 ? 1 : (float) Math.cos(Math.toRadians(ry));
+        float sz = rz == 0 ? 0 : (float) Math.sin(Math.toRadians(rz));
+        float cz = rz == 0 ? 1 : (float) Math.cos(Math.toRadians(rz));
+        // The model's rotation and scale, as in createTransformationMatrix.
+        float a00 = cy * cz * scale;
+        float a01 = (sx * sy * cz + cx * sz) * scale;
+        float a02 = (-cx * sy * cz + sx * sz) * scale;
+        float a10 = -cy * sz * scale;
+        float a11 = (-sx * sy * sz + cx * cz) * scale;
+        float a12 = (cx * sy * sz + sx * cz) * scale;
+        float a20 = sy * scale;
+        float a21 = -sx * cy * scale;
+        float a22 = cx * cy * scale;
+        return mulAffine(view, a00, a01, a02, a10, a11, a12, a20, a21, a22,
+                translation.x, translation.y, translation.z, dest);
+    }
+
+    /**
+     * This method multiplies two affine matrices (last row 0, 0, 0, 1), such as a view and a model
+     * matrix, into dest, skipping the 28 multiplications Matrix4f.mul spends on the last rows. dest
+     * may be either of them.
+     */
+    public static Matrix4f mulAffine(Matrix4f left, Matrix4f right, Matrix4f dest) {
+        return mulAffine(left, right.m00, right.m01, right.m02, right.m10, right.m11, right.m12,
+                right.m20, right.m21, right.m22, right.m30, right.m31, right.m32, dest);
+    }
+
+    /**
+     * This method multiplies an affine matrix by the affine matrix with the given first three rows,
+     * column by column, into dest.
+     */
+    private static Matrix4f mulAffine(Matrix4f left, float r00, float r01, float r02, float r10, float r11,
+                                      float r12, float r20, float r21, float r22, float r30, float r31,
+                                      float r32, Matrix4f dest) {
+        float l00 = left.m00, l01 = left.m01, l02 = left.m02;
+        float l10 = left.m10, l11 = left.m11, l12 = left.m12;
+        float l20 = left.m20, l21 = left.m21, l22 = left.m22;
+        float l30 = left.m30, l31 = left.m31, l32 = left.m32;
+        dest.m00 = l00 * r00 + l10 * r01 + l20 * r02;
+        dest.m01 = l01 * r00 + l11 * r01 + l21 * r02;
+        dest.m02 = l02 * r00 + l12 * r01 + l22 * r02;
+        dest.m03 = 0;
+        dest.m10 = l00 * r10 + l10 * r11 + l20 * r12;
+        dest.m11 = l01 * r10 + l11 * r11 + l21 * r12;
+        dest.m12 = l02 * r10 + l12 * r11 + l22 * r12;
+        dest.m13 = 0;
+        dest.m20 = l00 * r20 + l10 * r21 + l20 * r22;
+        dest.m21 = l01 * r20 + l11 * r21 + l21 * r22;
+        dest.m22 = l02 * r20 + l12 * r21 + l22 * r22;
+        dest.m23 = 0;
+        dest.m30 = l00 * r30 + l10 * r31 + l20 * r32 + l30;
+        dest.m31 = l01 * r30 + l11 * r31 + l21 * r32 + l31;
+        dest.m32 = l02 * r30 + l12 * r31 + l22 * r32 + l32;
+        dest.m33 = 1;
+        return dest;
+    }
+
+    /**
+     * This method multiplies a projection matrix by a view matrix into dest. For a symmetric
+     * perspective projection like MasterRenderer's, which only has five entries that aren't 0,
+     * and an affine view, that is 16 multiplications instead of 64; anything else is handed to
+     * Matrix4f.mul. dest may be either of them.
+     */
+    public static Matrix4f mulProjectionView(Matrix4f projection, Matrix4f view, Matrix4f dest) {
+        if (!isPerspective(projection) || view.m03 != 0 || view.m13 != 0 || view.m23 != 0 || view.m33 != 1) {
+            return Matrix4f.mul(projection, view, dest);
+        }
+        float p00 = projection.m00;
+        float p11 = projection.m11;
+        float p22 = projection.m22;
+        float p23 = projection.m23;
+        float p32 = projection.m32;
+        // Column by column: x and y are scaled, z is scaled and offset, and w is p23 times z.
+        float v02 = view.m02, v12 = view.m12, v22 = view.m22, v32 = view.m32;
+        dest.m00 = p00 * view.m00;
+        dest.m01 = p11 * view.m01;
+        dest.m02 = p22 * v02;
+        dest.m03 = p23 * v02;
+        dest.m10 = p00 * view.m10;
+        dest.m11 = p11 * view.m11;
+        dest.m12 = p22 * v12;
+        dest.m13 = p23 * v12;
+        dest.m20 = p00 * view.m20;
+        dest.m21 = p11 * view.m21;
+        dest.m22 = p22 * v22;
+        dest.m23 = p23 * v22;
+        dest.m30 = p00 * view.m30;
+        dest.m31 = p11 * view.m31;
+        dest.m32 = p22 * v32 + p32;
+        dest.m33 = p23 * v32;
+        return dest;
+    }
+
+    /**
+     * Returns whether a matrix has the shape of a symmetric perspective projection.
+     */
+    private static boolean isPerspective(Matrix4f m) {
+        return m.m01 == 0 && m.m02 == 0 && m.m03 == 0 && m.m10 == 0 && m.m12 == 0 && m.m13 == 0
+                && m.m20 == 0 && m.m21 == 0 && m.m30 == 0 && m.m31 == 0 && m.m33 == 0;
+    }
 }
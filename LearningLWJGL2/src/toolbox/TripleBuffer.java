@@ -0,0 +1,62 @@
+package toolbox;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class hands objects from one writing thread to one reading thread without locks.
+ *
+ * There are three slots. The writer always has one to fill and the reader always has one to
+ * read, and the third sits in the middle. Publishing swaps the writer's slot with the middle
+ * one, and acquiring swaps the reader's slot with the middle one if something new was put
+ * there. Both swaps are a single atomic getAndSet, so neither thread ever waits for the other,
+ * and the reader always gets the latest complete object. Objects the reader never got to are
+ * simply written over.
+ */
+public class TripleBuffer<T> {
+
+    // The middle slot's index is kept together with a flag saying it was published since the last acquire.
+    private static final int FRESH = 4;
+
+    private final Object[] slots;
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int writeIndex = 0;
+    private int readIndex = 2;
+
+    /**
+     * Constructor. Takes in the three objects to cycle through. The first one starts with the
+     * writer and the last one starts with the reader.
+     */
+    public TripleBuffer(T first, T second, T third) {
+        this.slots = new Object[]{first, second, third};
+    }
+
+    /**
+     * This method returns the object the writer should fill in next.
+     * Only the writing thread may call it.
+     */
+    @SuppressWarnings("unchecked")
+    public T getWriteSlot() {
+        return (T) slots[writeIndex];
+    }
+
+    /**
+     * This method hands the write slot over to the reader and gives the writer a new one.
+     * Only the writing thread may call it.
+     */
+    public void publish() {
+        writeIndex = middle.getAndSet(writeIndex | FRESH) & ~FRESH;
+    }
+
+    /**
+     * This method returns the latest published object, or the same one as last time if nothing
+     * new was published. The object stays the reader's until the next call.
+     * Only the reading thread may call it.
+     */
+    @SuppressWarnings("unchecked")
+    public T acquire() {
+        if ((middle.get() & FRESH) != 0) {
+            readIndex = middle.getAndSet(readIndex) & ~FRESH;
+        }
+        return (T) slots[readIndex];
+    }
+}
@@ -0,0 +1,102 @@
+package vegetation;
+
+import models.TexturedModel;
+
+/**
+ * This class says how densely one textured model is scattered over the ground, and where.
+ *
+ * Instances are placed on a jittered grid: the ground is split into square cells 'spacing' wide,
+ * and each cell gets an instance with the chance 'coverage', somewhere within the middle
+ * JITTER of the cell. That spreads them out about as evenly as Poisson disk sampling does, with
+ * instances at least (1 - JITTER) * spacing apart, but every cell can be placed on its own.
+ *
+ * By default a rule covers the whole world; setRegion() limits it to a rectangle, and
+ * setMinNormalY() keeps it off ground steeper than the given slope.
+ */
+public class ScatterRule {
+
+    // How much of a cell its instance can be placed in, centred on the cell.
+    public static final float JITTER = 0.8f;
+
+    private final TexturedModel model;
+    private final float spacing;
+    private final float coverage;
+    private final float minScale;
+    private final float maxScale;
+    private float regionMinX = Float.NEGATIVE_INFINITY;
+    private float regionMinZ = Float.NEGATIVE_INFINITY;
+    private float regionMaxX = Float.POSITIVE_INFINITY;
+    private float regionMaxZ = Float.POSITIVE_INFINITY;
+    private float minNormalY = 0;
+
+    /**
+     * Constructor. Takes in the model, which must have its model data for batching, the width
+     * of the grid cells, the chance of a cell getting an instance, and the range of the
+     * instances' scale.
+     */
+    public ScatterRule(TexturedModel model, float spacing, float coverage, float minScale, float maxScale) {
+        if (model.getModelData() == null) {
+            throw new IllegalArgumentException("Scattered models need a textured model with model data!");
+        }
+        if (spacing <= 0 || coverage < 0 || coverage > 1) {
+            throw new IllegalArgumentException("The spacing must be positive and the coverage from 0 to 1!");
+        }
+        this.model = model;
+        this.spacing = spacing;
+        this.coverage = coverage;
+        this.minScale = minScale;
+        this.maxScale = maxScale;
+    }
+
+    /**
+     * This method limits the rule to the rectangle between the given world x and z.
+     */
+    public void setRegion(float minX, float minZ, float maxX, float maxZ) {
+        this.regionMinX = minX;
+        this.regionMinZ = minZ;
+        this.regionMaxX = maxX;
+        this.regionMaxZ = maxZ;
+    }
+
+    /**
+     * This method keeps the rule off ground whose normal's y is below the given value. 1 only
+     * allows flat ground, and 0, the default, any.
+     */
+    public void setMinNormalY(float minNormalY) {
+        this.minNormalY = minNormalY;
+    }
+
+    /**
+     * Returns whether the rule allows an instance at a world x and z.
+     */
+    public boolean isInRegion(float x, float z) {
+        return x >= regionMinX && x < regionMaxX && z >= regionMinZ && z < regionMaxZ;
+    }
+
+    /**
+     * GETTERS
+     */
+    public TexturedModel getModel() {
+        return model;
+    }
+
+    public float getSpacing() {
+        return spacing;
+    }
+
+    public float getCoverage() {
+        return coverage;
+    }
+
+    public float getMinScale() {
+        return minScale;
+    }
+
+    public float getMaxScale() {
+        return maxScale;
+    }
+
+    public float getMinNormalY() {
+        return minNormalY;
+    }
+}
@@ -0,0 +1,226 @@
+package vegetation;
+
+import entities.Entity;
+import models.RawModel;
+import models.TexturedModel;
+import objConverter.ModelData;
+import org.lwjgl.util.vector.Vector3f;
+import renderEngine.Loader;
+import renderEngine.StaticBatchBuilder;
+import renderEngine.StaticLightBaker;
+import terrains.Terrain;
+import textures.ModelTexture;
+import toolbox.BoundingBox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class is the vegetation of one chunk of the world, made by the VegetationScatter.
+ *
+ * The instances of every rule are kept as packed floats (see StaticBatchBuilder.INSTANCE_FLOATS)
+ * rather than entities, 28 bytes each. They are placed by a random sequence seeded with a hash
+ * of the world seed and the chunk's position, so a chunk that is thrown away and made again
+ * comes back exactly the same.
+ *
+ * A chunk is made in three steps: scatter() and merge() don't use OpenGL and run on a worker,
+ * and upload() then loads the merged meshes on the GL thread, one per rule, and drops the merged
+ * arrays. The chunk is drawn with one static entity per merged mesh.
+ */
+public class VegetationChunk {
+
+    // The step of the random sequence, the golden ratio in 64 bits.
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final int chunkX;
+    private final int chunkZ;
+    private final float[][] instances;
+    private final int[] counts;
+    private final BoundingBox[] bounds;
+    // Made on the worker and dropped once uploaded.
+    private ModelData[] merged;
+    private float[][] lighting;
+    private final List<Entity> batchEntities = new ArrayList<Entity>();
+    private boolean uploaded = false;
+
+    VegetationChunk(int chunkX, int chunkZ, int ruleCount) {
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+        this.instances = new float[ruleCount][];
+        this.counts = new int[ruleCount];
+        this.bounds = new BoundingBox[ruleCount];
+    }
+
+    /**
+     * This method places the instances of every rule on the chunk's jittered grids, standing on
+     * the given tile, which the whole chunk must be on. Every cell uses the same amount of the
+     * random sequence whether it gets an instance or not, so the rules and the ground can only
+     * decide which cells are used, never move the instances of the others.
+     */
+    void scatter(long seed, float chunkSize, List<ScatterRule> rules, Terrain ground) {
+        float[] normal = new float[3];
+        for (int r = 0; r < rules.size(); r++) {
+            ScatterRule rule = rules.get(r);
+            int cells = Math.max(1, Math.round(chunkSize / rule.getSpacing()));
+            float cellSize = chunkSize / cells;
+            float[] packed = new float[cells * cells * StaticBatchBuilder.INSTANCE_FLOATS];
+            int count = 0;
+            long state = mix(seed ^ mix(chunkX * 0xC2B2AE3D27D4EB4FL + chunkZ) ^ mix(r + 1));
+            for (int cellZ = 0; cellZ < cells; cellZ++) {
+                for (int cellX = 0; cellX < cells; cellX++) {
+                    float chance = toUnit(state += GOLDEN_GAMMA);
+                    float jitterX = toUnit(state += GOLDEN_GAMMA);
+                    float jitterZ = toUnit(state += GOLDEN_GAMMA);
+                    float scale = toUnit(state += GOLDEN_GAMMA);
+                    float rotation = toUnit(state += GOLDEN_GAMMA);
+                    if (chance >= rule.getCoverage()) {
+                        continue;
+                    }
+                    float x = chunkX * chunkSize + (cellX + 0.5f + (jitterX - 0.5f) * ScatterRule.JITTER) * cellSize;
+                    float z = chunkZ * chunkSize + (cellZ + 0.5f + (jitterZ - 0.5f) * ScatterRule.JITTER) * cellSize;
+                    if (!rule.isInRegion(x, z)) {
+                        continue;
+                    }
+                    float y = ground.getHeightOfTerrain(x, z);
+                    if (Float.isNaN(y)) {
+                        continue;
+                    }
+                    if (rule.getMinNormalY() > 0 && (!ground.getNormalOfTerrain(x, z, normal, 0)
+                            || normal[1] < rule.getMinNormalY())) {
+                        continue;
+                    }
+                    int offset = count++ * StaticBatchBuilder.INSTANCE_FLOATS;
+                    packed[offset] = x;
+                    packed[offset + 1] = y;
+                    packed[offset + 2] = z;
+                    packed[offset + 3] = 0;
+                    packed[offset + 4] = rotation * 360;
+                    packed[offset + 5] = 0;
+                    packed[offset + 6] = rule.getMinScale() + scale * (rule.getMaxScale() - rule.getMinScale());
+                }
+            }
+            instances[r] = Arrays.copyOf(packed, count * StaticBatchBuilder.INSTANCE_FLOATS);
+            counts[r] = count;
+        }
+    }
+
+    /**
+     * This method merges the instances of every rule into one mesh, and bakes its lighting if
+     * there is a baker and the texture has no reflectivity.
+     */
+    void merge(List<ScatterRule> rules, StaticLightBaker baker) {
+        merged = new ModelData[rules.size()];
+        lighting = new float[rules.size()][];
+        for (int r = 0; r < rules.size(); r++) {
+            if (counts[r] == 0) {
+                continue;
+            }
+            TexturedModel model = rules.get(r).getModel();
+            bounds[r] = new BoundingBox();
+            merged[r] = StaticBatchBuilder.mergeInstances(model.getModelData(), instances[r], counts[r], bounds[r]);
+            ModelTexture texture = model.getTexture();
+            if (baker != null && texture.getReflectivity() == 0) {
+                lighting[r] = baker.bake(merged[r], texture.isUseFakeLighting());
+            }
+        }
+    }
+
+    /**
+     * This method loads the merged meshes and makes the entities that draw them. It must be
+     * called on the GL thread.
+     */
+    void upload(Loader loader, List<ScatterRule> rules) {
+        for (int r = 0; r < rules.size(); r++) {
+            ModelData data = merged[r];
+            if (data == null) {
+                continue;
+            }
+            RawModel model;
+            if (lighting[r] != null) {
+                model = loader.loadToVAO(data.getVertices(), data.getTextureCoords(), data.getNormals(),
+                        lighting[r], data.getIndices());
+            } else {
+                model = loader.loadToVAO(data.getVertices(), data.getTextureCoords(), data.getNormals(),
+                        data.getIndices());
+            }
+            Entity entity = new Entity(new TexturedModel(model, rules.get(r).getModel().getTexture()),
+                    new Vector3f(0, 0, 0), 0, 0, 0, 1);
+            entity.setStatic(true);
+            entity.setBounds(bounds[r]);
+            batchEntities.add(entity);
+        }
+        merged = null;
+        lighting = null;
+        uploaded = true;
+    }
+
+    /**
+     * This method deletes the merged meshes. It must be called on the GL thread.
+     */
+    void unload(Loader loader) {
+        for (Entity entity : batchEntities) {
+            loader.unloadVAO(entity.getModel().getRawModel());
+            entity.remove();
+        }
+        batchEntities.clear();
+    }
+
+    /**
+     * This method is the finalizer of the SplitMix64 generator, which spreads the bits of a
+     * number over the whole result.
+     */
+    static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+
+    /**
+     * This method turns a step of the random sequence into a float from 0 up to 1.
+     */
+    private static float toUnit(long state) {
+        return (mix(state) >>> 40) * 0x1.0p-24f;
+    }
+
+    /**
+     * GETTERS
+     */
+    public boolean isUploaded() {
+        return uploaded;
+    }
+
+    public int getChunkX() {
+        return chunkX;
+    }
+
+    public int getChunkZ() {
+        return chunkZ;
+    }
+
+    /**
+     * Returns the packed instances of a rule, INSTANCE_FLOATS floats each. The array mustn't be changed.
+     */
+    public float[] getInstances(int rule) {
+        return instances[rule];
+    }
+
+    public int getInstanceCount(int rule) {
+        return counts[rule];
+    }
+
+    public int getInstanceCount() {
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Returns the entities that draw the chunk, one per rule with any instances, once it is uploaded.
+     */
+    public List<Entity> getBatchEntities() {
+        return batchEntities;
+    }
+}
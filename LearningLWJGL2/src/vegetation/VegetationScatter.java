@@ -0,0 +1,348 @@
+package vegetation;
+
+import entities.Entity;
+import renderEngine.Loader;
+import renderEngine.StaticBatchBuilder;
+import renderEngine.StaticLightBaker;
+import terrains.Terrain;
+import terrains.TerrainLookup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class covers the ground around the camera with vegetation, made up a chunk at a time
+ * from ScatterRules, instead of keeping every plant in the world in memory as an entity.
+ *
+ * Every frame it works out the chunks within 'radius' chunks of the camera's chunk, and:
+ *  - asks for the ones it doesn't have yet, nearest first, as soon as the terrain tile under them
+ *    is there to stand the plants on. A worker thread scatters the chunk's instances (see
+ *    VegetationChunk) and merges them into one mesh per rule, like the static batches.
+ *  - uploads the finished chunks, at most a few per frame, so a burst of chunks doesn't stutter.
+ *  - unloads chunks once they are more than a chunk past the radius, so a camera going back and
+ *    forth over the edge doesn't make them again every frame. Nothing of them is kept: the
+ *    chunks are made from a hash of their position, so they come back exactly the same.
+ *
+ * The chunk size must divide the terrain tile size, so every chunk is on one tile. Everything
+ * except making the chunks happens on the thread that calls update(), which must be the GL thread.
+ */
+public class VegetationScatter {
+
+    private final long seed;
+    private final float chunkSize;
+    private final int radius;
+    private final int maxUploadsPerFrame;
+    private final List<ScatterRule> rules = new ArrayList<ScatterRule>();
+    private final ExecutorService workers;
+    private StaticLightBaker lightBaker;
+
+    // Every chunk being made or uploaded, by chunk position.
+    private final Map<Long, VegetationChunk> chunks = new HashMap<Long, VegetationChunk>();
+    private final ConcurrentLinkedQueue<Generated> generated = new ConcurrentLinkedQueue<Generated>();
+    // The x and z offsets of the chunks within the radius from the camera's chunk, nearest first.
+    private final int[][] offsets;
+    private final List<Entity> batchEntities = new ArrayList<Entity>();
+    private int centreX = 0;
+    private int centreZ = 0;
+
+    // Statistics.
+    private int residentCount = 0;
+    private int pendingCount = 0;
+    private int generatedCount = 0;
+    private int unloadCount = 0;
+    private int discardedCount = 0;
+    private long residentInstances = 0;
+    private long totalGenerationTime = 0;
+
+    /**
+     * Constructor. Takes in the seed, the size of the chunks, how many chunks out from the
+     * camera's chunk there is vegetation, how many chunks may be uploaded each frame, and how many
+     * worker threads make them.
+     */
+    public VegetationScatter(long seed, float chunkSize, int radius, int maxUploadsPerFrame, int threadCount) {
+        float chunksPerTile = Terrain.getSize() / chunkSize;
+        if (chunkSize <= 0 || chunksPerTile != Math.round(chunksPerTile)) {
+            throw new IllegalArgumentException("The chunk size must divide the terrain size " + Terrain.getSize() + "!");
+        }
+        this.seed = seed;
+        this.chunkSize = chunkSize;
+        this.radius = radius;
+        this.maxUploadsPerFrame = maxUploadsPerFrame;
+        this.offsets = createOffsets(radius);
+        this.workers = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Vegetation Scatter " + (count++));
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * This method returns the offsets of every chunk within the radius, nearest first.
+     */
+    private static int[][] createOffsets(int radius) {
+        List<int[]> offsets = new ArrayList<int[]>();
+        for (int dz = -radius; dz <= radius; dz++) {
+            for (int dx = -radius; dx <= radius; dx++) {
+                if (dx * dx + dz * dz <= radius * radius) {
+                    offsets.add(new int[]{dx, dz});
+                }
+            }
+        }
+        int[][] sorted = offsets.toArray(new int[offsets.size()][]);
+        Arrays.sort(sorted, (a, b) -> Integer.compare(a[0] * a[0] + a[1] * a[1], b[0] * b[0] + b[1] * b[1]));
+        return sorted;
+    }
+
+    /**
+     * This method adds a rule. Rules must all be added before the first update().
+     */
+    public void addRule(ScatterRule rule) {
+        if (!chunks.isEmpty()) {
+            throw new IllegalStateException("Rules can't be added once chunks have been made!");
+        }
+        rules.add(rule);
+    }
+
+    /**
+     * This method sets the baker used for the chunks made from now on, or turns baking off if null.
+     */
+    public void setLightBaker(StaticLightBaker lightBaker) {
+        this.lightBaker = lightBaker;
+    }
+
+    /**
+     * This method is called once per frame with the camera's position and the ground. It asks for
+     * new chunks, uploads finished ones and unloads far ones. It returns true if the entities to
+     * draw changed.
+     */
+    public boolean update(float cameraX, float cameraZ, TerrainLookup ground, Loader loader) {
+        centreX = (int) Math.floor(cameraX / chunkSize);
+        centreZ = (int) Math.floor(cameraZ / chunkSize);
+        requestChunks(ground);
+        boolean changed = uploadGenerated(loader);
+        changed |= unloadFarChunks(loader);
+        if (changed) {
+            batchEntities.clear();
+            for (VegetationChunk chunk : chunks.values()) {
+                batchEntities.addAll(chunk.getBatchEntities());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * This method starts making every chunk within the radius that isn't there yet and has ground under it.
+     */
+    private void requestChunks(TerrainLookup ground) {
+        for (int[] offset : offsets) {
+            int chunkX = centreX + offset[0];
+            int chunkZ = centreZ + offset[1];
+            long key = getKey(chunkX, chunkZ);
+            if (chunks.containsKey(key)) {
+                continue;
+            }
+            Terrain terrain = ground.getTerrain((chunkX + 0.5f) * chunkSize, (chunkZ + 0.5f) * chunkSize);
+            if (terrain == null) {
+                continue;
+            }
+            VegetationChunk chunk = new VegetationChunk(chunkX, chunkZ, rules.size());
+            chunks.put(key, chunk);
+            pendingCount++;
+            StaticLightBaker baker = lightBaker;
+            workers.execute(() -> generate(chunk, terrain, baker));
+        }
+    }
+
+    /**
+     * This method scatters the instances of a chunk on the given tile, exactly like the chunks
+     * this class draws, but without merging or uploading them. It doesn't use OpenGL, so it can
+     * be called from any thread, to find the plants in a chunk that isn't near the camera.
+     */
+    public VegetationChunk scatterChunk(int chunkX, int chunkZ, Terrain ground) {
+        VegetationChunk chunk = new VegetationChunk(chunkX, chunkZ, rules.size());
+        chunk.scatter(seed, chunkSize, rules, ground);
+        return chunk;
+    }
+
+    /**
+     * This method makes a chunk on a worker thread and hands it to the queue of finished chunks.
+     */
+    private void generate(VegetationChunk chunk, Terrain terrain, StaticLightBaker baker) {
+        long start = System.nanoTime();
+        RuntimeException failure = null;
+        try {
+            chunk.scatter(seed, chunkSize, rules, terrain);
+            chunk.merge(rules, baker);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        generated.add(new Generated(chunk, failure, System.nanoTime() - start));
+    }
+
+    /**
+     * This method uploads up to maxUploadsPerFrame of the finished chunks, and returns whether it did any.
+     */
+    private boolean uploadGenerated(Loader loader) {
+        int uploads = 0;
+        Generated finished;
+        while (uploads < maxUploadsPerFrame && (finished = generated.poll()) != null) {
+            pendingCount--;
+            VegetationChunk chunk = finished.chunk;
+            if (finished.failure != null) {
+                throw new RuntimeException("Scattering vegetation chunk " + chunk.getChunkX() + ", "
+                        + chunk.getChunkZ() + " failed!", finished.failure);
+            }
+            generatedCount++;
+            totalGenerationTime += finished.time;
+            if (!isNear(chunk)) {
+                chunks.remove(getKey(chunk.getChunkX(), chunk.getChunkZ()));
+                discardedCount++;
+                continue;
+            }
+            chunk.upload(loader, rules);
+            residentCount++;
+            residentInstances += chunk.getInstanceCount();
+            uploads++;
+        }
+        return uploads > 0;
+    }
+
+    /**
+     * This method unloads the uploaded chunks that are too far away, and returns whether it did any.
+     * Chunks still being made are left for uploadGenerated() to throw away.
+     */
+    private boolean unloadFarChunks(Loader loader) {
+        boolean unloaded = false;
+        Iterator<VegetationChunk> iterator = chunks.values().iterator();
+        while (iterator.hasNext()) {
+            VegetationChunk chunk = iterator.next();
+            if (!isNear(chunk) && chunk.isUploaded()) {
+                chunk.unload(loader);
+                iterator.remove();
+                residentCount--;
+                residentInstances -= chunk.getInstanceCount();
+                unloadCount++;
+                unloaded = true;
+            }
+        }
+        return unloaded;
+    }
+
+    /**
+     * Returns whether a chunk is within a chunk past the radius.
+     */
+    private boolean isNear(VegetationChunk chunk) {
+        int dx = chunk.getChunkX() - centreX;
+        int dz = chunk.getChunkZ() - centreZ;
+        return dx * dx + dz * dz <= (radius + 1) * (radius + 1);
+    }
+
+    private static long getKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * This method stops the workers and unloads every chunk.
+     */
+    public void cleanUp(Loader loader) {
+        workers.shutdownNow();
+        for (VegetationChunk chunk : chunks.values()) {
+            chunk.unload(loader);
+        }
+        chunks.clear();
+        batchEntities.clear();
+        residentCount = 0;
+        residentInstances = 0;
+    }
+
+    /**
+     * This method returns the entities that draw the vegetation, one per chunk and rule. The list
+     * is reused, and only changes in update().
+     */
+    public List<Entity> getBatchEntities() {
+        return batchEntities;
+    }
+
+    /**
+     * This method returns the uploaded chunk at a chunk position, or null if there isn't one.
+     */
+    public VegetationChunk getChunk(int chunkX, int chunkZ) {
+        VegetationChunk chunk = chunks.get(getKey(chunkX, chunkZ));
+        return chunk != null && chunk.isUploaded() ? chunk : null;
+    }
+
+    public List<ScatterRule> getRules() {
+        return rules;
+    }
+
+    /**
+     * GETTERS for the statistics.
+     */
+    public int getResidentCount() {
+        return residentCount;
+    }
+
+    public int getPendingCount() {
+        return pendingCount;
+    }
+
+    public long getResidentInstances() {
+        return residentInstances;
+    }
+
+    public int getGeneratedCount() {
+        return generatedCount;
+    }
+
+    public int getUnloadCount() {
+        return unloadCount;
+    }
+
+    public int getDiscardedCount() {
+        return discardedCount;
+    }
+
+    /**
+     * Returns the average time a worker took to make a chunk, in milliseconds.
+     */
+    public float getAverageGenerationTime() {
+        return generatedCount == 0 ? 0 : totalGenerationTime / 1000000f / generatedCount;
+    }
+
+    public String getReport() {
+        return String.format("Vegetation: %d chunks resident with %d instances (%.1f KB packed), %d pending, %d made, "
+                        + "%d unloaded, %d discarded. Making a chunk took %.2f ms on average.", residentCount,
+                residentInstances, residentInstances * StaticBatchBuilder.INSTANCE_FLOATS * 4 / 1024.0, pendingCount, generatedCount, unloadCount,
+                discardedCount, getAverageGenerationTime());
+    }
+
+    /**
+     * This class is a chunk a worker has finished, how long it took, and what went wrong if anything did.
+     */
+    private static class Generated {
+
+        private final VegetationChunk chunk;
+        private final RuntimeException failure;
+        private final long time;
+
+        private Generated(VegetationChunk chunk, RuntimeException failure, long time) {
+            this.chunk = chunk;
+            this.failure = failure;
+            this.time = time;
+        }
+    }
+}